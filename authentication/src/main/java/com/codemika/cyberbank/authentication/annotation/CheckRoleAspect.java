@@ -1,5 +1,6 @@
 package com.codemika.cyberbank.authentication.annotation;
 
+import com.codemika.cyberbank.authentication.service.TokenRevocationService;
 import com.codemika.cyberbank.authentication.util.JwtUtil;
 import io.jsonwebtoken.Claims;
 import lombok.RequiredArgsConstructor;
@@ -15,6 +16,8 @@ import org.springframework.stereotype.Component;
 import java.util.Arrays;
 
 import static com.codemika.cyberbank.authentication.constants.RoleConstants.*;
+import static com.codemika.cyberbank.authentication.util.JwtUtil.ACCESS_TOKEN_TYPE;
+import static com.codemika.cyberbank.authentication.util.JwtUtil.TOKEN_TYPE_CLAIMS_KEY;
 
 
 @Aspect
@@ -23,6 +26,7 @@ import static com.codemika.cyberbank.authentication.constants.RoleConstants.*;
 @Slf4j
 public class CheckRoleAspect {
     private final JwtUtil jwtUtil;
+    private final TokenRevocationService tokenRevocationService;
 
     /**
      * Проверка ролей
@@ -49,12 +53,31 @@ public class CheckRoleAspect {
                     .status(HttpStatus.EXPECTATION_FAILED)
                     .body("Извините, данная опция пока не работает.");
         }
-        Claims claims = jwtUtil.getClaims(token);
+        Claims claims = jwtUtil.getAccessClaims(token);
+        if (claims == null || tokenRevocationService.isRevoked(claims)) {
+            return ResponseEntity
+                    .status(HttpStatus.UNAUTHORIZED)
+                    .body("Ваш последний сеанс истёк. Пожалуйста, войдите в свой аккаунт заново!");
+        }
+        if (tokenRevocationService.hasStaleRoles(claims)) {
+            return ResponseEntity
+                    .status(HttpStatus.UNAUTHORIZED)
+                    .body("Ваши права доступа изменились. Пожалуйста, обновите токен!");
+        }
 
-        boolean isUserToken = claims.get(IS_USER_ROLE_EXIST_CLAIMS_KEY, Boolean.class);
-        boolean isModerToken = claims.get(IS_MODER_ROLE_EXIST_CLAIMS_KEY, Boolean.class);
-        boolean isTesterToken = claims.get(IS_TESTER_ROLE_EXIST_CLAIMS_KEY, Boolean.class);
-        boolean isHackerToken = claims.get(IS_HACKER_ROLE_EXIST_CLAIMS_KEY, Boolean.class);
+        // токен обновления (и любой другой не предназначенный для доступа токен) здесь не принимается
+        String tokenType = claims.get(TOKEN_TYPE_CLAIMS_KEY, String.class);
+        if (tokenType != null && !tokenType.equals(ACCESS_TOKEN_TYPE)) {
+            return ResponseEntity
+                    .status(HttpStatus.UNAUTHORIZED)
+                    .body("Неверный токен!");
+        }
+
+        int roleMask = roleMask(claims);
+        boolean isUserToken = (roleMask & USER_ROLE_BIT) != 0;
+        boolean isModerToken = (roleMask & MODER_ROLE_BIT) != 0;
+        boolean isTesterToken = (roleMask & TESTER_ROLE_BIT) != 0;
+        boolean isHackerToken = (roleMask & HACKER_ROLE_BIT) != 0;
 
         if (!isUserToken) {
             return ResponseEntity
@@ -73,6 +96,23 @@ public class CheckRoleAspect {
         }
     }
 
+    /**
+     * Битовая маска ролей из токена: у коротких токенов - готовая маска, у старых - четыре флага
+     *
+     * @param claims информация из токена
+     * @return битовая маска ролей
+     */
+    static int roleMask(Claims claims) {
+        Number mask = claims.get(ROLE_MASK_CLAIMS_KEY, Number.class);
+        if (mask != null) {
+            return mask.intValue();
+        }
+        return (Boolean.TRUE.equals(claims.get(IS_USER_ROLE_EXIST_CLAIMS_KEY, Boolean.class)) ? USER_ROLE_BIT : 0)
+                | (Boolean.TRUE.equals(claims.get(IS_MODER_ROLE_EXIST_CLAIMS_KEY, Boolean.class)) ? MODER_ROLE_BIT : 0)
+                | (Boolean.TRUE.equals(claims.get(IS_TESTER_ROLE_EXIST_CLAIMS_KEY, Boolean.class)) ? TESTER_ROLE_BIT : 0)
+                | (Boolean.TRUE.equals(claims.get(IS_HACKER_ROLE_EXIST_CLAIMS_KEY, Boolean.class)) ? HACKER_ROLE_BIT : 0);
+    }
+
     /**
      *
      * @param isModerToken имеется ли роль MODER
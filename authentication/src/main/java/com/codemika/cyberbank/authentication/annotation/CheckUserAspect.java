@@ -3,6 +3,7 @@ package com.codemika.cyberbank.authentication.annotation;
 import com.codemika.cyberbank.authentication.dto.RqCreateUser;
 import com.codemika.cyberbank.authentication.repository.UserRepository;
 import com.codemika.cyberbank.authentication.service.AuthorizationService;
+import com.codemika.cyberbank.authentication.service.UserBloomFilter;
 import lombok.Data;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -15,7 +16,8 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
 
 import java.util.Arrays;
-import java.util.regex.Matcher;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 /**
@@ -29,6 +31,29 @@ import java.util.regex.Pattern;
 public class CheckUserAspect {
     private final AuthorizationService authorizationService;
     private final UserRepository userRepository;
+    private final UserBloomFilter userBloomFilter;
+
+    /**
+     * Шаблон номера телефона (компилируется один раз)
+     */
+    private static final Pattern PHONE_PATTERN =
+            Pattern.compile("(\\+(0/300)\\(?)?(\\d{3}\\)?[\\- ]?)?(\\d{3}[\\- ]?)?(\\d{2}[\\- ]?)?(\\d{2})?");
+
+    /**
+     * Символы, хотя бы один из которых должен быть в пароле
+     */
+    private static final String SYMBOLS = "§±!#$%&()*+,-./0123456789:;<=>?@[]^_`{|}~\"'\\";
+
+    /**
+     * Таблица символов: SYMBOLS_TABLE[c] == true, если символ c есть в SYMBOLS
+     */
+    private static final boolean[] SYMBOLS_TABLE = symbolsTable(SYMBOLS);
+
+    /**
+     * Телефоны и почты, регистрация с которыми идёт прямо сейчас.
+     * Не даёт двум одновременным запросам с одинаковыми данными пройти проверку уникальности.
+     */
+    private final Set<String> registrationsInProgress = ConcurrentHashMap.newKeySet();
 
     /**
      * Основной метод класса(связующее звено)
@@ -47,105 +72,171 @@ public class CheckUserAspect {
 
         RqCreateUser rq = (RqCreateUser) args[nameIndex];
 
-        if (!bigCheck(rq).getStatusCode().is2xxSuccessful()) {
-            authorizationService.setCheck(false); // устанавливаем параметр проверки в сервисе
-            authorizationService.setErrorMessage(bigCheck(rq)); // отправляем сообщение с ошибкой
-            return authorizationService.registration(rq); // вызываем метод сервиса
+        ResponseEntity<?> check = checkFields(rq); // проверка полей выполняется один раз
+        if (!check.getStatusCode().is2xxSuccessful()) {
+            return authorizationService.registration(rq, check); // результат проверки передаётся явно
         }
 
-        authorizationService.setCheck(true);
-        return authorizationService.registration(rq);
+        String phoneKey = "phone:" + rq.getPhone();
+        String emailKey = "email:" + rq.getEmail();
 
+        if (!registrationsInProgress.add(phoneKey)) {
+            return alreadyExists();
+        }
+        try {
+            if (!registrationsInProgress.add(emailKey)) {
+                return alreadyExists();
+            }
+            try {
+                return authorizationService.registration(rq, checkUniqueness(rq, check));
+            } finally {
+                registrationsInProgress.remove(emailKey);
+            }
+        } finally {
+            registrationsInProgress.remove(phoneKey);
+        }
     }
 
     /**
-     * Большой метод для всех основных проверок
+     * Большой метод для всех основных проверок.
+     * Сначала дешёвые проверки полей без обращения к БД, затем один запрос на уникальность телефона и почты.
+     * Если фильтр Блума говорит, что таких телефона и почты точно нет, запрос в БД не выполняется.
      *
      * @param user проверяемый пользователь
      * @return Результат
      */
-    private ResponseEntity<?> bigCheck(RqCreateUser user) {
-        //Проверка на уникальность пользователя по почте и номеру
-        if (userRepository.findByPhone(user.getPhone()).isPresent() || userRepository.findByEmail(user.getEmail()).isPresent()) {
-            return ResponseEntity
-                    .status(HttpStatus.NOT_FOUND)
-                    .body("Пожалуйста, проверьте свою контактную информацию. Такой человек уже существует!");
+    ResponseEntity<?> bigCheck(RqCreateUser user) {
+        ResponseEntity<?> fieldsCheck = checkFields(user);
+        if (!fieldsCheck.getStatusCode().is2xxSuccessful()) {
+            return fieldsCheck;
+        }
+        return checkUniqueness(user, fieldsCheck);
+    }
+
+    /**
+     * Проверка уникальности телефона и почты
+     *
+     * @param user        проверяемый пользователь
+     * @param fieldsCheck успешный результат проверки полей
+     * @return fieldsCheck или сообщение о том, что такой пользователь уже существует
+     */
+    private ResponseEntity<?> checkUniqueness(RqCreateUser user, ResponseEntity<?> fieldsCheck) {
+        //Проверка на уникальность пользователя по почте и номеру (один запрос phone OR email)
+        boolean mightExist = userBloomFilter.mightContainPhone(user.getPhone())
+                || userBloomFilter.mightContainEmail(user.getEmail());
+        if (mightExist && userRepository.existsByPhoneOrEmail(user.getPhone(), user.getEmail())) {
+            return alreadyExists();
         }
+        return fieldsCheck;
+    }
+
+    private static ResponseEntity<?> alreadyExists() {
+        return ResponseEntity
+                .status(HttpStatus.NOT_FOUND)
+                .body("Пожалуйста, проверьте свою контактную информацию. Такой человек уже существует!");
+    }
+
+    /**
+     * Проверки заполнения полей пользователя, не требующие обращения к БД.
+     * Пароль просматривается один раз, все нужные признаки собираются за этот проход.
+     *
+     * @param user проверяемый пользователь
+     * @return Результат
+     */
+    public static ResponseEntity<?> checkFields(RqCreateUser user) {
+        String name = user.getName();
+        String surname = user.getSurname();
+        String patronymic = user.getPatronymic();
+        String email = user.getEmail();
+        String phone = user.getPhone();
+        String password = user.getPassword();
+
         //Пустота заполнения(null не нужно, т.к. могут быть только пустые строчки).
-        if (user.getName().equals("") || user.getSurname().equals("")
-                || user.getPatronymic().equals("") || user.getEmail().equals("")
-                || user.getPhone().equals("") || user.getPassword().equals("")) {
+        if (name.isEmpty() || surname.isEmpty()
+                || patronymic.isEmpty() || email.isEmpty()
+                || phone.isEmpty() || password.isEmpty()) {
             return ResponseEntity
                     .status(HttpStatus.BAD_REQUEST)
                     .body("Ни одно из полей не должно быть пустым!");
         }
         //Пробелы в имени
-        if (user.getName().contains(" ")) {
+        if (name.indexOf(' ') >= 0) {
             return ResponseEntity
                     .status(HttpStatus.BAD_REQUEST)
                     .body("Ваше имя не должно содержать пробелы!");
         }
         //Пробелы в фамилии
-        if (user.getSurname().contains(" ")) {
+        if (surname.indexOf(' ') >= 0) {
             return ResponseEntity
                     .status(HttpStatus.BAD_REQUEST)
                     .body("Ваша фамилия не должна содержать пробелы!");
         }
         //Пробелы в отчестве
-        if (user.getPatronymic().contains(" ")) {
+        if (patronymic.indexOf(' ') >= 0) {
             return ResponseEntity
                     .status(HttpStatus.BAD_REQUEST)
                     .body("Ваше отчество не должно содержать пробелы!");
         }
         //Пробелы в почте
-        if (user.getEmail().contains(" ")) {
+        if (email.indexOf(' ') >= 0) {
             return ResponseEntity
                     .status(HttpStatus.BAD_REQUEST)
                     .body("Адрес электронной почты не должен содержать пробелы!");
         }
         //Пробелы в номере телефона
-        if (user.getPhone().contains(" ")) {
+        if (phone.indexOf(' ') >= 0) {
             return ResponseEntity
                     .status(HttpStatus.BAD_REQUEST)
                     .body("Номер телефона не должен содержать пробелы!");
         }
+
+        //Один проход по паролю: пробелы, строчные, заглавные и спец. символы
+        boolean hasSpace = false;
+        boolean hasLower = false;
+        boolean hasUpper = false;
+        boolean hasSymbol = false;
+        for (int i = 0; i < password.length(); i++) {
+            char c = password.charAt(i);
+            if (c == ' ') hasSpace = true;
+            if (Character.toUpperCase(c) != c) hasLower = true;
+            if (Character.toLowerCase(c) != c) hasUpper = true;
+            if (c < SYMBOLS_TABLE.length && SYMBOLS_TABLE[c]) hasSymbol = true;
+        }
+
         //Пробелы в пароле
-        if (user.getPassword().contains(" ")) {
+        if (hasSpace) {
             return ResponseEntity
                     .status(HttpStatus.BAD_REQUEST)
                     .body("Пароль не должен содержать пробелы!");
         }
         //Содержание имени, фамилии или отчества в пароле
-        if (user.getPassword().toLowerCase().contains(user.getName().toLowerCase())
-                || user.getPassword().toLowerCase().contains(user.getSurname().toLowerCase())
-                || user.getPassword().toLowerCase().contains(user.getPatronymic().toLowerCase())) {
+        if (containsIgnoreCase(password, name)
+                || containsIgnoreCase(password, surname)
+                || containsIgnoreCase(password, patronymic)) {
             return ResponseEntity
                     .status(HttpStatus.BAD_REQUEST)
                     .body("В пароле не должно быть вашего имени, фамилии или отчества! Это не безопасно!");
         }
         //Заглавные буквы в пароле
-        if (user.getPassword().equals(user.getPassword().toLowerCase())
-                || user.getPassword().equals(user.getPassword().toUpperCase())) {
+        if (!hasLower || !hasUpper) {
             return ResponseEntity
                     .status(HttpStatus.BAD_REQUEST)
                     .body("Ваш пароль должен состоять из ЗАГЛАВНЫХ и строчных букв!");
         }
         //Корректность номера телефона
-        if (!numberCheck(user.getPhone())) {
+        if (!numberCheck(phone)) {
             return ResponseEntity
                     .status(HttpStatus.BAD_REQUEST)
                     .body("Ваш номер телефона должен быть настоящим!");
         }
         //Корректность почты
-        if (!user.getEmail().contains("@") || !user.getEmail().contains(".")) {
+        if (email.indexOf('@') < 0 || email.indexOf('.') < 0) {
             return ResponseEntity
                     .status(HttpStatus.BAD_REQUEST)
                     .body("Неверная эл. почта!");
         }
         //Символы и т.д. в пароле
-        String symbols = "§±!#$%&()*+,-./0123456789:;<=>?@[]^_`{|}~\"'\\";
-
-        if (!lettersCheck(symbols, user.getPassword())) {
+        if (!hasSymbol) {
             return ResponseEntity
                     .status(HttpStatus.BAD_REQUEST)
                     .body("Введите пароль с символами и цифрами!");
@@ -157,23 +248,19 @@ public class CheckUserAspect {
     }
 
     /**
-     * Проверка на содержание символов
+     * Проверка на содержание в пароле хотя бы одного спец. символа или цифры (по таблице символов)
      *
-     * @param current строка для сравнения
-     * @param check   проверяемая строка
+     * @param check проверяемая строка
      * @return true/false
      */
-    public static boolean lettersCheck(String current, String check) {
-        boolean result = false;
+    public static boolean lettersCheck(String check) {
         for (int i = 0; i < check.length(); i++) {
-            for (int j = 0; j < current.length(); j++) {
-                String a = String.valueOf(current.charAt(j));
-                if (check.contains(a)) {
-                    result = true;
-                }
+            char c = check.charAt(i);
+            if (c < SYMBOLS_TABLE.length && SYMBOLS_TABLE[c]) {
+                return true;
             }
         }
-        return result;
+        return false;
     }
 
     /**
@@ -183,9 +270,31 @@ public class CheckUserAspect {
      * @return true/false
      */
     public static boolean numberCheck(String number) {
-        Pattern ptrn = Pattern.compile("(\\+(0/300)\\(?)?(\\d{3}\\)?[\\- ]?)?(\\d{3}[\\- ]?)?(\\d{2}[\\- ]?)?(\\d{2})?");
-        Matcher match = ptrn.matcher(number);
+        return PHONE_PATTERN.matcher(number).find();
+    }
 
-        return match.find();
+    /**
+     * Поиск подстроки без учёта регистра и без создания новых строк
+     */
+    private static boolean containsIgnoreCase(String text, String part) {
+        int last = text.length() - part.length();
+        for (int i = 0; i <= last; i++) {
+            if (text.regionMatches(true, i, part, 0, part.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean[] symbolsTable(String symbols) {
+        char max = 0;
+        for (int i = 0; i < symbols.length(); i++) {
+            max = (char) Math.max(max, symbols.charAt(i));
+        }
+        boolean[] table = new boolean[max + 1];
+        for (int i = 0; i < symbols.length(); i++) {
+            table[symbols.charAt(i)] = true;
+        }
+        return table;
     }
 }
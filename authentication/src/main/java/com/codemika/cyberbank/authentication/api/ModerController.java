@@ -2,11 +2,21 @@ package com.codemika.cyberbank.authentication.api;
 
 import com.codemika.cyberbank.authentication.annotation.CheckRole;
 import com.codemika.cyberbank.authentication.service.AuthorizationService;
+import com.codemika.cyberbank.authentication.service.UserImportService;
 import com.codemika.cyberbank.authentication.util.JwtUtil;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import io.jsonwebtoken.Claims;
 import lombok.Data;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 
 /**
  * Контроллер для объединения всего, связанного с возможностями модеров
@@ -15,19 +25,56 @@ import org.springframework.web.bind.annotation.*;
 @RestController
 @RequestMapping(value = "api/auth/") // перед всеми контроллерами этого метода будет ставиться этот префикс!
 public class ModerController {
+    private static final String NDJSON = "application/x-ndjson";
+
     private final AuthorizationService service;
+    private final UserImportService userImportService;
     private final JwtUtil jwtUtil;
+    private final ObjectMapper objectMapper;
 
     /**
-     * Вывод всех пользователей банка (все их данные, кроме паролей)
+     * Вывод пользователей банка постранично (все их данные, кроме паролей)
      *
-     * @param token токен модера
-     * @return все пользователи банка
+     * @param token   токен модера
+     * @param afterId id последнего пользователя предыдущей страницы (nextAfterId из прошлого ответа)
+     * @param limit   размер страницы
+     * @return страница пользователей банка
      */
     @CheckRole(isUser = true, isModer = true, isTester = true)
     @GetMapping("get-all-users")
-    public ResponseEntity<?> getAllUsers(@RequestHeader("Authorization") String token) {
-        return service.getAllUsers();
+    public ResponseEntity<?> getAllUsers(@RequestHeader("Authorization") String token,
+                                         @RequestParam(required = false) Long afterId,
+                                         @RequestParam(defaultValue = "100") int limit) {
+        return service.getAllUsers(afterId, limit);
+    }
+
+    /**
+     * Выгрузка всех пользователей банка в формате NDJSON (один JSON на строку).
+     * Ответ пишется по мере чтения из БД, поэтому память не зависит от числа пользователей.
+     *
+     * @param token токен модера
+     * @return поток пользователей банка
+     */
+    @CheckRole(isUser = true, isModer = true, isTester = true)
+    @GetMapping(value = "export-users", produces = NDJSON)
+    public ResponseEntity<?> exportUsers(@RequestHeader("Authorization") String token) {
+        StreamingResponseBody body = out -> {
+            try (SequenceWriter writer = objectMapper.writer()
+                    .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE)
+                    .withRootValueSeparator("\n")
+                    .writeValues(out)) {
+                service.forEachUser(user -> {
+                    try {
+                        writer.write(user);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(NDJSON))
+                .body(body);
     }
 
     /**
@@ -69,6 +116,22 @@ public class ModerController {
         return service.getUserByPhone(phone);
     }
 
+    /**
+     * Поиск пользователей по началу фамилии, имени, телефона или почты
+     *
+     * @param token токен модера
+     * @param query начало фамилии, имени, телефона или почты
+     * @param limit сколько пользователей вернуть
+     * @return найденные пользователи
+     */
+    @CheckRole(isUser = true, isModer = true, isTester = true)
+    @GetMapping("search-users")
+    public ResponseEntity<?> searchUsers(@RequestHeader("Authorization") String token,
+                                         @RequestParam String query,
+                                         @RequestParam(defaultValue = "10") int limit) {
+        return service.searchUsers(query, limit);
+    }
+
     /**
      * Валидация пользователя(Проверка его токена)
      *
@@ -131,6 +194,26 @@ public class ModerController {
         return service.becomeHacker(idNewHacker);
     }
 
+    /**
+     * Массовый импорт пользователей (например, клиентов банка-партнёра).
+     * Тело запроса читается потоково, поэтому размер файла не ограничен памятью.
+     *
+     * @param token   токен модера
+     * @param format  формат тела: csv (name,surname,patronymic,phone,email,password) или ndjson (RqCreateUser на строку)
+     * @param request запрос, из тела которого читаются пользователи
+     * @return сколько пользователей импортировано и пропущено
+     */
+    @CheckRole(isUser = true, isModer = true)
+    @PostMapping("import-users")
+    public ResponseEntity<?> importUsers(@RequestHeader("Authorization") String token,
+                                         @RequestParam(defaultValue = "csv") String format,
+                                         HttpServletRequest request) throws IOException {
+        if (!format.equalsIgnoreCase("csv") && !format.equalsIgnoreCase("ndjson")) {
+            return ResponseEntity.badRequest().body("Поддерживаются только форматы csv и ndjson!");
+        }
+        return ResponseEntity.ok(userImportService.importUsers(request.getInputStream(), format));
+    }
+
     /**
      * Поиск пользователя по номеру телефона(Это для сервиса. Название не менять, а то его можно будет найти перебором и использовать не модером)
      * Это временная версия, не могу разобраться с header'ами в rest template
@@ -0,0 +1,27 @@
+package com.codemika.cyberbank.authentication.api;
+
+import com.codemika.cyberbank.authentication.service.TokenRevocationService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Контроллер для других сервисов: выдача отозванных токенов
+ */
+@RestController
+@RequestMapping("api/auth/internal/")
+@RequiredArgsConstructor
+public class RevocationController {
+    private final TokenRevocationService tokenRevocationService;
+
+    /**
+     * Полный снимок отзывов. Вызывается сервисами при старте и периодически на случай пропущенной рассылки.
+     *
+     * @return подписанный токен со всеми отзывами (см. RevocationList.toClaims)
+     */
+    @GetMapping("revocations")
+    public String getRevocations() {
+        return tokenRevocationService.snapshot();
+    }
+}
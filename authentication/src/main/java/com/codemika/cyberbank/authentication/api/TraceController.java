@@ -0,0 +1,35 @@
+package com.codemika.cyberbank.authentication.api;
+
+import com.codemika.cyberbank.shared.tracing.Span;
+import com.codemika.cyberbank.shared.tracing.TraceCollector;
+import lombok.RequiredArgsConstructor;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+/**
+ * Выдача собранных участков трассировки (внутренняя ручка, через шлюз недоступна)
+ */
+@RestController
+@RequestMapping("api/auth/internal/")
+@RequiredArgsConstructor
+public class TraceController {
+    private final TraceCollector traceCollector;
+
+    /**
+     * @param traceId id трассировки (из заголовка traceparent ответа), без него - последние участки
+     * @param limit   сколько последних участков вернуть (от 0 до 1000)
+     * @return участки трассировки
+     */
+    @GetMapping("traces")
+    public List<Span> getTraces(@RequestParam(required = false) String traceId,
+                                @RequestParam(defaultValue = "100") int limit) {
+        if (traceId != null) {
+            return traceCollector.find(traceId);
+        }
+        return traceCollector.recent(Math.max(0, Math.min(limit, 1000)));
+    }
+}
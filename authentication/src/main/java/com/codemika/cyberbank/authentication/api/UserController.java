@@ -2,6 +2,7 @@ package com.codemika.cyberbank.authentication.api;
 
 import com.codemika.cyberbank.authentication.annotation.CheckUser;
 import com.codemika.cyberbank.authentication.dto.RqCreateUser;
+import com.codemika.cyberbank.authentication.dto.RqLoginUser;
 import com.codemika.cyberbank.authentication.service.AuthorizationService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.ResponseEntity;
@@ -43,6 +44,28 @@ public class UserController {
         return authorizationService.login(phone, pass);
     }
 
+    /**
+     * Вход по номеру телефона и паролю с выдачей короткого токена доступа и токена обновления
+     *
+     * @param rq номер телефона и пароль
+     * @return пара токенов
+     */
+    @PostMapping("token")
+    public ResponseEntity<?> issueTokens(@RequestBody RqLoginUser rq) {
+        return authorizationService.issueTokens(rq);
+    }
+
+    /**
+     * Обмен токена обновления на новую пару токенов. Каждый токен обновления можно использовать только один раз.
+     *
+     * @param refreshToken токен обновления
+     * @return новая пара токенов
+     */
+    @PostMapping("refresh-token")
+    public ResponseEntity<?> refreshTokens(@RequestHeader("Authorization") String refreshToken) {
+        return authorizationService.refreshTokens(refreshToken);
+    }
+
     /**
      * Выдача информации и смена токена
      *
@@ -54,6 +77,17 @@ public class UserController {
         return authorizationService.login(token);
     }
 
+    /**
+     * Выход из аккаунта (отзыв токена)
+     *
+     * @param token токен пользователя
+     * @return сообщение об успешном/не успешном выходе
+     */
+    @PostMapping("logout")
+    public ResponseEntity<?> logout(@RequestHeader("Authorization") String token) {
+        return authorizationService.logout(token);
+    }
+
     /**
      * Удаление пользователя по номеру телефона
      *
@@ -5,6 +5,10 @@ public class RoleConstants {
     public final static String IS_MODER_ROLE_EXIST_CLAIMS_KEY = "is_moder_role";
     public final static String IS_TESTER_ROLE_EXIST_CLAIMS_KEY = "is_tester_role";
     public final static String IS_HACKER_ROLE_EXIST_CLAIMS_KEY = "is_hacker_role";
+    // В коротких токенах вместо четырёх флагов - одна битовая маска ролей
+    public final static String ROLE_MASK_CLAIMS_KEY = "rm";
+    // Эпоха ролей пользователя на момент выдачи токена: растёт при каждом изменении ролей
+    public final static String ROLE_EPOCH_CLAIMS_KEY = "re";
 
     public final static String USER_ROLE = "USER";
 
@@ -16,4 +20,10 @@ public class RoleConstants {
 
     // Шуточная роль, имеет доступ ко всем функциям банка
     public final static String HACKER_ROLE = "HACKER";
+
+    // Биты ролей для битовой маски (используются в справочнике ролей и при сборке claims)
+    public final static int USER_ROLE_BIT = 1;
+    public final static int MODER_ROLE_BIT = 1 << 1;
+    public final static int TESTER_ROLE_BIT = 1 << 2;
+    public final static int HACKER_ROLE_BIT = 1 << 3;
 }
@@ -0,0 +1,19 @@
+package com.codemika.cyberbank.authentication.dto;
+
+import lombok.Data;
+import lombok.experimental.Accessors;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Класс ответа после массового импорта пользователей
+ */
+@Data
+@Accessors(chain = true)
+public class RsImportUsers {
+    private long imported; // сколько пользователей добавлено
+    private long skipped; // сколько строк пропущено
+    private long millis; // длительность импорта
+    private List<String> errors = new ArrayList<>(); // первые ошибки в формате "строка N: причина"
+}
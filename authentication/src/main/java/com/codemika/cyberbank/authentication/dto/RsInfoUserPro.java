@@ -1,6 +1,8 @@
 package com.codemika.cyberbank.authentication.dto;
 
+import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 import lombok.experimental.Accessors;
 
 /**
@@ -9,6 +11,8 @@ import lombok.experimental.Accessors;
  */
 @Data
 @Accessors(chain = true)
+@NoArgsConstructor
+@AllArgsConstructor // для выборки сразу в этот класс через "SELECT new ..." без загрузки Entity
 public class RsInfoUserPro {
     private Long id;
     private String name;
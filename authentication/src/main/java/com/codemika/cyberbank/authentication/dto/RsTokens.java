@@ -0,0 +1,15 @@
+package com.codemika.cyberbank.authentication.dto;
+
+import lombok.Data;
+import lombok.experimental.Accessors;
+
+/**
+ * Класс ответа с парой токенов: короткий токен доступа и одноразовый токен обновления
+ */
+@Data
+@Accessors(chain = true)
+public class RsTokens {
+    private String accessToken;
+    private String refreshToken;
+    private Long expiresIn; // через сколько секунд истечёт токен доступа
+}
@@ -0,0 +1,18 @@
+package com.codemika.cyberbank.authentication.dto;
+
+import lombok.Data;
+import lombok.experimental.Accessors;
+
+import java.util.List;
+
+/**
+ * Страница пользователей для модеров.
+ * Чтобы получить следующую страницу, передайте nextAfterId в параметр afterId.
+ * Если nextAfterId == null, это последняя страница.
+ */
+@Data
+@Accessors(chain = true)
+public class RsUsersPage {
+    private List<RsInfoUserPro> users;
+    private Long nextAfterId;
+}
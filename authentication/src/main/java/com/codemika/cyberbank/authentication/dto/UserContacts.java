@@ -0,0 +1,10 @@
+package com.codemika.cyberbank.authentication.dto;
+
+/**
+ * Проекция пользователя: только телефон и почта (для построения фильтра Блума)
+ */
+public interface UserContacts {
+    String getPhone();
+
+    String getEmail();
+}
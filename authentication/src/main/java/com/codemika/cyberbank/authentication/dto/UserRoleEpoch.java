@@ -0,0 +1,10 @@
+package com.codemika.cyberbank.authentication.dto;
+
+/**
+ * Проекция пользователя: id и эпоха ролей (без загрузки всего Entity)
+ */
+public interface UserRoleEpoch {
+    Long getId();
+
+    Integer getRoleEpoch();
+}
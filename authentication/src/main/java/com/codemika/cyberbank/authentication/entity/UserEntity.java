@@ -37,6 +37,13 @@ public class UserEntity {
     @Column(name = "password")
     private String password;
 
+    /**
+     * Эпоха ролей: растёт при каждом изменении ролей пользователя.
+     * Меняется только запросом UserRepository.incrementRoleEpoch, поэтому не обновляется при сохранении Entity.
+     */
+    @Column(name = "role_epoch", updatable = false)
+    private Integer roleEpoch = 0;
+
     @OneToMany(mappedBy = "user")
     private List<RoleUserEntity> userRoles;
 }
\ No newline at end of file
@@ -0,0 +1,84 @@
+package com.codemika.cyberbank.authentication.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Репозиторий отзывов токенов (см. changeSet revoked-token-0 и revoked-user-0).
+ * Отзывы проверяются по памяти (RevocationList), а в БД хранятся, чтобы пережить перезапуск сервиса
+ * и быть видны остальным его экземплярам. Времена - секунды epoch, как и в самих токенах.
+ */
+@Repository
+@RequiredArgsConstructor
+public class RevocationRepository {
+    private static final String INSERT_TOKEN = "INSERT INTO cyberbank_auth.revoked_token (jti, expires_at) " +
+            "VALUES (?, ?) ON CONFLICT DO NOTHING";
+    private static final String UPSERT_USER = "INSERT INTO cyberbank_auth.revoked_user (user_id, revoked_before) " +
+            "VALUES (?, ?) ON CONFLICT (user_id) " +
+            "DO UPDATE SET revoked_before = GREATEST(revoked_user.revoked_before, EXCLUDED.revoked_before)";
+    private static final String FIND_TOKENS =
+            "SELECT jti, expires_at FROM cyberbank_auth.revoked_token WHERE expires_at > ?";
+    private static final String FIND_USERS =
+            "SELECT user_id, revoked_before FROM cyberbank_auth.revoked_user WHERE revoked_before > ?";
+    private static final String DELETE_TOKENS = "DELETE FROM cyberbank_auth.revoked_token WHERE expires_at <= ?";
+    private static final String DELETE_USERS = "DELETE FROM cyberbank_auth.revoked_user WHERE revoked_before <= ?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Сохранение отзыва токена
+     *
+     * @return false - токен уже был отозван (в том числе другим экземпляром сервиса)
+     */
+    public boolean saveToken(long jti, long expiresSecond) {
+        return jdbcTemplate.update(INSERT_TOKEN, jti, expiresSecond) > 0;
+    }
+
+    /**
+     * Сохранение отзыва всех токенов пользователя, выданных не позже beforeSecond (меньшее время не затирает большее)
+     */
+    public void saveUser(long userId, long beforeSecond) {
+        jdbcTemplate.update(UPSERT_USER, userId, beforeSecond);
+    }
+
+    /**
+     * Отзывы ещё не истёкших токенов
+     *
+     * @param nowSecond текущее время
+     * @param consumer  получает пары (jti, время истечения)
+     */
+    public void findTokens(long nowSecond, PairConsumer consumer) {
+        jdbcTemplate.query(FIND_TOKENS, rs -> {
+            consumer.accept(rs.getLong("jti"), rs.getLong("expires_at"));
+        }, nowSecond);
+    }
+
+    /**
+     * Отзывы по пользователям, под которые ещё могут попасть живые токены
+     *
+     * @param sinceSecond отзывы раньше этого времени уже ни на что не влияют
+     * @param consumer    получает пары (id пользователя, время отзыва)
+     */
+    public void findUsers(long sinceSecond, PairConsumer consumer) {
+        jdbcTemplate.query(FIND_USERS, rs -> {
+            consumer.accept(rs.getLong("user_id"), rs.getLong("revoked_before"));
+        }, sinceSecond);
+    }
+
+    /**
+     * Удаление отзывов истёкших токенов и устаревших отзывов по пользователям
+     *
+     * @param nowSecond   текущее время
+     * @param sinceSecond отзывы по пользователям раньше этого времени удаляются
+     * @return сколько строк удалено
+     */
+    public int deleteExpired(long nowSecond, long sinceSecond) {
+        return jdbcTemplate.update(DELETE_TOKENS, nowSecond) + jdbcTemplate.update(DELETE_USERS, sinceSecond);
+    }
+
+    @FunctionalInterface
+    public interface PairConsumer {
+        void accept(long key, long value);
+    }
+}
@@ -3,9 +3,16 @@ package com.codemika.cyberbank.authentication.repository;
 import com.codemika.cyberbank.authentication.entity.RoleUserEntity;
 import com.codemika.cyberbank.authentication.entity.UserEntity;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 
 import java.util.List;
 
 public interface RoleUserRepository extends JpaRepository<RoleUserEntity, Long> {
     List<RoleUserEntity> findAllByUser(UserEntity user);
+
+    /**
+     * Только id ролей пользователя, без подгрузки самих ролей и пользователя
+     */
+    @Query("SELECT ru.role.id FROM RoleUserEntity ru WHERE ru.user.id = ?1")
+    List<Long> findRoleIdsByUserId(Long userId);
 }
@@ -1,10 +1,23 @@
 package com.codemika.cyberbank.authentication.repository;
 
+import com.codemika.cyberbank.authentication.dto.RsInfoUserPro;
+import com.codemika.cyberbank.authentication.dto.UserContacts;
+import com.codemika.cyberbank.authentication.dto.UserRoleEpoch;
 import com.codemika.cyberbank.authentication.entity.UserEntity;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import javax.persistence.QueryHint;
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
 
 /**
  * Репозиторий для пользователя.
@@ -15,4 +28,82 @@ public interface UserRepository extends JpaRepository<UserEntity, Long> {
     Optional<UserEntity> findByEmail(String email);
 
     Optional<UserEntity> findByPhone(String phone);
+
+    /**
+     * Проверка уникальности одним запросом: существует ли пользователь с таким телефоном ИЛИ почтой
+     */
+    boolean existsByPhoneOrEmail(String phone, String email);
+
+    /**
+     * Потоковое чтение телефонов и почт всех пользователей (курсором, порциями по 1000 строк).
+     * Вызывать только внутри транзакции и обязательно закрывать Stream.
+     */
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "1000"))
+    @Query("SELECT u.phone AS phone, u.email AS email FROM UserEntity u")
+    Stream<UserContacts> streamAllContacts();
+
+    /**
+     * Страница пользователей по ключу: следующие после afterId в порядке id.
+     * В отличие от OFFSET не просматривает пропущенные строки, поэтому любая страница выбирается одинаково быстро.
+     * Размер страницы задаётся через PageRequest.of(0, limit).
+     */
+    @Query("SELECT new com.codemika.cyberbank.authentication.dto.RsInfoUserPro(" +
+            "u.id, u.name, u.surname, u.patronymic, u.phone, u.email) " +
+            "FROM UserEntity u WHERE u.id > ?1 ORDER BY u.id")
+    List<RsInfoUserPro> findPageAfter(Long afterId, Pageable pageable);
+
+    /**
+     * Потоковое чтение всех пользователей (без паролей и ролей) курсором, порциями по 1000 строк.
+     * Вызывать только внутри транзакции и обязательно закрывать Stream.
+     */
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "1000"))
+    @Query("SELECT new com.codemika.cyberbank.authentication.dto.RsInfoUserPro(" +
+            "u.id, u.name, u.surname, u.patronymic, u.phone, u.email) " +
+            "FROM UserEntity u ORDER BY u.id")
+    Stream<RsInfoUserPro> streamAllUsers();
+
+    /**
+     * Поиск пользователей по началу фамилии. Вместе с тремя следующими методами - поиск по началу фамилии, имени,
+     * телефона или почты (см. AuthorizationService.searchUsers): у каждого столбца свой индекс text_pattern_ops
+     * (см. changeSet user-1), и без сортировки запрос заканчивает просмотр индекса на limit-й подходящей строке.
+     * Одно условие с OR и общей сортировкой заставило бы выбрать и отсортировать все совпадения по всем столбцам.
+     *
+     * @param prefix начало строки в нижнем регистре, экранированное символом '!' и с '%' на конце
+     */
+    @Query("SELECT new com.codemika.cyberbank.authentication.dto.RsInfoUserPro(" +
+            "u.id, u.name, u.surname, u.patronymic, u.phone, u.email) " +
+            "FROM UserEntity u WHERE lower(u.surname) LIKE ?1 ESCAPE '!'")
+    List<RsInfoUserPro> searchBySurnamePrefix(String prefix, Pageable pageable);
+
+    @Query("SELECT new com.codemika.cyberbank.authentication.dto.RsInfoUserPro(" +
+            "u.id, u.name, u.surname, u.patronymic, u.phone, u.email) " +
+            "FROM UserEntity u WHERE lower(u.name) LIKE ?1 ESCAPE '!'")
+    List<RsInfoUserPro> searchByNamePrefix(String prefix, Pageable pageable);
+
+    @Query("SELECT new com.codemika.cyberbank.authentication.dto.RsInfoUserPro(" +
+            "u.id, u.name, u.surname, u.patronymic, u.phone, u.email) " +
+            "FROM UserEntity u WHERE u.phone LIKE ?1 ESCAPE '!'")
+    List<RsInfoUserPro> searchByPhonePrefix(String prefix, Pageable pageable);
+
+    @Query("SELECT new com.codemika.cyberbank.authentication.dto.RsInfoUserPro(" +
+            "u.id, u.name, u.surname, u.patronymic, u.phone, u.email) " +
+            "FROM UserEntity u WHERE lower(u.email) LIKE ?1 ESCAPE '!'")
+    List<RsInfoUserPro> searchByEmailPrefix(String prefix, Pageable pageable);
+
+    /**
+     * Увеличение эпохи ролей пользователя (после изменения его ролей). Атомарно на стороне БД.
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE UserEntity u SET u.roleEpoch = u.roleEpoch + 1 WHERE u.id = ?1")
+    int incrementRoleEpoch(Long id);
+
+    @Query("SELECT u.roleEpoch FROM UserEntity u WHERE u.id = ?1")
+    Optional<Integer> findRoleEpochById(Long id);
+
+    /**
+     * Пользователи, у которых роли хоть раз менялись (для заполнения эпох при старте)
+     */
+    @Query("SELECT u.id AS id, u.roleEpoch AS roleEpoch FROM UserEntity u WHERE u.roleEpoch > 0")
+    List<UserRoleEpoch> findChangedRoleEpochs();
 }
@@ -1,7 +1,10 @@
 package com.codemika.cyberbank.authentication.service;
 
 import com.codemika.cyberbank.authentication.dto.RqCreateUser;
+import com.codemika.cyberbank.authentication.dto.RqLoginUser;
 import com.codemika.cyberbank.authentication.dto.RsInfoUserPro;
+import com.codemika.cyberbank.authentication.dto.RsTokens;
+import com.codemika.cyberbank.authentication.dto.RsUsersPage;
 import com.codemika.cyberbank.authentication.entity.RoleEntity;
 import com.codemika.cyberbank.authentication.entity.RoleUserEntity;
 import com.codemika.cyberbank.authentication.entity.UserEntity;
@@ -12,18 +15,27 @@ import com.codemika.cyberbank.authentication.util.JwtUtil;
 import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.Jwts;
 import lombok.Data;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.client.RestTemplate;
 
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Objects;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 import static com.codemika.cyberbank.authentication.constants.RoleConstants.*;
+import static com.codemika.cyberbank.authentication.util.JwtUtil.REFRESH_TOKEN_TYPE;
+import static com.codemika.cyberbank.authentication.util.JwtUtil.TOKEN_TYPE_CLAIMS_KEY;
 
 /**
  * Сервис для авторизации
@@ -32,26 +44,37 @@ import static com.codemika.cyberbank.authentication.constants.RoleConstants.*;
 @Data
 @Service
 public class AuthorizationService {
+    public static final int MAX_USERS_PAGE = 1000;
+    public static final int MIN_SEARCH_LENGTH = 2;
+    public static final int MAX_SEARCH_RESULTS = 50;
+    private static final Comparator<RsInfoUserPro> SEARCH_ORDER = Comparator
+            .comparing(RsInfoUserPro::getSurname, Comparator.nullsLast(Comparator.<String>naturalOrder()))
+            .thenComparing(RsInfoUserPro::getName, Comparator.nullsLast(Comparator.<String>naturalOrder()))
+            .thenComparing(RsInfoUserPro::getId);
+
     private final UserRepository userRepository;
     private final RoleRepository roleRepository;
     private final RoleUserRepository roleUserRepository;
+    private final RoleRegistry roleRegistry;
+    private final UserBloomFilter userBloomFilter;
+    private final TokenRevocationService tokenRevocationService;
     private final JwtUtil jwtUtil;
-    private boolean check = false; // переменная проверенного пользователя
-    private ResponseEntity<?> errorMessage; // сообщение, если что-то не так при регистрации
     private final PasswordEncoder passwordEncoder;
-    private final RestTemplate restTemplate = new RestTemplate();
-    private final String url = "http://localhost:8082/api/card/output/get-user-credit-cards/?token=";
+    private final RestTemplate restTemplate;
+    private final String url = "http://card/api/card/output/get-user-credit-cards/?token=";
 
 
     /**
-     * Регистрация пользователя
+     * Регистрация пользователя.
+     * Сервис не хранит состояние между запросами: результат проверки передаётся явно вместе с запросом.
      *
-     * @param rq запрос на создание пользователя
+     * @param rq         запрос на создание пользователя
+     * @param validation результат проверки пользователя (см. CheckUserAspect)
      * @return результат и новый токен
      */
-    public ResponseEntity<?> registration(RqCreateUser rq) {
-        if (!check) {
-            return errorMessage;
+    public ResponseEntity<?> registration(RqCreateUser rq, ResponseEntity<?> validation) {
+        if (!validation.getStatusCode().is2xxSuccessful()) {
+            return validation;
         }
 
         UserEntity newUser = new UserEntity()
@@ -64,19 +87,27 @@ public class AuthorizationService {
                         passwordEncoder.encode(rq.getPassword()) // encode -> зашифровать
                 );
 
-        Optional<RoleEntity> role = roleRepository.findByRole(USER_ROLE);
+        Optional<RoleEntity> role = roleRegistry.findEntity(USER_ROLE);
 
         if (!role.isPresent()) {
             return ResponseEntity.badRequest().body("Данная роль не существует");
         }
 
-        userRepository.save(newUser);
+        try {
+            userRepository.save(newUser);
+        } catch (DataIntegrityViolationException e) {
+            // такой телефон или почту только что зарегистрировали (возможно, через другой экземпляр сервиса)
+            return ResponseEntity
+                    .status(HttpStatus.NOT_FOUND)
+                    .body("Пожалуйста, проверьте свою контактную информацию. Такой человек уже существует!");
+        }
 
         RoleUserEntity roleUser = new RoleUserEntity()
                 .setUser(newUser)
                 .setRole(role.get());
 
         roleUserRepository.save(roleUser);
+        userBloomFilter.add(newUser.getPhone(), newUser.getEmail());
 
         Claims claims = Jwts.claims();
         claims.put("id", newUser.getId());
@@ -85,10 +116,8 @@ public class AuthorizationService {
         claims.put("patronymic", newUser.getPatronymic());
         claims.put("email", newUser.getEmail());
         claims.put("phone", newUser.getPhone());
-        claims.put(IS_USER_ROLE_EXIST_CLAIMS_KEY, true);
-        claims.put(IS_MODER_ROLE_EXIST_CLAIMS_KEY, false);
-        claims.put(IS_TESTER_ROLE_EXIST_CLAIMS_KEY, false);
-        claims.put(IS_HACKER_ROLE_EXIST_CLAIMS_KEY, false);
+        roleRegistry.putRoleClaims(claims, USER_ROLE_BIT);
+        claims.put(ROLE_EPOCH_CLAIMS_KEY, newUser.getRoleEpoch());
 
         return ResponseEntity
                 .status(HttpStatus.CREATED)
@@ -116,7 +145,7 @@ public class AuthorizationService {
                     .body("Пароль или номер телефона неверны");
         }
 
-        List<RoleUserEntity> userRoles = roleUserRepository.findAllByUser(tmpUser.get());
+        int roleMask = roleRegistry.maskOf(roleUserRepository.findRoleIdsByUserId(tmpUser.get().getId()));
 
         Claims claims = Jwts.claims();
         claims.put("id", tmpUser.get().getId());
@@ -125,23 +154,8 @@ public class AuthorizationService {
         claims.put("patronymic", tmpUser.get().getPatronymic());
         claims.put("email", tmpUser.get().getEmail());
         claims.put("phone", tmpUser.get().getPhone());
-
-        claims.put(IS_USER_ROLE_EXIST_CLAIMS_KEY, false);
-        claims.put(IS_MODER_ROLE_EXIST_CLAIMS_KEY, false);
-        claims.put(IS_TESTER_ROLE_EXIST_CLAIMS_KEY, false);
-        claims.put(IS_HACKER_ROLE_EXIST_CLAIMS_KEY, false);
-
-        for (RoleUserEntity userRole : userRoles) {
-            if (Objects.equals(userRole.getRole().getRole(), "USER")) {
-                claims.replace(IS_USER_ROLE_EXIST_CLAIMS_KEY, true);
-            } else if (Objects.equals(userRole.getRole().getRole(), "MODER")) {
-                claims.replace("is_moder_role", true);
-            } else if (Objects.equals(userRole.getRole().getRole(), "TESTER")) {
-                claims.replace("is_tester_role", true);
-            } else if (Objects.equals(userRole.getRole().getRole(), "HACKER")) {
-                claims.replace("is_hacker_role", true);
-            }
-        }
+        roleRegistry.putRoleClaims(claims, roleMask);
+        claims.put(ROLE_EPOCH_CLAIMS_KEY, tmpUser.get().getRoleEpoch());
 
         String response = String.valueOf(restTemplate.getForEntity(url + jwtUtil.generateToken(claims), String.class).getBody());
         if (response == null || response.isEmpty() || response.equals("null")) response = "Отсутствуют";
@@ -171,6 +185,17 @@ public class AuthorizationService {
         }
 
         Claims claims = jwtUtil.getClaims(token);
+        if (tokenRevocationService.isRevoked(claims)) {
+            return ResponseEntity
+                    .status(HttpStatus.UNAUTHORIZED)
+                    .body("Ваш последний сеанс истёк. Пожалуйста, войдите в свой аккаунт заново!");
+        }
+
+        if (claims.get(TOKEN_TYPE_CLAIMS_KEY) != null) {
+            return ResponseEntity
+                    .status(HttpStatus.BAD_REQUEST)
+                    .body("Короткие токены обновляются через refresh-token!");
+        }
 
         Long id = claims.get("id", Long.class);
         String name = claims.get("name", String.class);
@@ -179,24 +204,16 @@ public class AuthorizationService {
         String email = claims.get("email", String.class);
         String phone = claims.get("phone", String.class);
 
-        claims.put(IS_USER_ROLE_EXIST_CLAIMS_KEY, false);
-        claims.put(IS_MODER_ROLE_EXIST_CLAIMS_KEY, false);
-        claims.put(IS_TESTER_ROLE_EXIST_CLAIMS_KEY, false);
-        claims.put(IS_HACKER_ROLE_EXIST_CLAIMS_KEY, false);
-
-        List<RoleUserEntity> userRoles = roleUserRepository.findAllByUser(userRepository.findById(id).get());
-
-        for (RoleUserEntity userRole : userRoles) {
-            if (Objects.equals(userRole.getRole().getRole(), "USER")) {
-                claims.replace(IS_USER_ROLE_EXIST_CLAIMS_KEY, true);
-            } else if (Objects.equals(userRole.getRole().getRole(), "MODER")) {
-                claims.replace("is_moder_role", true);
-            } else if (Objects.equals(userRole.getRole().getRole(), "TESTER")) {
-                claims.replace("is_tester_role", true);
-            } else if (Objects.equals(userRole.getRole().getRole(), "HACKER")) {
-                claims.replace("is_hacker_role", true);
-            }
+        // эпоха читается до ролей: если роли изменятся между запросами, новый токен сразу окажется устаревшим
+        Optional<Integer> roleEpoch = userRepository.findRoleEpochById(id);
+        List<Long> roleIds = roleUserRepository.findRoleIdsByUserId(id);
+        if (!roleEpoch.isPresent() || roleIds.isEmpty()) {
+            return ResponseEntity
+                    .status(HttpStatus.NOT_FOUND)
+                    .body("Данный пользователь не существует!");
         }
+        roleRegistry.putRoleClaims(claims, roleRegistry.maskOf(roleIds));
+        claims.put(ROLE_EPOCH_CLAIMS_KEY, roleEpoch.get());
 
         String response = String.valueOf(restTemplate.getForEntity(url + token, String.class).getBody());
 
@@ -212,33 +229,125 @@ public class AuthorizationService {
     }
 
     /**
-     * Поиск всех пользователей на сайте
+     * Вход по номеру телефона и паролю с выдачей пары токенов:
+     * короткого токена доступа (id и роли, 15 минут) и одноразового токена обновления
+     *
+     * @param rq номер телефона и пароль
+     * @return пара токенов
+     */
+    public ResponseEntity<?> issueTokens(RqLoginUser rq) {
+        Optional<UserEntity> user = userRepository.findByPhone(rq.getPhone());
+        if (!user.isPresent()) {
+            return ResponseEntity
+                    .status(HttpStatus.NOT_FOUND)
+                    .body("Пользователь с таким номером телефона не существует!");
+        }
+
+        if (!passwordEncoder.matches(rq.getPassword(), user.get().getPassword())) {
+            return ResponseEntity
+                    .status(HttpStatus.BAD_REQUEST)
+                    .body("Пароль или номер телефона неверны");
+        }
+
+        int roleMask = roleRegistry.maskOf(roleUserRepository.findRoleIdsByUserId(user.get().getId()));
+
+        return ResponseEntity
+                .status(HttpStatus.OK)
+                .body(tokensFor(user.get().getId(), roleMask, user.get().getRoleEpoch()));
+    }
+
+    /**
+     * Обмен токена обновления на новую пару токенов.
+     * Токен обновления одноразовый: повторное предъявление уже использованного токена означает,
+     * что его украли, поэтому отзываются все токены пользователя.
      *
-     * @return все пользователи нашего банка
+     * @param refreshToken токен обновления
+     * @return новая пара токенов
      */
-    public ResponseEntity<?> getAllUsers() {
-        List<UserEntity> users = userRepository.findAll();
-        if (users.isEmpty())
+    public ResponseEntity<?> refreshTokens(String refreshToken) {
+        Claims claims = jwtUtil.getClaims(refreshToken);
+        if (claims == null || !REFRESH_TOKEN_TYPE.equals(claims.get(TOKEN_TYPE_CLAIMS_KEY, String.class))) {
+            return ResponseEntity
+                    .status(HttpStatus.BAD_REQUEST)
+                    .body("Неверный токен!");
+        }
+
+        Long id = claims.get("id", Long.class);
+        if (!tokenRevocationService.consumeToken(claims)) {
+            tokenRevocationService.revokeUser(id);
+            return ResponseEntity
+                    .status(HttpStatus.UNAUTHORIZED)
+                    .body("Этот токен уже был использован. Для безопасности все ваши сеансы завершены, войдите заново!");
+        }
+        if (tokenRevocationService.isUserRevoked(claims)) {
+            return ResponseEntity
+                    .status(HttpStatus.UNAUTHORIZED)
+                    .body("Ваш последний сеанс истёк. Пожалуйста, войдите в свой аккаунт заново!");
+        }
+
+        // роли перечитываются при каждом обновлении; эпоха читается до ролей (см. login по токену)
+        Optional<Integer> roleEpoch = userRepository.findRoleEpochById(id);
+        List<Long> roleIds = roleUserRepository.findRoleIdsByUserId(id);
+        if (!roleEpoch.isPresent() || roleIds.isEmpty()) {
+            return ResponseEntity
+                    .status(HttpStatus.NOT_FOUND)
+                    .body("Данный пользователь не существует!");
+        }
+
+        return ResponseEntity
+                .status(HttpStatus.OK)
+                .body(tokensFor(id, roleRegistry.maskOf(roleIds), roleEpoch.get()));
+    }
+
+    private RsTokens tokensFor(Long userId, int roleMask, int roleEpoch) {
+        return new RsTokens()
+                .setAccessToken(jwtUtil.generateAccessToken(userId, roleMask, roleEpoch))
+                .setRefreshToken(jwtUtil.generateRefreshToken(userId))
+                .setExpiresIn(JwtUtil.ACCESS_TOKEN_VALIDITY_MILLIS / 1000);
+    }
+
+    /**
+     * Вывод пользователей банка постранично (все их данные, кроме паролей).
+     * Страницы выбираются по ключу (id > afterId), поэтому время не зависит от номера страницы.
+     *
+     * @param afterId id последнего пользователя предыдущей страницы (null - с начала)
+     * @param limit   размер страницы (от 1 до MAX_USERS_PAGE)
+     * @return страница пользователей и ключ следующей страницы
+     */
+    public ResponseEntity<?> getAllUsers(Long afterId, int limit) {
+        int size = Math.max(1, Math.min(limit, MAX_USERS_PAGE));
+        // берём на одного больше, чтобы понять, есть ли следующая страница
+        List<RsInfoUserPro> users = userRepository.findPageAfter(
+                afterId == null ? 0L : afterId, PageRequest.of(0, size + 1));
+        if (users.isEmpty() && afterId == null)
             return ResponseEntity
                     .status(HttpStatus.ACCEPTED)
                     .body("У нас ещё нет ни одного пользователя... Хотите стать первым?🥺");
 
-        List<RsInfoUserPro> infoUsers = new ArrayList<>();
-        //Преобразование Entity в Info
-        for (UserEntity user : users) {
-            RsInfoUserPro infoUser = new RsInfoUserPro()
-                    .setId(user.getId())
-                    .setName(user.getName())
-                    .setSurname(user.getSurname())
-                    .setPatronymic(user.getPatronymic())
-                    .setEmail(user.getEmail())
-                    .setPhone(user.getPhone());
-            infoUsers.add(infoUser);
+        Long nextAfterId = null;
+        if (users.size() > size) {
+            users = users.subList(0, size);
+            nextAfterId = users.get(size - 1).getId();
         }
 
         return ResponseEntity
                 .status(HttpStatus.ACCEPTED)
-                .body(infoUsers);
+                .body(new RsUsersPage()
+                        .setUsers(users)
+                        .setNextAfterId(nextAfterId));
+    }
+
+    /**
+     * Потоковый обход всех пользователей банка (все их данные, кроме паролей).
+     * Пользователи читаются курсором и не накапливаются в памяти, поэтому подходит для выгрузки любого объёма.
+     *
+     * @param action что сделать с каждым пользователем
+     */
+    @Transactional(readOnly = true)
+    public void forEachUser(Consumer<RsInfoUserPro> action) {
+        try (Stream<RsInfoUserPro> users = userRepository.streamAllUsers()) {
+            users.forEach(action);
+        }
     }
 
     /**
@@ -247,6 +356,7 @@ public class AuthorizationService {
      * @param id идентификационный номер пользователя
      * @return искомого пользователя
      */
+    @Transactional(readOnly = true)
     public ResponseEntity<?> getUserById(Long id) {
         Optional<UserEntity> user = userRepository.findById(id);
         if (!user.isPresent())
@@ -273,6 +383,7 @@ public class AuthorizationService {
      * @param email эл. почта
      * @return имя, фамилию и отчество требуемого пользователя
      */
+    @Transactional(readOnly = true)
     public ResponseEntity<?> getUserByEmail(String email) {
         Optional<UserEntity> user = userRepository.findByEmail(email);
         if (!user.isPresent())
@@ -299,6 +410,7 @@ public class AuthorizationService {
      * @param phone номер телефона
      * @return имя, фамилию и отчество требуемого пользователя
      */
+    @Transactional(readOnly = true)
     public ResponseEntity<?> getUserByPhone(String phone) {
         Optional<UserEntity> user = userRepository.findByPhone(phone);
         if (!user.isPresent())
@@ -319,6 +431,67 @@ public class AuthorizationService {
                 .body(infoUser);
     }
 
+    /**
+     * Поиск пользователей по началу фамилии, имени, телефона или почты (для подсказок при вводе).
+     * По каждому столбцу выбирается не больше limit совпадений, результаты объединяются без повторов
+     * и сортируются по фамилии, имени и id. Если совпадений больше limit, возвращаются какие-то limit из них,
+     * не обязательно первые по алфавиту: подсказка уточняется следующими введёнными символами.
+     *
+     * @param query начало строки (не короче MIN_SEARCH_LENGTH символов)
+     * @param limit сколько пользователей вернуть (от 1 до MAX_SEARCH_RESULTS)
+     * @return найденные пользователи
+     */
+    public ResponseEntity<?> searchUsers(String query, int limit) {
+        String prefix = query == null ? "" : query.trim().toLowerCase();
+        if (prefix.length() < MIN_SEARCH_LENGTH)
+            return ResponseEntity
+                    .badRequest()
+                    .body("Введите хотя бы " + MIN_SEARCH_LENGTH + " символа для поиска!");
+
+        int size = Math.max(1, Math.min(limit, MAX_SEARCH_RESULTS));
+        String like = likePrefix(prefix);
+        PageRequest page = PageRequest.of(0, size);
+        List<RsInfoUserPro> users = mergeSearchResults(size,
+                userRepository.searchBySurnamePrefix(like, page),
+                userRepository.searchByNamePrefix(like, page),
+                userRepository.searchByPhonePrefix(like, page),
+                userRepository.searchByEmailPrefix(like, page));
+
+        return ResponseEntity
+                .status(HttpStatus.ACCEPTED)
+                .body(users);
+    }
+
+    /**
+     * Экранирование спецсимволов LIKE символом '!' и добавление '%' в конец
+     */
+    static String likePrefix(String prefix) {
+        StringBuilder like = new StringBuilder(prefix.length() + 2);
+        for (int i = 0; i < prefix.length(); i++) {
+            char c = prefix.charAt(i);
+            if (c == '!' || c == '%' || c == '_') like.append('!');
+            like.append(c);
+        }
+        return like.append('%').toString();
+    }
+
+    /**
+     * Объединение результатов поиска по столбцам: без повторов (пользователь мог найтись сразу по фамилии и почте),
+     * по фамилии, имени и id, не больше limit
+     */
+    @SafeVarargs
+    static List<RsInfoUserPro> mergeSearchResults(int limit, List<RsInfoUserPro>... results) {
+        Map<Long, RsInfoUserPro> unique = new HashMap<>();
+        for (List<RsInfoUserPro> result : results) {
+            for (RsInfoUserPro user : result) {
+                unique.putIfAbsent(user.getId(), user);
+            }
+        }
+        List<RsInfoUserPro> users = new ArrayList<>(unique.values());
+        users.sort(SEARCH_ORDER);
+        return users.size() > limit ? new ArrayList<>(users.subList(0, limit)) : users;
+    }
+
     /**
      * Поиск id пользователя по номеру телефона. Для restTemplate.
      *
@@ -335,10 +508,28 @@ public class AuthorizationService {
 
     }
   
+    /**
+     * Выход из аккаунта: токен отзывается и больше не принимается ни одним сервисом
+     *
+     * @param token токен пользователя
+     * @return сообщение об успешном/не успешном выходе
+     */
+    public ResponseEntity<?> logout(String token) {
+        if (!jwtUtil.validateToken(token)) {
+            return ResponseEntity
+                    .status(HttpStatus.BAD_REQUEST)
+                    .body("Неверный токен!");
+        }
+
+        tokenRevocationService.revokeToken(jwtUtil.getClaims(token));
+
+        return ResponseEntity
+                .ok("Вы вышли из аккаунта.");
+    }
+
     // TODO нужно перед удалением проверять есть ли у пользователя карты и удалять их тоже!
     public ResponseEntity<?> deleteUser(String token, String password, String phone) {
-        jwtUtil.validateToken(token);
-        Claims claims = jwtUtil.getClaims(token);
+        Claims claims = jwtUtil.getAccessClaims(token);
         Long id = claims.get("id", Long.class);
         Optional<UserEntity> user = userRepository.findById(id);
 
@@ -358,14 +549,14 @@ public class AuthorizationService {
                     .body("Неверный пароль!");
 
         userRepository.deleteById(user.get().getId());
+        tokenRevocationService.revokeUser(user.get().getId());
 
         return ResponseEntity
                 .ok("Успешное удаление");
     }
 
     public ResponseEntity<?> deleteUser(String token, String password, Long id) {
-        jwtUtil.validateToken(token);
-        Claims claims = jwtUtil.getClaims(token);
+        Claims claims = jwtUtil.getAccessClaims(token);
         Long clId = claims.get("id", Long.class);
         Optional<UserEntity> user = userRepository.findById(clId);
 
@@ -385,14 +576,14 @@ public class AuthorizationService {
                     .body("Неверный пароль!");
 
         userRepository.deleteById(id);
+        tokenRevocationService.revokeUser(id);
 
         return ResponseEntity
                 .ok("Успешное удаление");
     }
 
     public ResponseEntity<?> deleteUserByEmail(String token, String password, String email) {
-        jwtUtil.validateToken(token);
-        Claims claims = jwtUtil.getClaims(token);
+        Claims claims = jwtUtil.getAccessClaims(token);
         Long id = claims.get("id", Long.class);
         Optional<UserEntity> user = userRepository.findById(id);
 
@@ -412,12 +603,14 @@ public class AuthorizationService {
                     .body("Неверный пароль!");
 
         userRepository.deleteById(user.get().getId());
+        tokenRevocationService.revokeUser(user.get().getId());
 
         return ResponseEntity
                 .ok("Успешное удаление");
     }
 
     //Валидация пользователя по id
+    @Transactional(readOnly = true)
     public Boolean validateUserByToken(String token) {
         Claims claims = jwtUtil.getClaims(token);
         Long id = claims.get("id", Long.class);
@@ -426,108 +619,58 @@ public class AuthorizationService {
 
 
     public ResponseEntity<?> becomeModer(Long idNewModer) {
-        Optional<UserEntity> user = userRepository.findById(idNewModer);
-
-        if (!user.isPresent()) {
-            return ResponseEntity
-                    .status(HttpStatus.NOT_FOUND)
-                    .body("Данный пользователь не существует!");
-        }
-        List<RoleUserEntity> userRoles = roleUserRepository.findAllByUser(userRepository.findById(idNewModer).get());
-
-        for (RoleUserEntity userRole : userRoles) {
-            if (Objects.equals(userRole.getRole().getRole(), MODER_ROLE)) {
-                return ResponseEntity
-                        .status(HttpStatus.INTERNAL_SERVER_ERROR)
-                        .body("Данный пользователь уже имеет роль MODER");
-            }
-        }
-
-        Optional<RoleEntity> roleModer = roleRepository.findByRole(MODER_ROLE);
-
-        if (!roleModer.isPresent()) {
-            return ResponseEntity
-                    .status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body("Извините, произошла ошибка! Данной роли не существует.");
-        }
+        return grantRole(idNewModer, MODER_ROLE);
+    }
 
-        RoleUserEntity newRoleUser = new RoleUserEntity()
-                .setUser(user.get())
-                .setRole(roleModer.get());
-        roleUserRepository.save(newRoleUser);
+    public ResponseEntity<?> becomeTester(Long idNewTester) {
+        return grantRole(idNewTester, TESTER_ROLE);
+    }
 
-        return ResponseEntity
-                .status(HttpStatus.OK)
-                .body(String.format("Пользователь %s успешно получил роль MODER!", idNewModer));
+    public ResponseEntity<?> becomeHacker(Long idNewHacker) {
+        return grantRole(idNewHacker, HACKER_ROLE);
     }
 
-    public ResponseEntity<?> becomeTester(Long idNewTester) {
-        Optional<UserEntity> user = userRepository.findById(idNewTester);
+    /**
+     * Выдача роли пользователю. Роль берётся из справочника ролей, а не из БД.
+     *
+     * @param userId id пользователя
+     * @param role   название роли
+     * @return сообщение об успешной/не успешной выдаче роли
+     */
+    private ResponseEntity<?> grantRole(Long userId, String role) {
+        Optional<UserEntity> user = userRepository.findById(userId);
         if (!user.isPresent()) {
             return ResponseEntity
                     .status(HttpStatus.NOT_FOUND)
                     .body("Данный пользователь не существует!");
         }
-        Optional<RoleEntity> roleModer = roleRepository.findByRole(TESTER_ROLE);
 
-        List<RoleUserEntity> userRoles = roleUserRepository.findAllByUser(userRepository.findById(idNewTester).get());
-
-        for (RoleUserEntity userRole : userRoles) {
-            if (Objects.equals(userRole.getRole().getRole(), TESTER_ROLE)) {
-                return ResponseEntity
-                        .status(HttpStatus.INTERNAL_SERVER_ERROR)
-                        .body("Данный пользователь уже имеет роль TESTER");
-            }
-        }
-        if (!roleModer.isPresent()) {
+        Optional<RoleRegistry.RoleInfo> roleInfo = roleRegistry.find(role);
+        if (!roleInfo.isPresent()) {
             return ResponseEntity
                     .status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body("Извините, произошла ошибка! Данной роли не существует.");
         }
 
-        RoleUserEntity newRoleUser = new RoleUserEntity()
-                .setUser(user.get())
-                .setRole(roleModer.get());
-        roleUserRepository.save(newRoleUser);
-
-        return ResponseEntity
-                .status(HttpStatus.OK)
-                .body(String.format("Пользователь %s успешно получил роль TESTER!", idNewTester));
-    }
-
-    public ResponseEntity<?> becomeHacker(Long idNewHacker) {
-        Optional<UserEntity> user = userRepository.findById(idNewHacker);
-        if (!user.isPresent()) {
-            return ResponseEntity
-                    .status(HttpStatus.NOT_FOUND)
-                    .body("Данный пользователь не существует!");
-        }
-        Optional<RoleEntity> roleModer = roleRepository.findByRole(HACKER_ROLE);
-
-        List<RoleUserEntity> userRoles = roleUserRepository.findAllByUser(userRepository.findById(idNewHacker).get());
-
-        for (RoleUserEntity userRole : userRoles) {
-            if (Objects.equals(userRole.getRole().getRole(), HACKER_ROLE)) {
-                return ResponseEntity
-                        .status(HttpStatus.INTERNAL_SERVER_ERROR)
-                        .body("Данный пользователь уже имеет роль HACKER");
-            }
-        }
-
-        if (!roleModer.isPresent()) {
+        int roleMask = roleRegistry.maskOf(roleUserRepository.findRoleIdsByUserId(userId));
+        if ((roleMask & roleInfo.get().getBit()) != 0) {
             return ResponseEntity
                     .status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body("Извините, произошла ошибка! Данной роли не существует.");
+                    .body("Данный пользователь уже имеет роль " + role);
         }
 
         RoleUserEntity newRoleUser = new RoleUserEntity()
                 .setUser(user.get())
-                .setRole(roleModer.get());
+                .setRole(roleRepository.getOne(roleInfo.get().getId()));
         roleUserRepository.save(newRoleUser);
 
+        // старые токены пользователя перестают приниматься, с новыми ролями он получит новый токен
+        userRepository.incrementRoleEpoch(userId);
+        tokenRevocationService.raiseRoleEpoch(userId, userRepository.findRoleEpochById(userId).orElse(0));
+
         return ResponseEntity
                 .status(HttpStatus.OK)
-                .body(String.format("Пользователь %s успешно получил роль HACKER!", idNewHacker));
+                .body(String.format("Пользователь %s успешно получил роль %s!", userId, role));
     }
 
 }
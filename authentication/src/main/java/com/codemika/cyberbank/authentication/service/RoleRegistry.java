@@ -0,0 +1,165 @@
+package com.codemika.cyberbank.authentication.service;
+
+import com.codemika.cyberbank.authentication.entity.RoleEntity;
+import com.codemika.cyberbank.authentication.repository.RoleRepository;
+import io.jsonwebtoken.Claims;
+import lombok.RequiredArgsConstructor;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import static com.codemika.cyberbank.authentication.constants.RoleConstants.*;
+
+/**
+ * Справочник ролей в памяти.
+ * Таблица role - маленький и почти неизменяемый справочник, поэтому он загружается при старте
+ * и хранится как неизменяемый снимок: название роли -> (id, бит). Снимок перечитывается по расписанию
+ * и при обращении к неизвестной роли.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class RoleRegistry {
+    private final RoleRepository roleRepository;
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+    /**
+     * Загрузка справочника при старте приложения
+     */
+    @PostConstruct
+    public void load() {
+        refresh();
+    }
+
+    /**
+     * Перечитывание справочника из БД. Снимок заменяется целиком, читатели никогда не видят его частично.
+     */
+    @Scheduled(fixedDelayString = "${cyberbank.roles.refresh-ms:600000}",
+            initialDelayString = "${cyberbank.roles.refresh-ms:600000}")
+    public synchronized void refresh() {
+        Map<String, RoleInfo> byName = new HashMap<>();
+        Map<Long, RoleInfo> byId = new HashMap<>();
+
+        for (RoleEntity role : roleRepository.findAll()) {
+            RoleInfo info = new RoleInfo(role.getId(), role.getRole(), bitOf(role.getRole()));
+            byName.put(info.getRole(), info);
+            byId.put(info.getId(), info);
+        }
+
+        Snapshot fresh = new Snapshot(Collections.unmodifiableMap(byName), Collections.unmodifiableMap(byId));
+        if (!fresh.byName.equals(snapshot.byName)) {
+            log.info("Справочник ролей обновлён: {}", fresh.byName.values());
+        }
+        snapshot = fresh;
+    }
+
+    /**
+     * Поиск роли по названию. Если роли нет в снимке, справочник перечитывается один раз.
+     *
+     * @param role название роли
+     * @return id и бит роли
+     */
+    public Optional<RoleInfo> find(String role) {
+        RoleInfo info = snapshot.byName.get(role);
+        if (info == null) {
+            refresh();
+            info = snapshot.byName.get(role);
+        }
+        return Optional.ofNullable(info);
+    }
+
+    /**
+     * Ссылка на сущность роли для сохранения связи role_user (без запроса в БД)
+     *
+     * @param role название роли
+     * @return ссылка на RoleEntity
+     */
+    public Optional<RoleEntity> findEntity(String role) {
+        return find(role).map(info -> roleRepository.getOne(info.getId()));
+    }
+
+    /**
+     * Битовая маска ролей по их id
+     *
+     * @param roleIds id ролей пользователя
+     * @return битовая маска
+     */
+    public int maskOf(Collection<Long> roleIds) {
+        Map<Long, RoleInfo> byId = snapshot.byId;
+        int mask = 0;
+        for (Long roleId : roleIds) {
+            RoleInfo info = byId.get(roleId);
+            if (info == null) {
+                refresh();
+                byId = snapshot.byId;
+                info = byId.get(roleId);
+            }
+            if (info != null) {
+                mask |= info.getBit();
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Заполнение ролевых claims токена по битовой маске
+     *
+     * @param claims claims будущего токена
+     * @param mask   битовая маска ролей
+     */
+    public void putRoleClaims(Claims claims, int mask) {
+        claims.put(IS_USER_ROLE_EXIST_CLAIMS_KEY, (mask & USER_ROLE_BIT) != 0);
+        claims.put(IS_MODER_ROLE_EXIST_CLAIMS_KEY, (mask & MODER_ROLE_BIT) != 0);
+        claims.put(IS_TESTER_ROLE_EXIST_CLAIMS_KEY, (mask & TESTER_ROLE_BIT) != 0);
+        claims.put(IS_HACKER_ROLE_EXIST_CLAIMS_KEY, (mask & HACKER_ROLE_BIT) != 0);
+    }
+
+    /**
+     * Бит роли по её названию. Неизвестные роли битов не имеют.
+     */
+    static int bitOf(String role) {
+        if (role == null) return 0;
+        switch (role) {
+            case USER_ROLE:
+                return USER_ROLE_BIT;
+            case MODER_ROLE:
+                return MODER_ROLE_BIT;
+            case TESTER_ROLE:
+                return TESTER_ROLE_BIT;
+            case HACKER_ROLE:
+                return HACKER_ROLE_BIT;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Запись справочника: id роли, её название и бит
+     */
+    @Value
+    public static class RoleInfo {
+        Long id;
+        String role;
+        int bit;
+    }
+
+    private static class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(Collections.emptyMap(), Collections.emptyMap());
+
+        final Map<String, RoleInfo> byName;
+        final Map<Long, RoleInfo> byId;
+
+        Snapshot(Map<String, RoleInfo> byName, Map<Long, RoleInfo> byId) {
+            this.byName = byName;
+            this.byId = byId;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.codemika.cyberbank.authentication.service;
+
+import com.codemika.cyberbank.authentication.dto.UserRoleEpoch;
+import com.codemika.cyberbank.authentication.repository.RevocationRepository;
+import com.codemika.cyberbank.authentication.repository.UserRepository;
+import com.codemika.cyberbank.authentication.util.JwtUtil;
+import com.codemika.cyberbank.authentication.util.RevocationList;
+import io.jsonwebtoken.Claims;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
+
+import javax.annotation.PreDestroy;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Отзыв токенов (выход из аккаунта, удаление пользователя, изменение ролей).
+ * Отзывы проверяются по памяти (см. RevocationList) и рассылаются остальным сервисам подписанным токеном,
+ * поэтому ни здесь, ни в других сервисах проверка токена не ходит ни в БД, ни по сети.
+ * Сервисы, которые пропустили рассылку (например, были выключены), забирают полный снимок сами.
+ * Каждый отзыв сначала сохраняется в БД (см. RevocationRepository): при старте и периодически отзывы
+ * перечитываются оттуда, поэтому они переживают перезапуск и видны всем экземплярам сервиса.
+ */
+@Slf4j
+@Service
+public class TokenRevocationService {
+    /**
+     * Сколько живёт подписанное сообщение об отзывах (мс)
+     */
+    private static final long MESSAGE_VALIDITY_MILLIS = 60_000L;
+
+    private final RevocationList revocationList = new RevocationList();
+    private final UserRepository userRepository;
+    private final RevocationRepository revocationRepository;
+    private final JwtUtil jwtUtil;
+    private final List<String> subscribers;
+    private final RestTemplate restTemplate;
+    private final ExecutorService publisher = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "revocation-publisher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public TokenRevocationService(UserRepository userRepository,
+                                  RevocationRepository revocationRepository,
+                                  JwtUtil jwtUtil,
+                                  @Qualifier("directRestTemplate") RestTemplate restTemplate,
+                                  @Value("${cyberbank.security.subscribers:}") List<String> subscribers) {
+        this.userRepository = userRepository;
+        this.revocationRepository = revocationRepository;
+        this.jwtUtil = jwtUtil;
+        this.restTemplate = restTemplate;
+        this.subscribers = subscribers;
+    }
+
+    /**
+     * Отзыв одного токена (выход из аккаунта)
+     *
+     * @param claims информация из отзываемого токена
+     */
+    public void revokeToken(Claims claims) {
+        if (claims.getId() == null || claims.getExpiration() == null) {
+            // старые токены без id можно отозвать только все сразу
+            revokeUser(claims.get("id", Long.class));
+            return;
+        }
+        consumeToken(claims);
+    }
+
+    /**
+     * Одноразовое использование токена (токена обновления): токен отзывается, если ещё не был отозван.
+     * Решает вставка в БД (запись хранится до истечения токена), поэтому из двух одновременных запросов
+     * с одним токеном пройдёт только один - даже на разных экземплярах сервиса и после перезапуска.
+     *
+     * @param claims информация из токена
+     * @return false - токен уже был использован или отозван
+     */
+    public boolean consumeToken(Claims claims) {
+        if (claims.getId() == null || claims.getExpiration() == null) {
+            return false;
+        }
+        long jti = RevocationList.parseJti(claims.getId());
+        long exp = claims.getExpiration().getTime() / 1000;
+        boolean consumed = revocationRepository.saveToken(jti, exp);
+        revocationList.revokeToken(jti, exp);
+        if (!consumed) {
+            return false;
+        }
+        publish(RevocationList.toClaims(
+                Collections.singletonList(new long[]{jti, exp}), Collections.emptyMap(), Collections.emptyMap()));
+        return true;
+    }
+
+    /**
+     * Отзыв всех выданных на данный момент токенов пользователя (удаление пользователя)
+     *
+     * @param userId id пользователя
+     */
+    public void revokeUser(Long userId) {
+        long now = System.currentTimeMillis() / 1000;
+        revocationRepository.saveUser(userId, now);
+        revocationList.revokeUser(userId, now);
+        publish(RevocationList.toClaims(
+                Collections.emptyList(), Collections.singletonMap(userId, now), Collections.emptyMap()));
+    }
+
+    /**
+     * Новая эпоха ролей пользователя: все его токены со старой эпохой перестают приниматься
+     *
+     * @param userId id пользователя
+     * @param epoch  новая эпоха ролей
+     */
+    public void raiseRoleEpoch(Long userId, int epoch) {
+        revocationList.raiseRoleEpoch(userId, epoch);
+        publish(RevocationList.toClaims(
+                Collections.emptyList(), Collections.emptyMap(), Collections.singletonMap(userId, epoch)));
+    }
+
+    /**
+     * Загрузка отзывов и эпох ролей из БД при старте и периодически - чтобы увидеть отзывы,
+     * сделанные другими экземплярами сервиса. Отзывы только добавляются, поэтому повторная загрузка безопасна.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(fixedDelayString = "${cyberbank.security.sync-ms:60000}",
+            initialDelayString = "${cyberbank.security.sync-ms:60000}")
+    public void loadRevocations() {
+        long now = System.currentTimeMillis() / 1000;
+        try {
+            revocationRepository.findTokens(now, revocationList::revokeToken);
+            revocationRepository.findUsers(now - RevocationList.MAX_TOKEN_LIFETIME_SECONDS,
+                    revocationList::revokeUser);
+            log.debug("Загружены отозванные токены: {}", revocationList.size());
+        } catch (RuntimeException e) {
+            log.error("Не удалось загрузить отозванные токены: " + e.getMessage());
+        }
+        try {
+            List<UserRoleEpoch> epochs = userRepository.findChangedRoleEpochs();
+            epochs.forEach(user -> revocationList.raiseRoleEpoch(user.getId(), user.getRoleEpoch()));
+            log.debug("Загружены эпохи ролей {} пользователей", epochs.size());
+        } catch (RuntimeException e) {
+            log.error("Не удалось загрузить эпохи ролей: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @param claims информация из токена
+     * @return true - роли пользователя изменились после выдачи токена
+     */
+    public boolean hasStaleRoles(Claims claims) {
+        return revocationList.hasStaleRoles(claims);
+    }
+
+    /**
+     * @param claims информация из токена
+     * @return true - токен отозван
+     */
+    public boolean isRevoked(Claims claims) {
+        return revocationList.isRevoked(claims);
+    }
+
+    /**
+     * @param claims информация из токена
+     * @return true - отозваны все токены пользователя, выданные не позже этого
+     */
+    public boolean isUserRevoked(Claims claims) {
+        return revocationList.isUserRevoked(claims);
+    }
+
+    /**
+     * @return подписанный снимок всех отзывов
+     */
+    public String snapshot() {
+        return jwtUtil.generateToken(revocationList.snapshot(), MESSAGE_VALIDITY_MILLIS);
+    }
+
+    /**
+     * Выбрасывание отзывов уже истёкших токенов
+     */
+    @Scheduled(fixedDelayString = "${cyberbank.security.purge-ms:3600000}")
+    public void purgeExpired() {
+        long now = System.currentTimeMillis() / 1000;
+        revocationList.purgeExpired(now);
+        try {
+            revocationRepository.deleteExpired(now, now - RevocationList.MAX_TOKEN_LIFETIME_SECONDS);
+        } catch (RuntimeException e) {
+            log.error("Не удалось удалить истёкшие отзывы из БД: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Асинхронная рассылка отзывов остальным сервисам. Ошибки только логируются:
+     * сервис, не получивший сообщение, заберёт его со следующим снимком.
+     */
+    private void publish(Claims event) {
+        if (subscribers.isEmpty()) return;
+        String message = jwtUtil.generateToken(event, MESSAGE_VALIDITY_MILLIS);
+        publisher.execute(() -> {
+            for (String subscriber : subscribers) {
+                try {
+                    restTemplate.postForEntity(subscriber, message, String.class);
+                } catch (RuntimeException e) {
+                    log.error("Не удалось отправить отзыв токенов в " + subscriber + ": " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        publisher.shutdown();
+    }
+}
@@ -0,0 +1,141 @@
+package com.codemika.cyberbank.authentication.service;
+
+import com.codemika.cyberbank.authentication.dto.UserContacts;
+import com.codemika.cyberbank.authentication.repository.UserRepository;
+import com.codemika.cyberbank.authentication.util.ScalableBloomFilter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.stream.Stream;
+
+/**
+ * Фильтры Блума по телефонам и почтам зарегистрированных пользователей.
+ * Позволяют ответить "такого пользователя точно нет" без запроса в БД.
+ * Строятся при старте потоковым чтением таблицы user, пополняются при регистрации
+ * и периодически перестраиваются заново, чтобы забыть удалённых пользователей.
+ * Пока фильтры не построены, все проверки отвечают "возможно есть" и идут в БД.
+ * Фильтры свои у каждого экземпляра сервиса и не знают о регистрациях через другие экземпляры (до перестроения),
+ * поэтому "точно нет" годится только для предварительной проверки при регистрации: уникальность телефона и почты
+ * всё равно проверяет БД при вставке. Поиск пользователей (вход, по телефону, по почте) идёт в БД без фильтра.
+ */
+@Slf4j
+@Component
+public class UserBloomFilter {
+    private final UserRepository userRepository;
+    private final TransactionTemplate readOnlyTransaction;
+    private final int expectedUsers;
+    private final double falsePositiveRate;
+
+    private volatile Filters current;
+    private volatile Filters building; // новые фильтры во время перестроения
+    /**
+     * Добавление и замена фильтров не пересекаются: иначе пользователь, добавленный между чтением current и building,
+     * мог попасть только в старые фильтры, которые тут же заменились новыми
+     */
+    private final Object publishLock = new Object();
+
+    public UserBloomFilter(UserRepository userRepository,
+                           PlatformTransactionManager transactionManager,
+                           @Value("${cyberbank.bloom.expected-users:100000}") int expectedUsers,
+                           @Value("${cyberbank.bloom.false-positive-rate:0.01}") double falsePositiveRate) {
+        this.userRepository = userRepository;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.expectedUsers = expectedUsers;
+        this.falsePositiveRate = falsePositiveRate;
+    }
+
+    /**
+     * Построение фильтров после старта приложения
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void build() {
+        rebuild();
+    }
+
+    /**
+     * Полное перестроение фильтров. Регистрации во время перестроения попадают и в старые, и в новые фильтры.
+     */
+    @Scheduled(fixedDelayString = "${cyberbank.bloom.rebuild-ms:3600000}",
+            initialDelayString = "${cyberbank.bloom.rebuild-ms:3600000}")
+    public synchronized void rebuild() {
+        long start = System.currentTimeMillis();
+        Filters fresh = new Filters(expectedUsers, falsePositiveRate);
+        synchronized (publishLock) {
+            building = fresh;
+        }
+        try {
+            readOnlyTransaction.execute(status -> {
+                try (Stream<UserContacts> contacts = userRepository.streamAllContacts()) {
+                    contacts.forEach(contact -> fresh.add(contact.getPhone(), contact.getEmail()));
+                }
+                return null;
+            });
+            synchronized (publishLock) {
+                current = fresh;
+                building = null;
+            }
+            log.info("Фильтр Блума пользователей построен: {} записей, {} КБ, {} мс",
+                    fresh.phones.size(), (fresh.phones.sizeInBytes() + fresh.emails.sizeInBytes()) / 1024,
+                    System.currentTimeMillis() - start);
+        } catch (RuntimeException e) {
+            log.error("Не удалось построить фильтр Блума пользователей: " + e.getMessage());
+        } finally {
+            synchronized (publishLock) {
+                building = null;
+            }
+        }
+    }
+
+    /**
+     * Добавление нового пользователя. Вызывать после сохранения пользователя в БД.
+     *
+     * @param phone телефон
+     * @param email эл. почта
+     */
+    public void add(String phone, String email) {
+        synchronized (publishLock) {
+            if (current != null) current.add(phone, email);
+            if (building != null) building.add(phone, email);
+        }
+    }
+
+    /**
+     * @param phone номер телефона
+     * @return false - пользователя с таким телефоном точно нет
+     */
+    public boolean mightContainPhone(String phone) {
+        Filters filters = current;
+        return phone == null || filters == null || filters.phones.mightContain(phone);
+    }
+
+    /**
+     * @param email эл. почта
+     * @return false - пользователя с такой почтой точно нет
+     */
+    public boolean mightContainEmail(String email) {
+        Filters filters = current;
+        return email == null || filters == null || filters.emails.mightContain(email);
+    }
+
+    private static class Filters {
+        final ScalableBloomFilter phones;
+        final ScalableBloomFilter emails;
+
+        Filters(int expectedUsers, double falsePositiveRate) {
+            this.phones = new ScalableBloomFilter(expectedUsers, falsePositiveRate);
+            this.emails = new ScalableBloomFilter(expectedUsers, falsePositiveRate);
+        }
+
+        void add(String phone, String email) {
+            if (phone != null) phones.add(phone);
+            if (email != null) emails.add(email);
+        }
+    }
+}
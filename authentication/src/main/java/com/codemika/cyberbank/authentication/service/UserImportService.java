@@ -0,0 +1,340 @@
+package com.codemika.cyberbank.authentication.service;
+
+import com.codemika.cyberbank.authentication.dto.RqCreateUser;
+import com.codemika.cyberbank.authentication.dto.RsImportUsers;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+import static com.codemika.cyberbank.authentication.annotation.CheckUserAspect.checkFields;
+import static com.codemika.cyberbank.authentication.constants.RoleConstants.USER_ROLE;
+
+/**
+ * Массовый импорт пользователей (например, клиентов банка-партнёра).
+ * Вход читается потоково построчно (CSV или NDJSON), строки набираются в порции,
+ * пароли порции хешируются параллельно на всех ядрах, а пользователи и их роли
+ * вставляются пакетными запросами - одна транзакция на порцию.
+ * Уникальность телефона и почты обеспечивает сама БД: пользователь, зарегистрированный одновременно с импортом
+ * (в том числе через другой экземпляр сервиса), не вставляется второй раз, а строка импорта пропускается.
+ */
+@Slf4j
+@Service
+public class UserImportService {
+    private static final int MAX_REPORTED_ERRORS = 100;
+    private static final String CSV_HEADER = "name,surname,patronymic,phone,email,password";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final PasswordEncoder passwordEncoder;
+    private final RoleRegistry roleRegistry;
+    private final UserBloomFilter userBloomFilter;
+    private final ObjectMapper objectMapper;
+    private final int chunkSize;
+    private final ForkJoinPool hashingPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    public UserImportService(JdbcTemplate jdbcTemplate,
+                             PlatformTransactionManager transactionManager,
+                             PasswordEncoder passwordEncoder,
+                             RoleRegistry roleRegistry,
+                             UserBloomFilter userBloomFilter,
+                             ObjectMapper objectMapper,
+                             @Value("${cyberbank.import.chunk-size:1000}") int chunkSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.namedJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.passwordEncoder = passwordEncoder;
+        this.roleRegistry = roleRegistry;
+        this.userBloomFilter = userBloomFilter;
+        this.objectMapper = objectMapper;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Импорт пользователей из потока
+     *
+     * @param input  поток с пользователями
+     * @param format формат: "csv" (name,surname,patronymic,phone,email,password) или "ndjson" (по RqCreateUser на строку)
+     * @return сколько пользователей импортировано и пропущено, первые ошибки
+     */
+    public RsImportUsers importUsers(InputStream input, String format) throws IOException {
+        long start = System.currentTimeMillis();
+        boolean csv = "csv".equalsIgnoreCase(format);
+        Long userRoleId = roleRegistry.find(USER_ROLE)
+                .orElseThrow(() -> new IllegalStateException("Данная роль не существует"))
+                .getId();
+
+        RsImportUsers result = new RsImportUsers();
+        List<Row> chunk = new ArrayList<>(chunkSize);
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8))) {
+            String line;
+            long lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().isEmpty() || (csv && lineNumber == 1 && line.trim().equalsIgnoreCase(CSV_HEADER))) {
+                    continue;
+                }
+
+                RqCreateUser rq;
+                try {
+                    rq = csv ? parseCsv(line) : objectMapper.readValue(line, RqCreateUser.class);
+                } catch (IOException | IllegalArgumentException e) {
+                    skip(result, lineNumber, "не удалось разобрать строку");
+                    continue;
+                }
+
+                String missing = missingField(rq);
+                if (missing != null) {
+                    skip(result, lineNumber, "не заполнено поле " + missing);
+                    continue;
+                }
+                ResponseEntity<?> check = checkFields(rq);
+                if (!check.getStatusCode().is2xxSuccessful()) {
+                    skip(result, lineNumber, String.valueOf(check.getBody()));
+                    continue;
+                }
+
+                chunk.add(new Row(lineNumber, rq));
+                if (chunk.size() >= chunkSize) {
+                    flush(chunk, userRoleId, result);
+                    chunk.clear();
+                }
+            }
+        }
+        if (!chunk.isEmpty()) {
+            flush(chunk, userRoleId, result);
+        }
+
+        result.setMillis(System.currentTimeMillis() - start);
+        log.info("Импорт пользователей: добавлено {}, пропущено {}, {} мс",
+                result.getImported(), result.getSkipped(), result.getMillis());
+        return result;
+    }
+
+    /**
+     * Обработка одной порции: отсев существующих и повторяющихся, параллельное хеширование, пакетная вставка
+     */
+    private void flush(List<Row> chunk, Long userRoleId, RsImportUsers result) {
+        Set<String> taken = findTakenContacts(chunk);
+        List<Row> fresh = new ArrayList<>(chunk.size());
+        for (Row row : chunk) {
+            String phone = row.rq.getPhone();
+            String email = row.rq.getEmail();
+            if (!taken.add("phone:" + phone) | !taken.add("email:" + email)) {
+                skip(result, row.lineNumber, "Такой человек уже существует!");
+                continue;
+            }
+            fresh.add(row);
+        }
+        if (fresh.isEmpty()) return;
+
+        hashPasswords(fresh);
+
+        List<Row> inserted = transactionTemplate.execute(status -> {
+            List<Row> rows = insertUsers(fresh, result);
+            List<Long> ids = new ArrayList<>(rows.size());
+            for (Row row : rows) {
+                ids.add(row.id);
+            }
+            jdbcTemplate.batchUpdate(
+                    "INSERT INTO cyberbank_auth.role_user (user_id, role_id) VALUES (?, ?)",
+                    ids, ids.size(),
+                    (ps, id) -> {
+                        ps.setLong(1, id);
+                        ps.setLong(2, userRoleId);
+                    });
+            return rows;
+        });
+
+        for (Row row : inserted) {
+            userBloomFilter.add(row.rq.getPhone(), row.rq.getEmail());
+        }
+        result.setImported(result.getImported() + inserted.size());
+    }
+
+    /**
+     * Телефоны и почты порции, которые уже заняты в БД (одним запросом на порцию).
+     * Если фильтр Блума говорит, что ни одного из них точно нет, запрос не выполняется.
+     */
+    private Set<String> findTakenContacts(List<Row> chunk) {
+        Set<String> phones = new HashSet<>();
+        Set<String> emails = new HashSet<>();
+        for (Row row : chunk) {
+            if (userBloomFilter.mightContainPhone(row.rq.getPhone())) phones.add(row.rq.getPhone());
+            if (userBloomFilter.mightContainEmail(row.rq.getEmail())) emails.add(row.rq.getEmail());
+        }
+        Set<String> taken = new HashSet<>();
+        if (phones.isEmpty() && emails.isEmpty()) return taken;
+
+        // пустой IN () недопустим в SQL, поэтому подставляем значение, которого точно нет
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("phones", phones.isEmpty() ? Collections.singleton("") : phones)
+                .addValue("emails", emails.isEmpty() ? Collections.singleton("") : emails);
+        namedJdbcTemplate.query(
+                "SELECT phone, email FROM cyberbank_auth.\"user\" WHERE phone IN (:phones) OR email IN (:emails)",
+                params,
+                rs -> {
+                    taken.add("phone:" + rs.getString("phone"));
+                    taken.add("email:" + rs.getString("email"));
+                });
+        return taken;
+    }
+
+    /**
+     * Параллельное хеширование паролей порции в отдельном пуле по числу ядер
+     */
+    private void hashPasswords(List<Row> rows) {
+        try {
+            hashingPool.submit(() -> rows.parallelStream()
+                    .forEach(row -> row.passwordHash = passwordEncoder.encode(row.rq.getPassword())))
+                    .get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Импорт прерван", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Не удалось захешировать пароли: " + e.getCause().getMessage(), e);
+        }
+    }
+
+    /**
+     * Пакетная вставка пользователей с получением их id.
+     * Строки, телефон или почту которых успели занять после проверки в findTakenContacts, не вставляются
+     * (ON CONFLICT DO NOTHING) и пропускаются.
+     *
+     * @return вставленные строки (с заполненным id)
+     */
+    private List<Row> insertUsers(List<Row> rows, RsImportUsers result) {
+        return jdbcTemplate.execute((java.sql.Connection connection) -> {
+            List<Row> inserted = new ArrayList<>(rows.size());
+            try (PreparedStatement ps = connection.prepareStatement(
+                    "INSERT INTO cyberbank_auth.\"user\" (name, surname, patronymic, phone, email, password) " +
+                            "VALUES (?, ?, ?, ?, ?, ?) ON CONFLICT DO NOTHING",
+                    new String[]{"id"})) {
+                for (Row row : rows) {
+                    ps.setString(1, row.rq.getName());
+                    ps.setString(2, row.rq.getSurname());
+                    ps.setString(3, row.rq.getPatronymic());
+                    ps.setString(4, row.rq.getPhone());
+                    ps.setString(5, row.rq.getEmail());
+                    ps.setString(6, row.passwordHash);
+                    ps.addBatch();
+                }
+                int[] counts = ps.executeBatch();
+                // ключи возвращаются только для вставленных строк, по порядку
+                try (ResultSet keys = ps.getGeneratedKeys()) {
+                    for (int i = 0; i < rows.size(); i++) {
+                        Row row = rows.get(i);
+                        if (counts[i] == 0) {
+                            skip(result, row.lineNumber, "Такой человек уже существует!");
+                            continue;
+                        }
+                        keys.next();
+                        row.id = keys.getLong(1);
+                        inserted.add(row);
+                    }
+                }
+            }
+            return inserted;
+        });
+    }
+
+    /**
+     * Разбор строки CSV: name,surname,patronymic,phone,email,password. Поддерживаются значения в кавычках.
+     */
+    static RqCreateUser parseCsv(String line) {
+        List<String> fields = new ArrayList<>(6);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        if (fields.size() != 6) {
+            throw new IllegalArgumentException("Ожидалось 6 полей, получено " + fields.size());
+        }
+        return new RqCreateUser()
+                .setName(fields.get(0))
+                .setSurname(fields.get(1))
+                .setPatronymic(fields.get(2))
+                .setPhone(fields.get(3))
+                .setEmail(fields.get(4))
+                .setPassword(fields.get(5));
+    }
+
+    /**
+     * Имя первого незаполненного поля (в NDJSON поле может отсутствовать)
+     *
+     * @return имя поля или null, если заполнены все
+     */
+    static String missingField(RqCreateUser rq) {
+        if (rq.getName() == null) return "name";
+        if (rq.getSurname() == null) return "surname";
+        if (rq.getPatronymic() == null) return "patronymic";
+        if (rq.getPhone() == null) return "phone";
+        if (rq.getEmail() == null) return "email";
+        if (rq.getPassword() == null) return "password";
+        return null;
+    }
+
+    private static void skip(RsImportUsers result, long lineNumber, String reason) {
+        result.setSkipped(result.getSkipped() + 1);
+        if (result.getErrors().size() < MAX_REPORTED_ERRORS) {
+            result.getErrors().add("строка " + lineNumber + ": " + reason);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        hashingPool.shutdown();
+    }
+
+    private static class Row {
+        final long lineNumber;
+        final RqCreateUser rq;
+        String passwordHash;
+        Long id;
+
+        Row(long lineNumber, RqCreateUser rq) {
+            this.lineNumber = lineNumber;
+            this.rq = rq;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.codemika.cyberbank.authentication.tracing;
+
+import com.codemika.cyberbank.shared.tracing.Span;
+import com.codemika.cyberbank.shared.tracing.TraceCollector;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Текущий участок трассировки потока. Участки вкладываются друг в друга:
+ * каждый новый участок - дочерний для текущего, а после завершения текущим снова становится предыдущий.
+ */
+@Component
+public class Tracer {
+    private final ThreadLocal<Span> current = new ThreadLocal<>();
+    private final TraceCollector collector;
+    private final String service;
+
+    public Tracer(TraceCollector collector, @Value("${spring.application.name:authentication}") String service) {
+        this.collector = collector;
+        this.service = service;
+    }
+
+    /**
+     * Участок входящего запроса: продолжение трассировки из заголовка traceparent или новая трассировка
+     *
+     * @param traceparent заголовок traceparent (может быть null)
+     * @param name        название участка
+     * @return участок (завершить через finish)
+     */
+    public Span startServerSpan(String traceparent, String name) {
+        Span span = Span.fromTraceparent(traceparent, service, name, current.get());
+        current.set(span);
+        return span;
+    }
+
+    /**
+     * Дочерний участок текущего
+     *
+     * @param name название участка
+     * @return участок или null, если в потоке нет текущей трассировки (фоновые задачи не трассируются)
+     */
+    public Span startSpan(String name) {
+        Span parent = current.get();
+        if (parent == null) {
+            return null;
+        }
+        Span span = parent.child(service, name);
+        current.set(span);
+        return span;
+    }
+
+    /**
+     * Завершение участка: он уходит в сборщик, текущим становится предыдущий участок
+     *
+     * @param span участок (null - ничего не делать)
+     */
+    public void finish(Span span) {
+        if (span == null) {
+            return;
+        }
+        span.finish();
+        if (span.previous() == null) {
+            current.remove();
+        } else {
+            current.set(span.previous());
+        }
+        collector.record(span);
+    }
+
+    /**
+     * @return текущий участок или null
+     */
+    public Span currentSpan() {
+        return current.get();
+    }
+}
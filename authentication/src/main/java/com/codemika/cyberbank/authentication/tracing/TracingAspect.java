@@ -0,0 +1,59 @@
+package com.codemika.cyberbank.authentication.tracing;
+
+import com.codemika.cyberbank.shared.tracing.Span;
+import lombok.RequiredArgsConstructor;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.stereotype.Component;
+
+/**
+ * Участки трассировки вокруг запросов в БД (методы репозиториев) и BCrypt (PasswordEncoder).
+ * Вне трассируемого запроса (фоновые задачи, параллельное хеширование при импорте) ничего не записывается.
+ */
+@Aspect
+@Component
+@RequiredArgsConstructor
+public class TracingAspect {
+    private final Tracer tracer;
+
+    @Around("execution(* org.springframework.data.repository.Repository+.*(..))")
+    public Object traceRepository(ProceedingJoinPoint joinPoint) throws Throwable {
+        if (tracer.currentSpan() == null) {
+            return joinPoint.proceed();
+        }
+        return trace("db " + repositoryName(joinPoint) + "." + joinPoint.getSignature().getName(), joinPoint);
+    }
+
+    @Around("execution(* org.springframework.security.crypto.password.PasswordEncoder+.*(..))")
+    public Object tracePasswordEncoder(ProceedingJoinPoint joinPoint) throws Throwable {
+        if (tracer.currentSpan() == null) {
+            return joinPoint.proceed();
+        }
+        return trace("bcrypt " + joinPoint.getSignature().getName(), joinPoint);
+    }
+
+    private Object trace(String name, ProceedingJoinPoint joinPoint) throws Throwable {
+        Span span = tracer.startSpan(name);
+        try {
+            return joinPoint.proceed();
+        } catch (Throwable e) {
+            span.error(e);
+            throw e;
+        } finally {
+            tracer.finish(span);
+        }
+    }
+
+    /**
+     * Имя нашего интерфейса репозитория (у унаследованных методов вроде findById объявляющий тип - CrudRepository)
+     */
+    private static String repositoryName(ProceedingJoinPoint joinPoint) {
+        for (Class<?> type : joinPoint.getTarget().getClass().getInterfaces()) {
+            if (type.getName().startsWith("com.codemika.")) {
+                return type.getSimpleName();
+            }
+        }
+        return joinPoint.getSignature().getDeclaringType().getSimpleName();
+    }
+}
@@ -1,12 +1,22 @@
 package com.codemika.cyberbank.authentication.util;
 
+import com.codemika.cyberbank.shared.util.InternalClaims;
 import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Date;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static com.codemika.cyberbank.authentication.constants.RoleConstants.ROLE_EPOCH_CLAIMS_KEY;
+import static com.codemika.cyberbank.authentication.constants.RoleConstants.ROLE_MASK_CLAIMS_KEY;
 
 /**
  * Это класс для jwt-токенов
@@ -19,6 +29,39 @@ public class JwtUtil {
      */
     private final String SIGN = "SuPErSecRETsign228CyBERbANk";
 
+    /**
+     * Длительность токена пользователя - 69,(4) дней
+     */
+    public static final long TOKEN_VALIDITY_MILLIS = 6_000_000_000L;
+
+    /**
+     * Короткий токен доступа (только id и роли) живёт 15 минут, токен обновления - 30 дней
+     */
+    public static final long ACCESS_TOKEN_VALIDITY_MILLIS = 15 * 60 * 1000L;
+    public static final long REFRESH_TOKEN_VALIDITY_MILLIS = 30L * 24 * 60 * 60 * 1000;
+
+    /**
+     * Тип токена: короткий токен доступа или токен обновления. У старых токенов типа нет.
+     */
+    public static final String TOKEN_TYPE_CLAIMS_KEY = "typ";
+    public static final String ACCESS_TOKEN_TYPE = "access";
+    public static final String REFRESH_TOKEN_TYPE = "refresh";
+
+    /**
+     * Атрибут запроса, в котором лежат уже разобранные claims (см. getAccessClaims)
+     */
+    private static final String CLAIMS_ATTRIBUTE = JwtUtil.class.getName() + ".claims";
+
+    /**
+     * Ключ подписи заголовка с проверенными на шлюзе claims (см. InternalClaims). Пустой - заголовку не доверяем.
+     */
+    private byte[] internalKey = new byte[0];
+
+    @Value("${cyberbank.security.internal-key:}")
+    public void setInternalKey(String internalKey) {
+        this.internalKey = internalKey.getBytes(StandardCharsets.UTF_8);
+    }
+
     /**
      * Создание нового токена. Используется при входе
      * Длительность токена 69,(4) дней
@@ -27,18 +70,62 @@ public class JwtUtil {
      * @return Токен
      */
     public String generateToken(Claims claims) {
+        return generateToken(claims, TOKEN_VALIDITY_MILLIS);
+    }
+
+    /**
+     * Создание нового токена с заданной длительностью.
+     * Каждый токен получает свой id (jti), по которому его можно отозвать (см. RevocationList).
+     *
+     * @param claims         информация, содержащаяся в токене
+     * @param validityMillis длительность токена (мс)
+     * @return Токен
+     */
+    public String generateToken(Claims claims, long validityMillis) {
         long nowMillis = System.currentTimeMillis();
-        long expirationMillis = nowMillis + 6_000_000_000L;
-        Date exp = new Date(expirationMillis);
+        Date exp = new Date(nowMillis + validityMillis);
 
-        return Jwts.builder().
-                setIssuedAt(new Date(System.currentTimeMillis()))
+        // setClaims заменяет все claims, поэтому jti, iat и exp ставятся после него
+        return Jwts.builder()
                 .setClaims(claims)
+                .setId(Long.toString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE))
+                .setIssuedAt(new Date(nowMillis))
                 .setExpiration(exp)
                 .signWith(SignatureAlgorithm.HS512, SIGN)
                 .compact();
     }
 
+    /**
+     * Создание короткого токена доступа: только id пользователя и битовая маска ролей.
+     * Такой токен в несколько раз меньше обычного и быстрее проверяется.
+     *
+     * @param userId    id пользователя
+     * @param roleMask  битовая маска ролей (см. RoleConstants)
+     * @param roleEpoch эпоха ролей пользователя, из которой взята маска
+     * @return Токен
+     */
+    public String generateAccessToken(Long userId, int roleMask, int roleEpoch) {
+        Claims claims = Jwts.claims();
+        claims.put("id", userId);
+        claims.put(ROLE_MASK_CLAIMS_KEY, roleMask);
+        claims.put(ROLE_EPOCH_CLAIMS_KEY, roleEpoch);
+        claims.put(TOKEN_TYPE_CLAIMS_KEY, ACCESS_TOKEN_TYPE);
+        return generateToken(claims, ACCESS_TOKEN_VALIDITY_MILLIS);
+    }
+
+    /**
+     * Создание токена обновления. Годится только для получения новой пары токенов и только один раз.
+     *
+     * @param userId id пользователя
+     * @return Токен
+     */
+    public String generateRefreshToken(Long userId) {
+        Claims claims = Jwts.claims();
+        claims.put("id", userId);
+        claims.put(TOKEN_TYPE_CLAIMS_KEY, REFRESH_TOKEN_TYPE);
+        return generateToken(claims, REFRESH_TOKEN_VALIDITY_MILLIS);
+    }
+
     /**
      * Проверка токена
      *
@@ -55,6 +142,44 @@ public class JwtUtil {
         return false;
     }
 
+    /**
+     * Извлечение информации из токена доступа в рамках текущего запроса.
+     * Если запрос пришёл через шлюз, claims берутся из подписанного шлюзом заголовка (одна HMAC вместо разбора JWT).
+     * Разобранные claims запоминаются в атрибутах запроса, поэтому аспект проверки ролей и сервис
+     * разбирают токен один раз на запрос. Вне запроса работает как getClaims.
+     * В заголовке шлюза только id, роли, эпоха ролей и служебные поля - для остальных claims нужен getClaims.
+     *
+     * @param token токен
+     * @return Информацию, содержащуюся в токене, или null, если токен неверный
+     */
+    public Claims getAccessClaims(String token) {
+        token = InternalClaims.normalize(token);
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes == null) {
+            return getClaims(token);
+        }
+
+        Object cached = attributes.getAttribute(CLAIMS_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        if (cached instanceof ParsedToken && ((ParsedToken) cached).token.equals(token)) {
+            return ((ParsedToken) cached).claims;
+        }
+
+        Claims claims = null;
+        if (internalKey.length > 0 && attributes instanceof ServletRequestAttributes) {
+            String header = ((ServletRequestAttributes) attributes).getRequest().getHeader(InternalClaims.HEADER);
+            if (header != null) {
+                claims = InternalClaims.decode(header, token, internalKey);
+            }
+        }
+        if (claims == null) {
+            claims = getClaims(token);
+        }
+        if (claims != null) {
+            attributes.setAttribute(CLAIMS_ATTRIBUTE, new ParsedToken(token, claims), RequestAttributes.SCOPE_REQUEST);
+        }
+        return claims;
+    }
+
     /**
      * Извлечение информации из токена
      *
@@ -77,4 +202,17 @@ public class JwtUtil {
 
         return null;
     }
+
+    /**
+     * Токен и его claims (кэш в атрибутах запроса)
+     */
+    private static class ParsedToken {
+        private final String token;
+        private final Claims claims;
+
+        private ParsedToken(String token, Claims claims) {
+            this.token = token;
+            this.claims = claims;
+        }
+    }
 }
@@ -0,0 +1,167 @@
+package com.codemika.cyberbank.authentication.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Масштабируемый фильтр Блума для строк.
+ * Отвечает "точно нет" или "возможно есть". Когда текущий слой заполняется, добавляется новый слой
+ * вдвое большей ёмкости с вдвое меньшей вероятностью ложного срабатывания, поэтому общая вероятность
+ * ложного срабатывания остаётся ограниченной при любом числе элементов.
+ * Добавление и проверка потокобезопасны и не используют блокировок (кроме редкого добавления слоя).
+ */
+public class ScalableBloomFilter {
+    private static final double TIGHTENING_RATIO = 0.5;
+    private static final int GROWTH_FACTOR = 2;
+
+    private volatile Layer[] layers;
+
+    /**
+     * @param initialCapacity   ожидаемое число элементов первого слоя
+     * @param falsePositiveRate вероятность ложного срабатывания первого слоя
+     */
+    public ScalableBloomFilter(int initialCapacity, double falsePositiveRate) {
+        this.layers = new Layer[]{new Layer(Math.max(initialCapacity, 64), falsePositiveRate * (1 - TIGHTENING_RATIO))};
+    }
+
+    /**
+     * Добавление строки в фильтр
+     *
+     * @param value строка
+     */
+    public void add(String value) {
+        long hash = hash(value);
+        Layer layer = current();
+        layer.add(hash);
+    }
+
+    /**
+     * Проверка строки
+     *
+     * @param value строка
+     * @return false - строки точно нет, true - строка возможно есть
+     */
+    public boolean mightContain(String value) {
+        long hash = hash(value);
+        for (Layer layer : layers) {
+            if (layer.mightContain(hash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return примерное число добавленных элементов
+     */
+    public long size() {
+        long size = 0;
+        for (Layer layer : layers) {
+            size += layer.count.get();
+        }
+        return size;
+    }
+
+    /**
+     * @return занимаемая битовыми массивами память в байтах
+     */
+    public long sizeInBytes() {
+        long bytes = 0;
+        for (Layer layer : layers) {
+            bytes += layer.bits.length() * 8L;
+        }
+        return bytes;
+    }
+
+    private Layer current() {
+        Layer[] snapshot = layers;
+        Layer last = snapshot[snapshot.length - 1];
+        if (last.count.get() < last.capacity) {
+            return last;
+        }
+        synchronized (this) {
+            snapshot = layers;
+            last = snapshot[snapshot.length - 1];
+            if (last.count.get() < last.capacity) {
+                return last;
+            }
+            Layer next = new Layer(last.capacity * GROWTH_FACTOR, last.falsePositiveRate * TIGHTENING_RATIO);
+            Layer[] grown = new Layer[snapshot.length + 1];
+            System.arraycopy(snapshot, 0, grown, 0, snapshot.length);
+            grown[snapshot.length] = next;
+            layers = grown;
+            return next;
+        }
+    }
+
+    /**
+     * 64-битный хеш строки (FNV-1a по байтам UTF-8 + перемешивание из MurmurHash3)
+     */
+    private static long hash(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        long h = 0xcbf29ce484222325L;
+        for (byte b : bytes) {
+            h ^= b;
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Один слой - обычный фильтр Блума фиксированной ёмкости
+     */
+    private static class Layer {
+        final int capacity;
+        final double falsePositiveRate;
+        final AtomicLongArray bits;
+        final long bitCount;
+        final int hashCount;
+        final AtomicInteger count = new AtomicInteger();
+
+        Layer(int capacity, double falsePositiveRate) {
+            this.capacity = capacity;
+            this.falsePositiveRate = falsePositiveRate;
+            long m = (long) Math.ceil(-capacity * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+            int words = (int) Math.max(1, (m + 63) / 64);
+            this.bits = new AtomicLongArray(words);
+            this.bitCount = words * 64L;
+            this.hashCount = Math.max(1, (int) Math.round((double) bitCount / capacity * Math.log(2)));
+        }
+
+        void add(long hash) {
+            long step = mix(hash ^ 0x9e3779b97f4a7c15L) | 1;
+            for (int i = 0; i < hashCount; i++) {
+                long index = ((hash + i * step) & Long.MAX_VALUE) % bitCount;
+                int word = (int) (index >>> 6);
+                long mask = 1L << index;
+                long old;
+                do {
+                    old = bits.get(word);
+                    if ((old & mask) != 0) break;
+                } while (!bits.compareAndSet(word, old, old | mask));
+            }
+            count.incrementAndGet();
+        }
+
+        boolean mightContain(long hash) {
+            long step = mix(hash ^ 0x9e3779b97f4a7c15L) | 1;
+            for (int i = 0; i < hashCount; i++) {
+                long index = ((hash + i * step) & Long.MAX_VALUE) % bitCount;
+                if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.codemika.cyberbank.authentication.annotation;
+
+import com.codemika.cyberbank.authentication.dto.RqCreateUser;
+import com.codemika.cyberbank.authentication.entity.RoleEntity;
+import com.codemika.cyberbank.authentication.entity.UserEntity;
+import com.codemika.cyberbank.authentication.repository.RoleRepository;
+import com.codemika.cyberbank.authentication.repository.RoleUserRepository;
+import com.codemika.cyberbank.authentication.repository.UserRepository;
+import com.codemika.cyberbank.authentication.service.AuthorizationService;
+import com.codemika.cyberbank.authentication.service.RoleRegistry;
+import com.codemika.cyberbank.authentication.service.TokenRevocationService;
+import com.codemika.cyberbank.authentication.service.UserBloomFilter;
+import com.codemika.cyberbank.authentication.util.JwtUtil;
+import io.jsonwebtoken.Claims;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.codemika.cyberbank.authentication.constants.RoleConstants.USER_ROLE;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Нагрузочный тест одновременных регистраций: каждый запрос должен получить свой собственный результат,
+ * невалидные пользователи не должны сохраняться, а одинаковые телефоны - регистрироваться дважды.
+ */
+class CheckUserAspectConcurrencyTest {
+    private static final int THREADS = 64;
+    private static final int USERS = 3_000;
+    private static final String TOKEN_PREFIX = "Успешная регистрация! Ваш токен для подтверждения личности: ";
+
+    private final Map<Long, UserEntity> usersTable = new ConcurrentHashMap<>();
+    private final AtomicLong ids = new AtomicLong();
+    private final JwtUtil jwtUtil = new JwtUtil();
+
+    @Test
+    void concurrentRegistrationsGetTheirOwnResults() throws Exception {
+        CheckUserAspect aspect = aspect();
+
+        // каждый третий - невалидный пароль, каждый пятый - повтор телефона предыдущего пользователя
+        List<RqCreateUser> requests = new ArrayList<>();
+        for (int i = 0; i < USERS; i++) {
+            int phoneIndex = i % 5 == 4 ? i - 1 : i;
+            String password = i % 3 == 0 ? "password" : "Pa$$word" + i;
+            requests.add(new RqCreateUser()
+                    .setName("Имя" + i)
+                    .setSurname("Фамилия" + i)
+                    .setPatronymic("Отчество" + i)
+                    .setPhone("8900" + phoneIndex)
+                    .setEmail("user" + i + "@mail.ru")
+                    .setPassword(password));
+        }
+        Collections.shuffle(requests);
+
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        CheckUser checkUser = checkUser();
+        List<Future<ResponseEntity<?>>> results = new ArrayList<>();
+        for (RqCreateUser rq : requests) {
+            ProceedingJoinPoint joinPoint = joinPoint(rq);
+            results.add(pool.submit(() -> {
+                start.await();
+                return aspect.checkThisUser(joinPoint, checkUser);
+            }));
+        }
+        start.countDown();
+
+        Map<String, Integer> createdByPhone = new ConcurrentHashMap<>();
+        Set<String> phonesWithValidRequest = new HashSet<>();
+        for (int i = 0; i < requests.size(); i++) {
+            RqCreateUser rq = requests.get(i);
+            ResponseEntity<?> result = results.get(i).get(60, TimeUnit.SECONDS);
+            boolean validPassword = !rq.getPassword().equals("password");
+            if (validPassword) phonesWithValidRequest.add(rq.getPhone());
+
+            if (result.getStatusCode() == HttpStatus.CREATED) {
+                assertTrue(validPassword, "Зарегистрирован невалидный пользователь " + rq);
+                String token = result.getBody().toString().substring(TOKEN_PREFIX.length());
+                Claims claims = jwtUtil.getClaims(token);
+                assertEquals(rq.getPhone(), claims.get("phone", String.class), "Чужой токен");
+                assertEquals(rq.getEmail(), claims.get("email", String.class), "Чужой токен");
+                createdByPhone.merge(rq.getPhone(), 1, Integer::sum);
+            } else if (!validPassword) {
+                assertEquals(HttpStatus.BAD_REQUEST, result.getStatusCode());
+                assertEquals("Ваш пароль должен состоять из ЗАГЛАВНЫХ и строчных букв!", result.getBody());
+            } else {
+                assertEquals(HttpStatus.NOT_FOUND, result.getStatusCode(), "Неожиданный отказ для " + rq);
+            }
+        }
+        pool.shutdown();
+
+        createdByPhone.forEach((phone, count) -> assertEquals(1, count, "Телефон зарегистрирован дважды: " + phone));
+        assertEquals(phonesWithValidRequest, createdByPhone.keySet(), "Валидный пользователь не зарегистрирован");
+        assertEquals(createdByPhone.size(), usersTable.size());
+        usersTable.values().forEach(user -> assertFalse(user.getPassword().endsWith(":password")));
+    }
+
+    private CheckUserAspect aspect() {
+        UserRepository userRepository = mock(UserRepository.class);
+        when(userRepository.save(any())).thenAnswer(invocation -> {
+            UserEntity user = invocation.getArgument(0);
+            Thread.yield(); // расширяем окно гонки между проверкой и сохранением
+            user.setId(ids.incrementAndGet());
+            usersTable.put(user.getId(), user);
+            return user;
+        });
+        when(userRepository.existsByPhoneOrEmail(any(), any())).thenAnswer(invocation -> {
+            String phone = invocation.getArgument(0);
+            String email = invocation.getArgument(1);
+            return usersTable.values().stream()
+                    .anyMatch(user -> user.getPhone().equals(phone) || user.getEmail().equals(email));
+        });
+
+        RoleRepository roleRepository = mock(RoleRepository.class);
+        RoleEntity userRole = new RoleEntity().setId(1L).setRole(USER_ROLE);
+        when(roleRepository.findAll()).thenReturn(Collections.singletonList(userRole));
+        when(roleRepository.getOne(anyLong())).thenReturn(userRole);
+        RoleRegistry roleRegistry = new RoleRegistry(roleRepository);
+        roleRegistry.load();
+
+        PasswordEncoder passwordEncoder = mock(PasswordEncoder.class);
+        when(passwordEncoder.encode(any())).thenAnswer(invocation -> "hash:" + invocation.getArgument(0));
+
+        UserBloomFilter bloomFilter = new UserBloomFilter(userRepository, mock(PlatformTransactionManager.class), 1000, 0.01);
+        AuthorizationService service = new AuthorizationService(userRepository, roleRepository,
+                mock(RoleUserRepository.class), roleRegistry, bloomFilter, mock(TokenRevocationService.class),
+                jwtUtil, passwordEncoder, new RestTemplate());
+        return new CheckUserAspect(service, userRepository, bloomFilter);
+    }
+
+    private static ProceedingJoinPoint joinPoint(RqCreateUser rq) {
+        MethodSignature signature = mock(MethodSignature.class);
+        when(signature.getParameterNames()).thenReturn(new String[]{"rq"});
+        ProceedingJoinPoint joinPoint = mock(ProceedingJoinPoint.class);
+        when(joinPoint.getSignature()).thenReturn(signature);
+        when(joinPoint.getArgs()).thenReturn(new Object[]{rq});
+        return joinPoint;
+    }
+
+    private static CheckUser checkUser() {
+        CheckUser checkUser = mock(CheckUser.class);
+        when(checkUser.name()).thenReturn("rq");
+        return checkUser;
+    }
+}
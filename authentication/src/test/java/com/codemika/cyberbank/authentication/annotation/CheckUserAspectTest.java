@@ -0,0 +1,160 @@
+package com.codemika.cyberbank.authentication.annotation;
+
+import com.codemika.cyberbank.authentication.dto.RqCreateUser;
+import com.codemika.cyberbank.authentication.repository.UserRepository;
+import com.codemika.cyberbank.authentication.service.AuthorizationService;
+import com.codemika.cyberbank.authentication.service.UserBloomFilter;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Однопроходная проверка регистрации: результаты совпадают со старой реализацией, а уникальность
+ * проверяется одним запросом в БД. Скорость проверки полей - в модуле benchmarks (ValidationBenchmark).
+ */
+class CheckUserAspectTest {
+    private final List<RqCreateUser> users = Arrays.asList(
+            user("Иван", "Иванов", "Иванович", "89991234567", "ivan@mail.ru", "Pa$$word1"),
+            user("Иван", "Иванов", "Иванович", "89991234567", "ivan@mail.ru", "password1!"),
+            user("Иван", "Иванов", "Иванович", "89991234567", "ivan@mail.ru", "PASSWORD1!"),
+            user("Иван", "Иванов", "Иванович", "89991234567", "ivan@mail.ru", "Password"),
+            user("Иван", "Иванов", "Иванович", "89991234567", "ivanmail.ru", "Pa$$word1"),
+            user("Иван", "Иванов", "Иванович", "89991234567", "ivan@mail.ru", "Pa ss1!"),
+            user("Иван", "Иванов", "Иванович", "89991234567", "ivan@mail.ru", "MyиВаНpass1!"),
+            user("Ив ан", "Иванов", "Иванович", "89991234567", "ivan@mail.ru", "Pa$$word1"),
+            user("Иван", "", "Иванович", "89991234567", "ivan@mail.ru", "Pa$$word1")
+    );
+
+    @Test
+    void sameResultsAsLegacyValidation() {
+        CheckUserAspect aspect = aspect(emptyRepository());
+        for (RqCreateUser user : users) {
+            ResponseEntity<?> expected = LegacyValidation.bigCheck(user);
+            ResponseEntity<?> actual = aspect.bigCheck(user);
+            assertEquals(expected.getStatusCode(), actual.getStatusCode(), user.toString());
+            assertEquals(expected.getBody(), actual.getBody(), user.toString());
+        }
+    }
+
+    @Test
+    void singleUniquenessQueryPerRegistration() {
+        UserRepository repository = emptyRepository();
+        CheckUserAspect aspect = aspect(repository);
+
+        aspect.bigCheck(users.get(0));
+
+        verify(repository, times(1)).existsByPhoneOrEmail(any(), any());
+        verify(repository, never()).findByPhone(any());
+        verify(repository, never()).findByEmail(any());
+    }
+
+    private static CheckUserAspect aspect(UserRepository repository) {
+        // фильтр Блума ещё не построен - все проверки уникальности идут в БД
+        UserBloomFilter bloomFilter = new UserBloomFilter(repository, mock(PlatformTransactionManager.class), 1000, 0.01);
+        return new CheckUserAspect(mock(AuthorizationService.class), repository, bloomFilter);
+    }
+
+    private static UserRepository emptyRepository() {
+        UserRepository repository = mock(UserRepository.class);
+        when(repository.findByPhone(any())).thenReturn(Optional.empty());
+        when(repository.findByEmail(any())).thenReturn(Optional.empty());
+        when(repository.existsByPhoneOrEmail(any(), any())).thenReturn(false);
+        return repository;
+    }
+
+    private static RqCreateUser user(String name, String surname, String patronymic,
+                                     String phone, String email, String password) {
+        return new RqCreateUser()
+                .setName(name)
+                .setSurname(surname)
+                .setPatronymic(patronymic)
+                .setPhone(phone)
+                .setEmail(email)
+                .setPassword(password);
+    }
+
+    /**
+     * Старая реализация проверок (до перехода на однопроходную проверку), без обращения к БД
+     */
+    private static class LegacyValidation {
+        static ResponseEntity<?> bigCheck(RqCreateUser user) {
+            return checkFields(user);
+        }
+
+        static ResponseEntity<?> checkFields(RqCreateUser user) {
+            if (user.getName().equals("") || user.getSurname().equals("")
+                    || user.getPatronymic().equals("") || user.getEmail().equals("")
+                    || user.getPhone().equals("") || user.getPassword().equals("")) {
+                return ResponseEntity.badRequest().body("Ни одно из полей не должно быть пустым!");
+            }
+            if (user.getName().contains(" ")) {
+                return ResponseEntity.badRequest().body("Ваше имя не должно содержать пробелы!");
+            }
+            if (user.getSurname().contains(" ")) {
+                return ResponseEntity.badRequest().body("Ваша фамилия не должна содержать пробелы!");
+            }
+            if (user.getPatronymic().contains(" ")) {
+                return ResponseEntity.badRequest().body("Ваше отчество не должно содержать пробелы!");
+            }
+            if (user.getEmail().contains(" ")) {
+                return ResponseEntity.badRequest().body("Адрес электронной почты не должен содержать пробелы!");
+            }
+            if (user.getPhone().contains(" ")) {
+                return ResponseEntity.badRequest().body("Номер телефона не должен содержать пробелы!");
+            }
+            if (user.getPassword().contains(" ")) {
+                return ResponseEntity.badRequest().body("Пароль не должен содержать пробелы!");
+            }
+            if (user.getPassword().toLowerCase().contains(user.getName().toLowerCase())
+                    || user.getPassword().toLowerCase().contains(user.getSurname().toLowerCase())
+                    || user.getPassword().toLowerCase().contains(user.getPatronymic().toLowerCase())) {
+                return ResponseEntity.badRequest()
+                        .body("В пароле не должно быть вашего имени, фамилии или отчества! Это не безопасно!");
+            }
+            if (user.getPassword().equals(user.getPassword().toLowerCase())
+                    || user.getPassword().equals(user.getPassword().toUpperCase())) {
+                return ResponseEntity.badRequest().body("Ваш пароль должен состоять из ЗАГЛАВНЫХ и строчных букв!");
+            }
+            if (!numberCheck(user.getPhone())) {
+                return ResponseEntity.badRequest().body("Ваш номер телефона должен быть настоящим!");
+            }
+            if (!user.getEmail().contains("@") || !user.getEmail().contains(".")) {
+                return ResponseEntity.badRequest().body("Неверная эл. почта!");
+            }
+            String symbols = "§±!#$%&()*+,-./0123456789:;<=>?@[]^_`{|}~\"'\\";
+            if (!lettersCheck(symbols, user.getPassword())) {
+                return ResponseEntity.badRequest().body("Введите пароль с символами и цифрами!");
+            }
+            return ResponseEntity.ok("Успешно.");
+        }
+
+        static boolean lettersCheck(String current, String check) {
+            boolean result = false;
+            for (int i = 0; i < check.length(); i++) {
+                for (int j = 0; j < current.length(); j++) {
+                    String a = String.valueOf(current.charAt(j));
+                    if (check.contains(a)) {
+                        result = true;
+                    }
+                }
+            }
+            return result;
+        }
+
+        static boolean numberCheck(String number) {
+            Pattern ptrn = Pattern.compile("(\\+(0/300)\\(?)?(\\d{3}\\)?[\\- ]?)?(\\d{3}[\\- ]?)?(\\d{2}[\\- ]?)?(\\d{2})?");
+            Matcher match = ptrn.matcher(number);
+            return match.find();
+        }
+    }
+}
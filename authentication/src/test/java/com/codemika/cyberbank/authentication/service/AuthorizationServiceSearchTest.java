@@ -0,0 +1,73 @@
+package com.codemika.cyberbank.authentication.service;
+
+import com.codemika.cyberbank.authentication.dto.RsInfoUserPro;
+import com.codemika.cyberbank.authentication.repository.RoleRepository;
+import com.codemika.cyberbank.authentication.repository.RoleUserRepository;
+import com.codemika.cyberbank.authentication.repository.UserRepository;
+import com.codemika.cyberbank.authentication.util.JwtUtil;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Поиск пользователей по началу фамилии, имени, телефона или почты
+ */
+class AuthorizationServiceSearchTest {
+
+    @Test
+    void likeSpecialCharactersAreEscaped() {
+        assertEquals("ива%", AuthorizationService.likePrefix("ива"));
+        assertEquals("a!_b!%c!!%", AuthorizationService.likePrefix("a_b%c!"));
+    }
+
+    @Test
+    void resultsAreMergedWithoutDuplicatesSortedAndLimited() {
+        RsInfoUserPro ivanov = user(3L, "Иван", "Иванов");
+        RsInfoUserPro ivanova = user(1L, "Мария", "Иванова");
+        RsInfoUserPro ivashov = user(2L, "Иван", "Ивашов");
+
+        List<RsInfoUserPro> users = AuthorizationService.mergeSearchResults(2,
+                Arrays.asList(ivashov, ivanov), Arrays.asList(ivanov), Collections.emptyList(), Arrays.asList(ivanova));
+        assertEquals(Arrays.asList(ivanov, ivanova), users);
+
+        assertEquals(3, AuthorizationService.mergeSearchResults(50,
+                Arrays.asList(ivashov, ivanov), Arrays.asList(ivanov, ivanova)).size());
+    }
+
+    @Test
+    void everyColumnIsSearchedSeparatelyWithTheSameLimit() {
+        UserRepository userRepository = mock(UserRepository.class);
+        RsInfoUserPro byEmail = user(7L, "Пётр", "Петров");
+        when(userRepository.searchByEmailPrefix(any(), any())).thenReturn(Collections.singletonList(byEmail));
+        when(userRepository.searchBySurnamePrefix(any(), any())).thenReturn(Collections.singletonList(byEmail));
+        AuthorizationService service = new AuthorizationService(userRepository, mock(RoleRepository.class),
+                mock(RoleUserRepository.class), null, null, null, new JwtUtil(), mock(PasswordEncoder.class),
+                new RestTemplate());
+
+        ResponseEntity<?> response = service.searchUsers(" Pe_ ", 500);
+
+        assertEquals(Collections.singletonList(byEmail), response.getBody());
+        PageRequest page = PageRequest.of(0, AuthorizationService.MAX_SEARCH_RESULTS);
+        verify(userRepository).searchBySurnamePrefix(eq("pe!_%"), eq(page));
+        verify(userRepository).searchByNamePrefix(eq("pe!_%"), eq(page));
+        verify(userRepository).searchByPhonePrefix(eq("pe!_%"), eq(page));
+        verify(userRepository).searchByEmailPrefix(eq("pe!_%"), eq(page));
+    }
+
+    private static RsInfoUserPro user(Long id, String name, String surname) {
+        return new RsInfoUserPro(id, name, surname, null, null, null);
+    }
+}
@@ -0,0 +1,209 @@
+package com.codemika.cyberbank.authentication.service;
+
+import com.codemika.cyberbank.authentication.dto.RqLoginUser;
+import com.codemika.cyberbank.authentication.dto.RsTokens;
+import com.codemika.cyberbank.authentication.entity.RoleEntity;
+import com.codemika.cyberbank.authentication.entity.UserEntity;
+import com.codemika.cyberbank.authentication.repository.RevocationRepository;
+import com.codemika.cyberbank.authentication.repository.RoleRepository;
+import com.codemika.cyberbank.authentication.repository.RoleUserRepository;
+import com.codemika.cyberbank.authentication.repository.UserRepository;
+import com.codemika.cyberbank.authentication.util.JwtUtil;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.codemika.cyberbank.authentication.constants.RoleConstants.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Короткие токены доступа и одноразовые токены обновления
+ */
+class AuthorizationServiceTokensTest {
+    private final JwtUtil jwtUtil = new JwtUtil();
+    private final UserEntity user = new UserEntity()
+            .setId(5L)
+            .setName("Иван")
+            .setSurname("Иванов")
+            .setPatronymic("Иванович")
+            .setPhone("89991234567")
+            .setEmail("ivan@mail.ru")
+            .setPassword("hash");
+    private final UserRepository userRepository = mock(UserRepository.class);
+    private final RoleUserRepository roleUserRepository = mock(RoleUserRepository.class);
+    private final Map<Long, Long> savedTokens = new ConcurrentHashMap<>();
+    private final Map<Long, Long> savedUsers = new ConcurrentHashMap<>();
+    private final RevocationRepository revocationRepository = revocationRepository();
+    private final TokenRevocationService revocations = new TokenRevocationService(
+            userRepository, revocationRepository, jwtUtil, new RestTemplate(), Collections.emptyList());
+    private final AuthorizationService service = service();
+
+    @Test
+    void accessTokenCarriesOnlyIdAndRoles() {
+        RsTokens tokens = login();
+        Claims claims = jwtUtil.getClaims(tokens.getAccessToken());
+
+        assertEquals(5L, claims.get("id", Long.class));
+        assertEquals(USER_ROLE_BIT | MODER_ROLE_BIT, claims.get(ROLE_MASK_CLAIMS_KEY, Integer.class));
+        assertEquals(JwtUtil.ACCESS_TOKEN_TYPE, claims.get(JwtUtil.TOKEN_TYPE_CLAIMS_KEY, String.class));
+        assertNull(claims.get("phone"));
+        assertTrue(claims.getExpiration().getTime() - claims.getIssuedAt().getTime()
+                <= JwtUtil.ACCESS_TOKEN_VALIDITY_MILLIS);
+
+        Claims legacy = Jwts.claims();
+        legacy.put("id", user.getId());
+        legacy.put("name", user.getName());
+        legacy.put("surname", user.getSurname());
+        legacy.put("patronymic", user.getPatronymic());
+        legacy.put("email", user.getEmail());
+        legacy.put("phone", user.getPhone());
+        service.getRoleRegistry().putRoleClaims(legacy, USER_ROLE_BIT | MODER_ROLE_BIT);
+        int legacyLength = jwtUtil.generateToken(legacy).length();
+        assertTrue(tokens.getAccessToken().length() < legacyLength);
+    }
+
+    @Test
+    void refreshTokenRotates() {
+        RsTokens first = login();
+
+        ResponseEntity<?> refreshed = service.refreshTokens(first.getRefreshToken());
+
+        assertEquals(HttpStatus.OK, refreshed.getStatusCode(), String.valueOf(refreshed.getBody()));
+        RsTokens second = (RsTokens) refreshed.getBody();
+        assertNotEquals(first.getRefreshToken(), second.getRefreshToken());
+        assertEquals(HttpStatus.OK, service.refreshTokens(second.getRefreshToken()).getStatusCode());
+    }
+
+    @Test
+    void reusedRefreshTokenRevokesAllSessions() {
+        RsTokens first = login();
+        RsTokens second = (RsTokens) service.refreshTokens(first.getRefreshToken()).getBody();
+
+        // украденный старый токен обновления предъявлен повторно
+        assertEquals(HttpStatus.UNAUTHORIZED, service.refreshTokens(first.getRefreshToken()).getStatusCode());
+
+        assertEquals(HttpStatus.UNAUTHORIZED, service.refreshTokens(second.getRefreshToken()).getStatusCode());
+        assertTrue(revocations.isRevoked(jwtUtil.getClaims(second.getAccessToken())));
+    }
+
+    @Test
+    void refreshTokenUsedOnAnotherInstanceIsRejected() {
+        RsTokens tokens = login();
+        TokenRevocationService otherInstance = new TokenRevocationService(
+                userRepository, revocationRepository, jwtUtil, new RestTemplate(), Collections.emptyList());
+
+        assertTrue(otherInstance.consumeToken(jwtUtil.getClaims(tokens.getRefreshToken())));
+
+        assertEquals(HttpStatus.UNAUTHORIZED, service.refreshTokens(tokens.getRefreshToken()).getStatusCode());
+    }
+
+    @Test
+    void accessTokenIsNotARefreshToken() {
+        RsTokens tokens = login();
+
+        assertEquals(HttpStatus.BAD_REQUEST, service.refreshTokens(tokens.getAccessToken()).getStatusCode());
+    }
+
+    @Test
+    void roleChangeMakesOldTokensStale() {
+        RsTokens before = login();
+        Claims oldAccess = jwtUtil.getClaims(before.getAccessToken());
+        assertFalse(revocations.hasStaleRoles(oldAccess));
+
+        ResponseEntity<?> granted = service.becomeTester(user.getId());
+        assertEquals(HttpStatus.OK, granted.getStatusCode(), String.valueOf(granted.getBody()));
+
+        assertTrue(revocations.hasStaleRoles(oldAccess));
+        RsTokens after = (RsTokens) service.refreshTokens(before.getRefreshToken()).getBody();
+        assertFalse(revocations.hasStaleRoles(jwtUtil.getClaims(after.getAccessToken())));
+    }
+
+    @Test
+    void revocationsSurviveRestart() {
+        RsTokens loggedOut = login();
+        service.logout(loggedOut.getAccessToken());
+        RsTokens reused = login();
+        service.refreshTokens(reused.getRefreshToken());
+        service.refreshTokens(reused.getRefreshToken());
+
+        TokenRevocationService restarted = new TokenRevocationService(
+                userRepository, revocationRepository, jwtUtil, new RestTemplate(), Collections.emptyList());
+        restarted.loadRevocations();
+
+        assertTrue(restarted.isRevoked(jwtUtil.getClaims(loggedOut.getAccessToken())));
+        assertTrue(restarted.isUserRevoked(jwtUtil.getClaims(reused.getAccessToken())));
+    }
+
+    private RsTokens login() {
+        ResponseEntity<?> response = service.issueTokens(new RqLoginUser()
+                .setPhone(user.getPhone())
+                .setPassword("Pa$$word1"));
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        return (RsTokens) response.getBody();
+    }
+
+    /**
+     * Таблицы отзывов в памяти теста
+     */
+    private RevocationRepository revocationRepository() {
+        RevocationRepository repository = mock(RevocationRepository.class);
+        when(repository.saveToken(anyLong(), anyLong())).thenAnswer(invocation ->
+                savedTokens.putIfAbsent(invocation.getArgument(0), invocation.getArgument(1)) == null);
+        doAnswer(invocation -> savedUsers.merge(invocation.getArgument(0), invocation.getArgument(1), Math::max))
+                .when(repository).saveUser(anyLong(), anyLong());
+        doAnswer(invocation -> {
+            RevocationRepository.PairConsumer consumer = invocation.getArgument(1);
+            savedTokens.forEach(consumer::accept);
+            return null;
+        }).when(repository).findTokens(anyLong(), any());
+        doAnswer(invocation -> {
+            RevocationRepository.PairConsumer consumer = invocation.getArgument(1);
+            savedUsers.forEach(consumer::accept);
+            return null;
+        }).when(repository).findUsers(anyLong(), any());
+        return repository;
+    }
+
+    private AuthorizationService service() {
+        when(userRepository.findByPhone(user.getPhone())).thenReturn(Optional.of(user));
+        when(userRepository.findById(user.getId())).thenReturn(Optional.of(user));
+        when(userRepository.findRoleEpochById(user.getId())).thenAnswer(invocation -> Optional.of(user.getRoleEpoch()));
+        when(userRepository.incrementRoleEpoch(user.getId())).thenAnswer(invocation -> {
+            user.setRoleEpoch(user.getRoleEpoch() + 1);
+            return 1;
+        });
+
+        RoleRepository roleRepository = mock(RoleRepository.class);
+        when(roleRepository.findAll()).thenReturn(Arrays.asList(
+                new RoleEntity().setId(1L).setRole(USER_ROLE),
+                new RoleEntity().setId(2L).setRole(MODER_ROLE),
+                new RoleEntity().setId(3L).setRole(TESTER_ROLE)));
+        RoleRegistry roleRegistry = new RoleRegistry(roleRepository);
+        roleRegistry.load();
+
+        when(roleUserRepository.findRoleIdsByUserId(anyLong())).thenReturn(Arrays.asList(1L, 2L));
+
+        PasswordEncoder passwordEncoder = mock(PasswordEncoder.class);
+        when(passwordEncoder.matches(any(), any())).thenReturn(true);
+
+        UserBloomFilter bloomFilter = new UserBloomFilter(userRepository, mock(PlatformTransactionManager.class), 1000, 0.01);
+        return new AuthorizationService(userRepository, roleRepository, roleUserRepository, roleRegistry,
+                bloomFilter, revocations, jwtUtil, passwordEncoder, new RestTemplate());
+    }
+}
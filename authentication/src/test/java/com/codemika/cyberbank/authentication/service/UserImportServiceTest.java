@@ -0,0 +1,126 @@
+package com.codemika.cyberbank.authentication.service;
+
+import com.codemika.cyberbank.authentication.dto.RqCreateUser;
+import com.codemika.cyberbank.authentication.dto.RsImportUsers;
+import com.codemika.cyberbank.authentication.repository.UserRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Optional;
+
+import static com.codemika.cyberbank.authentication.constants.RoleConstants.USER_ROLE;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class UserImportServiceTest {
+    private static final String USER_1 = "{\"name\":\"Иван\",\"surname\":\"Иванов\",\"patronymic\":\"Иванович\"," +
+            "\"phone\":\"89991234567\",\"email\":\"ivan@mail.ru\",\"password\":\"Pa$$word1\"}";
+    private static final String USER_2 = "{\"name\":\"Пётр\",\"surname\":\"Петров\",\"patronymic\":\"Петрович\"," +
+            "\"phone\":\"89997654321\",\"email\":\"petr@mail.ru\",\"password\":\"Pa$$word1\"}";
+
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    private final PreparedStatement insert = mock(PreparedStatement.class);
+    private final ResultSet keys = mock(ResultSet.class);
+    private UserImportService service;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void createService() throws Exception {
+        Connection connection = mock(Connection.class);
+        when(connection.prepareStatement(anyString(), any(String[].class))).thenReturn(insert);
+        when(insert.getGeneratedKeys()).thenReturn(keys);
+        when(keys.next()).thenReturn(true);
+        when(keys.getLong(1)).thenReturn(101L, 102L);
+        when(jdbcTemplate.execute(any(ConnectionCallback.class))).thenAnswer(invocation ->
+                ((ConnectionCallback<?>) invocation.getArgument(0)).doInConnection(connection));
+
+        RoleRegistry roleRegistry = mock(RoleRegistry.class);
+        when(roleRegistry.find(USER_ROLE)).thenReturn(Optional.of(new RoleRegistry.RoleInfo(1L, USER_ROLE, 1)));
+        PasswordEncoder passwordEncoder = mock(PasswordEncoder.class);
+        when(passwordEncoder.encode(any())).thenAnswer(invocation -> "hash:" + invocation.getArgument(0));
+        // фильтр Блума ещё не построен - все телефоны и почты проверяются запросом (в тесте он ничего не находит)
+        UserBloomFilter bloomFilter = new UserBloomFilter(mock(UserRepository.class),
+                mock(PlatformTransactionManager.class), 1000, 0.01);
+
+        service = new UserImportService(jdbcTemplate, mock(PlatformTransactionManager.class), passwordEncoder,
+                roleRegistry, bloomFilter, new ObjectMapper(), 1000);
+    }
+
+    @AfterEach
+    void shutdown() {
+        service.shutdown();
+    }
+
+    @Test
+    void missingNdjsonFieldIsReportedByName() throws Exception {
+        when(insert.executeBatch()).thenReturn(new int[]{1});
+
+        RsImportUsers result = service.importUsers(ndjson(USER_1.replace(",\"email\":\"ivan@mail.ru\"", ""), USER_2),
+                "ndjson");
+
+        assertEquals(1, result.getImported());
+        assertEquals(1, result.getSkipped());
+        assertEquals(Collections.singletonList("строка 1: не заполнено поле email"), result.getErrors());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void duplicatesInFileAndInDatabaseAreSkipped() throws Exception {
+        // второй пользователь занят в БД к моменту вставки (например, зарегистрировался одновременно с импортом)
+        when(insert.executeBatch()).thenReturn(new int[]{1, 0});
+
+        RsImportUsers result = service.importUsers(ndjson(USER_1, USER_1, USER_2), "ndjson");
+
+        assertEquals(1, result.getImported());
+        assertEquals(2, result.getSkipped());
+        assertEquals(Arrays.asList("строка 2: Такой человек уже существует!", "строка 3: Такой человек уже существует!"),
+                result.getErrors());
+        verify(jdbcTemplate).batchUpdate(contains("role_user"),
+                (Collection<Long>) argThat(ids -> ids.equals(Collections.singletonList(101L))),
+                eq(1), any(ParameterizedPreparedStatementSetter.class));
+    }
+
+    private static ByteArrayInputStream ndjson(String... lines) {
+        return new ByteArrayInputStream(String.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void parsesPlainCsvLine() {
+        RqCreateUser rq = UserImportService.parseCsv("Иван,Иванов,Иванович,89991234567,ivan@mail.ru,Pa$$word1");
+
+        assertEquals("Иван", rq.getName());
+        assertEquals("Иванов", rq.getSurname());
+        assertEquals("Иванович", rq.getPatronymic());
+        assertEquals("89991234567", rq.getPhone());
+        assertEquals("ivan@mail.ru", rq.getEmail());
+        assertEquals("Pa$$word1", rq.getPassword());
+    }
+
+    @Test
+    void parsesQuotedCsvFields() {
+        RqCreateUser rq = UserImportService.parseCsv("Иван,Иванов,Иванович,89991234567,ivan@mail.ru,\"Pa,\"\"ss1\"");
+
+        assertEquals("Pa,\"ss1", rq.getPassword());
+    }
+
+    @Test
+    void rejectsWrongFieldCount() {
+        assertThrows(IllegalArgumentException.class, () -> UserImportService.parseCsv("Иван,Иванов"));
+    }
+}
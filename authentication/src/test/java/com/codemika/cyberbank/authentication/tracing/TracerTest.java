@@ -0,0 +1,50 @@
+package com.codemika.cyberbank.authentication.tracing;
+
+import com.codemika.cyberbank.shared.tracing.Span;
+import com.codemika.cyberbank.shared.tracing.TraceCollector;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TracerTest {
+    private final TraceCollector collector = new TraceCollector(16, "");
+    private final Tracer tracer = new Tracer(collector, "authentication");
+
+    @Test
+    void serverSpanContinuesIncomingTraceAndNestsChildren() {
+        String traceId = "4bf92f3577b34da6a3ce929d0e0e4736";
+        Span server = tracer.startServerSpan("00-" + traceId + "-00f067aa0ba902b7-01", "POST /api/auth/login");
+        Span db = tracer.startSpan("db UserRepository.findByPhone");
+        Span bcrypt = tracer.startSpan("bcrypt matches");
+
+        assertEquals(traceId, server.getTraceId());
+        assertEquals("00f067aa0ba902b7", server.getParentId());
+        assertEquals(server.getSpanId(), db.getParentId());
+        assertEquals(db.getSpanId(), bcrypt.getParentId());
+        assertEquals("00-" + traceId + "-" + server.getSpanId() + "-01", server.traceparent());
+
+        tracer.finish(bcrypt);
+        assertSame(db, tracer.currentSpan());
+        tracer.finish(db);
+        tracer.finish(server);
+        assertNull(tracer.currentSpan());
+
+        List<Span> spans = collector.find(traceId);
+        assertEquals(3, spans.size());
+        assertTrue(spans.stream().allMatch(span -> span.getDurationMicros() >= 0));
+    }
+
+    @Test
+    void invalidHeaderStartsNewTraceAndNoSpanOutsideRequest() {
+        assertNull(tracer.startSpan("db UserRepository.findAll"));
+
+        Span server = tracer.startServerSpan("garbage", "GET /api/auth/users");
+        tracer.finish(server);
+
+        assertEquals(32, server.getTraceId().length());
+        assertNull(server.getParentId());
+        assertEquals(1, collector.recent(10).size());
+    }
+}
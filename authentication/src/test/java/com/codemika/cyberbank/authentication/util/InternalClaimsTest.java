@@ -0,0 +1,82 @@
+package com.codemika.cyberbank.authentication.util;
+
+import com.codemika.cyberbank.shared.util.InternalClaims;
+import io.jsonwebtoken.Claims;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.nio.charset.StandardCharsets;
+
+import static com.codemika.cyberbank.authentication.constants.RoleConstants.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class InternalClaimsTest {
+    private static final byte[] KEY = "test-internal-key".getBytes(StandardCharsets.UTF_8);
+
+    private final JwtUtil jwtUtil = new JwtUtil();
+
+    @AfterEach
+    void resetRequest() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Test
+    void headerRoundTripKeepsAccessClaims() {
+        String token = jwtUtil.generateAccessToken(5L, USER_ROLE_BIT | MODER_ROLE_BIT, 3);
+        Claims original = jwtUtil.getClaims(token);
+
+        Claims decoded = InternalClaims.decode(InternalClaims.encode(original, 3, token, KEY), token, KEY);
+
+        assertNotNull(decoded);
+        assertEquals(5L, decoded.get("id", Long.class));
+        assertEquals(3, decoded.get(ROLE_MASK_CLAIMS_KEY, Integer.class));
+        assertEquals(3, decoded.get(ROLE_EPOCH_CLAIMS_KEY, Integer.class));
+        assertEquals(original.getId(), decoded.getId());
+        assertEquals(original.getIssuedAt(), decoded.getIssuedAt());
+        assertEquals(original.getExpiration(), decoded.getExpiration());
+        assertEquals(JwtUtil.ACCESS_TOKEN_TYPE, decoded.get(JwtUtil.TOKEN_TYPE_CLAIMS_KEY, String.class));
+    }
+
+    @Test
+    void forgedOrForeignHeaderIsRejected() {
+        String token = jwtUtil.generateAccessToken(5L, USER_ROLE_BIT, 0);
+        String other = jwtUtil.generateAccessToken(6L, USER_ROLE_BIT, 0);
+        String header = InternalClaims.encode(jwtUtil.getClaims(token), USER_ROLE_BIT, token, KEY);
+
+        assertNull(InternalClaims.decode(header, other, KEY));
+        assertNull(InternalClaims.decode(header.replaceFirst("^5;1;", "5;15;"), token, KEY));
+        assertNull(InternalClaims.decode(header, token, "other-key".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void accessClaimsComeFromGatewayHeader() {
+        jwtUtil.setInternalKey("test-internal-key");
+        String token = jwtUtil.generateAccessToken(9L, USER_ROLE_BIT, 0);
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader(InternalClaims.HEADER,
+                InternalClaims.encode(jwtUtil.getClaims(token), USER_ROLE_BIT | TESTER_ROLE_BIT, token, KEY));
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+
+        Claims claims = jwtUtil.getAccessClaims("\"" + token + "\"");
+
+        // маска из заголовка, а не из токена - значит, JWT не разбирался
+        assertEquals(USER_ROLE_BIT | TESTER_ROLE_BIT, claims.get(ROLE_MASK_CLAIMS_KEY, Integer.class));
+        assertSame(claims, jwtUtil.getAccessClaims(token));
+    }
+
+    @Test
+    void accessClaimsAreParsedOncePerRequestWithoutHeader() {
+        jwtUtil.setInternalKey("test-internal-key");
+        String token = jwtUtil.generateAccessToken(9L, USER_ROLE_BIT, 0);
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+
+        Claims claims = jwtUtil.getAccessClaims(token);
+
+        assertEquals(9L, claims.get("id", Long.class));
+        assertSame(claims, jwtUtil.getAccessClaims(token));
+        assertNotSame(claims, jwtUtil.getAccessClaims(jwtUtil.generateAccessToken(9L, USER_ROLE_BIT, 0)));
+    }
+}
@@ -0,0 +1,29 @@
+package com.codemika.cyberbank.authentication.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LongIntHashMapTest {
+
+    @Test
+    void behavesLikeHashMapWithRaise() {
+        LongIntHashMap map = new LongIntHashMap();
+        Map<Long, Integer> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            long key = 1 + random.nextInt(20_000);
+            int value = random.nextInt(1000);
+            map.raise(key, value);
+            expected.merge(key, value, Math::max);
+        }
+
+        assertEquals(expected.size(), map.size());
+        expected.forEach((key, value) -> assertEquals((int) value, map.get(key)));
+        assertEquals(0, map.get(50_000));
+    }
+}
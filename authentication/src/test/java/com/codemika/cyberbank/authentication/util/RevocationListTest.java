@@ -0,0 +1,97 @@
+package com.codemika.cyberbank.authentication.util;
+
+import com.codemika.cyberbank.authentication.constants.RoleConstants;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import org.junit.jupiter.api.Test;
+
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RevocationListTest {
+    private final JwtUtil jwtUtil = new JwtUtil();
+
+    @Test
+    void revokedTokenIsRejectedOthersAreNot() {
+        RevocationList list = new RevocationList();
+        Claims revoked = token(1L);
+        Claims other = token(1L);
+
+        list.revokeToken(RevocationList.parseJti(revoked.getId()), revoked.getExpiration().getTime() / 1000);
+
+        assertTrue(list.isRevoked(revoked));
+        assertFalse(list.isRevoked(other));
+    }
+
+    @Test
+    void userRevocationRejectsOnlyEarlierTokens() {
+        RevocationList list = new RevocationList();
+        Claims before = token(7L);
+        list.revokeUser(7L, before.getIssuedAt().getTime() / 1000);
+
+        assertTrue(list.isRevoked(before));
+        assertFalse(list.isRevoked(token(8L)));
+
+        Claims after = Jwts.claims();
+        after.put("id", 7L);
+        after.setIssuedAt(new Date(before.getIssuedAt().getTime() + 2000));
+        assertFalse(list.isRevoked(after));
+    }
+
+    @Test
+    void snapshotTravelsThroughSignedToken() {
+        RevocationList source = new RevocationList();
+        Claims revoked = token(1L);
+        source.revokeToken(RevocationList.parseJti(revoked.getId()), revoked.getExpiration().getTime() / 1000);
+        source.revokeUser(2L, System.currentTimeMillis() / 1000);
+
+        RevocationList target = new RevocationList();
+        assertTrue(target.apply(jwtUtil.getClaims(jwtUtil.generateToken(source.snapshot(), 60_000))));
+
+        assertTrue(target.isRevoked(revoked));
+        assertTrue(target.isRevoked(token(2L)));
+        assertFalse(target.isRevoked(token(3L)));
+        assertFalse(target.apply(token(3L)), "обычный токен пользователя не должен применяться как отзыв");
+    }
+
+    @Test
+    void expiredBucketsArePurged() {
+        RevocationList list = new RevocationList();
+        for (long jti = 0; jti < 10_000; jti++) {
+            list.revokeToken(jti, 1000);
+        }
+        list.revokeToken(42, 100_000);
+        assertEquals(10_001, list.size());
+
+        list.purgeExpired(50_000);
+
+        assertEquals(1, list.size());
+    }
+
+    @Test
+    void tokensWithOlderRoleEpochAreStale() {
+        RevocationList list = new RevocationList();
+        Claims legacy = token(9L);
+        Claims epoch1 = token(9L);
+        epoch1.put(RoleConstants.ROLE_EPOCH_CLAIMS_KEY, 1);
+        assertFalse(list.hasStaleRoles(legacy));
+
+        list.raiseRoleEpoch(9L, 1);
+        assertTrue(list.hasStaleRoles(legacy));
+        assertFalse(list.hasStaleRoles(epoch1));
+
+        // опоздавшее сообщение со старой эпохой не откатывает новую
+        RevocationList target = new RevocationList();
+        target.apply(jwtUtil.getClaims(jwtUtil.generateToken(list.snapshot(), 60_000)));
+        target.raiseRoleEpoch(9L, 0);
+        assertEquals(1, target.roleEpoch(9L));
+        assertFalse(target.hasStaleRoles(token(10L)));
+    }
+
+    private Claims token(Long userId) {
+        Claims claims = Jwts.claims();
+        claims.put("id", userId);
+        return jwtUtil.getClaims(jwtUtil.generateToken(claims));
+    }
+}
@@ -0,0 +1,33 @@
+package com.codemika.cyberbank.authentication.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ScalableBloomFilterTest {
+
+    @Test
+    void noFalseNegativesWhileGrowing() {
+        ScalableBloomFilter filter = new ScalableBloomFilter(1_000, 0.01);
+        for (int i = 0; i < 50_000; i++) {
+            filter.add("8999" + i);
+        }
+        for (int i = 0; i < 50_000; i++) {
+            assertTrue(filter.mightContain("8999" + i), "Потерян элемент " + i);
+        }
+    }
+
+    @Test
+    void falsePositiveRateStaysBounded() {
+        ScalableBloomFilter filter = new ScalableBloomFilter(1_000, 0.01);
+        for (int i = 0; i < 50_000; i++) {
+            filter.add("user" + i + "@mail.ru");
+        }
+        int falsePositives = 0;
+        int probes = 100_000;
+        for (int i = 0; i < probes; i++) {
+            if (filter.mightContain("other" + i + "@mail.ru")) falsePositives++;
+        }
+        assertTrue(falsePositives < probes * 0.02, "Слишком много ложных срабатываний: " + falsePositives);
+    }
+}
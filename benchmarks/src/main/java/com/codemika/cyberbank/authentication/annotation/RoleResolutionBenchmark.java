@@ -0,0 +1,65 @@
+package com.codemika.cyberbank.authentication.annotation;
+
+import com.codemika.cyberbank.authentication.util.JwtUtil;
+import io.jsonwebtoken.Claims;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.codemika.cyberbank.authentication.constants.RoleConstants.*;
+
+/**
+ * Вычисление ролей в CheckRoleAspect: маска из claims и решение о доступе.
+ * Лежит в пакете аспекта, потому что roleMask и isLet доступны только внутри пакета.
+ * Claims берутся уже разобранными - разбор токена замеряет JwtBenchmark.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RoleResolutionBenchmark {
+    private final JwtUtil jwtUtil = new JwtUtil();
+    private final CheckRoleAspect aspect = new CheckRoleAspect(jwtUtil, null);
+
+    private Claims accessClaims;
+    private Claims legacyClaims;
+
+    @Setup
+    public void setUp() {
+        accessClaims = jwtUtil.getClaims(jwtUtil.generateAccessToken(42L, USER_ROLE_BIT | TESTER_ROLE_BIT, 0));
+
+        Claims claims = jwtUtil.getClaims(jwtUtil.generateAccessToken(42L, 0, 0));
+        claims.remove(ROLE_MASK_CLAIMS_KEY);
+        claims.put(IS_USER_ROLE_EXIST_CLAIMS_KEY, true);
+        claims.put(IS_MODER_ROLE_EXIST_CLAIMS_KEY, false);
+        claims.put(IS_TESTER_ROLE_EXIST_CLAIMS_KEY, true);
+        claims.put(IS_HACKER_ROLE_EXIST_CLAIMS_KEY, false);
+        legacyClaims = claims;
+    }
+
+    @Benchmark
+    public boolean accessToken() {
+        return resolve(accessClaims);
+    }
+
+    /**
+     * Старый токен с четырьмя флагами ролей вместо маски
+     */
+    @Benchmark
+    public boolean legacyToken() {
+        return resolve(legacyClaims);
+    }
+
+    private boolean resolve(Claims claims) {
+        int roleMask = CheckRoleAspect.roleMask(claims);
+        if ((roleMask & USER_ROLE_BIT) == 0) {
+            return false;
+        }
+        // как для @CheckRole(isTester = true)
+        return aspect.isLet((roleMask & MODER_ROLE_BIT) != 0, false,
+                (roleMask & TESTER_ROLE_BIT) != 0, true,
+                (roleMask & HACKER_ROLE_BIT) != 0, false);
+    }
+}
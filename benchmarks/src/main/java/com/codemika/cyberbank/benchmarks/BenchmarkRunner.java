@@ -0,0 +1,32 @@
+package com.codemika.cyberbank.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Запуск замеров: java -jar benchmarks/target/benchmarks.jar [обычные параметры JMH]
+ * Например, только проверки регистрации: java -jar benchmarks.jar Validation
+ * В отличие от org.openjdk.jmh.Main, всегда включён профилировщик gc (gc.alloc.rate.norm - байт на вызов),
+ * а результаты пишутся в JSON (по умолчанию target/jmh-result.json, другой файл - параметром -rff).
+ * Такой файл можно сохранить как базовый и сравнивать с ним каждую оптимизацию.
+ */
+public class BenchmarkRunner {
+    public static final String DEFAULT_RESULT_FILE = "target/jmh-result.json";
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        Options options = new OptionsBuilder()
+                .parent(commandLine)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result(commandLine.getResult().orElse(DEFAULT_RESULT_FILE))
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,37 @@
+package com.codemika.cyberbank.benchmarks;
+
+import com.codemika.cyberbank.card.service.CardService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Генерация номера счёта при создании карты
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CardNumberBenchmark {
+    /**
+     * Длина номера: 16 - номер карты, 20 - номер счёта
+     */
+    @Param({"16", "20"})
+    public int length;
+
+    @Benchmark
+    public String generateAccountNumber() {
+        return CardService.generateAccountNumber(length);
+    }
+
+    /**
+     * Несколько потоков сразу (Math.random() общий для всех потоков)
+     */
+    @Benchmark
+    @Threads(4)
+    public String generateAccountNumberContended() {
+        return CardService.generateAccountNumber(length);
+    }
+}
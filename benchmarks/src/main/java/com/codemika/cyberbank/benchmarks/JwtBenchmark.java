@@ -0,0 +1,73 @@
+package com.codemika.cyberbank.benchmarks;
+
+import com.codemika.cyberbank.authentication.util.JwtUtil;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.codemika.cyberbank.authentication.constants.RoleConstants.*;
+
+/**
+ * Выдача и разбор токенов: короткий токен доступа (id и маска ролей) и старый токен со всеми полями пользователя
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JwtBenchmark {
+    private final JwtUtil jwtUtil = new JwtUtil();
+
+    private Claims legacyClaims;
+    private String accessToken;
+    private String legacyToken;
+
+    @Setup
+    public void setUp() {
+        legacyClaims = Jwts.claims();
+        legacyClaims.put("id", 42L);
+        legacyClaims.put("name", "Иван");
+        legacyClaims.put("surname", "Иванов");
+        legacyClaims.put("patronymic", "Иванович");
+        legacyClaims.put("email", "ivanov@mail.ru");
+        legacyClaims.put("phone", "89001234567");
+        legacyClaims.put(IS_USER_ROLE_EXIST_CLAIMS_KEY, true);
+        legacyClaims.put(IS_MODER_ROLE_EXIST_CLAIMS_KEY, false);
+        legacyClaims.put(IS_TESTER_ROLE_EXIST_CLAIMS_KEY, false);
+        legacyClaims.put(IS_HACKER_ROLE_EXIST_CLAIMS_KEY, false);
+
+        accessToken = jwtUtil.generateAccessToken(42L, USER_ROLE_BIT | MODER_ROLE_BIT, 0);
+        legacyToken = jwtUtil.generateToken(legacyClaims);
+    }
+
+    @Benchmark
+    public String generateToken() {
+        return jwtUtil.generateToken(legacyClaims);
+    }
+
+    @Benchmark
+    public String generateAccessToken() {
+        return jwtUtil.generateAccessToken(42L, USER_ROLE_BIT | MODER_ROLE_BIT, 0);
+    }
+
+    @Benchmark
+    public Claims getClaims() {
+        return jwtUtil.getClaims(legacyToken);
+    }
+
+    @Benchmark
+    public Claims getClaimsAccessToken() {
+        return jwtUtil.getClaims(accessToken);
+    }
+
+    /**
+     * Токен, как он приходит от клиента - в кавычках
+     */
+    @Benchmark
+    public Claims getClaimsQuoted() {
+        return jwtUtil.getClaims("\"" + accessToken + "\"");
+    }
+}
@@ -0,0 +1,51 @@
+package com.codemika.cyberbank.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Проверка пароля и пин-кода BCrypt - самая дорогая операция входа и перевода.
+ * Кодировщик такой же, как в PasswordEncoderConfig сервисов; cost - число раундов (степень двойки).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PasswordEncoderBenchmark {
+    /**
+     * 10 - значение по умолчанию (используется сервисами)
+     */
+    @Param({"10"})
+    public int cost;
+
+    private PasswordEncoder passwordEncoder;
+    private String passwordHash;
+    private String pincodeHash;
+
+    @Setup
+    public void setUp() {
+        passwordEncoder = new BCryptPasswordEncoder(cost);
+        passwordHash = passwordEncoder.encode("StrongPassword#2023");
+        pincodeHash = passwordEncoder.encode("1234");
+    }
+
+    @Benchmark
+    public boolean matchesPassword() {
+        return passwordEncoder.matches("StrongPassword#2023", passwordHash);
+    }
+
+    @Benchmark
+    public boolean matchesPincode() {
+        return passwordEncoder.matches("1234", pincodeHash);
+    }
+
+    @Benchmark
+    public boolean wrongPincode() {
+        return passwordEncoder.matches("4321", pincodeHash);
+    }
+}
@@ -0,0 +1,72 @@
+package com.codemika.cyberbank.benchmarks;
+
+import com.codemika.cyberbank.authentication.annotation.CheckUserAspect;
+import com.codemika.cyberbank.authentication.dto.RqCreateUser;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.ResponseEntity;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Проверки полей при регистрации (CheckUserAspect): все поля разом, номер телефона и символы в пароле.
+ * checkFields - бывший bigCheck, проверяет всё, что не требует обращения к БД.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ValidationBenchmark {
+    private RqCreateUser valid;
+    private RqCreateUser passwordWithName;
+
+    @Setup
+    public void setUp() {
+        valid = new RqCreateUser()
+                .setName("Иван")
+                .setSurname("Иванов")
+                .setPatronymic("Иванович")
+                .setEmail("ivanov@mail.ru")
+                .setPhone("89001234567")
+                .setPassword("StrongPassword#2023");
+        passwordWithName = new RqCreateUser()
+                .setName("Иван")
+                .setSurname("Иванов")
+                .setPatronymic("Иванович")
+                .setEmail("ivanov@mail.ru")
+                .setPhone("89001234567")
+                .setPassword("ПарольИванов#2023");
+    }
+
+    /**
+     * Все проверки проходят (самый длинный путь)
+     */
+    @Benchmark
+    public ResponseEntity<?> checkFields() {
+        return CheckUserAspect.checkFields(valid);
+    }
+
+    @Benchmark
+    public ResponseEntity<?> checkFieldsPasswordWithName() {
+        return CheckUserAspect.checkFields(passwordWithName);
+    }
+
+    @Benchmark
+    public boolean numberCheck() {
+        return CheckUserAspect.numberCheck("+7(900)123-45-67");
+    }
+
+    @Benchmark
+    public boolean lettersCheck() {
+        return CheckUserAspect.lettersCheck("StrongPassword#2023");
+    }
+
+    /**
+     * Пароль без символов: просматривается целиком
+     */
+    @Benchmark
+    public boolean lettersCheckMiss() {
+        return CheckUserAspect.lettersCheck("VeryLongPasswordWithoutAnySymbols");
+    }
+}
@@ -1,9 +1,17 @@
 package com.codemika.cyberbank.card;
 
+import com.codemika.cyberbank.shared.datasource.DataSourceConfig;
+import com.codemika.cyberbank.shared.loadbalancer.InstanceStatistics;
+import com.codemika.cyberbank.shared.loadbalancer.LoadBalancerStatsLifecycle;
+import com.codemika.cyberbank.shared.tracing.TraceCollector;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.Import;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
+@Import({InstanceStatistics.class, LoadBalancerStatsLifecycle.class, TraceCollector.class, DataSourceConfig.class}) // общие компоненты из модуля shared (он вне пакета сервиса)
 public class CardApplication {
 
 	public static void main(String[] args) {
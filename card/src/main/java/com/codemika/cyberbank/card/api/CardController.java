@@ -33,7 +33,7 @@ public class CardController {
                     .body("Токен не должен быть пустым!");
         }
 
-        if (!jwtUtil.validateToken(token)) {
+        if (jwtUtil.getAccessClaims(token) == null) {
             return ResponseEntity
                     .status(HttpStatus.BAD_REQUEST)
                     .body("Неверный токен!");
@@ -17,7 +17,7 @@ import java.util.List;
 @Data
 public class CardOutputController {
     private final CardService cardService;
-    private final RestTemplate restTemplate = new RestTemplate();
+    private final RestTemplate restTemplate;
     @CheckRole(isUser = true)
     @GetMapping("get-user-credit-cards")
     public String getCreditCards(@RequestParam String token){
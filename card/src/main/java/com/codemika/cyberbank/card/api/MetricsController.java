@@ -0,0 +1,28 @@
+package com.codemika.cyberbank.card.api;
+
+import com.codemika.cyberbank.card.metrics.CardMetrics;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Метрики сервиса карт (внутренняя ручка, через шлюз недоступна - Prometheus забирает их с каждого экземпляра)
+ */
+@RestController
+@RequestMapping("api/card/internal/")
+@RequiredArgsConstructor
+public class MetricsController {
+    private final CardMetrics metrics;
+
+    /**
+     * Метрики в текстовом формате Prometheus
+     *
+     * @return метрики
+     */
+    @GetMapping(value = "metrics", produces = MediaType.TEXT_PLAIN_VALUE)
+    public String metrics() {
+        return metrics.scrape();
+    }
+}
@@ -0,0 +1,36 @@
+package com.codemika.cyberbank.card.api;
+
+import com.codemika.cyberbank.card.service.TokenRevocationService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Контроллер для сервиса авторизации: приём отозванных токенов
+ */
+@RestController
+@RequestMapping("api/card/internal/")
+@RequiredArgsConstructor
+public class RevocationController {
+    private final TokenRevocationService tokenRevocationService;
+
+    /**
+     * Приём отзывов
+     *
+     * @param message подписанный токен с отзывами (см. RevocationList.toClaims)
+     * @return принято/не принято
+     */
+    @PostMapping("revocations")
+    public ResponseEntity<?> applyRevocations(@RequestBody String message) {
+        if (!tokenRevocationService.apply(message)) {
+            return ResponseEntity
+                    .status(HttpStatus.FORBIDDEN)
+                    .body("Неверное сообщение об отзыве токенов.");
+        }
+        return ResponseEntity.ok().build();
+    }
+}
@@ -0,0 +1,123 @@
+package com.codemika.cyberbank.card.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Гистограмма задержек в стиле HDR без блокировок.
+ * Значения (микросекунды) раскладываются по корзинам: каждая степень двойки делится на 8 равных частей,
+ * поэтому погрешность любого перцентиля не больше 12,5% при любом масштабе - от микросекунд до часов.
+ * Запись - одно увеличение ячейки AtomicLongArray и LongAdder, без выделения памяти.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /**
+     * Старший порядок: 2^40 мкс - почти 13 дней, всё что дольше попадает в последнюю корзину
+     */
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumMicros = new LongAdder();
+
+    /**
+     * Запись одного значения
+     *
+     * @param micros задержка в микросекундах
+     */
+    public void record(long micros) {
+        if (micros < 0) {
+            micros = 0;
+        }
+        counts.incrementAndGet(index(micros));
+        count.increment();
+        sumMicros.add(micros);
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public long sumMicros() {
+        return sumMicros.sum();
+    }
+
+    /**
+     * Перцентиль по всем записанным значениям
+     *
+     * @param quantile от 0 до 1 (0.99 - 99-й перцентиль)
+     * @return верхняя граница корзины, в которую попал перцентиль (мкс), 0 - значений нет
+     */
+    public long percentile(double quantile) {
+        long[] snapshot = snapshot();
+        long total = 0;
+        for (long bucket : snapshot) {
+            total += bucket;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= target) {
+                return upperBound(i);
+            }
+        }
+        return upperBound(snapshot.length - 1);
+    }
+
+    /**
+     * Число значений не больше 2^exponent мкс (для корзин Prometheus с границами по степеням двойки)
+     *
+     * @param snapshot снимок корзин (см. snapshot())
+     * @param exponent порядок границы
+     * @return накопленное число значений
+     */
+    public static long countAtMost(long[] snapshot, int exponent) {
+        long seen = 0;
+        for (int i = 0; i < snapshot.length && upperBound(i) <= (1L << exponent); i++) {
+            seen += snapshot[i];
+        }
+        return seen;
+    }
+
+    /**
+     * @return копия корзин (чтение не атомарно целиком, но каждая корзина читается атомарно)
+     */
+    public long[] snapshot() {
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+        }
+        return snapshot;
+    }
+
+    static int index(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (micros >>> shift) - SUB_BUCKETS;
+        return SUB_BUCKETS + shift * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return верхняя граница корзины (мкс, не включительно)
+     */
+    static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index + 1;
+        }
+        int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        int subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + subBucket + 1) << shift;
+    }
+}
@@ -0,0 +1,166 @@
+package com.codemika.cyberbank.card.metrics;
+
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+
+/**
+ * Замеры бизнес-операций сервиса карт: перевод, создание и удаление карты.
+ * Операция делится на этапы (поиск карт, разбор токена, проверка пин-кода BCrypt, UPDATE балансов, commit):
+ * время каждого этапа пишется в card_operation_stage_duration_seconds{operation, stage},
+ * время всей операции - в card_operation_duration_seconds{operation, types, outcome}. Её *_count - число
+ * операций по исходу (карта заморожена, неверный пин-код, недостаточно средств, успех...) и типам карт.
+ * Если операция идёт в транзакции, commit замеряется отдельным этапом, а итог пишется после завершения
+ * транзакции (откат успешной операции - исход error).
+ * Гистограммы берутся из массивов по номерам перечислений, поэтому замер не собирает строк и не ищет по имени.
+ */
+@Component
+public class OperationMetrics {
+    public static final String DURATION_METRIC = "card_operation_duration_seconds";
+    public static final String STAGE_METRIC = "card_operation_stage_duration_seconds";
+
+    public enum Operation {TRANSFER, CREATE, DELETE}
+
+    public enum Stage {CARD_LOOKUP, RECIPIENT_LOOKUP, TOKEN_PARSE, PIN_CHECK, PIN_HASH, USER_CHECK, BALANCE_UPDATE, INSERT, DELETE, COMMIT}
+
+    public enum Outcome {
+        SUCCESS, INVALID_AMOUNT, CARD_NOT_FOUND, SENDER_FROZEN, RECIPIENT_FROZEN, WRONG_PIN, NOT_OWNER,
+        INSUFFICIENT_FUNDS, SAME_CARD, BALANCE_NOT_ZERO, REJECTED, ERROR
+    }
+
+    /**
+     * Типы карт операции: для перевода - "откуда_куда"
+     */
+    public enum CardTypes {UNKNOWN, DEBIT, CREDIT, DEBIT_DEBIT, CREDIT_DEBIT, DEBIT_CREDIT, CREDIT_CREDIT}
+
+    private static final int OPERATIONS = Operation.values().length;
+    private static final int STAGES = Stage.values().length;
+    private static final int TYPES = CardTypes.values().length;
+    private static final int OUTCOMES = Outcome.values().length;
+
+    private final CardMetrics metrics;
+    private final AtomicReferenceArray<LatencyHistogram> stageHistograms =
+            new AtomicReferenceArray<>(OPERATIONS * STAGES);
+    private final AtomicReferenceArray<LatencyHistogram> durationHistograms =
+            new AtomicReferenceArray<>(OPERATIONS * TYPES * OUTCOMES);
+
+    public OperationMetrics(CardMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Выполнение операции с замером
+     *
+     * @param operation операция
+     * @param body      сама операция, отмечает этапы и исход в Observation
+     * @return ответ операции
+     */
+    public ResponseEntity<?> observe(Operation operation, Function<Observation, ResponseEntity<?>> body) {
+        Observation observation = new Observation(operation);
+        boolean inTransaction = TransactionSynchronizationManager.isSynchronizationActive();
+        if (inTransaction) {
+            TransactionSynchronizationManager.registerSynchronization(observation);
+        }
+        try {
+            ResponseEntity<?> response = body.apply(observation);
+            observation.outcome(response.getStatusCode().is2xxSuccessful() ? Outcome.SUCCESS : Outcome.REJECTED);
+            return response;
+        } catch (RuntimeException | Error e) {
+            observation.outcome(Outcome.ERROR);
+            throw e;
+        } finally {
+            if (!inTransaction) {
+                observation.finish();
+            }
+        }
+    }
+
+    private LatencyHistogram stageHistogram(Operation operation, Stage stage) {
+        int index = operation.ordinal() * STAGES + stage.ordinal();
+        LatencyHistogram histogram = stageHistograms.get(index);
+        if (histogram == null) {
+            histogram = metrics.histogram(STAGE_METRIC, "operation", tag(operation), "stage", tag(stage));
+            stageHistograms.set(index, histogram);
+        }
+        return histogram;
+    }
+
+    private LatencyHistogram durationHistogram(Operation operation, CardTypes types, Outcome outcome) {
+        int index = (operation.ordinal() * TYPES + types.ordinal()) * OUTCOMES + outcome.ordinal();
+        LatencyHistogram histogram = durationHistograms.get(index);
+        if (histogram == null) {
+            histogram = metrics.histogram(DURATION_METRIC,
+                    "operation", tag(operation), "types", tag(types), "outcome", tag(outcome));
+            durationHistograms.set(index, histogram);
+        }
+        return histogram;
+    }
+
+    private static String tag(Enum<?> value) {
+        return value.name().toLowerCase();
+    }
+
+    /**
+     * Замер одной операции (используется одним потоком)
+     */
+    public class Observation implements TransactionSynchronization {
+        private final Operation operation;
+        private final long startNanos = System.nanoTime();
+        private long markNanos = startNanos;
+        private CardTypes types = CardTypes.UNKNOWN;
+        private Outcome outcome;
+
+        private Observation(Operation operation) {
+            this.operation = operation;
+        }
+
+        /**
+         * Конец этапа: его время - от конца предыдущего этапа (или начала операции)
+         */
+        public void stage(Stage stage) {
+            long now = System.nanoTime();
+            stageHistogram(operation, stage).record(TimeUnit.NANOSECONDS.toMicros(now - markNanos));
+            markNanos = now;
+        }
+
+        public void types(CardTypes types) {
+            this.types = types;
+        }
+
+        /**
+         * Исход операции. Учитывается первый заданный: отказ, отмеченный в самой операции, не перезаписывается
+         * общим REJECTED по коду ответа.
+         */
+        public void outcome(Outcome outcome) {
+            if (this.outcome == null) {
+                this.outcome = outcome;
+            }
+        }
+
+        @Override
+        public void beforeCompletion() {
+            markNanos = System.nanoTime();
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            if (status == STATUS_COMMITTED) {
+                stage(Stage.COMMIT);
+            } else if (outcome == null || outcome == Outcome.SUCCESS) {
+                // отказ, ради которого операция сама откатила транзакцию, остаётся своим исходом
+                outcome = Outcome.ERROR;
+            }
+            finish();
+        }
+
+        void finish() {
+            durationHistogram(operation, types, outcome == null ? Outcome.ERROR : outcome)
+                    .record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+        }
+    }
+}
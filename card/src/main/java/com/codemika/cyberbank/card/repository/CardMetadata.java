@@ -0,0 +1,21 @@
+package com.codemika.cyberbank.card.repository;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Редко меняющиеся поля карты: владелец, заморожена ли и тип.
+ * Их можно держать в кэше (см. CardMetadataCache), а баланс и хеш пин-кода всегда читаются из БД.
+ */
+@Getter
+@RequiredArgsConstructor
+public class CardMetadata {
+    private final Long id;
+    /**
+     * true - дебетовая карта, false - кредитная
+     */
+    private final boolean debit;
+    private final String accountNumber;
+    private final Long ownerUserId;
+    private final boolean active;
+}
@@ -0,0 +1,214 @@
+package com.codemika.cyberbank.card.repository;
+
+import com.codemika.cyberbank.card.metrics.CardMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Кэш данных карт (CardMetadata) по номеру и по id, чтобы проверки перед операциями без пин-кода и поиск карты
+ * получателя перевода не ходили каждый раз в БД. Баланса и хеша пин-кода в кэше нет: операции с проверкой пин-кода
+ * читают карту вместе с хешем одним запросом мимо кэша (см. CardWithPincode).
+ * Чтение не блокирует (ConcurrentHashMap), каждая запись живёт не дольше ttl: изменения, сделанные через
+ * другие экземпляры сервиса, видны не позже чем через ttl. При переполнении сначала выбрасываются истёкшие записи,
+ * затем произвольные - точный LRU потребовал бы общей блокировки на каждое чтение.
+ * Изменения через этот экземпляр сбрасывают запись сразу и ещё раз после завершения транзакции (см. invalidate).
+ * Чтение, начатое до сброса, в кэш уже не попадёт: сброс увеличивает версию ключей карты (версии хранятся
+ * в массиве по хешу ключа), а запись, чья версия за время чтения изменилась, не сохраняется. Сброс одной карты
+ * не мешает кэшировать остальные.
+ * Деньги всё равно двигаются только UPDATE с проверкой is_active, поэтому перевести с замороженной или на
+ * замороженную карту нельзя даже с устаревшими данными в кэше.
+ */
+@Component
+public class CardMetadataCache {
+    private static final int VERSION_SLOTS = 1024;
+
+    private final TransferJdbcRepository repository;
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLongArray versions = new AtomicLongArray(VERSION_SLOTS);
+    private final AtomicBoolean trimming = new AtomicBoolean();
+    private final LongAdder hits;
+    private final LongAdder misses;
+
+    /**
+     * @param maxEntries сколько записей держать (по две на карту: по номеру и по id)
+     * @param ttlMillis  сколько живёт запись (мс)
+     */
+    public CardMetadataCache(TransferJdbcRepository repository,
+                             CardMetrics metrics,
+                             @Value("${cyberbank.card-cache.max-entries:20000}") int maxEntries,
+                             @Value("${cyberbank.card-cache.ttl-ms:60000}") long ttlMillis) {
+        this.repository = repository;
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttlMillis * 1_000_000;
+        this.hits = metrics.counter("card_metadata_cache_requests_total", "result", "hit");
+        this.misses = metrics.counter("card_metadata_cache_requests_total", "result", "miss");
+        metrics.gauge("card_metadata_cache_entries", this::size);
+    }
+
+    /**
+     * Карта по номеру (дебетовая, если есть, иначе кредитная) - для получателя перевода
+     */
+    public Optional<CardMetadata> findByAccountNumber(String accountNumber) {
+        String debitKey = numberKey(true, accountNumber);
+        String creditKey = numberKey(false, accountNumber);
+        CardMetadata card = get(debitKey);
+        if (card == null) {
+            card = get(creditKey);
+        }
+        if (card != null) {
+            hits.increment();
+            return Optional.of(card);
+        }
+        return load(() -> repository.findByAccountNumber(accountNumber), debitKey, creditKey);
+    }
+
+    /**
+     * Карта заданного типа по номеру
+     */
+    public Optional<CardMetadata> findByAccountNumber(boolean debit, String accountNumber) {
+        String key = numberKey(debit, accountNumber);
+        CardMetadata card = get(key);
+        if (card != null) {
+            hits.increment();
+            return Optional.of(card);
+        }
+        return load(() -> repository.findByAccountNumber(debit, accountNumber), key, key);
+    }
+
+    /**
+     * Карта заданного типа по id
+     */
+    public Optional<CardMetadata> findById(boolean debit, Long id) {
+        String key = idKey(debit, id);
+        CardMetadata card = get(key);
+        if (card != null) {
+            hits.increment();
+            return Optional.of(card);
+        }
+        return load(() -> repository.findById(debit, id), key, key);
+    }
+
+    /**
+     * Сброс записи об изменённой (замороженной, удалённой, с новым пин-кодом или названием) карте.
+     * Вызывается в транзакции, которая меняет карту: запись сбрасывается сразу и ещё раз после завершения
+     * транзакции, чтобы параллельное чтение незакоммиченного ещё старого значения не вернуло его в кэш.
+     */
+    public void invalidate(CardMetadata card) {
+        evict(card);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    evict(card);
+                }
+            });
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private CardMetadata get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAtNanos - System.nanoTime() <= 0) {
+            entries.remove(key, entry);
+            return null;
+        }
+        return entry.card;
+    }
+
+    /**
+     * @param firstKey  ключ, по которому ищут (версия запоминается до чтения)
+     * @param secondKey второй такой ключ (для поиска по номеру без типа) или тот же
+     */
+    private Optional<CardMetadata> load(Supplier<Optional<CardMetadata>> loader, String firstKey, String secondKey) {
+        misses.increment();
+        long firstVersion = versions.get(slot(firstKey));
+        long secondVersion = versions.get(slot(secondKey));
+        Optional<CardMetadata> card = loader.get();
+        card.ifPresent(loaded -> {
+            Entry entry = new Entry(loaded, System.nanoTime() + ttlNanos);
+            String numberKey = numberKey(loaded.isDebit(), loaded.getAccountNumber());
+            String idKey = idKey(loaded.isDebit(), loaded.getId());
+            entries.put(numberKey, entry);
+            entries.put(idKey, entry);
+            // пока читали, карту могли изменить - тогда прочитанное убираем (сброс сначала меняет версию,
+            // потом удаляет записи, поэтому либо он удалит их сам, либо здесь будет видна новая версия)
+            if (versions.get(slot(firstKey)) != firstVersion || versions.get(slot(secondKey)) != secondVersion) {
+                entries.remove(numberKey, entry);
+                entries.remove(idKey, entry);
+            } else if (entries.size() > maxEntries) {
+                trim();
+            }
+        });
+        return card;
+    }
+
+    private void evict(CardMetadata card) {
+        String numberKey = numberKey(card.isDebit(), card.getAccountNumber());
+        String idKey = idKey(card.isDebit(), card.getId());
+        versions.incrementAndGet(slot(numberKey));
+        versions.incrementAndGet(slot(idKey));
+        entries.remove(numberKey);
+        entries.remove(idKey);
+    }
+
+    /**
+     * Возврат к maxEntries записей: сначала истёкшие, затем произвольные. Одновременно чистит один поток.
+     */
+    private void trim() {
+        if (!trimming.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long now = System.nanoTime();
+            entries.values().removeIf(entry -> entry.expiresAtNanos - now <= 0);
+            Iterator<String> keys = entries.keySet().iterator();
+            while (entries.size() > maxEntries && keys.hasNext()) {
+                keys.next();
+                keys.remove();
+            }
+        } finally {
+            trimming.set(false);
+        }
+    }
+
+    private static int slot(String key) {
+        int hash = key.hashCode();
+        return (hash ^ (hash >>> 16)) & (VERSION_SLOTS - 1);
+    }
+
+    private static String numberKey(boolean debit, String accountNumber) {
+        return (debit ? "D:" : "C:") + accountNumber;
+    }
+
+    private static String idKey(boolean debit, Long id) {
+        return (debit ? "D#" : "C#") + id;
+    }
+
+    private static class Entry {
+        private final CardMetadata card;
+        private final long expiresAtNanos;
+
+        private Entry(CardMetadata card, long expiresAtNanos) {
+            this.card = card;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+}
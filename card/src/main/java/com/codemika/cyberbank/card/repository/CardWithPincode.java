@@ -0,0 +1,19 @@
+package com.codemika.cyberbank.card.repository;
+
+import lombok.Getter;
+
+/**
+ * Данные карты вместе с хешем пин-кода - для операций с проверкой пин-кода (перевод, заморозка, удаление,
+ * смена пин-кода или названия). Читается одним запросом прямо из БД и никогда не кладётся в CardMetadataCache:
+ * после смены пин-кода старый сразу перестаёт подходить на всех экземплярах сервиса.
+ */
+@Getter
+public class CardWithPincode extends CardMetadata {
+    private final String pincodeHash;
+
+    public CardWithPincode(Long id, boolean debit, String accountNumber, Long ownerUserId, boolean active,
+                           String pincodeHash) {
+        super(id, debit, accountNumber, ownerUserId, active);
+        this.pincodeHash = pincodeHash;
+    }
+}
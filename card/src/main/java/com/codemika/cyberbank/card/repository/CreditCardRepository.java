@@ -25,10 +25,6 @@ public interface CreditCardRepository extends JpaRepository<CreditCardEntity, Lo
 
     Optional<CreditCardEntity> findAllByAccountNumber(String AccountNumber);
 
-    @Modifying
-    @Query("UPDATE CreditCardEntity card SET card.balance = ?1 WHERE card.id = ?2")
-    void moneyTransfer(Long value, Long id);
-
     @Modifying
     @Query("UPDATE CreditCardEntity card SET card.title = ?1 WHERE card.id = ?2")
     void updateCardTitle(String title, Long id);
@@ -37,5 +33,16 @@ public interface CreditCardRepository extends JpaRepository<CreditCardEntity, Lo
     @Query("UPDATE CreditCardEntity card SET card.pincode = ?1 WHERE card.id = ?2")
     void updateCardPinCode(String pincode, Long id);
 
-    void deleteByAccountNumber(String accountNumber);
+    /**
+     * Удаление карты, только если на ней нет денег (на момент удаления, а не предварительной проверки)
+     *
+     * @return 1 - удалена, 0 - на карте есть деньги или её уже нет
+     */
+    @Modifying
+    @Query("DELETE FROM CreditCardEntity card WHERE card.id = ?1 AND card.balance = 0")
+    int deleteEmptyById(Long id);
+
+    @Modifying
+    @Query("DELETE FROM CreditCardEntity card WHERE card.accountNumber = ?1 AND card.balance = 0")
+    int deleteEmptyByAccountNumber(String accountNumber);
 }
@@ -15,19 +15,21 @@ import java.util.Optional;
 @Repository
 public interface DebitCardRepository extends JpaRepository<DebitCardEntity, Long> {
 
+    /**
+     * Заморозка или разморозка карты, только если она сейчас в состоянии wasActive
+     * (данные о карте могли быть взяты из кэша и устареть)
+     *
+     * @return 1 - состояние изменено, 0 - карта уже в другом состоянии или её нет
+     */
     @Modifying
-    @Query("UPDATE DebitCardEntity card SET card.isActive = ?1 WHERE card.id = ?2")
-    void updateById(Boolean isActive, Long id);
+    @Query("UPDATE DebitCardEntity card SET card.isActive = ?1 WHERE card.id = ?2 AND card.isActive = ?3")
+    int updateActiveById(Boolean isActive, Long id, Boolean wasActive);
 
     List<DebitCardEntity> findAllByOwnerUserId(Long id);
     Optional<DebitCardEntity> findCardByAccountNumber(String AccountNumber);
 
     Optional<DebitCardEntity> findAllByAccountNumber(String AccountNumber);
 
-    @Modifying
-    @Query("UPDATE DebitCardEntity card SET card.balance = ?1 WHERE card.id = ?2")
-    void moneyTransfer(Long value, Long id);
-
     @Modifying
     @Query("UPDATE DebitCardEntity card SET card.title = ?1 WHERE card.id = ?2")
     void updateCardTitle(String title, Long id);
@@ -36,5 +38,16 @@ public interface DebitCardRepository extends JpaRepository<DebitCardEntity, Long
     @Query("UPDATE DebitCardEntity card SET card.pincode = ?1 WHERE card.id = ?2")
     void updateCardPinCode(String pincode, Long id);
 
-    void deleteByAccountNumber(String accountNumber);
+    /**
+     * Удаление карты, только если на ней нет денег (на момент удаления, а не предварительной проверки)
+     *
+     * @return 1 - удалена, 0 - на карте есть деньги или её уже нет
+     */
+    @Modifying
+    @Query("DELETE FROM DebitCardEntity card WHERE card.id = ?1 AND card.balance = 0")
+    int deleteEmptyById(Long id);
+
+    @Modifying
+    @Query("DELETE FROM DebitCardEntity card WHERE card.accountNumber = ?1 AND card.balance = 0")
+    int deleteEmptyByAccountNumber(String accountNumber);
 }
@@ -0,0 +1,189 @@
+package com.codemika.cyberbank.card.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Репозиторий для переводов на чистом JDBC.
+ * Перевод читает только нужные ему поля карты (без загрузки сущности в контекст Hibernate и проверки изменений,
+ * обычно через CardMetadataCache) и меняет балансы подготовленными UPDATE. Соединение и транзакция те же,
+ * что у JPA (JdbcTemplate берёт соединение текущей транзакции), поэтому перевод по-прежнему атомарен.
+ * Всё остальное с картами - через JPA-репозитории.
+ */
+@Repository
+@RequiredArgsConstructor
+public class TransferJdbcRepository {
+    private static final String CARD_COLUMNS = "id, account_number, owner_user_id, is_active";
+    private static final String CARD_WITH_PINCODE_COLUMNS = CARD_COLUMNS + ", pin_code";
+
+    /**
+     * Дебетовая карта с тем же номером важнее кредитной (как и раньше, дебетовые ищутся первыми)
+     */
+    private static final String FIND_BY_ACCOUNT_NUMBER =
+            "SELECT " + CARD_COLUMNS + ", TRUE AS debit FROM cyberbank_card.debit_card WHERE account_number = ? " +
+            "UNION ALL " +
+            "SELECT " + CARD_COLUMNS + ", FALSE AS debit FROM cyberbank_card.credit_card WHERE account_number = ? " +
+            "ORDER BY debit DESC LIMIT 1";
+
+    private static final String FIND_WITH_PINCODE_BY_ACCOUNT_NUMBER =
+            "SELECT " + CARD_WITH_PINCODE_COLUMNS + ", TRUE AS debit FROM cyberbank_card.debit_card " +
+            "WHERE account_number = ? " +
+            "UNION ALL " +
+            "SELECT " + CARD_WITH_PINCODE_COLUMNS + ", FALSE AS debit FROM cyberbank_card.credit_card " +
+            "WHERE account_number = ? " +
+            "ORDER BY debit DESC LIMIT 1";
+
+    private static final String FIND_FIRST_BY_OWNER =
+            "SELECT " + CARD_COLUMNS + ", TRUE AS debit FROM cyberbank_card.debit_card WHERE owner_user_id = ? " +
+            "UNION ALL " +
+            "SELECT " + CARD_COLUMNS + ", FALSE AS debit FROM cyberbank_card.credit_card WHERE owner_user_id = ? " +
+            "ORDER BY debit DESC, id LIMIT 1";
+
+    private static final String DEBIT_BY_ACCOUNT_NUMBER =
+            "SELECT " + CARD_COLUMNS + ", TRUE AS debit FROM cyberbank_card.debit_card WHERE account_number = ?";
+    private static final String CREDIT_BY_ACCOUNT_NUMBER =
+            "SELECT " + CARD_COLUMNS + ", FALSE AS debit FROM cyberbank_card.credit_card WHERE account_number = ?";
+    private static final String DEBIT_BY_ID =
+            "SELECT " + CARD_COLUMNS + ", TRUE AS debit FROM cyberbank_card.debit_card WHERE id = ?";
+    private static final String CREDIT_BY_ID =
+            "SELECT " + CARD_COLUMNS + ", FALSE AS debit FROM cyberbank_card.credit_card WHERE id = ?";
+
+    private static final String DEBIT_WITHDRAW = "UPDATE cyberbank_card.debit_card SET balance = balance - ? " +
+            "WHERE id = ? AND is_active = TRUE AND balance >= ?";
+    private static final String CREDIT_WITHDRAW = "UPDATE cyberbank_card.credit_card SET balance = balance - ? " +
+            "WHERE id = ? AND is_active = TRUE AND balance >= ?";
+    private static final String DEBIT_DEPOSIT = "UPDATE cyberbank_card.debit_card SET balance = balance + ? WHERE id = ?";
+    private static final String CREDIT_DEPOSIT = "UPDATE cyberbank_card.credit_card SET balance = balance + ? WHERE id = ?";
+    private static final String DEBIT_DEPOSIT_ACTIVE = "UPDATE cyberbank_card.debit_card SET balance = balance + ? " +
+            "WHERE id = ? AND is_active = TRUE";
+    private static final String CREDIT_DEPOSIT_ACTIVE = "UPDATE cyberbank_card.credit_card SET balance = balance + ? " +
+            "WHERE id = ? AND is_active = TRUE";
+    private static final String DEBIT_BALANCE = "SELECT balance FROM cyberbank_card.debit_card WHERE id = ?";
+    private static final String CREDIT_BALANCE = "SELECT balance FROM cyberbank_card.credit_card WHERE id = ?";
+    private static final String DEBIT_WITH_PINCODE_BY_ACCOUNT_NUMBER = "SELECT " + CARD_WITH_PINCODE_COLUMNS +
+            ", TRUE AS debit FROM cyberbank_card.debit_card WHERE account_number = ?";
+    private static final String CREDIT_WITH_PINCODE_BY_ACCOUNT_NUMBER = "SELECT " + CARD_WITH_PINCODE_COLUMNS +
+            ", FALSE AS debit FROM cyberbank_card.credit_card WHERE account_number = ?";
+    private static final String DEBIT_WITH_PINCODE_BY_ID = "SELECT " + CARD_WITH_PINCODE_COLUMNS +
+            ", TRUE AS debit FROM cyberbank_card.debit_card WHERE id = ?";
+    private static final String CREDIT_WITH_PINCODE_BY_ID = "SELECT " + CARD_WITH_PINCODE_COLUMNS +
+            ", FALSE AS debit FROM cyberbank_card.credit_card WHERE id = ?";
+
+    private static final RowMapper<CardMetadata> CARD_MAPPER = (rs, rowNum) -> new CardMetadata(
+            rs.getLong("id"),
+            rs.getBoolean("debit"),
+            rs.getString("account_number"),
+            rs.getObject("owner_user_id", Long.class),
+            rs.getBoolean("is_active"));
+
+    private static final RowMapper<CardWithPincode> CARD_WITH_PINCODE_MAPPER = (rs, rowNum) -> new CardWithPincode(
+            rs.getLong("id"),
+            rs.getBoolean("debit"),
+            rs.getString("account_number"),
+            rs.getObject("owner_user_id", Long.class),
+            rs.getBoolean("is_active"),
+            rs.getString("pin_code"));
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Карта (дебетовая или кредитная) по номеру
+     */
+    public Optional<CardMetadata> findByAccountNumber(String accountNumber) {
+        return first(jdbcTemplate.query(FIND_BY_ACCOUNT_NUMBER, CARD_MAPPER, accountNumber, accountNumber));
+    }
+
+    /**
+     * Карта, на которую переводят по номеру телефона: первая дебетовая карта пользователя, если их нет - первая кредитная
+     */
+    public Optional<CardMetadata> findFirstByOwnerUserId(Long ownerUserId) {
+        return first(jdbcTemplate.query(FIND_FIRST_BY_OWNER, CARD_MAPPER, ownerUserId, ownerUserId));
+    }
+
+    /**
+     * Карта заданного типа по номеру
+     */
+    public Optional<CardMetadata> findByAccountNumber(boolean debit, String accountNumber) {
+        return first(jdbcTemplate.query(debit ? DEBIT_BY_ACCOUNT_NUMBER : CREDIT_BY_ACCOUNT_NUMBER,
+                CARD_MAPPER, accountNumber));
+    }
+
+    /**
+     * Карта заданного типа по id
+     */
+    public Optional<CardMetadata> findById(boolean debit, Long id) {
+        return first(jdbcTemplate.query(debit ? DEBIT_BY_ID : CREDIT_BY_ID, CARD_MAPPER, id));
+    }
+
+    /**
+     * Списание денег: баланс уменьшается в самой БД, и только если карта активна и денег хватает
+     * (условие проверяется на последней версии строки, поэтому параллельные переводы не затирают друг друга)
+     *
+     * @return 1 - списано, 0 - карта заморожена, удалена или на ней недостаточно средств
+     */
+    public int withdraw(boolean debit, Long id, Long value) {
+        return jdbcTemplate.update(debit ? DEBIT_WITHDRAW : CREDIT_WITHDRAW, value, id, value);
+    }
+
+    /**
+     * Зачисление денег: баланс увеличивается в самой БД
+     *
+     * @return 1 - зачислено, 0 - карты уже нет
+     */
+    public int deposit(boolean debit, Long id, Long value) {
+        return jdbcTemplate.update(debit ? DEBIT_DEPOSIT : CREDIT_DEPOSIT, value, id);
+    }
+
+    /**
+     * Зачисление денег при переводе: только на незамороженную карту (проверяется на последней версии строки,
+     * поэтому устаревшие данные о карте в кэше не позволят перевести на замороженную)
+     *
+     * @return 1 - зачислено, 0 - карта заморожена или её уже нет
+     */
+    public int depositIfActive(boolean debit, Long id, Long value) {
+        return jdbcTemplate.update(debit ? DEBIT_DEPOSIT_ACTIVE : CREDIT_DEPOSIT_ACTIVE, value, id);
+    }
+
+    /**
+     * Текущий баланс из БД
+     *
+     * @return баланс или null, если карты нет
+     */
+    public Long findBalance(boolean debit, Long id) {
+        return first(jdbcTemplate.queryForList(debit ? DEBIT_BALANCE : CREDIT_BALANCE, Long.class, id)).orElse(null);
+    }
+
+    /**
+     * Карта отправителя перевода (дебетовая или кредитная) по номеру вместе с хешем пин-кода - одним запросом.
+     * Не кэшируется (см. CardWithPincode).
+     */
+    public Optional<CardWithPincode> findWithPincodeByAccountNumber(String accountNumber) {
+        return first(jdbcTemplate.query(FIND_WITH_PINCODE_BY_ACCOUNT_NUMBER, CARD_WITH_PINCODE_MAPPER,
+                accountNumber, accountNumber));
+    }
+
+    /**
+     * Карта заданного типа по номеру вместе с хешем пин-кода
+     */
+    public Optional<CardWithPincode> findWithPincodeByAccountNumber(boolean debit, String accountNumber) {
+        return first(jdbcTemplate.query(debit ? DEBIT_WITH_PINCODE_BY_ACCOUNT_NUMBER
+                : CREDIT_WITH_PINCODE_BY_ACCOUNT_NUMBER, CARD_WITH_PINCODE_MAPPER, accountNumber));
+    }
+
+    /**
+     * Карта заданного типа по id вместе с хешем пин-кода
+     */
+    public Optional<CardWithPincode> findWithPincodeById(boolean debit, Long id) {
+        return first(jdbcTemplate.query(debit ? DEBIT_WITH_PINCODE_BY_ID : CREDIT_WITH_PINCODE_BY_ID,
+                CARD_WITH_PINCODE_MAPPER, id));
+    }
+
+    private static <T> Optional<T> first(List<T> rows) {
+        return rows.isEmpty() ? Optional.empty() : Optional.ofNullable(rows.get(0));
+    }
+}
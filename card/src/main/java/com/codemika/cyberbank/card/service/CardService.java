@@ -3,8 +3,17 @@ package com.codemika.cyberbank.card.service;
 import com.codemika.cyberbank.card.dto.RsCardOutput;
 import com.codemika.cyberbank.card.entity.CreditCardEntity;
 import com.codemika.cyberbank.card.entity.DebitCardEntity;
+import com.codemika.cyberbank.card.metrics.OperationMetrics;
+import com.codemika.cyberbank.card.metrics.OperationMetrics.CardTypes;
+import com.codemika.cyberbank.card.metrics.OperationMetrics.Observation;
+import com.codemika.cyberbank.card.metrics.OperationMetrics.Outcome;
+import com.codemika.cyberbank.card.metrics.OperationMetrics.Stage;
+import com.codemika.cyberbank.card.repository.CardMetadata;
+import com.codemika.cyberbank.card.repository.CardWithPincode;
+import com.codemika.cyberbank.card.repository.CardMetadataCache;
 import com.codemika.cyberbank.card.repository.CreditCardRepository;
 import com.codemika.cyberbank.card.repository.DebitCardRepository;
+import com.codemika.cyberbank.card.repository.TransferJdbcRepository;
 import com.codemika.cyberbank.card.util.JwtUtil;
 import io.jsonwebtoken.Claims;
 import lombok.RequiredArgsConstructor;
@@ -14,6 +23,7 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
 import org.springframework.web.client.RestTemplate;
 
 import java.util.ArrayList;
@@ -27,13 +37,16 @@ import java.util.Optional;
 public class CardService {
     private final DebitCardRepository debitRepository;
     private final CreditCardRepository creditRepository;
+    private final TransferJdbcRepository transferRepository;
+    private final CardMetadataCache cardCache;
     private final JwtUtil jwtUtil;
     private final PasswordEncoder passwordEncoder;
-    private final RestTemplate restTemplate = new RestTemplate();
-    private final String urlGetUserByPhone = "http://localhost:8081/api/auth/jgkg3459-ffklre-dgjkrl345tkg94vkdpfjogrpo394/?phone=";
+    private final RestTemplate restTemplate;
+    private final OperationMetrics operationMetrics;
+    private final String urlGetUserByPhone = "http://authentication/api/auth/jgkg3459-ffklre-dgjkrl345tkg94vkdpfjogrpo394/?phone=";
 
     /**
-     * Главный метод для всех переводов. Определяет типы карт и отправляет в нужный moneyTransfer.
+     * Главный метод для всех переводов. Находит карты и отправляет в moneyTransfer.
      *
      * @param token                  токен пользователя, переводящего деньги
      * @param pincode                пин-код карты, с которой переводятся деньги
@@ -48,77 +61,59 @@ public class CardService {
                                                String accountNumber,
                                                Long value,
                                                String receivingAccountNumber) {
-        Optional<DebitCardEntity> card = debitRepository.findCardByAccountNumber(accountNumber);
-        Optional<DebitCardEntity> receivingCard = debitRepository.findCardByAccountNumber(receivingAccountNumber);
-        Optional<CreditCardEntity> cCard = null;
-        Optional<CreditCardEntity> cRec = null;
-
-        boolean isDebit = true;
-        boolean isRecDebit = true;
+        return operationMetrics.observe(OperationMetrics.Operation.TRANSFER, observation ->
+                transfer(token, pincode, accountNumber, value, receivingAccountNumber, observation));
+    }
 
-        if (value == null)
+    private ResponseEntity<?> transfer(String token,
+                                       String pincode,
+                                       String accountNumber,
+                                       Long value,
+                                       String receivingAccountNumber,
+                                       Observation observation) {
+        if (value == null) {
+            observation.outcome(Outcome.INVALID_AMOUNT);
             return ResponseEntity
                     .status(HttpStatus.BAD_REQUEST)
                     .body("Некорректная сумма перевода");
-        if (value <= 0)
+        }
+        if (value <= 0) {
+            observation.outcome(Outcome.INVALID_AMOUNT);
             return ResponseEntity
                     .status(HttpStatus.BAD_REQUEST)
                     .body("Вы не можете переводить отрицательные суммы");
+        }
 
+        // карта отправителя - вместе с хешем пин-кода одним запросом в БД, получатель - из кэша
+        Optional<CardWithPincode> card = transferRepository.findWithPincodeByAccountNumber(accountNumber);
         if (!card.isPresent()) {
-            cCard = creditRepository.findAllByAccountNumber(accountNumber);
-            isDebit = false;
-            if (!cCard.isPresent())
-                return ResponseEntity
-                        .status(HttpStatus.NOT_FOUND)
-                        .body("Карты с номером карты " + accountNumber + " не существует");
+            observation.outcome(Outcome.CARD_NOT_FOUND);
+            return ResponseEntity
+                    .status(HttpStatus.NOT_FOUND)
+                    .body("Карты с номером карты " + accountNumber + " не существует");
         }
 
+        Optional<CardMetadata> receivingCard = cardCache.findByAccountNumber(receivingAccountNumber);
         if (!receivingCard.isPresent()) {
-            cRec = creditRepository.findAllByAccountNumber(receivingAccountNumber);
-            isRecDebit = false;
-            if (!cRec.isPresent())
-                return ResponseEntity
-                        .status(HttpStatus.NOT_FOUND)
-                        .body("Карты с номером " + receivingAccountNumber + " не существует");
-        }
-        if (isDebit && isRecDebit) {
-            return moneyTransfer(token,
-                    pincode,
-                    accountNumber,
-                    value,
-                    receivingAccountNumber,
-                    card.get(),
-                    receivingCard.get());
-        } else if (!isDebit && isRecDebit) {
-            return moneyTransfer(token,
-                    pincode,
-                    accountNumber,
-                    value,
-                    receivingAccountNumber,
-                    cCard.get(),
-                    receivingCard.get());
-        } else if (isDebit && !isRecDebit) {
-            return moneyTransfer(token,
-                    pincode,
-                    accountNumber,
-                    value,
-                    receivingAccountNumber,
-                    card.get(),
-                    cRec.get());
-        } else {
-            return moneyTransfer(token,
-                    pincode,
-                    accountNumber,
-                    value,
-                    receivingAccountNumber,
-                    cCard.get(),
-                    cRec.get());
+            observation.outcome(Outcome.CARD_NOT_FOUND);
+            return ResponseEntity
+                    .status(HttpStatus.NOT_FOUND)
+                    .body("Карты с номером " + receivingAccountNumber + " не существует");
         }
+        observation.stage(Stage.CARD_LOOKUP);
+
+        return moneyTransfer(token,
+                pincode,
+                accountNumber,
+                value,
+                receivingAccountNumber,
+                card.get(),
+                receivingCard.get(),
+                observation);
     }
 
     /**
-     * Главный метод для всех переводов. Определяет типы карт и отправляет в нужный moneyTransfer. (Это оказалось довольно сложно)
+     * Главный метод для всех переводов. Находит карты и отправляет в moneyTransfer.
      *
      * @param token         токен пользователя, переводящего деньги
      * @param pincode       пин-код карты, с которой переводятся деньги
@@ -133,107 +128,66 @@ public class CardService {
                                                       String accountNumber,
                                                       Long value,
                                                       String phone) {
-        Optional<DebitCardEntity> card = debitRepository.findCardByAccountNumber(accountNumber);
+        return operationMetrics.observe(OperationMetrics.Operation.TRANSFER, observation ->
+                transferByPhone(token, pincode, accountNumber, value, phone, observation));
+    }
+
+    private ResponseEntity<?> transferByPhone(String token,
+                                              String pincode,
+                                              String accountNumber,
+                                              Long value,
+                                              String phone,
+                                              Observation observation) {
         ResponseEntity<Long> response = restTemplate.getForEntity(urlGetUserByPhone + phone, Long.class);
-        List<DebitCardEntity> dCards = debitRepository.findAllByOwnerUserId(response.getBody());
+        observation.stage(Stage.RECIPIENT_LOOKUP);
         //fixme: header не работает, тут временная мера
         /*
         org.springframework.web.client.HttpClientErrorException$BadRequest:
         400 : [Missing request header 'Authorization' for method parameter of type String]
          */
-        List<CreditCardEntity> cCards = null;
-        boolean isD = true;
-        if (dCards.isEmpty()) {
-            isD = false;
-            cCards = creditRepository.findAllByOwnerUserId(response.getBody());//fixme
-            if (cCards.isEmpty())
-                return ResponseEntity
-                        .status(HttpStatus.NO_CONTENT)
-                        .body("Получатель не имеет карт.");
-        }
-        String recNumber;
-        if (isD) {
-            recNumber = dCards.get(0).getAccountNumber();
-        } else {
-            recNumber = cCards.get(0).getAccountNumber();
-        }
-        Optional<DebitCardEntity> dreceivingCard = null;
-        Optional<CreditCardEntity> creceivingCard = null;
-        if (isD) {
-            dreceivingCard = debitRepository.findCardByAccountNumber(recNumber);
-        } else {
-            creceivingCard = creditRepository.findCardByAccountNumber(recNumber);
+        Optional<CardMetadata> receivingCard = transferRepository.findFirstByOwnerUserId(response.getBody());
+        if (!receivingCard.isPresent()) {
+            observation.outcome(Outcome.CARD_NOT_FOUND);
+            return ResponseEntity
+                    .status(HttpStatus.NO_CONTENT)
+                    .body("Получатель не имеет карт.");
         }
 
-        Optional<CreditCardEntity> cCard = null;
-        Optional<CreditCardEntity> cRec = null;
-
-        boolean isDebit = true;
-        boolean isRecDebit = true;
-
-        if (value == null)
+        if (value == null) {
+            observation.outcome(Outcome.INVALID_AMOUNT);
             return ResponseEntity
                     .status(HttpStatus.BAD_REQUEST)
                     .body("Некорректная сумма перевода");
-        if (value <= 0)
+        }
+        if (value <= 0) {
+            observation.outcome(Outcome.INVALID_AMOUNT);
             return ResponseEntity
                     .status(HttpStatus.BAD_REQUEST)
                     .body("Вы не можете переводить отрицательные суммы");
-
-        if (!card.isPresent()) {
-            cCard = creditRepository.findAllByAccountNumber(accountNumber);
-            isDebit = false;
-            if (!cCard.isPresent())
-                return ResponseEntity
-                        .status(HttpStatus.NOT_FOUND)
-                        .body("Карты с номером карты " + accountNumber + " не существует");
         }
 
-        if (!dreceivingCard.isPresent()) {
-            cRec = creditRepository.findAllByAccountNumber(recNumber);
-            isRecDebit = false;
-            if (!cRec.isPresent())
-                return ResponseEntity
-                        .status(HttpStatus.NOT_FOUND)
-                        .body("Карты с номером " + recNumber + " не существует");
-        }
-        if (isDebit && isRecDebit) {
-            return moneyTransfer(token,
-                    pincode,
-                    accountNumber,
-                    value,
-                    recNumber,
-                    card.get(),
-                    dreceivingCard.get());
-        } else if (!isDebit && isRecDebit) {
-            return moneyTransfer(token,
-                    pincode,
-                    accountNumber,
-                    value,
-                    recNumber,
-                    cCard.get(),
-                    dreceivingCard.get());
-        } else if (isDebit && !isRecDebit) {
-            return moneyTransfer(token,
-                    pincode,
-                    accountNumber,
-                    value,
-                    recNumber,
-                    card.get(),
-                    cRec.get());
-        } else {
-            return moneyTransfer(token,
-                    pincode,
-                    accountNumber,
-                    value,
-                    recNumber,
-                    cCard.get(),
-                    cRec.get());
+        // карта отправителя - вместе с хешем пин-кода одним запросом в БД
+        Optional<CardWithPincode> card = transferRepository.findWithPincodeByAccountNumber(accountNumber);
+        if (!card.isPresent()) {
+            observation.outcome(Outcome.CARD_NOT_FOUND);
+            return ResponseEntity
+                    .status(HttpStatus.NOT_FOUND)
+                    .body("Карты с номером карты " + accountNumber + " не существует");
         }
+        observation.stage(Stage.CARD_LOOKUP);
+
+        return moneyTransfer(token,
+                pincode,
+                accountNumber,
+                value,
+                receivingCard.get().getAccountNumber(),
+                card.get(),
+                receivingCard.get(),
+                observation);
     }
 
     /**
-     * Один из методов перевода. Тип - Д&Д
+     * Перевод между картами любых типов (дебетовая/кредитная)
      *
      * @param token                  токен переводящего
      * @param pincode                пин-код карты, с которой происходит перевод
@@ -242,6 +196,7 @@ public class CardService {
      * @param receivingAccountNumber номер, на который происходит перевод
      * @param card                   карта, с которой происходит перевод
      * @param rCard                  карта, на которую происходит перевод
+     * @param observation            замер перевода
      * @return перевод + вывод нового баланса карты переводящего
      */
     private ResponseEntity<?> moneyTransfer(String token,
@@ -249,235 +204,157 @@ public class CardService {
                                             String accountNumber,
                                             Long value,
                                             String receivingAccountNumber,
-                                            DebitCardEntity card,
-                                            DebitCardEntity rCard) {
-
-        Claims claimsParseToken = jwtUtil.getClaims(token);
+                                            CardWithPincode card,
+                                            CardMetadata rCard,
+                                            Observation observation) {
+        observation.types(card.isDebit()
+                ? (rCard.isDebit() ? CardTypes.DEBIT_DEBIT : CardTypes.DEBIT_CREDIT)
+                : (rCard.isDebit() ? CardTypes.CREDIT_DEBIT : CardTypes.CREDIT_CREDIT));
+        Claims claimsParseToken = jwtUtil.getAccessClaims(token);
+        observation.stage(Stage.TOKEN_PARSE);
         Long ownerUserId = claimsParseToken.get("id", Long.class);
-        if (!card.getIsActive())
+        if (!card.isActive()) {
+            observation.outcome(Outcome.SENDER_FROZEN);
             return ResponseEntity
                     .status(HttpStatus.FORBIDDEN)
                     .body("Карта отправителя заморожена");
+        }
 
-        if (!rCard.getIsActive())
+        if (!rCard.isActive()) {
+            observation.outcome(Outcome.RECIPIENT_FROZEN);
             return ResponseEntity
                     .status(HttpStatus.FORBIDDEN)
                     .body("Карта получателя заморожена");
+        }
 
-        if (!passwordEncoder.matches(pincode, card.getPincode()))
+        boolean pinMatches = passwordEncoder.matches(pincode, card.getPincodeHash());
+        observation.stage(Stage.PIN_CHECK);
+        if (!pinMatches) {
+            observation.outcome(Outcome.WRONG_PIN);
             return ResponseEntity
                     .status(HttpStatus.BAD_REQUEST)
                     .body("Неверный пин-код");
+        }
 
-        if (!card.getOwnerUserId().equals(ownerUserId))
+        if (!card.getOwnerUserId().equals(ownerUserId)) {
+            observation.outcome(Outcome.NOT_OWNER);
             return ResponseEntity
                     .status(HttpStatus.BAD_REQUEST)
                     .body("Пользователь с id " + ownerUserId + " не обладает картой с номером карты " + accountNumber);
+        }
 
-        if (card.getBalance() < value)
-            return ResponseEntity
-                    .status(HttpStatus.BAD_REQUEST)
-                    .body("На карте недостаточно средств");
-
-        if (accountNumber.equals(receivingAccountNumber))
+        // хватает ли денег, проверяет само списание (см. withdraw): баланс всегда берётся из БД
+        if (accountNumber.equals(receivingAccountNumber)) {
+            observation.outcome(Outcome.SAME_CARD);
             return ResponseEntity
                     .status(HttpStatus.BAD_REQUEST)
                     .body("Вы не можете перевести деньги на свою карту");
+        }
 
-        rCard.setBalance(rCard.getBalance() + value);
-        card.setBalance(card.getBalance() - value);
-
-        debitRepository.moneyTransfer(card.getBalance(), card.getId());
-        debitRepository.moneyTransfer(rCard.getBalance(), rCard.getId());
-
-        return ResponseEntity
-                .ok("Перевод доставлен! На данный момент ваш баланс " + card.getBalance() + " рублей");
+        return updateBalances(card.isDebit(), card.getId(), rCard.isDebit(), rCard.getId(), value, observation);
     }
 
     /**
-     * Один из методов перевода. Тип - К&Д
+     * Списание и зачисление денег при переводе.
+     * Балансы меняются относительными UPDATE в самой БД, а не записью прочитанного раньше значения,
+     * поэтому одновременные переводы с одной карты не теряют друг друга, а списание не уводит баланс в минус,
+     * даже если проверки выше видели устаревший баланс. Строки блокируются в одном и том же порядке
+     * (сначала дебетовые карты, потом кредитные, по возрастанию id), поэтому встречные переводы A->B и B->A
+     * не блокируют друг друга намертво. Если списание или зачисление не прошло, транзакция откатывается целиком.
      *
-     * @param token                  токен переводящего
-     * @param pincode                пин-код карты, с которой происходит перевод
-     * @param accountNumber          номер карты, с которой происходит перевод
-     * @param value                  сумма перевода
-     * @param receivingAccountNumber номер, на который происходит перевод
-     * @param card                   карта, с которой происходит перевод
-     * @param rCard                  карта, на которую происходит перевод
+     * @param isDebit     дебетовая ли карта отправителя
+     * @param cardId      id карты отправителя
+     * @param isRecDebit  дебетовая ли карта получателя
+     * @param rCardId     id карты получателя
+     * @param value       сумма перевода
+     * @param observation замер перевода
      * @return перевод + вывод нового баланса карты переводящего
      */
-    private ResponseEntity<?> moneyTransfer(String token,
-                                            String pincode,
-                                            String accountNumber,
-                                            Long value,
-                                            String receivingAccountNumber,
-                                            CreditCardEntity card,
-                                            DebitCardEntity rCard) {
-
-        Claims claimsParseToken = jwtUtil.getClaims(token);
-        Long ownerUserId = claimsParseToken.get("id", Long.class);
-        if (!card.getIsActive())
-            return ResponseEntity
-                    .status(HttpStatus.FORBIDDEN)
-                    .body("Карта отправителя заморожена");
-
-        if (!rCard.getIsActive())
-            return ResponseEntity
-                    .status(HttpStatus.FORBIDDEN)
-                    .body("Карта получателя заморожена");
-
-        if (!passwordEncoder.matches(pincode, card.getPincode()))
-            return ResponseEntity
-                    .status(HttpStatus.BAD_REQUEST)
-                    .body("Неверный пин-код");
-
-        if (!card.getOwnerUserId().equals(ownerUserId))
-            return ResponseEntity
-                    .status(HttpStatus.BAD_REQUEST)
-                    .body("Пользователь с id " + ownerUserId + " не обладает картой с номером карты " + accountNumber);
-
-        if (card.getBalance() < value)
-            return ResponseEntity
-                    .status(HttpStatus.BAD_REQUEST)
-                    .body("На карте недостаточно средств");
-
-        if (accountNumber.equals(receivingAccountNumber))
-            return ResponseEntity
-                    .status(HttpStatus.BAD_REQUEST)
-                    .body("Вы не можете перевести деньги на свою карту");
-
-        rCard.setBalance(rCard.getBalance() + value);
-        card.setBalance(card.getBalance() - value);
+    private ResponseEntity<?> updateBalances(boolean isDebit,
+                                             Long cardId,
+                                             boolean isRecDebit,
+                                             Long rCardId,
+                                             Long value,
+                                             Observation observation) {
+        boolean senderFirst = isDebit != isRecDebit ? isDebit : cardId < rCardId;
+        ResponseEntity<?> rejected;
+        if (senderFirst) {
+            rejected = withdraw(isDebit, cardId, value, observation);
+            if (rejected == null) {
+                rejected = deposit(isRecDebit, rCardId, value, observation);
+            }
+        } else {
+            rejected = deposit(isRecDebit, rCardId, value, observation);
+            if (rejected == null) {
+                rejected = withdraw(isDebit, cardId, value, observation);
+            }
+        }
+        observation.stage(Stage.BALANCE_UPDATE);
 
-        creditRepository.moneyTransfer(card.getBalance(), card.getId());
-        debitRepository.moneyTransfer(rCard.getBalance(), rCard.getId());
+        if (rejected != null) {
+            // первая половина перевода могла пройти - откатываем её
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+            return rejected;
+        }
 
+        Long balance = transferRepository.findBalance(isDebit, cardId);
         return ResponseEntity
-                .ok("Перевод доставлен! На данный момент ваш баланс " + card.getBalance() + " рублей");
+                .ok("Перевод доставлен! На данный момент ваш баланс " + balance + " рублей");
     }
 
     /**
-     * Один из методов перевода. Тип - Д&К
+     * Списание с карты отправителя
      *
-     * @param token                  токен переводящего
-     * @param pincode                пин-код карты, с которой происходит перевод
-     * @param accountNumber          номер карты, с которой происходит перевод
-     * @param value                  сумма перевода
-     * @param receivingAccountNumber номер, на который происходит перевод
-     * @param card                   карта, с которой происходит перевод
-     * @param rCard                  карта, на которую происходит перевод
-     * @return перевод + вывод нового баланса карты переводящего
+     * @return null, если деньги списаны, иначе ответ с причиной отказа
      */
-    private ResponseEntity<?> moneyTransfer(String token,
-                                            String pincode,
-                                            String accountNumber,
-                                            Long value,
-                                            String receivingAccountNumber,
-                                            DebitCardEntity card,
-                                            CreditCardEntity rCard) {
-
-        Claims claimsParseToken = jwtUtil.getClaims(token);
-        Long ownerUserId = claimsParseToken.get("id", Long.class);
-        if (!card.getIsActive())
-            return ResponseEntity
-                    .status(HttpStatus.FORBIDDEN)
-                    .body("Карта отправителя заморожена");
-
-        if (!rCard.getIsActive())
-            return ResponseEntity
-                    .status(HttpStatus.FORBIDDEN)
-                    .body("Карта получателя заморожена");
-
-        if (!passwordEncoder.matches(pincode, card.getPincode()))
-            return ResponseEntity
-                    .status(HttpStatus.BAD_REQUEST)
-                    .body("Неверный пин-код");
+    private ResponseEntity<?> withdraw(boolean isDebit, Long cardId, Long value, Observation observation) {
+        int updated = transferRepository.withdraw(isDebit, cardId, value);
+        if (updated == 1) {
+            return null;
+        }
 
-        if (!card.getOwnerUserId().equals(ownerUserId))
+        // карту успели заморозить, удалить или потратить с неё деньги другим переводом
+        Long balance = transferRepository.findBalance(isDebit, cardId);
+        if (balance == null) {
+            observation.outcome(Outcome.CARD_NOT_FOUND);
             return ResponseEntity
-                    .status(HttpStatus.BAD_REQUEST)
-                    .body("Пользователь с id " + ownerUserId + " не обладает картой с номером карты " + accountNumber);
-
-        if (card.getBalance() < value)
+                    .status(HttpStatus.NOT_FOUND)
+                    .body("Карты отправителя не существует");
+        }
+        if (balance < value) {
+            observation.outcome(Outcome.INSUFFICIENT_FUNDS);
             return ResponseEntity
                     .status(HttpStatus.BAD_REQUEST)
                     .body("На карте недостаточно средств");
-
-        if (accountNumber.equals(receivingAccountNumber))
-            return ResponseEntity
-                    .status(HttpStatus.BAD_REQUEST)
-                    .body("Вы не можете перевести деньги на свою карту");
-
-        rCard.setBalance(rCard.getBalance() + value);
-        card.setBalance(card.getBalance() - value);
-
-        debitRepository.moneyTransfer(card.getBalance(), card.getId());
-        creditRepository.moneyTransfer(rCard.getBalance(), rCard.getId());
-
+        }
+        observation.outcome(Outcome.SENDER_FROZEN);
         return ResponseEntity
-                .ok("Перевод доставлен! На данный момент ваш баланс " + card.getBalance() + " рублей");
+                .status(HttpStatus.FORBIDDEN)
+                .body("Карта отправителя заморожена");
     }
 
     /**
-     * Один из методов перевода. Тип - К&К
+     * Зачисление на карту получателя
      *
-     * @param token                  токен переводящего
-     * @param pincode                пин-код карты, с которой происходит перевод
-     * @param accountNumber          номер карты, с которой происходит перевод
-     * @param value                  сумма перевода
-     * @param receivingAccountNumber номер, на который происходит перевод
-     * @param card                   карта, с которой происходит перевод
-     * @param rCard                  карта, на которую происходит перевод
-     * @return перевод + вывод нового баланса карты переводящего
+     * @return null, если деньги зачислены, иначе ответ с причиной отказа
      */
-    private ResponseEntity<?> moneyTransfer(String token,
-                                            String pincode,
-                                            String accountNumber,
-                                            Long value,
-                                            String receivingAccountNumber,
-                                            CreditCardEntity card,
-                                            CreditCardEntity rCard) {
-
-        Claims claimsParseToken = jwtUtil.getClaims(token);
-        Long ownerUserId = claimsParseToken.get("id", Long.class);
-        if (!card.getIsActive())
-            return ResponseEntity
-                    .status(HttpStatus.FORBIDDEN)
-                    .body("Карта отправителя заморожена");
-
-        if (!rCard.getIsActive())
-            return ResponseEntity
-                    .status(HttpStatus.FORBIDDEN)
-                    .body("Карта получателя заморожена");
-
-        if (!passwordEncoder.matches(pincode, card.getPincode()))
-            return ResponseEntity
-                    .status(HttpStatus.BAD_REQUEST)
-                    .body("Неверный пин-код");
-
-        if (!card.getOwnerUserId().equals(ownerUserId))
-            return ResponseEntity
-                    .status(HttpStatus.BAD_REQUEST)
-                    .body("Пользователь с id " + ownerUserId + " не обладает картой с номером карты " + accountNumber);
-
-        if (card.getBalance() < value)
-            return ResponseEntity
-                    .status(HttpStatus.BAD_REQUEST)
-                    .body("На карте недостаточно средств");
+    private ResponseEntity<?> deposit(boolean isDebit, Long cardId, Long value, Observation observation) {
+        int updated = transferRepository.depositIfActive(isDebit, cardId, value);
+        if (updated == 1) {
+            return null;
+        }
 
-        if (accountNumber.equals(receivingAccountNumber))
+        // карту успели заморозить или удалить
+        if (transferRepository.findBalance(isDebit, cardId) == null) {
+            observation.outcome(Outcome.CARD_NOT_FOUND);
             return ResponseEntity
-                    .status(HttpStatus.BAD_REQUEST)
-                    .body("Вы не можете перевести деньги на свою карту");
-
-        rCard.setBalance(rCard.getBalance() + value);
-        card.setBalance(card.getBalance() - value);
-
-        creditRepository.moneyTransfer(card.getBalance(), card.getId());
-        creditRepository.moneyTransfer(rCard.getBalance(), rCard.getId());
-
+                    .status(HttpStatus.NOT_FOUND)
+                    .body("Карты получателя не существует");
+        }
+        observation.outcome(Outcome.RECIPIENT_FROZEN);
         return ResponseEntity
-                .ok("Перевод доставлен! На данный момент ваш баланс " + card.getBalance() + " рублей");
+                .status(HttpStatus.FORBIDDEN)
+                .body("Карта получателя заморожена");
     }
 
     /**
@@ -508,8 +385,8 @@ public class CardService {
      */
     @Transactional
     public ResponseEntity<?> freezeAndUnfreezeCard(String token, Long cardId, String pincode) {
-        Optional<DebitCardEntity> cardEntity = debitRepository.findById(cardId);
-        Claims claimsParseToken = jwtUtil.getClaims(token);
+        Optional<CardWithPincode> cardEntity = transferRepository.findWithPincodeById(true, cardId);
+        Claims claimsParseToken = jwtUtil.getAccessClaims(token);
         Long id = claimsParseToken.get("id", Long.class);
 
         if (!cardEntity.isPresent()) {
@@ -524,18 +401,28 @@ public class CardService {
                     .body("Вы не являетесь владельцем данной карты!");
         }
 
-        if (!passwordEncoder.matches(pincode, cardEntity.get().getPincode())) {
+        if (!passwordEncoder.matches(pincode, cardEntity.get().getPincodeHash())) {
             return ResponseEntity
                     .status(HttpStatus.BAD_REQUEST)
                     .body("Вами введён неверный пин-код!");
         }
 
-        debitRepository.updateById(!cardEntity.get().getIsActive(), cardId);
+        cardCache.invalidate(cardEntity.get());
+        boolean wasActive = cardEntity.get().isActive();
+        if (debitRepository.updateActiveById(!wasActive, cardId, wasActive) == 0) {
+            // в кэше было устаревшее состояние: карту уже заморозили или разморозили через другой экземпляр сервиса
+            wasActive = !wasActive;
+            if (debitRepository.updateActiveById(!wasActive, cardId, wasActive) == 0) {
+                return ResponseEntity
+                        .status(HttpStatus.NOT_FOUND)
+                        .body("Данной карты не существует!");
+            }
+        }
 
         return ResponseEntity
                 .status(HttpStatus.OK)
                 .body("Ваша карта была успешно " + (
-                        cardEntity.get().getIsActive()
+                        wasActive
                                 ? "заморожена!"  //Если карта была размороженной(true)
                                 : "разморожена!" //Если карта была замороженной(false)
                 ));
@@ -547,8 +434,9 @@ public class CardService {
      * @param token уникальный токен авторизации
      * @return Все дебетовые карты
      */
+    @Transactional(readOnly = true)
     public ResponseEntity<?> getAllCards(String token) {
-        Claims claimsParseToken = jwtUtil.getClaims(token);
+        Claims claimsParseToken = jwtUtil.getAccessClaims(token);
         Long id = claimsParseToken.get("id", Long.class);
 
         List<DebitCardEntity> cards = debitRepository.findAllByOwnerUserId(id);// todo временно
@@ -567,6 +455,7 @@ public class CardService {
      *
      * @return Все карты банка
      */
+    @Transactional(readOnly = true)
     public ResponseEntity<?> getAllCards() {
         List<DebitCardEntity> cards = debitRepository.findAll();// TODO временно
 
@@ -584,8 +473,9 @@ public class CardService {
      * @param token уникальный токен авторизации
      * @return Все карты
      */
+    @Transactional(readOnly = true)
     public List<RsCardOutput> getAllCreditCards(String token) {
-        Claims claimsParseToken = jwtUtil.getClaims(token);
+        Claims claimsParseToken = jwtUtil.getAccessClaims(token);
         Long id = claimsParseToken.get("id", Long.class);
 
         List<CreditCardEntity> cards = creditRepository.findAllByOwnerUserId(id);
@@ -623,9 +513,7 @@ public class CardService {
                     .status(HttpStatus.NOT_FOUND)
                     .body("Карты с id: " + cardId + " не существует");
 
-        card.get().setBalance(card.get().getBalance() + value);
-
-        debitRepository.moneyTransfer(card.get().getBalance(), cardId);
+        transferRepository.deposit(true, cardId, value);
 
         return ResponseEntity
                 .ok("Вы успешно получили " + value + " рублей");
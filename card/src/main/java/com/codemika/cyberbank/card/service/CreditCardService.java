@@ -2,7 +2,16 @@ package com.codemika.cyberbank.card.service;
 
 import com.codemika.cyberbank.card.dto.RqCreateCreditCard;
 import com.codemika.cyberbank.card.entity.CreditCardEntity;
+import com.codemika.cyberbank.card.metrics.OperationMetrics;
+import com.codemika.cyberbank.card.metrics.OperationMetrics.CardTypes;
+import com.codemika.cyberbank.card.metrics.OperationMetrics.Observation;
+import com.codemika.cyberbank.card.metrics.OperationMetrics.Outcome;
+import com.codemika.cyberbank.card.metrics.OperationMetrics.Stage;
+import com.codemika.cyberbank.card.repository.CardMetadata;
+import com.codemika.cyberbank.card.repository.CardWithPincode;
+import com.codemika.cyberbank.card.repository.CardMetadataCache;
 import com.codemika.cyberbank.card.repository.CreditCardRepository;
+import com.codemika.cyberbank.card.repository.TransferJdbcRepository;
 import com.codemika.cyberbank.card.util.JwtUtil;
 import io.jsonwebtoken.Claims;
 import lombok.RequiredArgsConstructor;
@@ -11,6 +20,7 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.client.RestTemplate;
 
 import java.util.Optional;
@@ -22,10 +32,13 @@ import static com.codemika.cyberbank.card.service.CardService.generateAccountNum
 @RequiredArgsConstructor
 public class CreditCardService {
     private final CreditCardRepository repository;
-    private final RestTemplate restTemplate = new RestTemplate();
-    private final String url = "http://localhost:8081/api/auth/validate-user/?token=";
+    private final CardMetadataCache cardCache;
+    private final TransferJdbcRepository transferRepository;
+    private final RestTemplate restTemplate;
+    private final String url = "http://authentication/api/auth/validate-user/?token=";
     private final JwtUtil jwtUtil;
     private final PasswordEncoder passwordEncoder;
+    private final OperationMetrics operationMetrics;
 
     /**
      * Создание кредитной карты
@@ -35,6 +48,12 @@ public class CreditCardService {
      * @return Созданную карту
      */
     public ResponseEntity<?> create(String token, RqCreateCreditCard rq) {
+        return operationMetrics.observe(OperationMetrics.Operation.CREATE, observation ->
+                create(token, rq, observation));
+    }
+
+    private ResponseEntity<?> create(String token, RqCreateCreditCard rq, Observation observation) {
+        observation.types(CardTypes.CREDIT);
         int maxValue = (int) (
                 (rq.getMonthlyIncome() * rq.getCreditTerm() * 0.5)
                         /
@@ -75,8 +94,11 @@ public class CreditCardService {
                     .body("Извините, но мы запретили некоторые излишне простые пин-коды для вашей безопасности.");
         }
         //Достаём id из токена
-        Claims claimsParseToken = jwtUtil.getClaims(token);
+        Claims claimsParseToken = jwtUtil.getAccessClaims(token);
         Long ownerUserId = claimsParseToken.get("id", Long.class);
+        observation.stage(Stage.TOKEN_PARSE);
+        String pincodeHash = passwordEncoder.encode(rq.getPincode());
+        observation.stage(Stage.PIN_HASH);
         String typeNewCard = "Кредитная";
         //Подготавливаем результат
         CreditCardEntity card = new CreditCardEntity()
@@ -84,9 +106,7 @@ public class CreditCardService {
                 .setType(typeNewCard)
                 .setOwnerUserId(ownerUserId)
                 .setBalance(rq.getValue())
-                .setPincode(
-                        passwordEncoder.encode(rq.getPincode())
-                )
+                .setPincode(pincodeHash)
                 .setCreditTerm(rq.getCreditTerm())
                 .setAccountNumber(
                         generateAccountNumber(16)
@@ -99,6 +119,7 @@ public class CreditCardService {
         }
 
         ResponseEntity<Boolean> response = restTemplate.getForEntity(url + token, Boolean.class);
+        observation.stage(Stage.USER_CHECK);
 
         //Проверка валидности пользователя
         if (!response.getStatusCode().is2xxSuccessful()) {
@@ -106,83 +127,121 @@ public class CreditCardService {
                     .status(HttpStatus.NOT_FOUND)
                     .body("Такого пользователя не существует!");
         }
+        card = repository.save(card);
+        observation.stage(Stage.INSERT);
+
         return ResponseEntity
                 .status(HttpStatus.CREATED)
-                .body(repository.save(card));
+                .body(card);
     }
 
+    @Transactional
     public ResponseEntity<?> delete(String token, Long id, String pincode) {
-        Optional<CreditCardEntity> card = repository.findById(id);
+        return operationMetrics.observe(OperationMetrics.Operation.DELETE, observation ->
+                delete(token, id, pincode, observation));
+    }
 
-        Claims claimsParseToken = jwtUtil.getClaims(token);
+    private ResponseEntity<?> delete(String token, Long id, String pincode, Observation observation) {
+        observation.types(CardTypes.CREDIT);
+        Optional<CardWithPincode> card = transferRepository.findWithPincodeById(false, id);
+        observation.stage(Stage.CARD_LOOKUP);
+
+        Claims claimsParseToken = jwtUtil.getAccessClaims(token);
         Long ownerUserId = claimsParseToken.get("id", Long.class);
+        observation.stage(Stage.TOKEN_PARSE);
 
         if (!card.isPresent()) {
+            observation.outcome(Outcome.CARD_NOT_FOUND);
             return ResponseEntity
                     .status(HttpStatus.NOT_FOUND)
                     .body("Карта с id: " + id + " не существует!");
         }
 
         if (!card.get().getOwnerUserId().equals(ownerUserId)) {
+            observation.outcome(Outcome.NOT_OWNER);
             return ResponseEntity
                     .status(HttpStatus.FORBIDDEN)
                     .body("Вы не являетесь владельцем данной карты!");
         }
 
-        if (!passwordEncoder.matches(pincode, card.get().getPincode())) {
+        String pincodeHash = card.get().getPincodeHash();
+        boolean pinMatches = passwordEncoder.matches(pincode, pincodeHash);
+        observation.stage(Stage.PIN_CHECK);
+        if (!pinMatches) {
             log.info(pincode);
-            log.info(card.get().getPincode());
+            log.info(pincodeHash);
             log.info(passwordEncoder.encode(pincode));
             return ResponseEntity
                     .status(HttpStatus.FORBIDDEN)
                     .body("Неверный пин-код!");
         }
 
-        if (card.get().getBalance() != 0) {
+        // удаляется, только если на карте нет денег (баланс проверяется в самой БД при удалении)
+        if (repository.deleteEmptyById(id) == 0) {
+            observation.outcome(Outcome.BALANCE_NOT_ZERO);
             return ResponseEntity
                     .badRequest()
                     .body("Вы не можете удалить карту на которой есть деньги!" +
                             "Пожалуйста, снимите их или переведите на другую карту");
         }
 
-        repository.deleteById(id);
+        cardCache.invalidate(card.get());
+        observation.stage(Stage.DELETE);
         return ResponseEntity
                 .status(HttpStatus.ACCEPTED)
                 .body("Карта была успешно удалена");
     }
 
+    @Transactional
     public ResponseEntity<?> delete(String token, String accountNumber, String pincode) {
-        Optional<CreditCardEntity> card = repository.findCardByAccountNumber(accountNumber);
+        return operationMetrics.observe(OperationMetrics.Operation.DELETE, observation ->
+                delete(token, accountNumber, pincode, observation));
+    }
+
+    private ResponseEntity<?> delete(String token, String accountNumber, String pincode, Observation observation) {
+        observation.types(CardTypes.CREDIT);
+        Optional<CardWithPincode> card = transferRepository.findWithPincodeByAccountNumber(false, accountNumber);
+        observation.stage(Stage.CARD_LOOKUP);
 
-        Claims claimsParseToken = jwtUtil.getClaims(token);
+        Claims claimsParseToken = jwtUtil.getAccessClaims(token);
         Long ownerUserId = claimsParseToken.get("id", Long.class);
+        observation.stage(Stage.TOKEN_PARSE);
 
         if (!card.isPresent()) {
+            observation.outcome(Outcome.CARD_NOT_FOUND);
             return ResponseEntity
                     .status(HttpStatus.NOT_FOUND)
                     .body("Карты с номером: " + accountNumber + " не существует!");
         }
 
         if (!card.get().getOwnerUserId().equals(ownerUserId)) {
+            observation.outcome(Outcome.NOT_OWNER);
             return ResponseEntity
                     .status(HttpStatus.FORBIDDEN)
                     .body("Вы не являетесь владельцем данной карты!");
         }
 
-        if (!passwordEncoder.matches(pincode, card.get().getPincode())) {
+        String pincodeHash = card.get().getPincodeHash();
+        boolean pinMatches = passwordEncoder.matches(pincode, pincodeHash);
+        observation.stage(Stage.PIN_CHECK);
+        if (!pinMatches) {
+            observation.outcome(Outcome.WRONG_PIN);
             return ResponseEntity
                     .status(HttpStatus.FORBIDDEN)
                     .body("Неверный пин-код!");
         }
 
-        if (card.get().getBalance() != 0) {
+        // удаляется, только если на карте нет денег (баланс проверяется в самой БД при удалении)
+        if (repository.deleteEmptyByAccountNumber(accountNumber) == 0) {
+            observation.outcome(Outcome.BALANCE_NOT_ZERO);
             return ResponseEntity
                     .badRequest()
                     .body("Вы не можете удалить карту на которой есть деньги!" +
                             "Пожалуйста, снимите их или переведите на другую карту");
         }
 
-        repository.deleteByAccountNumber(accountNumber);
+        cardCache.invalidate(card.get());
+        observation.stage(Stage.DELETE);
         return ResponseEntity
                 .status(HttpStatus.ACCEPTED)
                 .body("Карта была успешно удалена");
@@ -197,10 +256,11 @@ public class CreditCardService {
      * @param newPinCode    новый пин-код карты
      * @return сообщение об изменении пин-кода карты
      */
+    @Transactional
     public ResponseEntity<?> changePincode(String token, String accountNumber, String pincode, String newPinCode) {
-        Optional<CreditCardEntity> card = repository.findCardByAccountNumber(accountNumber);
+        Optional<CardWithPincode> card = transferRepository.findWithPincodeByAccountNumber(false, accountNumber);
 
-        Claims claimsParseToken = jwtUtil.getClaims(token);
+        Claims claimsParseToken = jwtUtil.getAccessClaims(token);
         Long ownerUserId = claimsParseToken.get("id", Long.class);
 
         if (!card.isPresent()) {
@@ -213,13 +273,14 @@ public class CreditCardService {
                     .status(HttpStatus.BAD_REQUEST)
                     .body("Нельзя менять данные чужой карты!");
         }
-        if (!passwordEncoder.matches(pincode, card.get().getPincode())) {
+        if (!passwordEncoder.matches(pincode, card.get().getPincodeHash())) {
             return ResponseEntity
                     .status(HttpStatus.BAD_REQUEST)
                     .body("Пин-код неверный!");
         }
 
         repository.updateCardPinCode(newPinCode, card.get().getId());
+        cardCache.invalidate(card.get());
         return ResponseEntity.ok("Пин-код карты изменен.");
     }
 
@@ -232,10 +293,11 @@ public class CreditCardService {
      * @param newPinCode новый пин-код карты
      * @return сообщение об изменении пин-кода карты
      */
+    @Transactional
     public ResponseEntity<?> changePincode(String token, Long id, String pincode, String newPinCode) {
-        Optional<CreditCardEntity> card = repository.findById(id);
+        Optional<CardWithPincode> card = transferRepository.findWithPincodeById(false, id);
 
-        Claims claimsParseToken = jwtUtil.getClaims(token);
+        Claims claimsParseToken = jwtUtil.getAccessClaims(token);
         Long ownerUserId = claimsParseToken.get("id", Long.class);
 
         if (!card.isPresent()) {
@@ -248,13 +310,14 @@ public class CreditCardService {
                     .status(HttpStatus.BAD_REQUEST)
                     .body("Нельзя менять данные чужой карты!");
         }
-        if (!passwordEncoder.matches(pincode, card.get().getPincode())) {
+        if (!passwordEncoder.matches(pincode, card.get().getPincodeHash())) {
             return ResponseEntity
                     .status(HttpStatus.BAD_REQUEST)
                     .body("Пин-код неверный!");
         }
 
         repository.updateCardPinCode(newPinCode, card.get().getId());
+        cardCache.invalidate(card.get());
         return ResponseEntity.ok("Пин-код карты изменен.");
     }
 
@@ -266,10 +329,11 @@ public class CreditCardService {
      * @param newTitle      новое название карты
      * @return сообщение об изменении названия карты
      */
+    @Transactional
     public ResponseEntity<?> changeTitle(String token, String accountNumber, String newTitle) {
-        Optional<CreditCardEntity> card = repository.findCardByAccountNumber(accountNumber);
+        Optional<CardMetadata> card = cardCache.findByAccountNumber(false, accountNumber);
 
-        Claims claimsParseToken = jwtUtil.getClaims(token);
+        Claims claimsParseToken = jwtUtil.getAccessClaims(token);
         Long ownerUserId = claimsParseToken.get("id", Long.class);
 
         if (!card.isPresent()) {
@@ -283,6 +347,7 @@ public class CreditCardService {
                     .body("Нельзя менять данные чужой карты!");
 
         repository.updateCardTitle(newTitle, card.get().getId());
+        cardCache.invalidate(card.get());
 
         return ResponseEntity
                 .status(HttpStatus.OK)
@@ -297,10 +362,11 @@ public class CreditCardService {
      * @param newTitle новое название карты
      * @return сообщение об изменении названия карты
      */
+    @Transactional
     public ResponseEntity<?> changeTitle(String token, Long id, String newTitle) {
-        Optional<CreditCardEntity> card = repository.findById(id);
+        Optional<CardMetadata> card = cardCache.findById(false, id);
 
-        Claims claimsParseToken = jwtUtil.getClaims(token);
+        Claims claimsParseToken = jwtUtil.getAccessClaims(token);
         Long ownerUserId = claimsParseToken.get("id", Long.class);
 
         if (!card.isPresent()) {
@@ -314,6 +380,7 @@ public class CreditCardService {
                     .body("Нельзя менять данные чужой карты!");
 
         repository.updateCardTitle(newTitle, card.get().getId());
+        cardCache.invalidate(card.get());
 
         return ResponseEntity
                 .status(HttpStatus.OK)
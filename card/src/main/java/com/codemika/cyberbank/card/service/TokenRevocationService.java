@@ -0,0 +1,88 @@
+package com.codemika.cyberbank.card.service;
+
+import com.codemika.cyberbank.card.util.JwtUtil;
+import com.codemika.cyberbank.card.util.RevocationList;
+import io.jsonwebtoken.Claims;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Отозванные токены (выход из аккаунта, удаление пользователя) и эпохи ролей пользователей.
+ * Отзывы присылает сервис авторизации (см. RevocationController), а при старте и периодически
+ * забирается полный снимок на случай пропущенных сообщений. Проверка токена идёт только по памяти.
+ */
+@Slf4j
+@Service
+public class TokenRevocationService {
+    private final RevocationList revocationList = new RevocationList();
+    private final JwtUtil jwtUtil;
+    private final String snapshotUrl;
+    private final RestTemplate restTemplate;
+
+    public TokenRevocationService(JwtUtil jwtUtil,
+                                  @Qualifier("directRestTemplate") RestTemplate restTemplate,
+                                  @Value("${cyberbank.security.revocations-url:http://localhost:8081/api/auth/internal/revocations}")
+                                  String snapshotUrl) {
+        this.jwtUtil = jwtUtil;
+        this.restTemplate = restTemplate;
+        this.snapshotUrl = snapshotUrl;
+    }
+
+    /**
+     * @param claims информация из токена
+     * @return true - токен отозван
+     */
+    public boolean isRevoked(Claims claims) {
+        return revocationList.isRevoked(claims);
+    }
+
+    /**
+     * @param claims информация из токена
+     * @return true - роли пользователя изменились после выдачи токена
+     */
+    public boolean hasStaleRoles(Claims claims) {
+        return revocationList.hasStaleRoles(claims);
+    }
+
+    /**
+     * Применение сообщения об отзывах от сервиса авторизации
+     *
+     * @param message подписанный токен с отзывами
+     * @return false - сообщение не подписано нашим ключом или это не сообщение об отзывах
+     */
+    public boolean apply(String message) {
+        Claims claims = jwtUtil.getClaims(message);
+        return claims != null && revocationList.apply(claims);
+    }
+
+    /**
+     * Загрузка полного снимка отзывов из сервиса авторизации
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(fixedDelayString = "${cyberbank.security.sync-ms:300000}",
+            initialDelayString = "${cyberbank.security.sync-ms:300000}")
+    public void sync() {
+        try {
+            String snapshot = restTemplate.getForObject(snapshotUrl, String.class);
+            if (snapshot == null || !apply(snapshot)) {
+                log.error("Сервис авторизации вернул неверный снимок отозванных токенов");
+            }
+        } catch (RuntimeException e) {
+            log.error("Не удалось загрузить отозванные токены: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Выбрасывание отзывов уже истёкших токенов
+     */
+    @Scheduled(fixedDelayString = "${cyberbank.security.purge-ms:3600000}")
+    public void purgeExpired() {
+        revocationList.purgeExpired(System.currentTimeMillis() / 1000);
+    }
+}
@@ -0,0 +1,49 @@
+package com.codemika.cyberbank.card.tracing;
+
+import com.codemika.cyberbank.shared.tracing.Span;
+import lombok.RequiredArgsConstructor;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Участок трассировки на каждый входящий запрос. Контекст берётся из заголовка traceparent
+ * (его ставит шлюз или другой сервис), а в ответ возвращается traceparent этого участка.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+@RequiredArgsConstructor
+public class TracingFilter extends OncePerRequestFilter {
+    private final Tracer tracer;
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        // параметры запроса не пишутся: в них бывают токены и пароли
+        Span span = tracer.startServerSpan(request.getHeader(Span.TRACEPARENT_HEADER),
+                request.getMethod() + " " + request.getRequestURI());
+        response.setHeader(Span.TRACEPARENT_HEADER, span.traceparent());
+        try {
+            chain.doFilter(request, response);
+        } catch (IOException | ServletException | RuntimeException e) {
+            span.error(e);
+            throw e;
+        } finally {
+            span.tag("status", response.getStatus());
+            tracer.finish(span);
+        }
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String uri = request.getRequestURI();
+        return uri.endsWith("/internal/traces") || uri.endsWith("/internal/metrics");
+    }
+}
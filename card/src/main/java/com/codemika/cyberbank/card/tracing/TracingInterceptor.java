@@ -0,0 +1,45 @@
+package com.codemika.cyberbank.card.tracing;
+
+import com.codemika.cyberbank.shared.tracing.Span;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URI;
+
+/**
+ * Участок трассировки на каждый запрос RestTemplate в другой сервис и передача ему заголовка traceparent
+ */
+@Component
+@RequiredArgsConstructor
+public class TracingInterceptor implements ClientHttpRequestInterceptor {
+    private final Tracer tracer;
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution)
+            throws IOException {
+        URI uri = request.getURI();
+        // у запроса по имени сервиса (http://card/...) порта нет
+        String host = uri.getPort() < 0 ? uri.getHost() : uri.getHost() + ":" + uri.getPort();
+        // без параметров запроса: в них бывают токены
+        Span span = tracer.startSpan("http " + request.getMethodValue() + " " + host + uri.getPath());
+        if (span == null) {
+            return execution.execute(request, body);
+        }
+        request.getHeaders().set(Span.TRACEPARENT_HEADER, span.traceparent());
+        try {
+            ClientHttpResponse response = execution.execute(request, body);
+            span.tag("status", response.getRawStatusCode());
+            return response;
+        } catch (IOException | RuntimeException e) {
+            span.error(e);
+            throw e;
+        } finally {
+            tracer.finish(span);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.codemika.cyberbank.card.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Словарь long -> int на примитивах (без упаковки в Long/Integer) с открытой адресацией.
+ * Ключ и значение лежат в одной ячейке AtomicLongArray, поэтому чтение без блокировок всегда видит согласованную пару.
+ * Ключ 0 не поддерживается (id пользователей начинаются с 1). Значения можно только увеличивать (см. raise).
+ * Размер ограничен 2^31 ключами, ключи - до 2^32 (id пользователей).
+ */
+public class LongIntHashMap {
+    private volatile AtomicLongArray table = new AtomicLongArray(16);
+    private int size;
+
+    /**
+     * @param key ключ
+     * @return значение или 0, если ключа нет
+     */
+    public int get(long key) {
+        AtomicLongArray t = table;
+        int mask = t.length() - 1;
+        for (int i = index(key, mask); ; i = (i + 1) & mask) {
+            long cell = t.get(i);
+            if (cell == 0) return 0;
+            if (keyOf(cell) == key) return valueOf(cell);
+        }
+    }
+
+    /**
+     * Увеличение значения до заданного (меньшие значения игнорируются, поэтому порядок сообщений не важен)
+     *
+     * @param key   ключ (от 1 до 2^32 - 1)
+     * @param value новое значение
+     */
+    public synchronized void raise(long key, int value) {
+        if (key <= 0 || key > 0xFFFFFFFFL) {
+            throw new IllegalArgumentException("Ключ вне диапазона: " + key);
+        }
+        AtomicLongArray t = table;
+        int mask = t.length() - 1;
+        for (int i = index(key, mask); ; i = (i + 1) & mask) {
+            long cell = t.get(i);
+            if (cell == 0) break;
+            if (keyOf(cell) == key) {
+                if (valueOf(cell) < value) t.set(i, cell(key, value));
+                return;
+            }
+        }
+        if ((size + 1) * 2 > t.length()) {
+            t = resize(t);
+        }
+        insert(t, cell(key, value));
+        table = t;
+        size++;
+    }
+
+    /**
+     * @return число ключей
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Обход всех пар
+     */
+    public synchronized void forEach(Consumer action) {
+        AtomicLongArray t = table;
+        for (int i = 0; i < t.length(); i++) {
+            long cell = t.get(i);
+            if (cell != 0) action.accept(keyOf(cell), valueOf(cell));
+        }
+    }
+
+    public interface Consumer {
+        void accept(long key, int value);
+    }
+
+    private static AtomicLongArray resize(AtomicLongArray old) {
+        AtomicLongArray grown = new AtomicLongArray(old.length() * 2);
+        for (int i = 0; i < old.length(); i++) {
+            long cell = old.get(i);
+            if (cell != 0) insert(grown, cell);
+        }
+        return grown;
+    }
+
+    private static void insert(AtomicLongArray t, long cell) {
+        int mask = t.length() - 1;
+        int i = index(keyOf(cell), mask);
+        while (t.get(i) != 0) {
+            i = (i + 1) & mask;
+        }
+        t.set(i, cell);
+    }
+
+    private static long cell(long key, int value) {
+        return (key << 32) | (value & 0xFFFFFFFFL);
+    }
+
+    private static long keyOf(long cell) {
+        return cell >>> 32;
+    }
+
+    private static int valueOf(long cell) {
+        return (int) cell;
+    }
+
+    private static int index(long key, int mask) {
+        long h = key * 0x9e3779b97f4a7c15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
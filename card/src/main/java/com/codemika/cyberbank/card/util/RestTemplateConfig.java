@@ -0,0 +1,35 @@
+package com.codemika.cyberbank.card.util;
+
+import com.codemika.cyberbank.shared.loadbalancer.LoadBalancerConfig;
+import com.codemika.cyberbank.card.tracing.TracingInterceptor;
+import org.springframework.cloud.client.loadbalancer.LoadBalanced;
+import org.springframework.cloud.loadbalancer.annotation.LoadBalancerClients;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.client.RestTemplate;
+
+@Configuration
+@LoadBalancerClients(defaultConfiguration = LoadBalancerConfig.class)
+public class RestTemplateConfig {
+    /**
+     * RestTemplate для запросов в другие сервисы по имени (http://authentication/...): экземпляр выбирает PeakEwmaLoadBalancer.
+     * Передаёт сервисам контекст трассировки.
+     */
+    @Bean
+    @LoadBalanced
+    public RestTemplate restTemplate(TracingInterceptor tracingInterceptor) {
+        RestTemplate restTemplate = new RestTemplate();
+        restTemplate.getInterceptors().add(tracingInterceptor);
+        return restTemplate;
+    }
+
+    /**
+     * RestTemplate для запросов по точному адресу, без балансировки (рассылка каждому экземпляру из списка)
+     */
+    @Bean
+    public RestTemplate directRestTemplate(TracingInterceptor tracingInterceptor) {
+        RestTemplate restTemplate = new RestTemplate();
+        restTemplate.getInterceptors().add(tracingInterceptor);
+        return restTemplate;
+    }
+}
@@ -0,0 +1,311 @@
+package com.codemika.cyberbank.card.util;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongConsumer;
+
+import static com.codemika.cyberbank.card.constants.RoleConstants.ROLE_EPOCH_CLAIMS_KEY;
+
+/**
+ * Список отозванных токенов, который каждый сервис держит в памяти.
+ * Токены хранятся по id (jti) в корзинах по часу истечения: в каждой корзине - открытая хеш-таблица примитивных long,
+ * поэтому проверка - это одно чтение из ConcurrentHashMap и несколько чтений массива, без I/O и без упаковки в Long.
+ * Корзины с истёкшими токенами выбрасываются целиком (см. purgeExpired).
+ * Отдельно хранится время, до которого отозваны все токены пользователя (например, после удаления пользователя),
+ * и эпоха ролей пользователя: при каждом изменении ролей она растёт, и токены со старой эпохой считаются устаревшими.
+ */
+public class RevocationList {
+    /**
+     * Дольше этого токены не живут (см. JwtUtil.generateToken), поэтому отзывы всех токенов пользователя можно забывать
+     */
+    public static final long MAX_TOKEN_LIFETIME_SECONDS = JwtUtil.TOKEN_VALIDITY_MILLIS / 1000;
+    public static final String TOKENS_CLAIMS_KEY = "revokedTokens";
+    public static final String USERS_CLAIMS_KEY = "revokedUsers";
+    public static final String ROLE_EPOCHS_CLAIMS_KEY = "roleEpochs";
+    public static final String TYPE_CLAIMS_KEY = "typ";
+    public static final String TYPE = "revocations";
+    private static final long BUCKET_SECONDS = 3600;
+
+    private final Map<Long, LongSet> buckets = new ConcurrentHashMap<>();
+    private final Map<Long, Long> usersRevokedBefore = new ConcurrentHashMap<>();
+    private final LongIntHashMap roleEpochs = new LongIntHashMap();
+
+    /**
+     * Отзыв одного токена
+     *
+     * @param jti           id токена
+     * @param expiresSecond время истечения токена (секунды epoch)
+     * @return false - токен уже был отозван
+     */
+    public boolean revokeToken(long jti, long expiresSecond) {
+        return buckets.computeIfAbsent(expiresSecond / BUCKET_SECONDS, bucket -> new LongSet()).add(jti);
+    }
+
+    /**
+     * Отзыв всех токенов пользователя, выданных не позже заданного времени
+     *
+     * @param userId       id пользователя
+     * @param beforeSecond время (секунды epoch)
+     */
+    public void revokeUser(long userId, long beforeSecond) {
+        usersRevokedBefore.merge(userId, beforeSecond, Math::max);
+    }
+
+    /**
+     * Новая эпоха ролей пользователя (роли изменились)
+     *
+     * @param userId id пользователя
+     * @param epoch  эпоха ролей (меньшие значения игнорируются)
+     */
+    public void raiseRoleEpoch(long userId, int epoch) {
+        if (epoch > 0) {
+            roleEpochs.raise(userId, epoch);
+        }
+    }
+
+    /**
+     * @param userId id пользователя
+     * @return текущая эпоха ролей пользователя (0 - роли не менялись)
+     */
+    public int roleEpoch(long userId) {
+        return roleEpochs.get(userId);
+    }
+
+    /**
+     * Проверка, что роли в токене не устарели. Один поиск в хеш-таблице примитивов.
+     *
+     * @param claims информация из токена
+     * @return true - роли пользователя изменились после выдачи токена
+     */
+    public boolean hasStaleRoles(Claims claims) {
+        Number userId = claims.get("id", Number.class);
+        if (userId == null || userId.longValue() <= 0) {
+            return false;
+        }
+        int current = roleEpochs.get(userId.longValue());
+        if (current == 0) {
+            return false;
+        }
+        Number tokenEpoch = claims.get(ROLE_EPOCH_CLAIMS_KEY, Number.class);
+        return tokenEpoch == null || tokenEpoch.intValue() < current;
+    }
+
+    /**
+     * Проверка токена
+     *
+     * @param claims информация из токена
+     * @return true - токен отозван
+     */
+    public boolean isRevoked(Claims claims) {
+        if (isUserRevoked(claims)) {
+            return true;
+        }
+
+        String jti = claims.getId();
+        if (jti == null || claims.getExpiration() == null) {
+            return false;
+        }
+        LongSet bucket = buckets.get(claims.getExpiration().getTime() / 1000 / BUCKET_SECONDS);
+        return bucket != null && bucket.contains(parseJti(jti));
+    }
+
+    /**
+     * Проверка только отзыва всех токенов пользователя (без проверки самого токена)
+     *
+     * @param claims информация из токена
+     * @return true - все токены пользователя, выданные не позже этого, отозваны
+     */
+    public boolean isUserRevoked(Claims claims) {
+        Number userId = claims.get("id", Number.class);
+        if (userId == null || usersRevokedBefore.isEmpty()) {
+            return false;
+        }
+        Long before = usersRevokedBefore.get(userId.longValue());
+        return before != null && (claims.getIssuedAt() == null || claims.getIssuedAt().getTime() / 1000 <= before);
+    }
+
+    /**
+     * Удаление корзин, все токены которых уже истекли, и устаревших отзывов по пользователям
+     *
+     * @param nowSecond текущее время (секунды epoch)
+     */
+    public void purgeExpired(long nowSecond) {
+        buckets.keySet().removeIf(bucket -> (bucket + 1) * BUCKET_SECONDS <= nowSecond);
+        usersRevokedBefore.values().removeIf(before -> before + MAX_TOKEN_LIFETIME_SECONDS <= nowSecond);
+    }
+
+    /**
+     * @return число отозванных токенов (ещё не выброшенных)
+     */
+    public long size() {
+        long size = 0;
+        for (LongSet set : buckets.values()) {
+            size += set.size;
+        }
+        return size;
+    }
+
+    /**
+     * Запись отзывов в claims для передачи в подписанном токене.
+     * Токены - список пар [jti, exp], пользователи - словарь id -> время.
+     *
+     * @param tokens отозванные токены (пары [jti, exp])
+     * @param users      отзывы по пользователям
+     * @param roleEpochs эпохи ролей пользователей
+     * @return claims для подписи
+     */
+    public static Claims toClaims(List<long[]> tokens, Map<Long, Long> users, Map<Long, Integer> roleEpochs) {
+        List<List<Long>> tokenList = new ArrayList<>(tokens.size());
+        for (long[] token : tokens) {
+            List<Long> pair = new ArrayList<>(2);
+            pair.add(token[0]);
+            pair.add(token[1]);
+            tokenList.add(pair);
+        }
+        Map<String, Long> userMap = new HashMap<>();
+        users.forEach((id, before) -> userMap.put(String.valueOf(id), before));
+        Map<String, Integer> epochMap = new HashMap<>();
+        roleEpochs.forEach((id, epoch) -> epochMap.put(String.valueOf(id), epoch));
+
+        Claims claims = Jwts.claims();
+        claims.put(TYPE_CLAIMS_KEY, TYPE);
+        claims.put(TOKENS_CLAIMS_KEY, tokenList);
+        claims.put(USERS_CLAIMS_KEY, userMap);
+        claims.put(ROLE_EPOCHS_CLAIMS_KEY, epochMap);
+        return claims;
+    }
+
+    /**
+     * Применение отзывов, полученных в подписанном токене (см. toClaims)
+     *
+     * @param claims claims проверенного токена
+     * @return false - это не сообщение об отзывах (например, обычный токен пользователя)
+     */
+    @SuppressWarnings("unchecked")
+    public boolean apply(Claims claims) {
+        if (!TYPE.equals(claims.get(TYPE_CLAIMS_KEY, String.class))) {
+            return false;
+        }
+        List<List<Number>> tokens = claims.get(TOKENS_CLAIMS_KEY, List.class);
+        if (tokens != null) {
+            for (List<Number> token : tokens) {
+                revokeToken(token.get(0).longValue(), token.get(1).longValue());
+            }
+        }
+        Map<String, Number> users = claims.get(USERS_CLAIMS_KEY, Map.class);
+        if (users != null) {
+            users.forEach((id, before) -> revokeUser(Long.parseLong(id), before.longValue()));
+        }
+        Map<String, Number> epochs = claims.get(ROLE_EPOCHS_CLAIMS_KEY, Map.class);
+        if (epochs != null) {
+            epochs.forEach((id, epoch) -> raiseRoleEpoch(Long.parseLong(id), epoch.intValue()));
+        }
+        return true;
+    }
+
+    /**
+     * Снимок всех отзывов в виде claims (для сервисов, которые только запустились)
+     *
+     * @return claims для подписи
+     */
+    public Claims snapshot() {
+        List<long[]> tokens = new ArrayList<>();
+        buckets.forEach((bucket, set) -> {
+            // точное время истечения не хранится - берём конец корзины, он попадёт в ту же корзину
+            long exp = (bucket + 1) * BUCKET_SECONDS - 1;
+            set.forEach(jti -> tokens.add(new long[]{jti, exp}));
+        });
+        Map<Long, Integer> epochs = new HashMap<>();
+        roleEpochs.forEach(epochs::put);
+        return toClaims(tokens, new HashMap<>(usersRevokedBefore), epochs);
+    }
+
+    /**
+     * id токена - это long в десятичной записи (см. JwtUtil.generateToken). Чужие id хешируются.
+     */
+    public static long parseJti(String jti) {
+        try {
+            return Long.parseLong(jti);
+        } catch (NumberFormatException e) {
+            return jti.hashCode();
+        }
+    }
+
+    /**
+     * Множество long с открытой адресацией. Чтение без блокировок, запись под блокировкой.
+     * 0 - признак пустой ячейки, поэтому сам 0 хранится отдельным флагом.
+     */
+    private static class LongSet {
+        private volatile AtomicLongArray table = new AtomicLongArray(16);
+        private volatile boolean containsZero;
+        private volatile int size;
+
+        boolean contains(long value) {
+            if (value == 0) return containsZero;
+            AtomicLongArray t = table;
+            int mask = t.length() - 1;
+            for (int i = index(value, mask); ; i = (i + 1) & mask) {
+                long current = t.get(i);
+                if (current == value) return true;
+                if (current == 0) return false;
+            }
+        }
+
+        synchronized boolean add(long value) {
+            if (value == 0) {
+                if (containsZero) return false;
+                containsZero = true;
+                size++;
+                return true;
+            }
+            if (contains(value)) return false;
+            AtomicLongArray t = table;
+            if ((size + 1) * 2 > t.length()) {
+                t = resize(t);
+            }
+            insert(t, value);
+            table = t;
+            size++;
+            return true;
+        }
+
+        synchronized void forEach(LongConsumer action) {
+            if (containsZero) action.accept(0);
+            AtomicLongArray t = table;
+            for (int i = 0; i < t.length(); i++) {
+                long value = t.get(i);
+                if (value != 0) action.accept(value);
+            }
+        }
+
+        private static AtomicLongArray resize(AtomicLongArray old) {
+            AtomicLongArray grown = new AtomicLongArray(old.length() * 2);
+            for (int i = 0; i < old.length(); i++) {
+                long value = old.get(i);
+                if (value != 0) insert(grown, value);
+            }
+            return grown;
+        }
+
+        private static void insert(AtomicLongArray t, long value) {
+            int mask = t.length() - 1;
+            int i = index(value, mask);
+            while (t.get(i) != 0) {
+                i = (i + 1) & mask;
+            }
+            t.set(i, value);
+        }
+
+        private static int index(long value, int mask) {
+            long h = value * 0x9e3779b97f4a7c15L;
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+    }
+}
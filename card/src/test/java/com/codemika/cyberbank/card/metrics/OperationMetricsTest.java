@@ -0,0 +1,103 @@
+package com.codemika.cyberbank.card.metrics;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import static com.codemika.cyberbank.card.metrics.OperationMetrics.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class OperationMetricsTest {
+    private final CardMetrics cardMetrics = new CardMetrics();
+    private final OperationMetrics metrics = new OperationMetrics(cardMetrics);
+
+    @AfterEach
+    void clearSynchronization() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void outcomeSetByOperationWinsOverStatus() {
+        metrics.observe(Operation.TRANSFER, observation -> {
+            observation.types(CardTypes.DEBIT_CREDIT);
+            observation.stage(Stage.CARD_LOOKUP);
+            observation.outcome(Outcome.WRONG_PIN);
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Неверный пин-код");
+        });
+        metrics.observe(Operation.TRANSFER, observation -> ResponseEntity.status(HttpStatus.BAD_REQUEST).build());
+
+        assertEquals(1, duration(Operation.TRANSFER, CardTypes.DEBIT_CREDIT, Outcome.WRONG_PIN).count());
+        assertEquals(1, duration(Operation.TRANSFER, CardTypes.UNKNOWN, Outcome.REJECTED).count());
+        assertEquals(1, stage(Operation.TRANSFER, Stage.CARD_LOOKUP).count());
+    }
+
+    @Test
+    void exceptionIsCountedAsError() {
+        assertThrows(IllegalStateException.class, () -> metrics.observe(Operation.CREATE, observation -> {
+            observation.types(CardTypes.DEBIT);
+            throw new IllegalStateException();
+        }));
+
+        assertEquals(1, duration(Operation.CREATE, CardTypes.DEBIT, Outcome.ERROR).count());
+    }
+
+    @Test
+    void transactionalOperationIsRecordedAfterCompletion() {
+        TransactionSynchronizationManager.initSynchronization();
+        metrics.observe(Operation.DELETE, observation -> ResponseEntity.ok("Карта удалена"));
+
+        assertEquals(0, duration(Operation.DELETE, CardTypes.UNKNOWN, Outcome.SUCCESS).count());
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            synchronization.beforeCompletion();
+            synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+        }
+
+        assertEquals(1, duration(Operation.DELETE, CardTypes.UNKNOWN, Outcome.SUCCESS).count());
+        assertEquals(1, stage(Operation.DELETE, Stage.COMMIT).count());
+    }
+
+    @Test
+    void rollbackIsCountedAsError() {
+        TransactionSynchronizationManager.initSynchronization();
+        metrics.observe(Operation.TRANSFER, observation -> ResponseEntity.ok("Перевод выполнен"));
+
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            synchronization.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK);
+        }
+
+        assertEquals(0, duration(Operation.TRANSFER, CardTypes.UNKNOWN, Outcome.SUCCESS).count());
+        assertEquals(1, duration(Operation.TRANSFER, CardTypes.UNKNOWN, Outcome.ERROR).count());
+        assertTrue(cardMetrics.scrape().contains("outcome=\"error\""));
+    }
+
+    @Test
+    void rejectionThatRollsBackKeepsItsOutcome() {
+        TransactionSynchronizationManager.initSynchronization();
+        metrics.observe(Operation.TRANSFER, observation -> {
+            observation.outcome(Outcome.INSUFFICIENT_FUNDS);
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("На карте недостаточно средств");
+        });
+
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            synchronization.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK);
+        }
+
+        assertEquals(1, duration(Operation.TRANSFER, CardTypes.UNKNOWN, Outcome.INSUFFICIENT_FUNDS).count());
+        assertEquals(0, duration(Operation.TRANSFER, CardTypes.UNKNOWN, Outcome.ERROR).count());
+    }
+
+    private LatencyHistogram duration(Operation operation, CardTypes types, Outcome outcome) {
+        return cardMetrics.histogram(DURATION_METRIC, "operation", operation.name().toLowerCase(),
+                "types", types.name().toLowerCase(), "outcome", outcome.name().toLowerCase());
+    }
+
+    private LatencyHistogram stage(Operation operation, Stage stage) {
+        return cardMetrics.histogram(STAGE_METRIC, "operation", operation.name().toLowerCase(),
+                "stage", stage.name().toLowerCase());
+    }
+}
@@ -0,0 +1,107 @@
+package com.codemika.cyberbank.card.repository;
+
+import com.codemika.cyberbank.card.metrics.CardMetrics;
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class CardMetadataCacheTest {
+    private static final CardMetadata DEBIT = new CardMetadata(1L, true, "1111222233334444", 7L, true);
+    private static final CardMetadata CREDIT = new CardMetadata(1L, false, "5555666677778888", 7L, true);
+
+    private final TransferJdbcRepository repository = mock(TransferJdbcRepository.class);
+    private final CardMetrics metrics = new CardMetrics();
+
+    @Test
+    void cardIsLoadedOnceAndFoundByNumberAndId() {
+        when(repository.findByAccountNumber(DEBIT.getAccountNumber())).thenReturn(Optional.of(DEBIT));
+        CardMetadataCache cache = new CardMetadataCache(repository, metrics, 100, 60000);
+
+        assertSame(DEBIT, cache.findByAccountNumber(DEBIT.getAccountNumber()).get());
+        assertSame(DEBIT, cache.findByAccountNumber(DEBIT.getAccountNumber()).get());
+        assertSame(DEBIT, cache.findByAccountNumber(true, DEBIT.getAccountNumber()).get());
+        assertSame(DEBIT, cache.findById(true, 1L).get());
+
+        verify(repository, times(1)).findByAccountNumber(DEBIT.getAccountNumber());
+        verifyNoMoreInteractions(repository);
+        assertTrue(metrics.scrape().contains("card_metadata_cache_requests_total{result=\"hit\"} 3"));
+    }
+
+    @Test
+    void debitAndCreditCardsWithSameIdAreSeparate() {
+        when(repository.findById(true, 1L)).thenReturn(Optional.of(DEBIT));
+        when(repository.findById(false, 1L)).thenReturn(Optional.of(CREDIT));
+        CardMetadataCache cache = new CardMetadataCache(repository, metrics, 100, 60000);
+
+        assertSame(DEBIT, cache.findById(true, 1L).get());
+        assertSame(CREDIT, cache.findById(false, 1L).get());
+        assertFalse(cache.findByAccountNumber(false, DEBIT.getAccountNumber()).isPresent());
+    }
+
+    @Test
+    void invalidatedCardIsReloaded() {
+        CardMetadata frozen = new CardMetadata(1L, true, DEBIT.getAccountNumber(), 7L, false);
+        when(repository.findById(true, 1L)).thenReturn(Optional.of(DEBIT), Optional.of(frozen));
+        CardMetadataCache cache = new CardMetadataCache(repository, metrics, 100, 60000);
+
+        assertTrue(cache.findById(true, 1L).get().isActive());
+        cache.invalidate(DEBIT);
+
+        assertFalse(cache.findById(true, 1L).get().isActive());
+        assertFalse(cache.findByAccountNumber(true, DEBIT.getAccountNumber()).get().isActive());
+        verify(repository, times(2)).findById(true, 1L);
+    }
+
+    @Test
+    void cardReadBeforeInvalidationIsNotCached() {
+        CardMetadataCache cache = new CardMetadataCache(repository, metrics, 100, 60000);
+        // карту меняют, пока её читают
+        when(repository.findById(true, 1L)).thenAnswer(invocation -> {
+            cache.invalidate(DEBIT);
+            return Optional.of(DEBIT);
+        });
+
+        cache.findById(true, 1L);
+        cache.findById(true, 1L);
+
+        verify(repository, times(2)).findById(true, 1L);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void invalidatingAnotherCardDoesNotBlockCaching() {
+        CardMetadataCache cache = new CardMetadataCache(repository, metrics, 100, 60000);
+        // пока читают дебетовую карту, меняют кредитную
+        when(repository.findById(true, 1L)).thenAnswer(invocation -> {
+            cache.invalidate(CREDIT);
+            return Optional.of(DEBIT);
+        });
+
+        cache.findById(true, 1L);
+        cache.findById(true, 1L);
+
+        verify(repository, times(1)).findById(true, 1L);
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    void cacheIsBoundedAndExpires() {
+        for (long id = 0; id < 10; id++) {
+            when(repository.findById(true, id)).thenReturn(Optional.of(
+                    new CardMetadata(id, true, "000000000000000" + id, 7L, true)));
+        }
+        CardMetadataCache bounded = new CardMetadataCache(repository, metrics, 6, 60000);
+        for (long id = 0; id < 10; id++) {
+            bounded.findById(true, id);
+        }
+        assertEquals(6, bounded.size());
+
+        CardMetadataCache expiring = new CardMetadataCache(repository, metrics, 100, 0);
+        expiring.findById(true, 0L);
+        expiring.findById(true, 0L);
+        verify(repository, times(3)).findById(true, 0L);
+    }
+}
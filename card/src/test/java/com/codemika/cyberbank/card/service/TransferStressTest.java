@@ -0,0 +1,268 @@
+package com.codemika.cyberbank.card.service;
+
+import com.codemika.cyberbank.card.entity.CreditCardEntity;
+import com.codemika.cyberbank.card.entity.DebitCardEntity;
+import com.codemika.cyberbank.card.repository.CreditCardRepository;
+import com.codemika.cyberbank.card.repository.DebitCardRepository;
+import com.codemika.cyberbank.card.repository.TransferJdbcRepository;
+import com.codemika.cyberbank.card.util.JwtUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Стресс-тест переводов: тысячи потоков одновременно вызывают CardService на небольшом наборе карт -
+ * встречные переводы (A->B и B->A), заморозка и разморозка, попытки удаления. Проверяется, что:
+ * - ни один баланс не уходит в минус и сумма денег не меняется (в том числе во время прогона),
+ * - баланс каждой карты равен начальному плюс все подтверждённые переводы (нет потерянных обновлений),
+ * - удаляются только пустые карты,
+ * - все потоки завершаются (нет взаимных блокировок) и сервис не бросает исключений.
+ * <p>
+ * Тесту нужна своя PostgreSQL со схемой cyberbank_card (не общая БД!):
+ * mvn test -P stress -Dspring.datasource.url=jdbc:postgresql://localhost:5432/cyberbank
+ * -Dspring.datasource.username=... -Dspring.datasource.password=...
+ * Чем дольше прогон, тем больше шанс поймать редкое чередование: -Dstress.seconds=600 -Dstress.threads=2000
+ */
+@Tag("stress")
+@SpringBootTest(properties = {
+        "eureka.client.enabled=false",
+        "spring.datasource.hikari.maximum-pool-size=50",
+        "spring.datasource.hikari.connection-timeout=60000"})
+class TransferStressTest {
+    private static final int THREADS = Integer.getInteger("stress.threads", 1000);
+    private static final int SECONDS = Integer.getInteger("stress.seconds", 60);
+    private static final int DEBIT_CARDS = 6;
+    private static final int CREDIT_CARDS = 2;
+    private static final int EMPTY_CARDS = 2; // пустые дебетовые карты - их можно удалить
+    private static final long BALANCE = 10_000;
+    private static final String PINCODE = "3856";
+
+    @Autowired
+    private CardService cardService;
+    @Autowired
+    private DebitCardService debitCardService;
+    @Autowired
+    private CreditCardService creditCardService;
+    @Autowired
+    private DebitCardRepository debitRepository;
+    @Autowired
+    private CreditCardRepository creditRepository;
+    @Autowired
+    private TransferJdbcRepository transferRepository;
+    @Autowired
+    private JwtUtil jwtUtil;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final List<TestCard> cards = new ArrayList<>();
+    private long initialTotal;
+
+    @BeforeEach
+    void createCards() {
+        // хэш с малым числом раундов: BCrypt берёт их из самого хэша, а проверка пин-кода тут не главное
+        String pincodeHash = new BCryptPasswordEncoder(4).encode(PINCODE);
+        long firstOwner = 900_000_000L + ThreadLocalRandom.current().nextInt(1_000_000) * 100L;
+        for (int i = 0; i < DEBIT_CARDS + EMPTY_CARDS + CREDIT_CARDS; i++) {
+            long owner = firstOwner + i;
+            long balance = i < DEBIT_CARDS || i >= DEBIT_CARDS + EMPTY_CARDS ? BALANCE : 0;
+            String accountNumber = "99" + CardService.generateAccountNumber(14);
+            Long id;
+            boolean debit = i < DEBIT_CARDS + EMPTY_CARDS;
+            if (debit) {
+                id = debitRepository.save(new DebitCardEntity()
+                        .setTitle("Стресс-тест")
+                        .setType("Дебетовая")
+                        .setBalance(balance)
+                        .setPincode(pincodeHash)
+                        .setOwnerUserId(owner)
+                        .setAccountNumber(accountNumber)).getId();
+            } else {
+                id = creditRepository.save(new CreditCardEntity()
+                        .setTitle("Стресс-тест")
+                        .setType("Кредитная")
+                        .setBalance(balance)
+                        .setPincode(pincodeHash)
+                        .setOwnerUserId(owner)
+                        .setCreditTerm(12)
+                        .setAccountNumber(accountNumber)).getId();
+            }
+            cards.add(new TestCard(debit, id, accountNumber, balance, jwtUtil.generateAccessToken(owner, 1, 0)));
+            initialTotal += balance;
+        }
+    }
+
+    @AfterEach
+    void deleteCards() {
+        for (TestCard card : cards) {
+            if (card.debit) {
+                debitRepository.findById(card.id).ifPresent(debitRepository::delete);
+            } else {
+                creditRepository.findById(card.id).ifPresent(creditRepository::delete);
+            }
+        }
+    }
+
+    @Test
+    void transfersKeepMoneyUnderContention() throws InterruptedException {
+        int n = cards.size();
+        AtomicLongArray expected = new AtomicLongArray(n);
+        AtomicReferenceArray<Boolean> deleted = new AtomicReferenceArray<>(n);
+        for (int i = 0; i < n; i++) {
+            expected.set(i, cards.get(i).initialBalance);
+            deleted.set(i, false);
+        }
+        Queue<Throwable> errors = new ConcurrentLinkedQueue<>();
+        Queue<String> violations = new ConcurrentLinkedQueue<>();
+        LongAdder transfers = new LongAdder();
+        LongAdder rejected = new LongAdder();
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(SECONDS);
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService workers = Executors.newFixedThreadPool(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            workers.execute(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.nanoTime() < deadline) {
+                    try {
+                        int operation = random.nextInt(100);
+                        if (operation < 90) {
+                            // встречные переводы получаются сами: пары выбираются случайно из нескольких карт
+                            int from = random.nextInt(n);
+                            int to = (from + 1 + random.nextInt(n - 1)) % n;
+                            long value = 1 + random.nextInt(200);
+                            TestCard sender = cards.get(from);
+                            ResponseEntity<?> response = cardService.mainMoneyTransfer(sender.token, PINCODE,
+                                    sender.accountNumber, value, cards.get(to).accountNumber);
+                            if (response.getStatusCode().is2xxSuccessful()) {
+                                expected.addAndGet(from, -value);
+                                expected.addAndGet(to, value);
+                                transfers.increment();
+                            } else {
+                                rejected.increment();
+                            }
+                        } else if (operation < 96) {
+                            int index = random.nextInt(DEBIT_CARDS + EMPTY_CARDS);
+                            TestCard card = cards.get(index);
+                            cardService.freezeAndUnfreezeCard(card.token, card.id, PINCODE);
+                        } else {
+                            int index = random.nextInt(n);
+                            TestCard card = cards.get(index);
+                            ResponseEntity<?> response = card.debit
+                                    ? debitCardService.delete(card.token, card.id, PINCODE)
+                                    : creditCardService.delete(card.token, card.id, PINCODE);
+                            if (response.getStatusCode().is2xxSuccessful()) {
+                                deleted.set(index, true);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            });
+        }
+
+        ExecutorService monitor = Executors.newSingleThreadExecutor();
+        monitor.execute(() -> {
+            while (System.nanoTime() < deadline && !Thread.currentThread().isInterrupted()) {
+                // одна команда - один снимок БД: незавершённый перевод в нём не виден ни наполовину
+                Map<String, Object> totals = jdbcTemplate.queryForMap(totalsQuery());
+                long total = ((Number) totals.get("total")).longValue();
+                long min = ((Number) totals.get("min")).longValue();
+                if (total != initialTotal || min < 0) {
+                    violations.add("Во время прогона: сумма " + total + " (было " + initialTotal + "), минимум " + min);
+                }
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+
+        start.countDown();
+        workers.shutdown();
+        boolean finished = workers.awaitTermination(SECONDS + 120, TimeUnit.SECONDS);
+        monitor.shutdownNow();
+        assertTrue(finished, "Потоки не завершились за 2 минуты после окончания прогона - взаимная блокировка?");
+        assertTrue(errors.isEmpty(), () -> errors.size() + " исключений, первые: " + errors.stream().limit(5)
+                .map(Throwable::toString).collect(Collectors.joining("; ")));
+        assertTrue(violations.isEmpty(), () -> String.join("\n", violations));
+        assertTrue(transfers.sum() > 0, "Ни один перевод не прошёл (отказов: " + rejected.sum() + ")");
+
+        long total = 0;
+        for (int i = 0; i < n; i++) {
+            TestCard card = cards.get(i);
+            Long balance = transferRepository.findBalance(card.debit, card.id);
+            if (deleted.get(i)) {
+                assertNull(balance, "Удалённая карта " + card.accountNumber + " осталась в БД");
+                assertEquals(0, expected.get(i), "Удалена карта " + card.accountNumber + " с деньгами");
+                continue;
+            }
+            assertNotNull(balance, "Карта " + card.accountNumber + " пропала, хотя её удаление не подтверждено");
+            assertTrue(balance >= 0, "Отрицательный баланс карты " + card.accountNumber + ": " + balance);
+            assertEquals(expected.get(i), balance, "Баланс карты " + card.accountNumber
+                    + " не совпадает с подтверждёнными переводами - потерянное обновление");
+            total += balance;
+        }
+        assertEquals(initialTotal, total, "Сумма денег на картах изменилась");
+    }
+
+    private String totalsQuery() {
+        String debitIds = ids(true);
+        String creditIds = ids(false);
+        return "SELECT COALESCE(SUM(balance), 0) AS total, COALESCE(MIN(balance), 0) AS min FROM (" +
+                "SELECT balance FROM cyberbank_card.debit_card WHERE id IN (" + debitIds + ") UNION ALL " +
+                "SELECT balance FROM cyberbank_card.credit_card WHERE id IN (" + creditIds + ")) balances";
+    }
+
+    private String ids(boolean debit) {
+        return cards.stream()
+                .filter(card -> card.debit == debit)
+                .map(card -> card.id.toString())
+                .collect(Collectors.joining(","));
+    }
+
+    private static class TestCard {
+        private final boolean debit;
+        private final Long id;
+        private final String accountNumber;
+        private final long initialBalance;
+        private final String token;
+
+        private TestCard(boolean debit, Long id, String accountNumber, long initialBalance, String token) {
+            this.debit = debit;
+            this.id = id;
+            this.accountNumber = accountNumber;
+            this.initialBalance = initialBalance;
+            this.token = token;
+        }
+    }
+}
@@ -1,9 +1,15 @@
 package com.codemika.cyberbank.gateway;
 
+import com.codemika.cyberbank.shared.loadbalancer.InstanceStatistics;
+import com.codemika.cyberbank.shared.tracing.TraceCollector;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.Import;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
+@Import({InstanceStatistics.class, TraceCollector.class}) // общие компоненты из модуля shared (он вне пакета сервиса)
 public class GatewayApplication {
     public static void main(String[] args) {
         SpringApplication.run(GatewayApplication.class, args);
@@ -0,0 +1,42 @@
+package com.codemika.cyberbank.gateway.api;
+
+import com.codemika.cyberbank.gateway.util.JwtUtil;
+import com.codemika.cyberbank.gateway.util.ResponseCache;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Ручная очистка кэша ответов шлюза (см. ResponseCacheFilter)
+ */
+@RestController
+@RequestMapping("gateway/")
+@RequiredArgsConstructor
+public class CacheController {
+    private final ResponseCache cache;
+    private final JwtUtil jwtUtil;
+
+    /**
+     * Очистка кэша. Доступна модераторам (и ролям выше).
+     *
+     * @param token   токен модератора
+     * @param routeId id маршрута (authentication, card, ...), без него - все маршруты
+     * @param userId  id пользователя, без него - все пользователи
+     * @return сколько ответов удалено
+     */
+    @DeleteMapping("cache")
+    public ResponseEntity<?> purge(@RequestHeader("Authorization") String token,
+                                   @RequestParam(required = false) String routeId,
+                                   @RequestParam(required = false) Long userId) {
+        ResponseEntity<?> denied = ModeratorAccess.deny(jwtUtil, token);
+        if (denied != null) {
+            return denied;
+        }
+
+        return ResponseEntity.ok("Удалено ответов из кэша: " + cache.purge(routeId, userId));
+    }
+}
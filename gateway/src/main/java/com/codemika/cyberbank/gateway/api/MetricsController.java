@@ -0,0 +1,38 @@
+package com.codemika.cyberbank.gateway.api;
+
+import com.codemika.cyberbank.gateway.metrics.GatewayMetrics;
+import com.codemika.cyberbank.gateway.util.JwtUtil;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Метрики самого шлюза (не маршрутизируются в сервисы). Доступны модераторам (и ролям выше),
+ * как и внутренние метрики сервисов, которые снаружи не видны вовсе.
+ */
+@RestController
+@RequestMapping("gateway/")
+@RequiredArgsConstructor
+public class MetricsController {
+    private final GatewayMetrics metrics;
+    private final JwtUtil jwtUtil;
+
+    /**
+     * Метрики в текстовом формате Prometheus
+     *
+     * @param token токен модератора
+     * @return метрики
+     */
+    @GetMapping(value = "metrics", produces = MediaType.TEXT_PLAIN_VALUE)
+    public ResponseEntity<?> metrics(@RequestHeader(value = "Authorization", required = false) String token) {
+        ResponseEntity<?> denied = ModeratorAccess.deny(jwtUtil, token);
+        if (denied != null) {
+            return denied;
+        }
+        return ResponseEntity.ok(metrics.scrape());
+    }
+}
@@ -0,0 +1,39 @@
+package com.codemika.cyberbank.gateway.api;
+
+import com.codemika.cyberbank.gateway.util.JwtUtil;
+import io.jsonwebtoken.Claims;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import static com.codemika.cyberbank.gateway.constants.RoleConstants.HACKER_ROLE_BIT;
+import static com.codemika.cyberbank.gateway.constants.RoleConstants.MODER_ROLE_BIT;
+import static com.codemika.cyberbank.gateway.constants.RoleConstants.TESTER_ROLE_BIT;
+
+/**
+ * Проверка доступа к служебным ручкам самого шлюза (кэш, трассировка, метрики): только модераторы и роли выше.
+ * Эти ручки не проходят через фильтры маршрутов, поэтому токен проверяется здесь.
+ */
+final class ModeratorAccess {
+    private ModeratorAccess() {
+    }
+
+    /**
+     * @param jwtUtil утилита токенов
+     * @param token   заголовок Authorization
+     * @return ответ с отказом или null, если доступ есть
+     */
+    static ResponseEntity<?> deny(JwtUtil jwtUtil, String token) {
+        Claims claims = token == null ? null : jwtUtil.getClaims(token);
+        if (claims == null) {
+            return ResponseEntity
+                    .status(HttpStatus.UNAUTHORIZED)
+                    .body("Ваш последний сеанс истёк. Пожалуйста, войдите в свой аккаунт заново!");
+        }
+        if ((JwtUtil.roleMask(claims) & (MODER_ROLE_BIT | TESTER_ROLE_BIT | HACKER_ROLE_BIT)) == 0) {
+            return ResponseEntity
+                    .status(HttpStatus.FORBIDDEN)
+                    .body("Вы не имеете доступа к данной функции.");
+        }
+        return null;
+    }
+}
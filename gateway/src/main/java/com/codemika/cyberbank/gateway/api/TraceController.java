@@ -0,0 +1,42 @@
+package com.codemika.cyberbank.gateway.api;
+
+import com.codemika.cyberbank.shared.tracing.TraceCollector;
+import com.codemika.cyberbank.gateway.util.JwtUtil;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Выдача собранных участков трассировки шлюза. Доступна модераторам (и ролям выше): в участках видны пути запросов.
+ */
+@RestController
+@RequestMapping("gateway/")
+@RequiredArgsConstructor
+public class TraceController {
+    private final TraceCollector traceCollector;
+    private final JwtUtil jwtUtil;
+
+    /**
+     * @param token   токен модератора
+     * @param traceId id трассировки (из заголовка traceparent ответа), без него - последние участки
+     * @param limit   сколько последних участков вернуть (от 0 до 1000)
+     * @return участки трассировки
+     */
+    @GetMapping("traces")
+    public ResponseEntity<?> getTraces(@RequestHeader(value = "Authorization", required = false) String token,
+                                       @RequestParam(required = false) String traceId,
+                                       @RequestParam(defaultValue = "100") int limit) {
+        ResponseEntity<?> denied = ModeratorAccess.deny(jwtUtil, token);
+        if (denied != null) {
+            return denied;
+        }
+        if (traceId != null) {
+            return ResponseEntity.ok(traceCollector.find(traceId));
+        }
+        return ResponseEntity.ok(traceCollector.recent(Math.max(0, Math.min(limit, 1000))));
+    }
+}
@@ -0,0 +1,28 @@
+package com.codemika.cyberbank.gateway.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Настройки объединения одинаковых одновременных GET-запросов (cyberbank.coalescing)
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "cyberbank.coalescing")
+public class CoalescingProperties {
+    private boolean enabled = true;
+
+    /**
+     * Ответы больше этого размера не раздаются ожидающим запросам - те идут в сервис сами (байт)
+     */
+    private int maxBodyBytes = 256 * 1024;
+
+    /**
+     * Шаблоны путей (AntPathMatcher), для которых запросы объединяются. Потоковые ответы сюда добавлять нельзя.
+     */
+    private List<String> paths = new ArrayList<>();
+}
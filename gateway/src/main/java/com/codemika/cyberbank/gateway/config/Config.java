@@ -1,26 +1,31 @@
 package com.codemika.cyberbank.gateway.config;
 
-import org.springframework.cloud.gateway.route.RouteLocator;
-import org.springframework.cloud.gateway.route.builder.RouteLocatorBuilder;
+import com.codemika.cyberbank.shared.loadbalancer.LoadBalancerConfig;
+import com.codemika.cyberbank.gateway.util.ResponseCache;
+import org.springframework.cloud.loadbalancer.annotation.LoadBalancerClients;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+/**
+ * Маршруты к сервисам (с таймаутами и повтором безопасных GET) задаются в application.yml
+ * (spring.cloud.gateway.routes)
+ */
 @Configuration // аннотация для конфигурации конфиг-класса
+@LoadBalancerClients(defaultConfiguration = LoadBalancerConfig.class) // lb:// - с учётом задержки экземпляров
 public class Config {
-
     /**
-     * Определение правил перемещения пользователя по ссылке
+     * Общий кэш ответов (его заполняет ResponseCacheFilter, а чистит ещё и CacheController).
+     * Ответ живёт не дольше двух наибольших ttl от начала своего запроса - с запасом на медленный ответ сервиса.
      *
-     * @param builder
-     * @return
+     * @param properties настройки кэша
+     * @return кэш ответов
      */
     @Bean
-    RouteLocator customRouteLocator(RouteLocatorBuilder builder) {
-        // todo: добавить новые микросервисы
-        return builder.routes()
-                .route("authentication", // id-сервиса
-                        route -> route.path("/api/auth/**") // правило, по которому мы перемещаем пользователя
-                                .uri("lb://authentication") // название урла
-                ).build();
+    ResponseCache responseCache(ResponseCacheProperties properties) {
+        long maxTtlMs = 0;
+        for (ResponseCacheProperties.Rule rule : properties.getRoutes()) {
+            maxTtlMs = Math.max(maxTtlMs, rule.getTtlMs());
+        }
+        return new ResponseCache(properties.getMaxEntries(), 2 * maxTtlMs);
     }
 }
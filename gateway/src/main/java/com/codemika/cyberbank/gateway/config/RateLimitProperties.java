@@ -0,0 +1,51 @@
+package com.codemika.cyberbank.gateway.config;
+
+import lombok.Data;
+import lombok.experimental.Accessors;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Настройки ограничения частоты запросов (cyberbank.rate-limit)
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "cyberbank.rate-limit")
+public class RateLimitProperties {
+    private boolean enabled = true;
+
+    /**
+     * Лимит для запросов, не попавших ни под одно правило
+     */
+    private Rule defaultLimit = new Rule().setId("default").setRate(50).setBurst(100);
+
+    /**
+     * Правила для отдельных маршрутов, проверяются по порядку, срабатывает первое подходящее
+     */
+    private List<Rule> routes = new ArrayList<>();
+
+    @Data
+    @Accessors(chain = true)
+    public static class Rule {
+        private String id;
+        /**
+         * Шаблон пути (AntPathMatcher), например /api/card/money-transfer*
+         */
+        private String path;
+        /**
+         * HTTP-метод, пустой - любой
+         */
+        private String method;
+        /**
+         * Жетонов в секунду на одного пользователя (или IP)
+         */
+        private double rate;
+        /**
+         * Ёмкость ведра
+         */
+        private int burst;
+    }
+}
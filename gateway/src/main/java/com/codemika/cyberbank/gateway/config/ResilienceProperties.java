@@ -0,0 +1,65 @@
+package com.codemika.cyberbank.gateway.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Настройки изоляции сервисов (cyberbank.resilience): автоматические выключатели и ограничение одновременных запросов.
+ * Таймауты и повторы задаются на самих маршрутах (spring.cloud.gateway.routes в application.yml).
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "cyberbank.resilience")
+public class ResilienceProperties {
+    private boolean enabled = true;
+
+    /**
+     * Настройки для маршрутов, которых нет в routes
+     */
+    private Policy defaultPolicy = new Policy();
+
+    /**
+     * Настройки по id маршрута (authentication, card, features)
+     */
+    private Map<String, Policy> routes = new HashMap<>();
+
+    public Policy policyFor(String routeId) {
+        return routes.getOrDefault(routeId, defaultPolicy);
+    }
+
+    @Data
+    public static class Policy {
+        /**
+         * Доля ошибок (5xx, таймауты, обрывы соединения), при которой выключатель открывается
+         */
+        private double failureRateThreshold = 0.5;
+        /**
+         * Меньше стольких запросов в окне - выключатель не открывается
+         */
+        private int minimumCalls = 20;
+        /**
+         * Окно подсчёта ошибок (мс)
+         */
+        private long windowMs = 10_000;
+        /**
+         * Сколько выключатель остаётся открытым (мс)
+         */
+        private long openMs = 5_000;
+        /**
+         * Сколько пробных запросов пропускать после открытия
+         */
+        private int halfOpenCalls = 3;
+        /**
+         * Сколько ждать ответа на пробные запросы (мс), после чего выключатель снова открывается
+         */
+        private long halfOpenTimeoutMs = 30_000;
+        /**
+         * Сколько запросов к сервису может выполняться одновременно, лишние сразу получают отказ
+         */
+        private int maxConcurrent = 200;
+    }
+}
@@ -0,0 +1,48 @@
+package com.codemika.cyberbank.gateway.config;
+
+import lombok.Data;
+import lombok.experimental.Accessors;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Настройки кэша ответов на GET-запросы (cyberbank.response-cache)
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "cyberbank.response-cache")
+public class ResponseCacheProperties {
+    private boolean enabled = true;
+
+    /**
+     * Сколько ответов держать в памяти (лишние вытесняются, начиная с давно не запрошенных)
+     */
+    private int maxEntries = 10_000;
+
+    /**
+     * Ответы больше этого размера не кэшируются (байт)
+     */
+    private int maxBodyBytes = 256 * 1024;
+
+    /**
+     * Кэшируются только GET-запросы на перечисленные пути, остальные идут в сервисы как обычно
+     */
+    private List<Rule> routes = new ArrayList<>();
+
+    @Data
+    @Accessors(chain = true)
+    public static class Rule {
+        private String id;
+        /**
+         * Шаблон пути (AntPathMatcher)
+         */
+        private String path;
+        /**
+         * Сколько живёт ответ (мс). Cache-Control: max-age от сервиса может только уменьшить это время.
+         */
+        private long ttlMs;
+    }
+}
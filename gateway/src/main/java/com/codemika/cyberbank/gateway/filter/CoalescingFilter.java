@@ -0,0 +1,150 @@
+package com.codemika.cyberbank.gateway.filter;
+
+import com.codemika.cyberbank.gateway.config.CoalescingProperties;
+import com.codemika.cyberbank.gateway.metrics.GatewayMetrics;
+import org.reactivestreams.Publisher;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.support.ServerWebExchangeUtils;
+import org.springframework.core.Ordered;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.http.server.reactive.ServerHttpResponseDecorator;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Объединение одинаковых одновременных GET-запросов (single-flight).
+ * Первый запрос с данным ключом (маршрут, путь, параметры, токен - как у кэша ответов) идёт в сервис,
+ * а такие же запросы, пришедшие, пока он выполняется, ждут и получают копию его ответа.
+ * При наплыве (запуск приложения у тысяч клиентов) сервис получает один запрос вместо тысячи.
+ * Если ответ не удалось разделить (ошибка, обрыв, слишком большой или потоковый ответ), ожидающие идут в сервис сами.
+ */
+@Component
+public class CoalescingFilter implements GlobalFilter, Ordered {
+    /**
+     * После кэша (попадания объединять незачем), но до выключателей: сервис видит один запрос
+     */
+    public static final int ORDER = ResponseCacheFilter.ORDER + 5;
+
+    private final Map<String, Sinks.One<SharedResponse>> inFlight = new ConcurrentHashMap<>();
+    private final AntPathMatcher pathMatcher = new AntPathMatcher();
+    private final boolean enabled;
+    private final int maxBodyBytes;
+    private final List<String> paths;
+    private final LongAdder leaders;
+    private final LongAdder followers;
+
+    public CoalescingFilter(CoalescingProperties properties, GatewayMetrics metrics) {
+        this.enabled = properties.isEnabled();
+        this.maxBodyBytes = properties.getMaxBodyBytes();
+        this.paths = properties.getPaths();
+        this.leaders = metrics.counter("gateway_coalescing_requests_total", "role", "leader");
+        this.followers = metrics.counter("gateway_coalescing_requests_total", "role", "follower");
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        ServerHttpRequest request = exchange.getRequest();
+        Route route = exchange.getAttribute(ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR);
+        if (!enabled || route == null || request.getMethod() != HttpMethod.GET || !matches(request.getPath().value())) {
+            return chain.filter(exchange);
+        }
+
+        String key = ResponseCacheFilter.key(route.getId(), request);
+        Sinks.One<SharedResponse> flight = Sinks.one();
+        Sinks.One<SharedResponse> existing = inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            followers.increment();
+            return existing.asMono().flatMap(shared -> shared == SharedResponse.NOT_SHARED
+                    ? chain.filter(exchange)
+                    : shared.writeTo(exchange.getResponse()));
+        }
+
+        leaders.increment();
+        ServerHttpResponse response = exchange.getResponse();
+        ServerHttpResponseDecorator recording = new ServerHttpResponseDecorator(response) {
+            @Override
+            public Mono<Void> writeWith(Publisher<? extends DataBuffer> body) {
+                return DataBufferUtils.join(Flux.from(body)).flatMap(joined -> {
+                    byte[] bytes = new byte[joined.readableByteCount()];
+                    joined.read(bytes);
+                    DataBufferUtils.release(joined);
+                    // новые запросы с этим ключом пойдут в сервис сами: этот ответ уже получен
+                    inFlight.remove(key, flight);
+                    if (bytes.length <= maxBodyBytes && getStatusCode() != null) {
+                        flight.tryEmitValue(new SharedResponse(getStatusCode(), getHeaders(), bytes));
+                    }
+                    return super.writeWith(Mono.just(bufferFactory().wrap(bytes)));
+                });
+            }
+        };
+        return chain.filter(exchange.mutate().response(recording).build())
+                .doFinally(signal -> {
+                    inFlight.remove(key, flight);
+                    // если ответ не был разделён, ожидающие пойдут в сервис сами
+                    flight.tryEmitValue(SharedResponse.NOT_SHARED);
+                });
+    }
+
+    @Override
+    public int getOrder() {
+        return ORDER;
+    }
+
+    private boolean matches(String path) {
+        for (String pattern : paths) {
+            if (pathMatcher.match(pattern, path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Копия ответа первого запроса, которую получают все ожидавшие
+     */
+    private static class SharedResponse {
+        /**
+         * Ответ первого запроса получить не удалось
+         */
+        private static final SharedResponse NOT_SHARED = new SharedResponse(null, new HttpHeaders(), new byte[0]);
+
+        private final HttpStatus status;
+        private final HttpHeaders headers = new HttpHeaders();
+        private final byte[] body;
+
+        private SharedResponse(HttpStatus status, HttpHeaders headers, byte[] body) {
+            this.status = status;
+            this.body = body;
+            headers.forEach((name, values) -> {
+                if (!HttpHeaders.TRANSFER_ENCODING.equalsIgnoreCase(name)
+                        && !HttpHeaders.CONNECTION.equalsIgnoreCase(name)
+                        && !HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name)) {
+                    this.headers.put(name, values);
+                }
+            });
+        }
+
+        private Mono<Void> writeTo(ServerHttpResponse response) {
+            response.setStatusCode(status);
+            response.getHeaders().putAll(headers);
+            return response.writeWith(Mono.just(response.bufferFactory().wrap(body)));
+        }
+    }
+}
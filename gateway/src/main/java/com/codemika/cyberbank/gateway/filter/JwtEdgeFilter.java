@@ -0,0 +1,128 @@
+package com.codemika.cyberbank.gateway.filter;
+
+import com.codemika.cyberbank.shared.util.InternalClaims;
+import com.codemika.cyberbank.gateway.util.JwtUtil;
+import io.jsonwebtoken.Claims;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.core.Ordered;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.util.UriUtils;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import static com.codemika.cyberbank.gateway.util.JwtUtil.ACCESS_TOKEN_TYPE;
+import static com.codemika.cyberbank.gateway.util.JwtUtil.TOKEN_TYPE_CLAIMS_KEY;
+
+/**
+ * Проверка токена на входе в систему.
+ * Шлюз один раз проверяет подпись JWT и передаёт сервисам уже проверенные claims во внутреннем заголовке
+ * (см. InternalClaims), поэтому сервисам не нужно заново разбирать токен на каждый запрос.
+ * Заголовок, пришедший от клиента, всегда выбрасывается. Неверный токен дальше идёт без заголовка -
+ * сервис сам проверит его и ответит как обычно. Внутренние ручки сервисов (/internal/) снаружи недоступны
+ * ни в каком написании пути (см. isInternalPath).
+ */
+@Component
+public class JwtEdgeFilter implements GlobalFilter, Ordered {
+    /**
+     * Проверка токена идёт раньше остальных фильтров, чтобы они уже знали пользователя
+     */
+    public static final int ORDER = Ordered.HIGHEST_PRECEDENCE + 100;
+
+    /**
+     * Атрибут запроса с проверенными claims (для остальных фильтров шлюза)
+     */
+    public static final String CLAIMS_ATTRIBUTE = JwtEdgeFilter.class.getName() + ".claims";
+
+    private static final String INTERNAL_SEGMENT = "internal";
+
+    private final JwtUtil jwtUtil;
+    private final byte[] internalKey;
+
+    public JwtEdgeFilter(JwtUtil jwtUtil,
+                         @Value("${cyberbank.security.internal-key:}") String internalKey) {
+        this.jwtUtil = jwtUtil;
+        this.internalKey = internalKey.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        ServerHttpRequest request = exchange.getRequest();
+        if (isInternalPath(request.getPath().value())) {
+            exchange.getResponse().setStatusCode(HttpStatus.NOT_FOUND);
+            return exchange.getResponse().setComplete();
+        }
+
+        String authorization = request.getHeaders().getFirst(HttpHeaders.AUTHORIZATION);
+        String internalClaims = null;
+        if (authorization != null && !authorization.trim().isEmpty()) {
+            String token = InternalClaims.normalize(authorization);
+            Claims claims = jwtUtil.getClaims(token);
+            if (claims != null) {
+                exchange.getAttributes().put(CLAIMS_ATTRIBUTE, claims);
+                // токен обновления сервисы проверяют сами (он одноразовый)
+                String tokenType = claims.get(TOKEN_TYPE_CLAIMS_KEY, String.class);
+                if (internalKey.length > 0 && (tokenType == null || tokenType.equals(ACCESS_TOKEN_TYPE))) {
+                    internalClaims = InternalClaims.encode(claims, JwtUtil.roleMask(claims), token, internalKey);
+                }
+            }
+        }
+
+        String header = internalClaims;
+        ServerHttpRequest mutated = request.mutate()
+                .headers(headers -> {
+                    headers.remove(InternalClaims.HEADER);
+                    if (header != null) headers.set(InternalClaims.HEADER, header);
+                })
+                .build();
+        return chain.filter(exchange.mutate().request(mutated).build());
+    }
+
+    /**
+     * Внутренняя ли это ручка. Путь проверяется так же, как его увидит сервис: сегменты без параметров (;...),
+     * раскодированные (%69nternal - это internal) и с разобранными "." и "..".
+     * Путь, который не удаётся раскодировать, тоже считается внутренним - сервис его всё равно не примет.
+     *
+     * @param rawPath путь запроса в том виде, как он пришёл
+     * @return true - запрос нельзя пропускать в сервис
+     */
+    static boolean isInternalPath(String rawPath) {
+        Deque<String> segments = new ArrayDeque<>();
+        for (String raw : rawPath.split("/")) {
+            int parameters = raw.indexOf(';');
+            String segment;
+            try {
+                segment = UriUtils.decode(parameters >= 0 ? raw.substring(0, parameters) : raw, StandardCharsets.UTF_8);
+            } catch (IllegalArgumentException e) {
+                return true;
+            }
+            if (segment.contains("/") || segment.contains("\\")) {
+                return true;
+            }
+            if (segment.equals("..")) {
+                segments.pollLast();
+            } else if (!segment.isEmpty() && !segment.equals(".")) {
+                segments.addLast(segment);
+            }
+        }
+        for (String segment : segments) {
+            if (segment.equalsIgnoreCase(INTERNAL_SEGMENT)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int getOrder() {
+        return ORDER;
+    }
+}
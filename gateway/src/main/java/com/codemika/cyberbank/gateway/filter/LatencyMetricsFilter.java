@@ -0,0 +1,83 @@
+package com.codemika.cyberbank.gateway.filter;
+
+import com.codemika.cyberbank.gateway.metrics.GatewayMetrics;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.support.ServerWebExchangeUtils;
+import org.springframework.core.Ordered;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Задержка и число запросов по маршруту, экземпляру сервиса и классу ответа (2xx, 4xx, 5xx).
+ * Замер охватывает весь путь запроса через шлюз, включая остальные фильтры. Экземпляр - адрес, который выбрал
+ * балансировщик; если запрос не дошёл до сервиса (лимит, кэш, выключатель), экземпляр - "gateway",
+ * если у сервиса нет ни одного экземпляра - "unresolved".
+ * Пропускная способность считается в Prometheus по *_count (rate()).
+ */
+@Component
+public class LatencyMetricsFilter implements GlobalFilter, Ordered {
+    /**
+     * Самый первый фильтр, чтобы замер включал всё, что делает шлюз
+     */
+    public static final int ORDER = Ordered.HIGHEST_PRECEDENCE;
+
+    private static final String METRIC = "gateway_request_duration_seconds";
+
+    private final GatewayMetrics metrics;
+
+    public LatencyMetricsFilter(GatewayMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        long start = System.nanoTime();
+        return chain.filter(exchange).doFinally(signal -> record(exchange, signal, System.nanoTime() - start));
+    }
+
+    @Override
+    public int getOrder() {
+        return ORDER;
+    }
+
+    private void record(ServerWebExchange exchange, SignalType signal, long elapsedNanos) {
+        Route route = exchange.getAttribute(ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR);
+        URI instance = exchange.getAttribute(ServerWebExchangeUtils.GATEWAY_REQUEST_URL_ATTR);
+        metrics.histogram(METRIC,
+                "route", route == null ? "none" : route.getId(),
+                "instance", instance(instance),
+                "status", statusClass(exchange, signal))
+                .record(TimeUnit.NANOSECONDS.toMicros(elapsedNanos));
+    }
+
+    private static String instance(URI url) {
+        if (url == null || url.getHost() == null) {
+            return "gateway";
+        }
+        if ("lb".equals(url.getScheme())) {
+            // балансировщик не нашёл ни одного экземпляра
+            return "unresolved";
+        }
+        return url.getHost() + ':' + url.getPort();
+    }
+
+    private static String statusClass(ServerWebExchange exchange, SignalType signal) {
+        if (signal == SignalType.CANCEL) {
+            return "cancelled";
+        }
+        HttpStatus status = exchange.getResponse().getStatusCode();
+        if (signal == SignalType.ON_ERROR && (status == null || !status.isError())) {
+            // ошибку в ответ превратит обработчик ошибок уже после фильтров
+            return "5xx";
+        }
+        return status == null ? "2xx" : status.series().value() + "xx";
+    }
+}
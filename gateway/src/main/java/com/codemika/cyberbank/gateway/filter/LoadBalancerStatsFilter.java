@@ -0,0 +1,83 @@
+package com.codemika.cyberbank.gateway.filter;
+
+import com.codemika.cyberbank.shared.loadbalancer.InstanceStatistics;
+import com.codemika.cyberbank.gateway.metrics.GatewayMetrics;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.Response;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.cloud.gateway.filter.ReactiveLoadBalancerClientFilter;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.support.ServerWebExchangeUtils;
+import org.springframework.core.Ordered;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+/**
+ * Статистика запросов к экземплярам сервисов для PeakEwmaLoadBalancer.
+ * Стоит сразу после выбора экземпляра, поэтому при повторе (Retry) каждая попытка учитывается отдельно
+ * у своего экземпляра. Отмена запроса клиентом учитывается только как конец запроса, без задержки и ошибки.
+ * Для маршрутов с metadata long-running: true (импорт и выгрузка пользователей) задержка не учитывается вовсе:
+ * многоминутный ответ - не признак медленного экземпляра.
+ */
+@Component
+public class LoadBalancerStatsFilter implements GlobalFilter, Ordered {
+    public static final int ORDER = ReactiveLoadBalancerClientFilter.LOAD_BALANCER_CLIENT_FILTER_ORDER + 1;
+
+    /**
+     * Признак долгого маршрута в его metadata
+     */
+    public static final String LONG_RUNNING_METADATA = "long-running";
+
+    private final InstanceStatistics statistics;
+
+    public LoadBalancerStatsFilter(InstanceStatistics statistics, GatewayMetrics metrics) {
+        this.statistics = statistics;
+        statistics.onNewInstance((instance, stats) -> {
+            String service = instance.getServiceId();
+            String address = instance.getHost() + ':' + instance.getPort();
+            metrics.gauge("gateway_lb_outstanding_requests", stats::getOutstanding,
+                    "service", service, "instance", address);
+            metrics.gauge("gateway_lb_latency_ewma_seconds", () -> stats.getEwmaNanos() / 1e9,
+                    "service", service, "instance", address);
+            metrics.gauge("gateway_lb_ejected", () -> stats.isEjected(System.nanoTime()) ? 1 : 0,
+                    "service", service, "instance", address);
+        });
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        Response<ServiceInstance> selected = exchange.getAttribute(ServerWebExchangeUtils.GATEWAY_LOADBALANCER_RESPONSE_ATTR);
+        if (selected == null || !selected.hasServer()) {
+            return chain.filter(exchange);
+        }
+        InstanceStatistics.Stats stats = statistics.get(selected.getServer());
+        Route route = exchange.getAttribute(ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR);
+        boolean timed = route == null || !Boolean.parseBoolean(
+                String.valueOf(route.getMetadata().get(LONG_RUNNING_METADATA)));
+        long start = System.nanoTime();
+        stats.start();
+        return chain.filter(exchange).doFinally(signal -> {
+            if (signal == SignalType.CANCEL) {
+                stats.cancel();
+                return;
+            }
+            HttpStatus status = exchange.getResponse().getStatusCode();
+            boolean failed = signal == SignalType.ON_ERROR || (status != null && status.is5xxServerError());
+            long now = System.nanoTime();
+            if (timed) {
+                stats.complete(now - start, failed, now);
+            } else {
+                stats.completeUntimed(failed, now);
+            }
+        });
+    }
+
+    @Override
+    public int getOrder() {
+        return ORDER;
+    }
+}
@@ -0,0 +1,136 @@
+package com.codemika.cyberbank.gateway.filter;
+
+import com.codemika.cyberbank.gateway.config.RateLimitProperties;
+import com.codemika.cyberbank.gateway.metrics.GatewayMetrics;
+import com.codemika.cyberbank.gateway.util.TokenBucketRateLimiter;
+import io.jsonwebtoken.Claims;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.core.Ordered;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ограничение частоты запросов на каждого пользователя (id из токена) или, без токена, на каждый IP.
+ * Лимиты задаются по маршрутам (cyberbank.rate-limit.routes): дорогие запросы вроде входа (BCrypt)
+ * и переводов получают свои, более строгие лимиты. Превышение лимита - 429 с заголовком Retry-After.
+ */
+@Component
+public class RateLimitFilter implements GlobalFilter, Ordered {
+    /**
+     * Сразу после проверки токена (нужен id пользователя), но до всех остальных фильтров
+     */
+    public static final int ORDER = JwtEdgeFilter.ORDER + 10;
+
+    private static final byte[] TOO_MANY_REQUESTS_BODY =
+            "Слишком много запросов. Пожалуйста, повторите попытку позже.".getBytes(StandardCharsets.UTF_8);
+
+    private final TokenBucketRateLimiter limiter = new TokenBucketRateLimiter();
+    private final AntPathMatcher pathMatcher = new AntPathMatcher();
+    private final boolean enabled;
+    private final List<Limit> limits = new ArrayList<>();
+    private final Limit defaultLimit;
+
+    public RateLimitFilter(RateLimitProperties properties, GatewayMetrics metrics) {
+        this.enabled = properties.isEnabled();
+        for (RateLimitProperties.Rule rule : properties.getRoutes()) {
+            limits.add(new Limit(rule, metrics));
+        }
+        this.defaultLimit = new Limit(properties.getDefaultLimit(), metrics);
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        if (!enabled) {
+            return chain.filter(exchange);
+        }
+
+        ServerHttpRequest request = exchange.getRequest();
+        Limit limit = limitFor(request);
+        String key = limit.rule.getId() + ':' + principal(exchange);
+        long waitNanos = limiter.tryAcquire(key, limit.rule.getRate(), limit.rule.getBurst(), System.nanoTime());
+        if (waitNanos == 0) {
+            limit.allowed.increment();
+            return chain.filter(exchange);
+        }
+
+        limit.rejected.increment();
+        ServerHttpResponse response = exchange.getResponse();
+        response.setStatusCode(HttpStatus.TOO_MANY_REQUESTS);
+        response.getHeaders().set(HttpHeaders.RETRY_AFTER,
+                Long.toString(Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + 999_999_999L))));
+        response.getHeaders().setContentType(new MediaType(MediaType.TEXT_PLAIN, StandardCharsets.UTF_8));
+        return response.writeWith(Mono.just(response.bufferFactory().wrap(TOO_MANY_REQUESTS_BODY)));
+    }
+
+    /**
+     * Выбрасывание вёдер, которые успели наполниться, чтобы разовые клиенты (IP) не копились в памяти
+     */
+    @Scheduled(fixedDelayString = "${cyberbank.rate-limit.purge-ms:60000}")
+    public void purgeFullBuckets() {
+        limiter.purgeFull(System.nanoTime());
+    }
+
+    @Override
+    public int getOrder() {
+        return ORDER;
+    }
+
+    private Limit limitFor(ServerHttpRequest request) {
+        String path = request.getPath().value();
+        String method = request.getMethodValue();
+        for (Limit limit : limits) {
+            String ruleMethod = limit.rule.getMethod();
+            if ((ruleMethod == null || ruleMethod.isEmpty() || ruleMethod.equalsIgnoreCase(method))
+                    && pathMatcher.match(limit.rule.getPath(), path)) {
+                return limit;
+            }
+        }
+        return defaultLimit;
+    }
+
+    /**
+     * Кого ограничиваем: пользователя из проверенного токена (см. JwtEdgeFilter) или адрес клиента
+     */
+    private static String principal(ServerWebExchange exchange) {
+        Claims claims = exchange.getAttribute(JwtEdgeFilter.CLAIMS_ATTRIBUTE);
+        if (claims != null && claims.get("id") != null) {
+            return "user:" + claims.get("id");
+        }
+        InetSocketAddress remoteAddress = exchange.getRequest().getRemoteAddress();
+        if (remoteAddress == null || remoteAddress.getAddress() == null) {
+            return "ip:unknown";
+        }
+        return "ip:" + remoteAddress.getAddress().getHostAddress();
+    }
+
+    /**
+     * Правило вместе с его счётчиками (счётчики берутся один раз, а не на каждый запрос)
+     */
+    private static class Limit {
+        private final RateLimitProperties.Rule rule;
+        private final LongAdder allowed;
+        private final LongAdder rejected;
+
+        private Limit(RateLimitProperties.Rule rule, GatewayMetrics metrics) {
+            this.rule = rule;
+            this.allowed = metrics.counter("gateway_rate_limit_requests_total", "rule", rule.getId(), "outcome", "allowed");
+            this.rejected = metrics.counter("gateway_rate_limit_requests_total", "rule", rule.getId(), "outcome", "rejected");
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.codemika.cyberbank.gateway.filter;
+
+import com.codemika.cyberbank.gateway.config.ResilienceProperties;
+import com.codemika.cyberbank.gateway.metrics.GatewayMetrics;
+import com.codemika.cyberbank.gateway.util.CircuitBreaker;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.support.ServerWebExchangeUtils;
+import org.springframework.core.Ordered;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Изоляция сервисов друг от друга: у каждого маршрута свой автоматический выключатель и свой лимит
+ * одновременных запросов. Если сервис тормозит или падает, запросы к нему сразу получают 503,
+ * а соединения и память шлюза остаются другим сервисам.
+ * Ошибкой считаются ответы 5xx и исключения (таймауты, обрывы соединения), 4xx - нормальный ответ.
+ */
+@Component
+public class ResilienceFilter implements GlobalFilter, Ordered {
+    /**
+     * После кэша: ответы из кэша сервис не нагружают и не считаются
+     */
+    public static final int ORDER = ResponseCacheFilter.ORDER + 10;
+
+    private static final byte[] UNAVAILABLE_BODY =
+            "Сервис временно недоступен. Пожалуйста, повторите попытку позже.".getBytes(StandardCharsets.UTF_8);
+
+    private final ResilienceProperties properties;
+    private final GatewayMetrics metrics;
+    private final Map<String, Guard> guards = new ConcurrentHashMap<>();
+
+    public ResilienceFilter(ResilienceProperties properties, GatewayMetrics metrics) {
+        this.properties = properties;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        Route route = exchange.getAttribute(ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR);
+        if (!properties.isEnabled() || route == null) {
+            return chain.filter(exchange);
+        }
+
+        Guard guard = guards.get(route.getId());
+        if (guard == null) {
+            guard = guards.computeIfAbsent(route.getId(), this::createGuard);
+        }
+        // сначала лимит одновременных запросов: отказ по нему не должен забирать пробное разрешение выключателя
+        if (!guard.bulkhead.tryAcquire()) {
+            guard.rejectedBulkhead.increment();
+            return unavailable(exchange.getResponse(), 0);
+        }
+        long now = System.nanoTime();
+        if (!guard.breaker.tryAcquire(now)) {
+            guard.bulkhead.release();
+            guard.rejectedOpen.increment();
+            return unavailable(exchange.getResponse(), guard.breaker.remainingOpenNanos(now));
+        }
+
+        Guard current = guard;
+        return chain.filter(exchange)
+                .doOnSuccess(ignored -> {
+                    HttpStatus status = exchange.getResponse().getStatusCode();
+                    if (status != null && status.is5xxServerError()) {
+                        current.failure();
+                    } else {
+                        current.success();
+                    }
+                })
+                .doOnError(error -> current.failure())
+                .doFinally(signal -> {
+                    current.bulkhead.release();
+                    if (signal == SignalType.CANCEL) {
+                        // клиент ушёл, результата нет: пробное разрешение возвращается выключателю
+                        current.breaker.release();
+                    }
+                });
+    }
+
+    @Override
+    public int getOrder() {
+        return ORDER;
+    }
+
+    private Guard createGuard(String routeId) {
+        Guard guard = new Guard(routeId, properties.policyFor(routeId), metrics);
+        metrics.gauge("gateway_circuit_breaker_state", () -> guard.breaker.getState().ordinal(), "route", routeId);
+        metrics.gauge("gateway_bulkhead_in_flight",
+                () -> guard.maxConcurrent - guard.bulkhead.availablePermits(), "route", routeId);
+        return guard;
+    }
+
+    private static Mono<Void> unavailable(ServerHttpResponse response, long retryAfterNanos) {
+        response.setStatusCode(HttpStatus.SERVICE_UNAVAILABLE);
+        response.getHeaders().set(HttpHeaders.RETRY_AFTER,
+                Long.toString(Math.max(1, TimeUnit.NANOSECONDS.toSeconds(retryAfterNanos + 999_999_999L))));
+        response.getHeaders().setContentType(new MediaType(MediaType.TEXT_PLAIN, StandardCharsets.UTF_8));
+        return response.writeWith(Mono.just(response.bufferFactory().wrap(UNAVAILABLE_BODY)));
+    }
+
+    /**
+     * Выключатель, лимит одновременных запросов и счётчики одного маршрута
+     */
+    private static class Guard {
+        private final CircuitBreaker breaker;
+        private final Semaphore bulkhead;
+        private final int maxConcurrent;
+        private final LongAdder successes;
+        private final LongAdder failures;
+        private final LongAdder rejectedOpen;
+        private final LongAdder rejectedBulkhead;
+
+        private Guard(String routeId, ResilienceProperties.Policy policy, GatewayMetrics metrics) {
+            this.breaker = new CircuitBreaker(policy.getFailureRateThreshold(), policy.getMinimumCalls(),
+                    TimeUnit.MILLISECONDS.toNanos(policy.getWindowMs()), TimeUnit.MILLISECONDS.toNanos(policy.getOpenMs()),
+                    policy.getHalfOpenCalls(), TimeUnit.MILLISECONDS.toNanos(policy.getHalfOpenTimeoutMs()),
+                    System.nanoTime());
+            this.maxConcurrent = policy.getMaxConcurrent();
+            this.bulkhead = new Semaphore(maxConcurrent);
+            this.successes = metrics.counter("gateway_resilience_calls_total", "route", routeId, "outcome", "success");
+            this.failures = metrics.counter("gateway_resilience_calls_total", "route", routeId, "outcome", "failure");
+            this.rejectedOpen = metrics.counter("gateway_resilience_calls_total", "route", routeId, "outcome", "circuit_open");
+            this.rejectedBulkhead = metrics.counter("gateway_resilience_calls_total", "route", routeId, "outcome", "bulkhead_full");
+        }
+
+        private void success() {
+            successes.increment();
+            breaker.onSuccess(System.nanoTime());
+        }
+
+        private void failure() {
+            failures.increment();
+            breaker.onFailure(System.nanoTime());
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.codemika.cyberbank.gateway.filter;
+
+import com.codemika.cyberbank.gateway.config.ResponseCacheProperties;
+import com.codemika.cyberbank.gateway.metrics.GatewayMetrics;
+import com.codemika.cyberbank.shared.util.InternalClaims;
+import com.codemika.cyberbank.gateway.util.ResponseCache;
+import io.jsonwebtoken.Claims;
+import org.reactivestreams.Publisher;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.support.ServerWebExchangeUtils;
+import org.springframework.core.Ordered;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.http.server.reactive.ServerHttpResponseDecorator;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Кэш ответов на повторяющиеся GET-запросы (панели постоянно перезапрашивают одни и те же списки).
+ * Кэшируются только пути, явно перечисленные в cyberbank.response-cache.routes, и только ответы 200.
+ * Ключ - маршрут, путь, параметры запроса и токен, поэтому ответ одного пользователя никогда не уйдёт другому,
+ * а отозванный токен может получать уже закэшированный ответ не дольше его ttl.
+ * Изменяющий запрос (не GET) пользователя в сервис делает устаревшими закэшированные ответы этого сервиса
+ * тому же пользователю; ответы другим пользователям доживают свой ttl, поэтому кэшируемые пути - только те,
+ * где несколько секунд устаревания после чужих изменений допустимы.
+ * Учитывается Cache-Control: no-cache/no-store в запросе - идём в сервис, no-store/no-cache/max-age в ответе -
+ * не кэшируем или кэшируем на меньшее время. Ручная очистка - DELETE /gateway/cache (см. CacheController).
+ */
+@Component
+public class ResponseCacheFilter implements GlobalFilter, Ordered {
+    /**
+     * После ограничения частоты: попадание в кэш тоже считается запросом
+     */
+    public static final int ORDER = RateLimitFilter.ORDER + 10;
+
+    private static final String CACHE_STATUS_HEADER = "X-Cache";
+
+    private final ResponseCache cache;
+    private final AntPathMatcher pathMatcher = new AntPathMatcher();
+    private final boolean enabled;
+    private final int maxBodyBytes;
+    private final List<CachedRoute> routes = new ArrayList<>();
+
+    public ResponseCacheFilter(ResponseCacheProperties properties, ResponseCache cache, GatewayMetrics metrics) {
+        this.cache = cache;
+        this.enabled = properties.isEnabled();
+        this.maxBodyBytes = properties.getMaxBodyBytes();
+        for (ResponseCacheProperties.Rule rule : properties.getRoutes()) {
+            routes.add(new CachedRoute(rule, metrics));
+        }
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        Route route = exchange.getAttribute(ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR);
+        if (!enabled || route == null) {
+            return chain.filter(exchange);
+        }
+
+        ServerHttpRequest request = exchange.getRequest();
+        HttpMethod method = request.getMethod();
+        Claims claims = exchange.getAttribute(JwtEdgeFilter.CLAIMS_ATTRIBUTE);
+        Long userId = claims == null ? null : claims.get("id", Long.class);
+        if (method != HttpMethod.GET && method != HttpMethod.HEAD && method != HttpMethod.OPTIONS) {
+            // и до, и после записи: ответы, прочитанные во время записи, тоже устаревают
+            cache.invalidate(route.getId(), userId, System.nanoTime());
+            return chain.filter(exchange)
+                    .doFinally(signal -> cache.invalidate(route.getId(), userId, System.nanoTime()));
+        }
+        CachedRoute cachedRoute = method == HttpMethod.GET ? cachedRoute(request.getPath().value()) : null;
+        if (cachedRoute == null) {
+            return chain.filter(exchange);
+        }
+
+        List<String> requestCacheControl = request.getHeaders().getOrEmpty(HttpHeaders.CACHE_CONTROL);
+        String key = key(route.getId(), request);
+        long now = System.nanoTime();
+        if (!contains(requestCacheControl, "no-cache") && !contains(requestCacheControl, "no-store")) {
+            ResponseCache.Entry entry = cache.get(key, now);
+            if (entry != null) {
+                cachedRoute.hits.increment();
+                return writeCached(exchange.getResponse(), entry, now);
+            }
+        }
+        cachedRoute.misses.increment();
+        if (contains(requestCacheControl, "no-store")) {
+            return chain.filter(exchange);
+        }
+
+        ServerHttpResponse response = exchange.getResponse();
+        ServerHttpResponseDecorator recording = new ServerHttpResponseDecorator(response) {
+            @Override
+            public Mono<Void> writeWith(Publisher<? extends DataBuffer> body) {
+                long ttlNanos = ttlNanos(cachedRoute.rule.getTtlMs(), getHeaders());
+                if (getStatusCode() != HttpStatus.OK || ttlNanos <= 0) {
+                    return super.writeWith(body);
+                }
+                getHeaders().set(CACHE_STATUS_HEADER, "MISS");
+                return DataBufferUtils.join(Flux.from(body)).flatMap(joined -> {
+                    byte[] bytes = new byte[joined.readableByteCount()];
+                    joined.read(bytes);
+                    DataBufferUtils.release(joined);
+                    if (bytes.length <= maxBodyBytes) {
+                        String contentType = getHeaders().getContentType() == null
+                                ? null : getHeaders().getContentType().toString();
+                        cache.put(key, new ResponseCache.Entry(route.getId(), userId, now,
+                                System.nanoTime(), ttlNanos, contentType, bytes));
+                        cachedRoute.stores.increment();
+                    }
+                    return super.writeWith(Mono.just(bufferFactory().wrap(bytes)));
+                });
+            }
+        };
+        return chain.filter(exchange.mutate().response(recording).build());
+    }
+
+    @Override
+    public int getOrder() {
+        return ORDER;
+    }
+
+    private CachedRoute cachedRoute(String path) {
+        for (CachedRoute route : routes) {
+            if (pathMatcher.match(route.rule.getPath(), path)) {
+                return route;
+            }
+        }
+        return null;
+    }
+
+    private static Mono<Void> writeCached(ServerHttpResponse response, ResponseCache.Entry entry, long nowNanos) {
+        response.setStatusCode(HttpStatus.OK);
+        HttpHeaders headers = response.getHeaders();
+        if (entry.getContentType() != null) {
+            headers.set(HttpHeaders.CONTENT_TYPE, entry.getContentType());
+        }
+        headers.set(HttpHeaders.AGE, Long.toString(TimeUnit.NANOSECONDS.toSeconds(nowNanos - entry.getStoredAtNanos())));
+        headers.set(CACHE_STATUS_HEADER, "HIT");
+        return response.writeWith(Mono.just(response.bufferFactory().wrap(entry.getBody())));
+    }
+
+    /**
+     * Ключ ответа: маршрут, путь с параметрами и токен (ответ привязан к тому, кто его запросил)
+     */
+    static String key(String routeId, ServerHttpRequest request) {
+        String authorization = request.getHeaders().getFirst(HttpHeaders.AUTHORIZATION);
+        String query = request.getURI().getRawQuery();
+        return routeId + '\n' + request.getPath().value() + (query == null ? "" : '?' + query)
+                + '\n' + (authorization == null ? "" : InternalClaims.normalize(authorization));
+    }
+
+    /**
+     * Время жизни ответа с учётом Cache-Control от сервиса
+     *
+     * @return 0 - ответ кэшировать нельзя
+     */
+    static long ttlNanos(long ruleTtlMs, HttpHeaders responseHeaders) {
+        if (responseHeaders.containsKey(HttpHeaders.SET_COOKIE)) {
+            return 0;
+        }
+        long ttlMs = ruleTtlMs;
+        for (String value : responseHeaders.getOrEmpty(HttpHeaders.CACHE_CONTROL)) {
+            for (String directive : value.split(",")) {
+                directive = directive.trim().toLowerCase();
+                if (directive.equals("no-store") || directive.equals("no-cache")) {
+                    return 0;
+                }
+                if (directive.startsWith("max-age=")) {
+                    try {
+                        ttlMs = Math.min(ttlMs, Long.parseLong(directive.substring("max-age=".length())) * 1000);
+                    } catch (NumberFormatException ignored) {
+                        return 0;
+                    }
+                }
+            }
+        }
+        return TimeUnit.MILLISECONDS.toNanos(Math.max(ttlMs, 0));
+    }
+
+    private static boolean contains(List<String> cacheControl, String directive) {
+        for (String value : cacheControl) {
+            for (String part : value.split(",")) {
+                if (part.trim().equalsIgnoreCase(directive)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Правило кэширования вместе с его счётчиками
+     */
+    private static class CachedRoute {
+        private final ResponseCacheProperties.Rule rule;
+        private final LongAdder hits;
+        private final LongAdder misses;
+        private final LongAdder stores;
+
+        private CachedRoute(ResponseCacheProperties.Rule rule, GatewayMetrics metrics) {
+            this.rule = rule;
+            this.hits = metrics.counter("gateway_response_cache_total", "rule", rule.getId(), "result", "hit");
+            this.misses = metrics.counter("gateway_response_cache_total", "rule", rule.getId(), "result", "miss");
+            this.stores = metrics.counter("gateway_response_cache_total", "rule", rule.getId(), "result", "store");
+        }
+    }
+}
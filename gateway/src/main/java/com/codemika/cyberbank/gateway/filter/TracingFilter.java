@@ -0,0 +1,78 @@
+package com.codemika.cyberbank.gateway.filter;
+
+import com.codemika.cyberbank.shared.tracing.Span;
+import com.codemika.cyberbank.shared.tracing.TraceCollector;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.support.ServerWebExchangeUtils;
+import org.springframework.core.Ordered;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import java.net.URI;
+
+/**
+ * Начало трассировки запроса. Шлюз продолжает трассировку клиента (если тот прислал traceparent) или начинает новую,
+ * передаёт сервису traceparent своего участка, а клиенту возвращает его в ответе - по traceId из него участки
+ * запроса собираются со всех сервисов (gateway/traces, api/auth/internal/traces, api/card/internal/traces).
+ * Участок шлюза охватывает весь путь запроса через шлюз: лимиты, кэш, выключатели, повторы и сам сервис.
+ */
+@Component
+public class TracingFilter implements GlobalFilter, Ordered {
+    /**
+     * Сразу после замера задержки, чтобы traceparent был у всех остальных фильтров
+     */
+    public static final int ORDER = LatencyMetricsFilter.ORDER + 1;
+
+    private static final String SERVICE = "gateway";
+
+    private final TraceCollector collector;
+
+    public TracingFilter(TraceCollector collector) {
+        this.collector = collector;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        ServerHttpRequest request = exchange.getRequest();
+        // параметры запроса не пишутся: в них бывают токены
+        Span span = Span.fromTraceparent(request.getHeaders().getFirst(Span.TRACEPARENT_HEADER), SERVICE,
+                request.getMethodValue() + " " + request.getPath().value(), null);
+        String traceparent = span.traceparent();
+
+        // ответ сервиса несёт свой traceparent - клиенту отдаётся участок шлюза
+        exchange.getResponse().beforeCommit(() -> {
+            exchange.getResponse().getHeaders().set(Span.TRACEPARENT_HEADER, traceparent);
+            return Mono.empty();
+        });
+        ServerHttpRequest mutated = request.mutate()
+                .headers(headers -> headers.set(Span.TRACEPARENT_HEADER, traceparent))
+                .build();
+        return chain.filter(exchange.mutate().request(mutated).build())
+                .doOnError(span::error)
+                .doFinally(signal -> finish(exchange, span, signal));
+    }
+
+    @Override
+    public int getOrder() {
+        return ORDER;
+    }
+
+    private void finish(ServerWebExchange exchange, Span span, SignalType signal) {
+        Route route = exchange.getAttribute(ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR);
+        URI instance = exchange.getAttribute(ServerWebExchangeUtils.GATEWAY_REQUEST_URL_ATTR);
+        HttpStatus status = exchange.getResponse().getStatusCode();
+        span.tag("route", route == null ? "none" : route.getId());
+        if (instance != null && instance.getHost() != null && !"lb".equals(instance.getScheme())) {
+            span.tag("instance", instance.getHost() + ':' + instance.getPort());
+        }
+        span.tag("status", signal == SignalType.CANCEL ? "cancelled" : status == null ? "200" : String.valueOf(status.value()));
+        span.finish();
+        collector.record(span);
+    }
+}
@@ -0,0 +1,158 @@
+package com.codemika.cyberbank.gateway.metrics;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Метрики шлюза в памяти с выдачей в текстовом формате Prometheus (см. MetricsController).
+ * Счётчики - LongAdder, поэтому запись из многих потоков не упирается в одну ячейку памяти.
+ * Счётчик стоит получить один раз и хранить у себя: поиск по имени и тегам собирает строку.
+ * Гистограммы задержек (см. LatencyHistogram) выдаются как histogram Prometheus с границами корзин
+ * по степеням двойки (для histogram_quantile) и отдельно - готовыми перцентилями (метрика *_quantile).
+ */
+@Component
+public class GatewayMetrics {
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, Supplier<Number>> gauges = new ConcurrentHashMap<>();
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    /**
+     * Границы корзин гистограмм в выдаче: от 2^7 мкс (128 мкс) до 2^25 мкс (33,5 с)
+     */
+    private static final int MIN_BUCKET_EXPONENT = 7;
+    private static final int MAX_BUCKET_EXPONENT = 25;
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    /**
+     * Счётчик с заданным именем и тегами
+     *
+     * @param name имя метрики (в стиле Prometheus, например gateway_requests_total)
+     * @param tags пары тег-значение
+     * @return счётчик (один и тот же для одинаковых имени и тегов)
+     */
+    public LongAdder counter(String name, String... tags) {
+        return counters.computeIfAbsent(key(name, tags), key -> new LongAdder());
+    }
+
+    /**
+     * Показатель, значение которого читается в момент выдачи метрик (состояние, число запросов в работе)
+     *
+     * @param name  имя метрики
+     * @param value откуда брать значение
+     * @param tags  пары тег-значение
+     */
+    public void gauge(String name, Supplier<Number> value, String... tags) {
+        gauges.put(key(name, tags), value);
+    }
+
+    /**
+     * Гистограмма задержек с заданным именем и тегами
+     *
+     * @param name имя метрики (в секундах, например gateway_request_duration_seconds)
+     * @param tags пары тег-значение
+     * @return гистограмма (одна и та же для одинаковых имени и тегов)
+     */
+    public LatencyHistogram histogram(String name, String... tags) {
+        String key = key(name, tags);
+        LatencyHistogram histogram = histograms.get(key);
+        return histogram != null ? histogram : histograms.computeIfAbsent(key, k -> new LatencyHistogram());
+    }
+
+    /**
+     * Выдача всех метрик в текстовом формате Prometheus
+     *
+     * @return текст для /gateway/metrics
+     */
+    public String scrape() {
+        StringBuilder out = new StringBuilder();
+        String previousName = null;
+        for (Map.Entry<String, LongAdder> counter : new TreeMap<>(counters).entrySet()) {
+            previousName = type(out, counter.getKey(), "counter", previousName);
+            out.append(counter.getKey()).append(' ').append(counter.getValue().sum()).append('\n');
+        }
+        for (Map.Entry<String, Supplier<Number>> gauge : new TreeMap<>(gauges).entrySet()) {
+            previousName = type(out, gauge.getKey(), "gauge", previousName);
+            out.append(gauge.getKey()).append(' ').append(gauge.getValue().get()).append('\n');
+        }
+        Map<String, LatencyHistogram> sortedHistograms = new TreeMap<>(histograms);
+        for (Map.Entry<String, LatencyHistogram> histogram : sortedHistograms.entrySet()) {
+            String key = histogram.getKey();
+            previousName = type(out, key, "histogram", previousName);
+            long[] snapshot = histogram.getValue().snapshot();
+            long count = 0;
+            for (long bucket : snapshot) {
+                count += bucket;
+            }
+            for (int exponent = MIN_BUCKET_EXPONENT; exponent <= MAX_BUCKET_EXPONENT; exponent++) {
+                out.append(series(key, "_bucket", "le", Double.toString((1L << exponent) / 1e6)))
+                        .append(' ').append(LatencyHistogram.countAtMost(snapshot, exponent)).append('\n');
+            }
+            out.append(series(key, "_bucket", "le", "+Inf")).append(' ').append(count).append('\n');
+            out.append(series(key, "_sum", null, null)).append(' ')
+                    .append(histogram.getValue().sumMicros() / 1e6).append('\n');
+            out.append(series(key, "_count", null, null)).append(' ').append(count).append('\n');
+        }
+        for (Map.Entry<String, LatencyHistogram> histogram : sortedHistograms.entrySet()) {
+            String key = series(histogram.getKey(), "_quantile", null, null);
+            previousName = type(out, key, "gauge", previousName);
+            for (double quantile : QUANTILES) {
+                out.append(series(histogram.getKey(), "_quantile", "quantile", Double.toString(quantile))).append(' ')
+                        .append(histogram.getValue().percentile(quantile) / 1e6).append('\n');
+            }
+        }
+        return out.toString();
+    }
+
+    static String key(String name, String... tags) {
+        if (tags.length % 2 != 0) {
+            throw new IllegalArgumentException("Теги задаются парами: " + name);
+        }
+        if (tags.length == 0) {
+            return name;
+        }
+        StringBuilder key = new StringBuilder(name).append('{');
+        for (int i = 0; i < tags.length; i += 2) {
+            if (i > 0) key.append(',');
+            key.append(tags[i]).append("=\"")
+                    .append(tags[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+                    .append('"');
+        }
+        return key.append('}').toString();
+    }
+
+    /**
+     * Имя серии с суффиксом и дополнительным тегом: gateway_x{route="a"} -> gateway_x_bucket{route="a",le="0.1"}
+     */
+    static String series(String key, String suffix, String tag, String value) {
+        int brace = key.indexOf('{');
+        String name = brace < 0 ? key : key.substring(0, brace);
+        String tags = brace < 0 ? "" : key.substring(brace + 1, key.length() - 1);
+        if (tag != null) {
+            tags = tags.isEmpty() ? tag + "=\"" + value + '"' : tags + ',' + tag + "=\"" + value + '"';
+        }
+        return tags.isEmpty() ? name + suffix : name + suffix + '{' + tags + '}';
+    }
+
+    /**
+     * Строка "# TYPE" перед первой серией каждой метрики
+     *
+     * @return имя метрики (для сравнения со следующей серией)
+     */
+    private static String type(StringBuilder out, String key, String type, String previousName) {
+        String name = nameOf(key);
+        if (!name.equals(previousName)) {
+            out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        }
+        return name;
+    }
+
+    private static String nameOf(String key) {
+        int brace = key.indexOf('{');
+        return brace < 0 ? key : key.substring(0, brace);
+    }
+}
@@ -0,0 +1,173 @@
+package com.codemika.cyberbank.gateway.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Автоматический выключатель для одного сервиса, без блокировок.
+ * CLOSED - запросы идут, считается доля ошибок в окне. Если ошибок слишком много - OPEN:
+ * запросы сразу получают отказ, не занимая соединения к медленному сервису.
+ * По истечении времени - HALF_OPEN: пропускается несколько пробных запросов, первый успех закрывает выключатель,
+ * ошибка снова открывает. Пробный запрос, который так и не был отправлен или был отменён, возвращает разрешение
+ * (см. release). Если за halfOpenTimeout ни один пробный запрос не ответил, выключатель снова открывается,
+ * а после открытия выдаёт новые пробные разрешения - поэтому зависшие пробы не оставляют его в HALF_OPEN навсегда.
+ */
+public class CircuitBreaker {
+    public enum State {CLOSED, OPEN, HALF_OPEN}
+
+    private final double failureRateThreshold;
+    private final int minimumCalls;
+    private final long windowNanos;
+    private final long openNanos;
+    private final int halfOpenCalls;
+    private final long halfOpenTimeoutNanos;
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private final AtomicLong windowStartNanos;
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final AtomicInteger halfOpenPermits = new AtomicInteger();
+    private volatile long openUntilNanos;
+    private volatile long halfOpenSinceNanos;
+
+    /**
+     * @param failureRateThreshold доля ошибок (0..1), при которой выключатель открывается
+     * @param minimumCalls         меньше стольких запросов в окне - долю ошибок не считаем
+     * @param windowNanos          длина окна подсчёта ошибок
+     * @param openNanos            сколько выключатель остаётся открытым
+     * @param halfOpenCalls        сколько пробных запросов пропускать после открытия
+     * @param halfOpenTimeoutNanos сколько ждать ответа на пробные запросы, после чего выключатель снова открывается
+     * @param nowNanos             текущее время (System.nanoTime())
+     */
+    public CircuitBreaker(double failureRateThreshold, int minimumCalls, long windowNanos, long openNanos,
+                          int halfOpenCalls, long halfOpenTimeoutNanos, long nowNanos) {
+        this.failureRateThreshold = failureRateThreshold;
+        this.minimumCalls = minimumCalls;
+        this.windowNanos = windowNanos;
+        this.openNanos = openNanos;
+        this.halfOpenCalls = halfOpenCalls;
+        this.halfOpenTimeoutNanos = halfOpenTimeoutNanos;
+        this.windowStartNanos = new AtomicLong(nowNanos);
+    }
+
+    /**
+     * @param nowNanos текущее время (System.nanoTime())
+     * @return true - запрос можно отправлять, false - сразу отказ
+     */
+    public boolean tryAcquire(long nowNanos) {
+        State current = state.get();
+        if (current == State.CLOSED) {
+            return true;
+        }
+        if (current == State.OPEN) {
+            if (nowNanos - openUntilNanos < 0) {
+                return false;
+            }
+            // время ставится до перехода: параллельный запрос, увидевший HALF_OPEN, не должен счесть пробы зависшими
+            halfOpenSinceNanos = nowNanos;
+            if (state.compareAndSet(State.OPEN, State.HALF_OPEN)) {
+                halfOpenPermits.set(halfOpenCalls);
+            }
+        }
+        if (acquireHalfOpenPermit()) {
+            return true;
+        }
+        if (state.get() == State.HALF_OPEN && nowNanos - halfOpenSinceNanos > halfOpenTimeoutNanos) {
+            // пробные запросы так и не ответили
+            open(State.HALF_OPEN, nowNanos);
+        }
+        return false;
+    }
+
+    /**
+     * Возврат разрешения запросом, результат которого неизвестен: его не отправили (например, лимит одновременных
+     * запросов уже исчерпан) или клиент отменил его. В HALF_OPEN разрешение достанется следующему пробному запросу.
+     */
+    public void release() {
+        if (state.get() == State.HALF_OPEN) {
+            halfOpenPermits.getAndUpdate(permits -> Math.min(halfOpenCalls, permits + 1));
+        }
+    }
+
+    public void onSuccess(long nowNanos) {
+        if (state.get() == State.HALF_OPEN) {
+            if (state.compareAndSet(State.HALF_OPEN, State.CLOSED)) {
+                resetWindow(nowNanos);
+            }
+            return;
+        }
+        record(nowNanos, false);
+    }
+
+    public void onFailure(long nowNanos) {
+        State current = state.get();
+        if (current == State.HALF_OPEN) {
+            open(State.HALF_OPEN, nowNanos);
+            return;
+        }
+        if (current == State.CLOSED && record(nowNanos, true)) {
+            open(State.CLOSED, nowNanos);
+        }
+    }
+
+    public State getState() {
+        return state.get();
+    }
+
+    /**
+     * @param nowNanos текущее время (System.nanoTime())
+     * @return сколько наносекунд выключатель ещё будет открыт (0 - уже не открыт)
+     */
+    public long remainingOpenNanos(long nowNanos) {
+        return state.get() == State.OPEN ? Math.max(0, openUntilNanos - nowNanos) : 0;
+    }
+
+    /**
+     * Учёт результата запроса в текущем окне
+     *
+     * @return true - доля ошибок превысила порог
+     */
+    private boolean record(long nowNanos, boolean failure) {
+        long start = windowStartNanos.get();
+        if (nowNanos - start > windowNanos && windowStartNanos.compareAndSet(start, nowNanos)) {
+            // окно сбрасывается приблизительно: результаты, записанные одновременно со сбросом, могут потеряться
+            calls.reset();
+            failures.reset();
+        }
+        calls.increment();
+        if (!failure) {
+            return false;
+        }
+        failures.increment();
+        long total = calls.sum();
+        return total >= minimumCalls && failures.sum() >= failureRateThreshold * total;
+    }
+
+    private void open(State from, long nowNanos) {
+        openUntilNanos = nowNanos + openNanos;
+        halfOpenPermits.set(0);
+        state.compareAndSet(from, State.OPEN);
+    }
+
+    /**
+     * Уменьшение числа пробных разрешений, но не ниже нуля (иначе возвращённое разрешение потерялось бы)
+     */
+    private boolean acquireHalfOpenPermit() {
+        int permits;
+        do {
+            permits = halfOpenPermits.get();
+            if (permits <= 0) {
+                return false;
+            }
+        } while (!halfOpenPermits.compareAndSet(permits, permits - 1));
+        return true;
+    }
+
+    private void resetWindow(long nowNanos) {
+        windowStartNanos.set(nowNanos);
+        calls.reset();
+        failures.reset();
+    }
+}
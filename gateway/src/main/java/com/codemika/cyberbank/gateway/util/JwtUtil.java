@@ -0,0 +1,65 @@
+package com.codemika.cyberbank.gateway.util;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import static com.codemika.cyberbank.gateway.constants.RoleConstants.*;
+
+/**
+ * Это класс для jwt-токенов. Шлюз токены только проверяет, выдаёт их сервис authentication.
+ */
+@Component
+@Slf4j
+public class JwtUtil {
+    /**
+     * SIGN - это ключ для генерации и расшифровки токена.
+     */
+    private final String SIGN = "SuPErSecRETsign228CyBERbANk";
+
+    /**
+     * Тип токена: короткий токен доступа или токен обновления. У старых токенов типа нет.
+     */
+    public static final String TOKEN_TYPE_CLAIMS_KEY = "typ";
+    public static final String ACCESS_TOKEN_TYPE = "access";
+
+    /**
+     * Извлечение информации из токена
+     *
+     * @param token токен
+     * @return Информацию, содержащуюся в токене, или null, если токен неверный
+     */
+    public Claims getClaims(String token) {
+        token = token.replace("\"", "");
+        token = token.trim();
+
+        try {
+            return Jwts.parser()
+                    .setSigningKey(SIGN)
+                    .parseClaimsJws(token)
+                    .getBody();
+        } catch (RuntimeException e) {
+            log.debug("Неверный токен: " + e.getMessage());
+        }
+
+        return null;
+    }
+
+    /**
+     * Битовая маска ролей из токена: у коротких токенов - готовая маска, у старых - четыре флага
+     *
+     * @param claims информация из токена
+     * @return битовая маска ролей
+     */
+    public static int roleMask(Claims claims) {
+        Number mask = claims.get(ROLE_MASK_CLAIMS_KEY, Number.class);
+        if (mask != null) {
+            return mask.intValue();
+        }
+        return (Boolean.TRUE.equals(claims.get(IS_USER_ROLE_EXIST_CLAIMS_KEY, Boolean.class)) ? USER_ROLE_BIT : 0)
+                | (Boolean.TRUE.equals(claims.get(IS_MODER_ROLE_EXIST_CLAIMS_KEY, Boolean.class)) ? MODER_ROLE_BIT : 0)
+                | (Boolean.TRUE.equals(claims.get(IS_TESTER_ROLE_EXIST_CLAIMS_KEY, Boolean.class)) ? TESTER_ROLE_BIT : 0)
+                | (Boolean.TRUE.equals(claims.get(IS_HACKER_ROLE_EXIST_CLAIMS_KEY, Boolean.class)) ? HACKER_ROLE_BIT : 0);
+    }
+}
@@ -0,0 +1,151 @@
+package com.codemika.cyberbank.gateway.util;
+
+import lombok.Getter;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Хранилище закэшированных ответов с вытеснением давно не запрошенных (LRU) и ограничением по числу ответов.
+ * Инвалидация - по маршруту (сервису) и пользователю: изменяющий запрос пользователя запоминает время изменения,
+ * и его ответы этого маршрута, запрошенные не позже, больше не выдаются (в том числе ответ, пришедший
+ * одновременно с изменением). Ответы других пользователей остаются в кэше до своего ttl.
+ * Время изменения хранится не дольше maxAge: ответ старше maxAge от начала своего запроса не выдаётся в любом случае,
+ * поэтому записи об изменениях не копятся по всем пользователям, когда-либо что-то менявшим.
+ */
+public class ResponseCache {
+    private final int maxEntries;
+    private final long maxAgeNanos;
+    private final Map<String, Long> invalidations = new ConcurrentHashMap<>();
+    private final LinkedHashMap<String, Entry> entries;
+
+    /**
+     * @param maxEntries сколько ответов держать в памяти
+     * @param maxAgeMs   сколько ответ может жить от начала своего запроса (не меньше наибольшего ttl)
+     */
+    public ResponseCache(int maxEntries, long maxAgeMs) {
+        this.maxEntries = maxEntries;
+        this.maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAgeMs);
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > ResponseCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Ответы пользователя на маршруте, запрошенные до этого момента, устаревают (был его изменяющий запрос)
+     *
+     * @param routeId  id маршрута
+     * @param userId   id пользователя или null - анонимные запросы
+     * @param nowNanos текущее время (System.nanoTime())
+     */
+    public void invalidate(String routeId, Long userId, long nowNanos) {
+        invalidations.merge(invalidationKey(routeId, userId), nowNanos, (old, now) -> now - old > 0 ? now : old);
+        if (invalidations.size() > maxEntries) {
+            invalidations.values().removeIf(at -> nowNanos - at > maxAgeNanos);
+        }
+    }
+
+    /**
+     * @param key      ключ ответа
+     * @param nowNanos текущее время (System.nanoTime())
+     * @return ответ или null, если его нет, он истёк или устарел
+     */
+    public Entry get(String key, long nowNanos) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expiresAtNanos - nowNanos <= 0 || outdated(entry, nowNanos)) {
+                entries.remove(key);
+                return null;
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Сохранение ответа (устаревший к этому моменту ответ не сохраняется)
+     */
+    public void put(String key, Entry entry) {
+        if (outdated(entry, entry.storedAtNanos)) {
+            return;
+        }
+        synchronized (entries) {
+            entries.put(key, entry);
+        }
+    }
+
+    /**
+     * Ручная очистка
+     *
+     * @param routeId id маршрута или null - все маршруты
+     * @param userId  id пользователя или null - все пользователи
+     * @return сколько ответов удалено
+     */
+    public int purge(String routeId, Long userId) {
+        int removed = 0;
+        synchronized (entries) {
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                if ((routeId == null || routeId.equals(entry.routeId))
+                        && (userId == null || userId.equals(entry.userId))) {
+                    iterator.remove();
+                    removed++;
+                }
+            }
+        }
+        return removed;
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private boolean outdated(Entry entry, long nowNanos) {
+        if (nowNanos - entry.requestedAtNanos > maxAgeNanos) {
+            return true;
+        }
+        Long invalidatedAt = invalidations.get(invalidationKey(entry.routeId, entry.userId));
+        return invalidatedAt != null && entry.requestedAtNanos - invalidatedAt <= 0;
+    }
+
+    private static String invalidationKey(String routeId, Long userId) {
+        return routeId + '\n' + userId;
+    }
+
+    /**
+     * Закэшированный ответ (тело уже прочитано целиком)
+     */
+    @Getter
+    public static class Entry {
+        private final String routeId;
+        private final Long userId;
+        private final long requestedAtNanos;
+        private final long storedAtNanos;
+        private final long expiresAtNanos;
+        private final String contentType;
+        private final byte[] body;
+
+        public Entry(String routeId, Long userId, long requestedAtNanos, long storedAtNanos, long ttlNanos,
+                     String contentType, byte[] body) {
+            this.routeId = routeId;
+            this.userId = userId;
+            this.requestedAtNanos = requestedAtNanos;
+            this.storedAtNanos = storedAtNanos;
+            this.expiresAtNanos = storedAtNanos + ttlNanos;
+            this.contentType = contentType;
+            this.body = body;
+        }
+    }
+}
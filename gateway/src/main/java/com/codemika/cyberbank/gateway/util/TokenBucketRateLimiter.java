@@ -0,0 +1,62 @@
+package com.codemika.cyberbank.gateway.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ограничитель частоты запросов "ведро с жетонами" без блокировок.
+ * Состояние ведра - одно число: момент (в наносекундах), когда ведро снова будет полным (алгоритм GCRA).
+ * Каждый запрос сдвигает этот момент на интервал между жетонами одним compareAndSet,
+ * поэтому нет ни блокировок, ни отдельного потока пополнения. Внешнее хранилище не нужно.
+ */
+public class TokenBucketRateLimiter {
+    private final Map<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+
+    /**
+     * Попытка взять жетон
+     *
+     * @param key           ключ ведра (правило + пользователь или IP)
+     * @param ratePerSecond сколько жетонов добавляется в секунду
+     * @param burst         ёмкость ведра (сколько запросов можно сделать подряд)
+     * @param nowNanos      текущее время (System.nanoTime())
+     * @return 0 - жетон взят, иначе через сколько наносекунд появится следующий жетон
+     */
+    public long tryAcquire(String key, double ratePerSecond, int burst, long nowNanos) {
+        long interval = (long) (1_000_000_000L / ratePerSecond);
+        long capacity = interval * burst;
+
+        AtomicLong fullAt = buckets.get(key);
+        if (fullAt == null) {
+            fullAt = buckets.computeIfAbsent(key, k -> new AtomicLong(nowNanos));
+        }
+        while (true) {
+            long current = fullAt.get();
+            long next = (current - nowNanos > 0 ? current : nowNanos) + interval;
+            long overflow = next - nowNanos - capacity;
+            if (overflow > 0) {
+                return overflow;
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Удаление полных вёдер: такое ведро ничем не отличается от нового.
+     * Если ведро удалили одновременно с запросом, клиент получит не больше одного лишнего ведра жетонов.
+     *
+     * @param nowNanos текущее время (System.nanoTime())
+     */
+    public void purgeFull(long nowNanos) {
+        buckets.values().removeIf(fullAt -> fullAt.get() - nowNanos <= 0);
+    }
+
+    /**
+     * @return число вёдер в памяти
+     */
+    public int size() {
+        return buckets.size();
+    }
+}
@@ -0,0 +1,43 @@
+package com.codemika.cyberbank.gateway.api;
+
+import com.codemika.cyberbank.shared.tracing.TraceCollector;
+import com.codemika.cyberbank.gateway.util.JwtUtil;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+
+import java.util.Collections;
+
+import static com.codemika.cyberbank.gateway.constants.RoleConstants.MODER_ROLE_BIT;
+import static com.codemika.cyberbank.gateway.constants.RoleConstants.ROLE_MASK_CLAIMS_KEY;
+import static com.codemika.cyberbank.gateway.constants.RoleConstants.USER_ROLE_BIT;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class TraceControllerTest {
+    private final JwtUtil jwtUtil = mock(JwtUtil.class);
+    private final TraceController controller = new TraceController(new TraceCollector(10, ""), jwtUtil);
+
+    @Test
+    void tracesAreOnlyForModerators() {
+        when(jwtUtil.getClaims("user")).thenReturn(claims(USER_ROLE_BIT));
+
+        assertEquals(HttpStatus.UNAUTHORIZED, controller.getTraces(null, null, 100).getStatusCode());
+        assertEquals(HttpStatus.FORBIDDEN, controller.getTraces("user", null, 100).getStatusCode());
+    }
+
+    @Test
+    void negativeLimitReturnsNothing() {
+        when(jwtUtil.getClaims("moder")).thenReturn(claims(MODER_ROLE_BIT));
+
+        assertEquals(Collections.emptyList(), controller.getTraces("moder", null, -5).getBody());
+    }
+
+    private static Claims claims(int roleMask) {
+        Claims claims = Jwts.claims();
+        claims.put(ROLE_MASK_CLAIMS_KEY, roleMask);
+        return claims;
+    }
+}
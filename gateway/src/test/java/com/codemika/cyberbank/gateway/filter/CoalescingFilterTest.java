@@ -0,0 +1,90 @@
+package com.codemika.cyberbank.gateway.filter;
+
+import com.codemika.cyberbank.gateway.config.CoalescingProperties;
+import com.codemika.cyberbank.gateway.metrics.GatewayMetrics;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.support.ServerWebExchangeUtils;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CoalescingFilterTest {
+    private final Route route = Route.async().id("card").uri("http://card").predicate(exchange -> true).build();
+
+    @Test
+    void concurrentIdenticalGetsShareOneDownstreamCall() {
+        CoalescingProperties properties = new CoalescingProperties();
+        properties.setPaths(Collections.singletonList("/api/card/get-all-cards"));
+        CoalescingFilter filter = new CoalescingFilter(properties, new GatewayMetrics());
+
+        AtomicInteger downstreamCalls = new AtomicInteger();
+        Sinks.Empty<Void> downstreamDone = Sinks.empty();
+        GatewayFilterChain chain = exchange -> {
+            downstreamCalls.incrementAndGet();
+            ServerHttpResponse response = exchange.getResponse();
+            response.setStatusCode(HttpStatus.OK);
+            return downstreamDone.asMono().then(response.writeWith(Mono.just(
+                    response.bufferFactory().wrap("cards".getBytes(StandardCharsets.UTF_8)))));
+        };
+
+        MockServerWebExchange first = exchange("/api/card/get-all-cards", "token-1");
+        MockServerWebExchange second = exchange("/api/card/get-all-cards", "token-1");
+        MockServerWebExchange otherUser = exchange("/api/card/get-all-cards", "token-2");
+        Mono<Void> firstDone = filter.filter(first, chain).cache();
+        firstDone.subscribe();
+        Mono<Void> secondDone = filter.filter(second, chain).cache();
+        secondDone.subscribe();
+        Mono<Void> otherDone = filter.filter(otherUser, chain).cache();
+        otherDone.subscribe();
+
+        downstreamDone.tryEmitEmpty();
+        firstDone.block();
+        secondDone.block();
+        otherDone.block();
+
+        assertEquals(2, downstreamCalls.get(), "один вызов на пользователя");
+        assertEquals("cards", first.getResponse().getBodyAsString().block());
+        assertEquals("cards", second.getResponse().getBodyAsString().block());
+        assertEquals(HttpStatus.OK, second.getResponse().getStatusCode());
+    }
+
+    @Test
+    void followersGoDownstreamThemselvesWhenLeaderFails() {
+        CoalescingProperties properties = new CoalescingProperties();
+        properties.setPaths(Collections.singletonList("/api/card/**"));
+        CoalescingFilter filter = new CoalescingFilter(properties, new GatewayMetrics());
+
+        AtomicInteger downstreamCalls = new AtomicInteger();
+        Sinks.Empty<Void> leaderFailed = Sinks.empty();
+        GatewayFilterChain chain = exchange -> downstreamCalls.incrementAndGet() == 1
+                ? leaderFailed.asMono().then(Mono.error(new IllegalStateException("обрыв")))
+                : Mono.empty();
+
+        Mono<Void> leader = filter.filter(exchange("/api/card/get-all-cards", "t"), chain).cache();
+        leader.subscribe(ignored -> { }, error -> { });
+        Mono<Void> follower = filter.filter(exchange("/api/card/get-all-cards", "t"), chain).cache();
+        follower.subscribe();
+
+        leaderFailed.tryEmitEmpty();
+        follower.block();
+        assertEquals(2, downstreamCalls.get());
+    }
+
+    private MockServerWebExchange exchange(String path, String token) {
+        MockServerWebExchange exchange = MockServerWebExchange.from(
+                MockServerHttpRequest.get(path).header("Authorization", token));
+        exchange.getAttributes().put(ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR, route);
+        return exchange;
+    }
+}
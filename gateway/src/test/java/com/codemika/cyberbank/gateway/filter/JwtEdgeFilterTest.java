@@ -0,0 +1,45 @@
+package com.codemika.cyberbank.gateway.filter;
+
+import com.codemika.cyberbank.gateway.util.JwtUtil;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JwtEdgeFilterTest {
+    private final JwtEdgeFilter filter = new JwtEdgeFilter(new JwtUtil(), "");
+
+    @Test
+    void encodedInternalPathIsRejected() {
+        AtomicInteger downstreamCalls = new AtomicInteger();
+        GatewayFilterChain chain = exchange -> {
+            downstreamCalls.incrementAndGet();
+            return Mono.empty();
+        };
+
+        for (String path : new String[]{"/api/card/%69nternal/metrics", "/api/auth/%69nternal/revocations",
+                "/api/auth/INTERNAL/traces", "/api/card/internal;x=1/metrics", "/api/card/get-all-cards/../internal/traces"}) {
+            MockServerWebExchange exchange = MockServerWebExchange.from(
+                    MockServerHttpRequest.method(HttpMethod.GET, URI.create(path)));
+            filter.filter(exchange, chain).block();
+            assertEquals(HttpStatus.NOT_FOUND, exchange.getResponse().getStatusCode(), path);
+        }
+        assertEquals(0, downstreamCalls.get());
+    }
+
+    @Test
+    void internalPathCheckLooksAtWholeSegments() {
+        assertTrue(JwtEdgeFilter.isInternalPath("/api/auth/internal/revocations"));
+        assertTrue(JwtEdgeFilter.isInternalPath("/api/auth/%2569nternal/x/%"), "нераскодируемый путь не пропускается");
+        assertFalse(JwtEdgeFilter.isInternalPath("/api/card/get-all-cards"));
+        assertFalse(JwtEdgeFilter.isInternalPath("/api/auth/internals"));
+    }
+}
@@ -0,0 +1,53 @@
+package com.codemika.cyberbank.gateway.filter;
+
+import com.codemika.cyberbank.gateway.config.ResilienceProperties;
+import com.codemika.cyberbank.gateway.metrics.GatewayMetrics;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.support.ServerWebExchangeUtils;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResilienceFilterTest {
+    private final Route route = Route.async().id("card").uri("http://card").predicate(exchange -> true).build();
+
+    @Test
+    void cancelledTrialDoesNotLeaveBreakerHalfOpen() {
+        ResilienceProperties properties = new ResilienceProperties();
+        ResilienceProperties.Policy policy = new ResilienceProperties.Policy();
+        policy.setMinimumCalls(1);
+        policy.setOpenMs(0);
+        policy.setHalfOpenCalls(1);
+        properties.setDefaultPolicy(policy);
+        ResilienceFilter filter = new ResilienceFilter(properties, new GatewayMetrics());
+
+        GatewayFilterChain failing = exchange -> {
+            exchange.getResponse().setStatusCode(HttpStatus.INTERNAL_SERVER_ERROR);
+            return Mono.empty();
+        };
+        filter.filter(exchange(), failing).block();
+
+        // пробный запрос, который клиент бросил, не дождавшись ответа
+        Disposable trial = filter.filter(exchange(), exchange -> Mono.never()).subscribe();
+        trial.dispose();
+
+        MockServerWebExchange next = exchange();
+        filter.filter(next, exchange -> {
+            exchange.getResponse().setStatusCode(HttpStatus.OK);
+            return Mono.empty();
+        }).block();
+        assertEquals(HttpStatus.OK, next.getResponse().getStatusCode());
+    }
+
+    private MockServerWebExchange exchange() {
+        MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/api/card/get-all-cards"));
+        exchange.getAttributes().put(ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR, route);
+        return exchange;
+    }
+}
@@ -0,0 +1,28 @@
+package com.codemika.cyberbank.gateway.filter;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ResponseCacheFilterTest {
+
+    @Test
+    void cacheControlShortensOrForbidsCaching() {
+        assertEquals(TimeUnit.SECONDS.toNanos(5), ResponseCacheFilter.ttlNanos(5000, new HttpHeaders()));
+
+        HttpHeaders maxAge = new HttpHeaders();
+        maxAge.setCacheControl("private, max-age=2");
+        assertEquals(TimeUnit.SECONDS.toNanos(2), ResponseCacheFilter.ttlNanos(5000, maxAge));
+
+        HttpHeaders noStore = new HttpHeaders();
+        noStore.setCacheControl("no-store");
+        assertEquals(0, ResponseCacheFilter.ttlNanos(5000, noStore));
+
+        HttpHeaders cookie = new HttpHeaders();
+        cookie.add(HttpHeaders.SET_COOKIE, "session=1");
+        assertEquals(0, ResponseCacheFilter.ttlNanos(5000, cookie));
+    }
+}
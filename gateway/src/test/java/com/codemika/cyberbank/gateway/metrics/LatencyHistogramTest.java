@@ -0,0 +1,52 @@
+package com.codemika.cyberbank.gateway.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTest {
+
+    @Test
+    void everyValueFallsIntoItsBucket() {
+        for (long micros = 0; micros < 1_000_000; micros += 37) {
+            int index = LatencyHistogram.index(micros);
+            assertTrue(micros < LatencyHistogram.upperBound(index), "значение " + micros);
+            assertTrue(index == 0 || micros >= LatencyHistogram.upperBound(index - 1), "значение " + micros);
+        }
+    }
+
+    @Test
+    void percentilesAreWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 10_000; micros++) {
+            histogram.record(micros);
+        }
+
+        assertEquals(10_000, histogram.count());
+        assertEquals(10_000L * 10_001 / 2, histogram.sumMicros());
+        assertWithin(5_000, histogram.percentile(0.5));
+        assertWithin(9_900, histogram.percentile(0.99));
+        assertEquals(0, new LatencyHistogram().percentile(0.99));
+    }
+
+    @Test
+    void scrapeWritesCumulativeBucketsAndQuantiles() {
+        GatewayMetrics metrics = new GatewayMetrics();
+        LatencyHistogram histogram = metrics.histogram("gateway_request_duration_seconds", "route", "card");
+        histogram.record(100);
+        histogram.record(3_000_000);
+
+        String scrape = metrics.scrape();
+
+        assertTrue(scrape.contains("# TYPE gateway_request_duration_seconds histogram\n"));
+        assertTrue(scrape.contains("gateway_request_duration_seconds_bucket{route=\"card\",le=\"1.28E-4\"} 1\n"));
+        assertTrue(scrape.contains("gateway_request_duration_seconds_bucket{route=\"card\",le=\"+Inf\"} 2\n"));
+        assertTrue(scrape.contains("gateway_request_duration_seconds_count{route=\"card\"} 2\n"));
+        assertTrue(scrape.contains("# TYPE gateway_request_duration_seconds_quantile gauge\n"));
+        assertTrue(scrape.contains("gateway_request_duration_seconds_quantile{route=\"card\",quantile=\"0.5\"}"));
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(actual >= expected && actual <= expected * 1.125 + 1, "ожидалось около " + expected + ", получено " + actual);
+    }
+}
@@ -0,0 +1,80 @@
+package com.codemika.cyberbank.gateway.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CircuitBreakerTest {
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    void opensOnFailureRateAndClosesAfterSuccessfulTrial() {
+        CircuitBreaker breaker = new CircuitBreaker(0.5, 4, 10 * SECOND, 5 * SECOND, 1, 10 * SECOND, 0);
+
+        breaker.onSuccess(1);
+        breaker.onFailure(2);
+        breaker.onFailure(3);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState(), "меньше minimumCalls - не открывается");
+        breaker.onFailure(4);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire(SECOND));
+
+        long reopened = 5 * SECOND + 4;
+        assertTrue(breaker.tryAcquire(reopened));
+        assertFalse(breaker.tryAcquire(reopened), "пробный запрос только один");
+        breaker.onSuccess(reopened);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquire(reopened));
+    }
+
+    @Test
+    void failedTrialOpensAgain() {
+        CircuitBreaker breaker = new CircuitBreaker(0.5, 1, 10 * SECOND, SECOND, 2, 10 * SECOND, 0);
+        breaker.onFailure(0);
+        assertTrue(breaker.tryAcquire(SECOND));
+
+        breaker.onFailure(SECOND);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire(SECOND + 1));
+        assertEquals(SECOND - 1, breaker.remainingOpenNanos(SECOND + 1));
+    }
+
+    @Test
+    void releasedTrialPermitGoesToTheNextRequest() {
+        CircuitBreaker breaker = new CircuitBreaker(0.5, 1, 10 * SECOND, SECOND, 1, 10 * SECOND, 0);
+        breaker.onFailure(0);
+        assertTrue(breaker.tryAcquire(SECOND));
+        assertFalse(breaker.tryAcquire(SECOND));
+        assertFalse(breaker.tryAcquire(SECOND), "отказы не уводят число разрешений ниже нуля");
+
+        breaker.release();
+
+        assertTrue(breaker.tryAcquire(SECOND + 1));
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+    }
+
+    @Test
+    void hungTrialOpensAgainAfterTimeout() {
+        CircuitBreaker breaker = new CircuitBreaker(0.5, 1, 10 * SECOND, SECOND, 1, 2 * SECOND, 0);
+        breaker.onFailure(0);
+        assertTrue(breaker.tryAcquire(SECOND));
+
+        assertFalse(breaker.tryAcquire(2 * SECOND), "проба ещё может ответить");
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire(3 * SECOND + 1));
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        assertTrue(breaker.tryAcquire(4 * SECOND + 1), "после открытия - новая проба");
+    }
+
+    @Test
+    void oldFailuresLeaveWithTheWindow() {
+        CircuitBreaker breaker = new CircuitBreaker(0.5, 2, SECOND, SECOND, 1, 10 * SECOND, 0);
+        breaker.onFailure(0);
+        // без сброса окна было бы 2 ошибки из 4
+        breaker.onSuccess(2 * SECOND);
+        breaker.onSuccess(2 * SECOND + 1);
+        breaker.onFailure(2 * SECOND + 2);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+}
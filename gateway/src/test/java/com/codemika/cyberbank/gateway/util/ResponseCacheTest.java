@@ -0,0 +1,83 @@
+package com.codemika.cyberbank.gateway.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResponseCacheTest {
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    void expiredAndOutdatedEntriesAreNotServed() {
+        ResponseCache cache = new ResponseCache(10, 2000);
+        cache.put("a", entry("card", 1L, 0));
+        cache.put("b", entry("authentication", 1L, 0));
+
+        assertNotNull(cache.get("a", SECOND / 2));
+        assertNull(cache.get("a", 2 * SECOND));
+
+        cache.put("a", entry("card", 1L, 0));
+        cache.invalidate("card", 1L, SECOND / 4);
+        assertNull(cache.get("a", SECOND / 2));
+        assertNotNull(cache.get("b", SECOND / 2));
+
+        // ответ на запрос, начатый до изменения, не сохраняется, даже если пришёл после него
+        cache.put("a", entry("card", 1L, 0));
+        assertNull(cache.get("a", SECOND / 2));
+    }
+
+    @Test
+    void changeInvalidatesOnlyTheSameUser() {
+        ResponseCache cache = new ResponseCache(10, 2000);
+        cache.put("a", entry("card", 1L, 0));
+        cache.put("b", entry("card", 2L, 0));
+        cache.put("c", entry("card", null, 0));
+
+        cache.invalidate("card", 1L, SECOND / 4);
+
+        assertNull(cache.get("a", SECOND / 2));
+        assertNotNull(cache.get("b", SECOND / 2));
+        assertNotNull(cache.get("c", SECOND / 2));
+    }
+
+    @Test
+    void oldInvalidationsAreDroppedWithoutReviving() {
+        ResponseCache cache = new ResponseCache(1, 1000);
+        cache.put("a", new ResponseCache.Entry("card", 1L, 0, 0, 10 * SECOND, "application/json", new byte[]{1}));
+        cache.invalidate("card", 1L, SECOND / 4);
+        // записи об изменениях больше maxEntries - старые удаляются
+        cache.invalidate("card", 2L, 3 * SECOND);
+        cache.invalidate("card", 3L, 3 * SECOND);
+
+        assertNull(cache.get("a", 3 * SECOND));
+    }
+
+    @Test
+    void leastRecentlyUsedIsEvicted() {
+        ResponseCache cache = new ResponseCache(2, 2000);
+        cache.put("a", entry("card", 1L, 0));
+        cache.put("b", entry("card", 2L, 0));
+        cache.get("a", 0);
+        cache.put("c", entry("card", 3L, 0));
+
+        assertNotNull(cache.get("a", 0));
+        assertNull(cache.get("b", 0));
+        assertNotNull(cache.get("c", 0));
+    }
+
+    @Test
+    void purgeByRouteAndUser() {
+        ResponseCache cache = new ResponseCache(10, 2000);
+        cache.put("a", entry("card", 1L, 0));
+        cache.put("b", entry("card", 2L, 0));
+        cache.put("c", entry("authentication", 1L, 0));
+
+        assertEquals(1, cache.purge("card", 1L));
+        assertEquals(1, cache.purge(null, 1L));
+        assertEquals(1, cache.size());
+    }
+
+    private static ResponseCache.Entry entry(String routeId, Long userId, long now) {
+        return new ResponseCache.Entry(routeId, userId, now, now, SECOND, "application/json", new byte[]{1});
+    }
+}
@@ -0,0 +1,61 @@
+package com.codemika.cyberbank.gateway.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenBucketRateLimiterTest {
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    void burstThenRefillAtRate() {
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter();
+        long now = 42 * SECOND;
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, limiter.tryAcquire("login:ip:1", 1, 5, now));
+        }
+        long wait = limiter.tryAcquire("login:ip:1", 1, 5, now);
+        assertEquals(SECOND, wait);
+
+        // другой ключ - своё ведро
+        assertEquals(0, limiter.tryAcquire("login:ip:2", 1, 5, now));
+
+        assertEquals(0, limiter.tryAcquire("login:ip:1", 1, 5, now + wait));
+        assertTrue(limiter.tryAcquire("login:ip:1", 1, 5, now + wait) > 0);
+    }
+
+    @Test
+    void fullBucketsArePurged() {
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter();
+        limiter.tryAcquire("a", 10, 10, 0);
+        limiter.tryAcquire("b", 10, 10, 0);
+
+        limiter.purgeFull(SECOND / 20);
+        assertEquals(2, limiter.size());
+
+        limiter.purgeFull(SECOND);
+        assertEquals(0, limiter.size());
+    }
+
+    @Test
+    void concurrentRequestsNeverExceedBurst() throws InterruptedException {
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter();
+        AtomicInteger allowed = new AtomicInteger();
+        long now = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 10_000; i++) {
+            pool.execute(() -> {
+                if (limiter.tryAcquire("user:1", 0.001, 100, now) == 0) allowed.incrementAndGet();
+            });
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(100, allowed.get());
+    }
+}
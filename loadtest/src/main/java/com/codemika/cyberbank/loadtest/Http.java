@@ -0,0 +1,85 @@
+package com.codemika.cyberbank.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Простой HTTP-клиент на HttpURLConnection (соединения переиспользуются через keep-alive JDK)
+ */
+final class Http {
+    private static final int TIMEOUT_MS = 30_000;
+
+    private Http() {
+    }
+
+    static Response get(String url, String token) throws IOException {
+        return send("GET", url, token, null);
+    }
+
+    static Response post(String url, String token, String json) throws IOException {
+        return send("POST", url, token, json);
+    }
+
+    static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Response send(String method, String url, String token, String json) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(TIMEOUT_MS);
+        connection.setReadTimeout(TIMEOUT_MS);
+        if (token != null) {
+            connection.setRequestProperty("Authorization", token);
+        }
+        if (json != null) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json");
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(json.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        int status = connection.getResponseCode();
+        InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        // ответ дочитывается до конца, иначе соединение не вернётся в keep-alive
+        String body = "";
+        if (in != null) {
+            try (InputStream stream = in) {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                byte[] chunk = new byte[4096];
+                int read;
+                while ((read = stream.read(chunk)) > 0) {
+                    buffer.write(chunk, 0, read);
+                }
+                body = new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+            }
+        }
+        return new Response(status, body);
+    }
+
+    static final class Response {
+        final int status;
+        final String body;
+
+        Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        boolean isOk() {
+            return status >= 200 && status < 300;
+        }
+    }
+}
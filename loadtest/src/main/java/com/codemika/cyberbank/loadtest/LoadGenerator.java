@@ -0,0 +1,96 @@
+package com.codemika.cyberbank.loadtest;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Нагрузка по открытой модели: запросы отправляются по расписанию с заданной частотой, независимо от того,
+ * ответил ли сервис на предыдущие. Задержка считается от запланированного времени, поэтому медленный сервис
+ * не прячет свои задержки, замедляя поток запросов (coordinated omission).
+ */
+final class LoadGenerator implements AutoCloseable {
+    private final LoadTestConfig config;
+    private final TestData data;
+    private final Scenario[] wheel;
+    private final ExecutorService workers;
+    private final Semaphore inFlight;
+
+    LoadGenerator(LoadTestConfig config, TestData data) {
+        this.config = config;
+        this.data = data;
+        this.workers = Executors.newFixedThreadPool(config.maxInFlight);
+        this.inFlight = new Semaphore(config.maxInFlight);
+
+        // сценарий выбирается случайной ячейкой: каждый занимает столько ячеек, какова его доля
+        List<Scenario> cells = new ArrayList<>();
+        for (Map.Entry<Scenario, Integer> entry : config.mix.entrySet()) {
+            for (int i = 0; i < entry.getValue(); i++) {
+                cells.add(entry.getKey());
+            }
+        }
+        this.wheel = cells.toArray(new Scenario[0]);
+    }
+
+    /**
+     * Нагрузка в течение заданного времени; возвращается после ответов на все отправленные запросы
+     *
+     * @param seconds длительность (с)
+     * @return результаты по сценариям
+     */
+    Map<Scenario, ScenarioStats> run(int seconds) throws InterruptedException {
+        Map<Scenario, ScenarioStats> stats = new EnumMap<>(Scenario.class);
+        for (Scenario scenario : config.mix.keySet()) {
+            stats.put(scenario, new ScenarioStats(scenario.title));
+        }
+
+        long interval = TimeUnit.SECONDS.toNanos(1) / config.rate;
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        for (long next = start; next < end; next += interval) {
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+
+            Scenario scenario = wheel[ThreadLocalRandom.current().nextInt(wheel.length)];
+            ScenarioStats scenarioStats = stats.get(scenario);
+            if (!inFlight.tryAcquire()) {
+                scenarioStats.dropped();
+                continue;
+            }
+            long scheduled = next;
+            workers.execute(() -> {
+                try {
+                    Http.Response response = scenario.call(data);
+                    scenarioStats.record(response.status, micros(scheduled));
+                } catch (Exception e) {
+                    scenarioStats.failed(micros(scheduled));
+                } finally {
+                    inFlight.release();
+                }
+            });
+        }
+
+        // ждём ответов на все отправленные запросы
+        inFlight.acquire(config.maxInFlight);
+        inFlight.release(config.maxInFlight);
+        return stats;
+    }
+
+    private static long micros(long scheduledNanos) {
+        return TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - scheduledNanos);
+    }
+
+    @Override
+    public void close() {
+        workers.shutdownNow();
+    }
+}
@@ -0,0 +1,58 @@
+package com.codemika.cyberbank.loadtest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Параметры нагрузочного теста (системные свойства -Dloadtest.*)
+ */
+public class LoadTestConfig {
+    /**
+     * БД: пусто - встроенный PostgreSQL, иначе адрес своей (локальной) БД
+     */
+    final String jdbcUrl = System.getProperty("loadtest.jdbc-url", "");
+    final String username = System.getProperty("loadtest.username", "postgres");
+    final String password = System.getProperty("loadtest.password", "postgres");
+
+    /**
+     * Сколько пользователей (у каждого одна дебетовая карта) и сколько денег на каждой карте
+     */
+    final int users = Integer.getInteger("loadtest.users", 200);
+    final long balance = Long.getLong("loadtest.balance", 1_000_000L);
+
+    /**
+     * Открытая модель: запросы приходят с заданной частотой, не дожидаясь ответов на предыдущие
+     */
+    final int rate = Integer.getInteger("loadtest.rate", 200);
+    final int warmupSeconds = Integer.getInteger("loadtest.warmup-s", 10);
+    final int durationSeconds = Integer.getInteger("loadtest.duration-s", 60);
+
+    /**
+     * Больше запросов одновременно не отправляется: лишние считаются отброшенными, а не ждут очереди
+     */
+    final int maxInFlight = Integer.getInteger("loadtest.max-in-flight", 256);
+
+    /**
+     * Доли сценариев в потоке запросов, например transfer=50,transfer-by-phone=20,login=20,register=10
+     */
+    final Map<Scenario, Integer> mix = parseMix(
+            System.getProperty("loadtest.mix", "transfer=50,transfer-by-phone=20,login=20,register=10"));
+
+    private static Map<Scenario, Integer> parseMix(String mix) {
+        Map<Scenario, Integer> result = new LinkedHashMap<>();
+        for (String part : mix.split(",")) {
+            String[] pair = part.trim().split("=");
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("Неверная доля сценария: " + part);
+            }
+            int weight = Integer.parseInt(pair[1].trim());
+            if (weight > 0) {
+                result.put(Scenario.byName(pair[0].trim()), weight);
+            }
+        }
+        if (result.isEmpty()) {
+            throw new IllegalArgumentException("Не задано ни одного сценария: " + mix);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,112 @@
+package com.codemika.cyberbank.loadtest;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Сквозной нагрузочный тест authentication и card без общей БД в облаке.
+ * Поднимает встроенный PostgreSQL (или берёт локальный, -Dloadtest.jdbc-url), запускает оба сервиса из их
+ * исполняемых jar (сервисы находят друг друга без эврики, по заданным адресам), создаёт пользователей и карты,
+ * даёт нагрузку переводами, входом и регистрацией и печатает пропускную способность и перцентили задержек.
+ * В конце проверяет, что сумма денег на всех картах не изменилась: переводы деньги только перекладывают.
+ * <p>
+ * Запуск (после mvn package): java -jar loadtest/target/loadtest.jar, параметры - см. LoadTestConfig.
+ * Код выхода 1, если деньги не сошлись.
+ */
+public class LoadTestRunner {
+    public static void main(String[] args) throws Exception {
+        LoadTestConfig config = new LoadTestConfig();
+        Path servicesDir = servicesDir();
+
+        EmbeddedPostgres postgres = null;
+        List<ServiceProcess> services = new ArrayList<>();
+        boolean conserved;
+        try {
+            String jdbcUrl = config.jdbcUrl;
+            if (jdbcUrl.isEmpty()) {
+                postgres = EmbeddedPostgres.builder().start();
+                jdbcUrl = postgres.getJdbcUrl(config.username, "postgres");
+                System.out.println("Встроенный PostgreSQL: " + jdbcUrl);
+            }
+            TestData.createSchemas(jdbcUrl, config.username, config.password);
+
+            int authPort = ServiceProcess.freePort();
+            int cardPort = ServiceProcess.freePort();
+            List<String> common = Arrays.asList(
+                    "--spring.datasource.url=" + jdbcUrl,
+                    "--spring.datasource.username=" + config.username,
+                    "--spring.datasource.password=" + config.password,
+                    "--eureka.client.enabled=false",
+                    "--spring.cloud.discovery.client.simple.instances.authentication[0].uri=http://localhost:" + authPort,
+                    "--spring.cloud.discovery.client.simple.instances.card[0].uri=http://localhost:" + cardPort);
+
+            List<String> authArgs = new ArrayList<>(common);
+            authArgs.add("--cyberbank.security.subscribers=http://localhost:" + cardPort + "/api/card/internal/revocations");
+            ServiceProcess auth = ServiceProcess.start("authentication", servicesDir.resolve("authentication.jar"),
+                    authPort, "api/auth/internal/traces?limit=1", authArgs, servicesDir.resolve("authentication.log"));
+            services.add(auth);
+            TestData.createRoles(jdbcUrl, config.username, config.password);
+
+            List<String> cardArgs = new ArrayList<>(common);
+            cardArgs.add("--cyberbank.security.revocations-url=http://localhost:" + authPort + "/api/auth/internal/revocations");
+            ServiceProcess card = ServiceProcess.start("card", servicesDir.resolve("card.jar"),
+                    cardPort, "api/card/internal/traces?limit=1", cardArgs, servicesDir.resolve("card.log"));
+            services.add(card);
+            System.out.println("Сервисы запущены: authentication :" + authPort + ", card :" + cardPort);
+
+            TestData data = TestData.seed(config, auth, card, jdbcUrl, config.username, config.password);
+            long moneyBefore = TestData.totalMoney(jdbcUrl, config.username, config.password);
+            System.out.printf("Создано пользователей и карт: %d, денег на картах: %d%n", data.users.size(), moneyBefore);
+
+            try (LoadGenerator generator = new LoadGenerator(config, data)) {
+                System.out.printf("Прогрев: %d с, %d запросов/с%n", config.warmupSeconds, config.rate);
+                generator.run(config.warmupSeconds);
+
+                System.out.printf("Замер: %d с, %d запросов/с, доли %s%n", config.durationSeconds, config.rate, config.mix);
+                Map<Scenario, ScenarioStats> stats = generator.run(config.durationSeconds);
+
+                System.out.println(ScenarioStats.header());
+                for (ScenarioStats scenarioStats : stats.values()) {
+                    System.out.println(scenarioStats.report(config.durationSeconds));
+                }
+            }
+
+            long moneyAfter = TestData.totalMoney(jdbcUrl, config.username, config.password);
+            conserved = moneyAfter == moneyBefore;
+            System.out.printf("Денег на картах: было %d, стало %d - %s%n", moneyBefore, moneyAfter,
+                    conserved ? "сходится" : "НЕ СХОДИТСЯ (разница " + (moneyAfter - moneyBefore) + ")");
+        } finally {
+            for (int i = services.size() - 1; i >= 0; i--) {
+                services.get(i).close();
+            }
+            if (postgres != null) {
+                postgres.close();
+            }
+        }
+        System.exit(conserved ? 0 : 1);
+    }
+
+    /**
+     * Папка с исполняемыми jar сервисов: -Dloadtest.services-dir или services рядом с loadtest.jar
+     */
+    private static Path servicesDir() throws Exception {
+        String configured = System.getProperty("loadtest.services-dir");
+        if (configured != null) {
+            return Paths.get(configured);
+        }
+        Path jar = Paths.get(LoadTestRunner.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        // target/loadtest.jar или target/classes - services лежит в target
+        Path dir = jar.getParent().resolve("services");
+        if (!Files.isDirectory(dir)) {
+            throw new IllegalStateException("Нет папки с jar сервисов " + dir + " (mvn package или -Dloadtest.services-dir)");
+        }
+        return dir;
+    }
+}
@@ -0,0 +1,87 @@
+package com.codemika.cyberbank.loadtest;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Сценарии нагрузки: один вызов - один запрос к сервису
+ */
+enum Scenario {
+    /**
+     * Перевод по номеру карты на карту другого пользователя
+     */
+    TRANSFER("transfer") {
+        @Override
+        Http.Response call(TestData data) throws IOException {
+            TestData.User sender = data.randomUser();
+            TestData.User recipient = data.randomOtherUser(sender);
+            return Http.post(data.card.url("api/card/money-transfer"
+                    + "?pincode=" + TestData.PINCODE
+                    + "&senderAccountNumber=" + sender.accountNumber
+                    + "&value=" + amount()
+                    + "&receivingAccountNumber=" + recipient.accountNumber), sender.token, null);
+        }
+    },
+
+    /**
+     * Перевод по номеру телефона (сервис карт спрашивает у authentication, чей это номер)
+     */
+    TRANSFER_BY_PHONE("transfer-by-phone") {
+        @Override
+        Http.Response call(TestData data) throws IOException {
+            TestData.User sender = data.randomUser();
+            TestData.User recipient = data.randomOtherUser(sender);
+            return Http.post(data.card.url("api/card/money-transfer-by-phone"
+                    + "?pincode=" + TestData.PINCODE
+                    + "&senderAccountNumber=" + sender.accountNumber
+                    + "&value=" + amount()
+                    + "&recPhone=" + Http.encode(recipient.phone)), sender.token, null);
+        }
+    },
+
+    /**
+     * Вход по телефону и паролю (проверка BCrypt и запрос карт пользователя у сервиса карт)
+     */
+    LOGIN("login") {
+        @Override
+        Http.Response call(TestData data) throws IOException {
+            TestData.User user = data.randomUser();
+            return Http.get(data.auth.url("api/auth/login?phone=" + Http.encode(user.phone)
+                    + "&pass=" + Http.encode(TestData.PASSWORD)), null);
+        }
+    },
+
+    /**
+     * Регистрация нового пользователя
+     */
+    REGISTER("register") {
+        @Override
+        Http.Response call(TestData data) throws IOException {
+            return Http.post(data.auth.url("api/auth/register"), null, data.registration(data.newPhone()));
+        }
+    };
+
+    final String title;
+
+    Scenario(String title) {
+        this.title = title;
+    }
+
+    abstract Http.Response call(TestData data) throws IOException;
+
+    static Scenario byName(String title) {
+        for (Scenario scenario : values()) {
+            if (scenario.title.equals(title)) {
+                return scenario;
+            }
+        }
+        throw new IllegalArgumentException("Неизвестный сценарий: " + title);
+    }
+
+    /**
+     * Сумма перевода: мелкая, чтобы деньги на картах не кончались за время теста
+     */
+    private static long amount() {
+        return 1 + ThreadLocalRandom.current().nextInt(100);
+    }
+}
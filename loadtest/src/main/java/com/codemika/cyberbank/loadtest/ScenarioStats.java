@@ -0,0 +1,80 @@
+package com.codemika.cyberbank.loadtest;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Результаты одного сценария: исходы запросов и задержки (от запланированного времени отправки,
+ * поэтому ожидание свободного потока тоже входит в задержку)
+ */
+final class ScenarioStats {
+    final String name;
+    private final LongAdder success = new LongAdder();
+    private final LongAdder clientErrors = new LongAdder();
+    private final LongAdder serverErrors = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    private long[] latencies = new long[1024];
+    private int size;
+
+    ScenarioStats(String name) {
+        this.name = name;
+    }
+
+    void record(int status, long latencyMicros) {
+        if (status >= 500) {
+            serverErrors.increment();
+        } else if (status >= 400) {
+            clientErrors.increment();
+        } else {
+            success.increment();
+        }
+        addLatency(latencyMicros);
+    }
+
+    /**
+     * Запрос не получил ответа (таймаут, обрыв соединения)
+     */
+    void failed(long latencyMicros) {
+        failures.increment();
+        addLatency(latencyMicros);
+    }
+
+    /**
+     * Запрос не отправлен: одновременно уже отправлено максимальное число запросов
+     */
+    void dropped() {
+        dropped.increment();
+    }
+
+    private synchronized void addLatency(long latencyMicros) {
+        if (size == latencies.length) {
+            latencies = Arrays.copyOf(latencies, size * 2);
+        }
+        latencies[size++] = latencyMicros;
+    }
+
+    static String header() {
+        return String.format("%-18s %8s %8s %8s %6s %6s %6s %7s %9s %9s %9s %9s %9s",
+                "сценарий", "запросов", "в сек", "2xx", "4xx", "5xx", "ошибок", "отброш.",
+                "p50 мс", "p90 мс", "p99 мс", "p99.9 мс", "max мс");
+    }
+
+    synchronized String report(double seconds) {
+        long[] sorted = Arrays.copyOf(latencies, size);
+        Arrays.sort(sorted);
+        return String.format("%-18s %8d %8.1f %8d %6d %6d %6d %7d %9.1f %9.1f %9.1f %9.1f %9.1f",
+                name, size, size / seconds, success.sum(), clientErrors.sum(), serverErrors.sum(), failures.sum(), dropped.sum(),
+                percentile(sorted, 0.5), percentile(sorted, 0.9), percentile(sorted, 0.99),
+                percentile(sorted, 0.999), sorted.length == 0 ? 0 : sorted[sorted.length - 1] / 1000.0);
+    }
+
+    private static double percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(quantile * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1000.0;
+    }
+}
@@ -0,0 +1,90 @@
+package com.codemika.cyberbank.loadtest;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сервис, запущенный отдельным процессом из своего исполняемого jar
+ */
+final class ServiceProcess implements AutoCloseable {
+    private static final long START_TIMEOUT_MS = 180_000;
+
+    final String name;
+    final int port;
+    private final Process process;
+
+    private ServiceProcess(String name, int port, Process process) {
+        this.name = name;
+        this.port = port;
+        this.process = process;
+    }
+
+    /**
+     * Запуск сервиса и ожидание, пока он не начнёт отвечать
+     *
+     * @param name      имя сервиса (для сообщений и файла журнала)
+     * @param jar       исполняемый jar сервиса
+     * @param port      порт сервиса
+     * @param readyPath путь, который отвечает, когда сервис готов
+     * @param args      свойства Spring (--ключ=значение)
+     * @param log       файл для вывода сервиса
+     * @return запущенный сервис
+     */
+    static ServiceProcess start(String name, Path jar, int port, String readyPath, List<String> args, Path log)
+            throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + "/bin/java");
+        command.add("-jar");
+        command.add(jar.toString());
+        command.add("--server.port=" + port);
+        command.addAll(args);
+
+        Process process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(log.toFile())
+                .start();
+        ServiceProcess service = new ServiceProcess(name, port, process);
+        service.awaitReady(readyPath, log);
+        return service;
+    }
+
+    String url(String path) {
+        return "http://localhost:" + port + "/" + path;
+    }
+
+    private void awaitReady(String readyPath, Path log) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + START_TIMEOUT_MS;
+        while (System.currentTimeMillis() < deadline) {
+            if (!process.isAlive()) {
+                throw new IllegalStateException("Сервис " + name + " завершился при запуске, см. " + log);
+            }
+            try {
+                Http.get(url(readyPath), null);
+                return;
+            } catch (IOException e) {
+                Thread.sleep(500);
+            }
+        }
+        close();
+        throw new IllegalStateException("Сервис " + name + " не запустился за " + START_TIMEOUT_MS / 1000
+                + " с, см. " + log);
+    }
+
+    static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        process.destroy();
+        if (!process.waitFor(30, TimeUnit.SECONDS)) {
+            process.destroyForcibly();
+        }
+    }
+}
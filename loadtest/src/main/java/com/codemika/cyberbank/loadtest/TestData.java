@@ -0,0 +1,195 @@
+package com.codemika.cyberbank.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Синтетические пользователи и карты.
+ * Пользователи регистрируются и создают карты через API (так же, как настоящие), деньги на карты кладутся
+ * напрямую в БД - пополнения в API нет.
+ */
+final class TestData {
+    static final String PASSWORD = "LoadTest#2023";
+    static final String PINCODE = "3856";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final int SEED_THREADS = 16;
+
+    final ServiceProcess auth;
+    final ServiceProcess card;
+    final List<User> users;
+    private final AtomicLong nextPhone;
+
+    private TestData(ServiceProcess auth, ServiceProcess card, List<User> users, AtomicLong nextPhone) {
+        this.auth = auth;
+        this.card = card;
+        this.users = users;
+        this.nextPhone = nextPhone;
+    }
+
+    /**
+     * Схемы сервисов и их liquibase (сервисы создают таблицы сами, а схемы - нет)
+     */
+    static void createSchemas(String jdbcUrl, String username, String password) throws SQLException {
+        try (Connection connection = DriverManager.getConnection(jdbcUrl, username, password);
+             Statement statement = connection.createStatement()) {
+            for (String schema : new String[]{"cyberbank_auth", "auth_liquibase", "cyberbank_card", "card_liquibase"}) {
+                statement.execute("CREATE SCHEMA IF NOT EXISTS " + schema);
+            }
+        }
+    }
+
+    /**
+     * Роли (справочник ролей сервис только читает)
+     */
+    static void createRoles(String jdbcUrl, String username, String password) throws SQLException {
+        try (Connection connection = DriverManager.getConnection(jdbcUrl, username, password);
+             Statement statement = connection.createStatement()) {
+            for (String role : new String[]{"USER", "MODER", "TESTER", "HACKER"}) {
+                statement.execute("INSERT INTO cyberbank_auth.role (role) SELECT '" + role + "' " +
+                        "WHERE NOT EXISTS (SELECT 1 FROM cyberbank_auth.role WHERE role = '" + role + "')");
+            }
+        }
+    }
+
+    /**
+     * Регистрация пользователей, выдача им токенов, создание и пополнение карт
+     */
+    static TestData seed(LoadTestConfig config, ServiceProcess auth, ServiceProcess card,
+                         String jdbcUrl, String username, String password) throws Exception {
+        // номера телефонов каждого запуска свои, чтобы тест можно было повторять на той же БД
+        AtomicLong nextPhone = new AtomicLong(9_000_000_000L + System.currentTimeMillis() / 1000 % 10_000 * 100_000);
+        TestData data = new TestData(auth, card, Collections.emptyList(), nextPhone);
+
+        ExecutorService executor = Executors.newFixedThreadPool(SEED_THREADS);
+        List<User> users = new ArrayList<>();
+        try {
+            List<Callable<User>> tasks = new ArrayList<>();
+            for (int i = 0; i < config.users; i++) {
+                tasks.add(data::createUser);
+            }
+            for (Future<User> user : executor.invokeAll(tasks)) {
+                users.add(user.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        try (Connection connection = DriverManager.getConnection(jdbcUrl, username, password);
+             PreparedStatement statement = connection.prepareStatement(
+                     "UPDATE cyberbank_card.debit_card SET balance = ? WHERE account_number = ?")) {
+            for (User user : users) {
+                statement.setLong(1, config.balance);
+                statement.setString(2, user.accountNumber);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+        return new TestData(auth, card, Collections.unmodifiableList(users), nextPhone);
+    }
+
+    private User createUser() throws IOException {
+        String phone = newPhone();
+        Http.Response registered = Http.post(auth.url("api/auth/register"), null, registration(phone));
+        check(registered, "регистрация " + phone);
+
+        Http.Response tokens = Http.post(auth.url("api/auth/token"), null,
+                MAPPER.createObjectNode().put("phone", phone).put("password", PASSWORD).toString());
+        check(tokens, "выдача токена " + phone);
+        String token = MAPPER.readTree(tokens.body).get("accessToken").asText();
+
+        Http.Response created = Http.post(card.url("api/card/debit/create"), token,
+                MAPPER.createObjectNode().put("title", "Нагрузочная").put("pincode", PINCODE).toString());
+        check(created, "создание карты " + phone);
+        JsonNode cardNode = MAPPER.readTree(created.body);
+        return new User(phone, token, cardNode.get("accountNumber").asText());
+    }
+
+    /**
+     * Тело запроса регистрации нового пользователя
+     *
+     * @param phone номер телефона (он же делает почту уникальной)
+     * @return JSON запроса
+     */
+    String registration(String phone) {
+        return MAPPER.createObjectNode()
+                .put("name", "Иван")
+                .put("surname", "Нагрузкин")
+                .put("patronymic", "Тестович")
+                .put("phone", phone)
+                .put("email", "load" + phone + "@cyberbank.test")
+                .put("password", PASSWORD)
+                .toString();
+    }
+
+    String newPhone() {
+        return "8" + nextPhone.getAndIncrement();
+    }
+
+    User randomUser() {
+        return users.get(ThreadLocalRandom.current().nextInt(users.size()));
+    }
+
+    /**
+     * Случайный пользователь, кроме указанного
+     */
+    User randomOtherUser(User user) {
+        if (users.size() < 2) {
+            throw new IllegalStateException("Для переводов нужно хотя бы два пользователя");
+        }
+        User other;
+        do {
+            other = randomUser();
+        } while (other == user);
+        return other;
+    }
+
+    /**
+     * Сумма денег на всех картах
+     */
+    static long totalMoney(String jdbcUrl, String username, String password) throws SQLException {
+        try (Connection connection = DriverManager.getConnection(jdbcUrl, username, password);
+             Statement statement = connection.createStatement();
+             ResultSet result = statement.executeQuery(
+                     "SELECT (SELECT COALESCE(SUM(balance), 0) FROM cyberbank_card.debit_card) " +
+                             "+ (SELECT COALESCE(SUM(balance), 0) FROM cyberbank_card.credit_card)")) {
+            result.next();
+            return result.getLong(1);
+        }
+    }
+
+    private static void check(Http.Response response, String action) {
+        if (!response.isOk()) {
+            throw new IllegalStateException("Ошибка (" + action + "): " + response.status + " " + response.body);
+        }
+    }
+
+    static final class User {
+        final String phone;
+        final String token;
+        final String accountNumber;
+
+        User(String phone, String token, String accountNumber) {
+            this.phone = phone;
+            this.token = token;
+            this.accountNumber = accountNumber;
+        }
+    }
+}
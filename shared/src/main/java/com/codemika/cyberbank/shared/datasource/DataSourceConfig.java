@@ -0,0 +1,81 @@
+package com.codemika.cyberbank.shared.datasource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Основная БД и реплики для чтения. Включается, только если заданы cyberbank.datasource.replica-urls,
+ * иначе источник данных создаёт Spring Boot, как раньше.
+ * Требует spring.jpa.open-in-view: false: иначе сессия Hibernate держит соединение первой транзакции запроса
+ * до его конца, и запись после чтения ушла бы в соединение реплики.
+ */
+@Configuration
+@ConditionalOnExpression("'${cyberbank.datasource.replica-urls:}' != ''")
+public class DataSourceConfig {
+    /**
+     * Основная БД (spring.datasource.*, настройки пула - spring.datasource.hikari.*)
+     */
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        HikariDataSource dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        dataSource.setPoolName("primary");
+        return dataSource;
+    }
+
+    /**
+     * Реплики: те же пользователь и пароль, что и у основной БД, свой пул на каждую
+     */
+    @Bean(destroyMethod = "close")
+    public ReplicaRoutingDataSource routingDataSource(
+            HikariDataSource primaryDataSource,
+            DataSourceProperties properties,
+            @Value("${cyberbank.datasource.replica-urls}") String replicaUrls,
+            @Value("${cyberbank.datasource.replica-pool-size:10}") int poolSize,
+            @Value("${cyberbank.datasource.max-lag-ms:1000}") long maxLagMillis,
+            @Value("${cyberbank.datasource.lag-check-ms:1000}") long checkMillis,
+            @Value("${cyberbank.datasource.read-your-writes-ms:1000}") long readYourWritesMillis,
+            @Value("${spring.jpa.open-in-view:true}") boolean openInView) {
+        if (openInView) {
+            throw new IllegalStateException("Реплики для чтения (cyberbank.datasource.replica-urls) работают только " +
+                    "с spring.jpa.open-in-view: false");
+        }
+        List<DataSource> replicas = new ArrayList<>();
+        for (String url : replicaUrls.split(",")) {
+            if (url.trim().isEmpty()) {
+                continue;
+            }
+            HikariDataSource replica = properties.initializeDataSourceBuilder()
+                    .type(HikariDataSource.class)
+                    .url(url.trim())
+                    .build();
+            replica.setPoolName("replica-" + replicas.size());
+            replica.setMaximumPoolSize(poolSize);
+            replica.setReadOnly(true);
+            replicas.add(replica);
+        }
+        return new ReplicaRoutingDataSource(primaryDataSource, replicas, maxLagMillis, checkMillis,
+                new ReadYourWrites(readYourWritesMillis));
+    }
+
+    /**
+     * Источник данных для JPA и liquibase. Соединение берётся при первом запросе к БД, когда уже известно,
+     * только ли для чтения транзакция.
+     */
+    @Bean
+    @Primary
+    public DataSource dataSource(ReplicaRoutingDataSource routingDataSource) {
+        return new LazyConnectionDataSourceProxy(routingDataSource);
+    }
+}
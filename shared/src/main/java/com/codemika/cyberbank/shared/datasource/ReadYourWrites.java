@@ -0,0 +1,88 @@
+package com.codemika.cyberbank.shared.datasource;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Чтение своих записей: после записи чтение идёт в основную БД, а не в реплику, которая могла ещё не получить запись.
+ * Действует до конца запроса, а для того же токена (заголовок Authorization) - ещё window мс после записи,
+ * чтобы следующий запрос клиента тоже увидел то, что он только что изменил.
+ */
+public class ReadYourWrites {
+    private static final String WROTE_ATTRIBUTE = ReadYourWrites.class.getName() + ".wrote";
+
+    private final long windowMillis;
+    private final Map<String, Long> recentWriters = new ConcurrentHashMap<>();
+
+    public ReadYourWrites(long windowMillis) {
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * Всё дальнейшее чтение в текущем запросе - из основной БД (для кода, которому нужны самые свежие данные)
+     */
+    public static void forcePrimary() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes != null) {
+            attributes.setAttribute(WROTE_ATTRIBUTE, Boolean.TRUE, RequestAttributes.SCOPE_REQUEST);
+        }
+    }
+
+    /**
+     * Текущий запрос пишет в БД
+     */
+    void markWrite() {
+        forcePrimary();
+        String writer = writer();
+        if (writer != null && windowMillis > 0) {
+            recentWriters.put(writer, System.currentTimeMillis() + windowMillis);
+        }
+    }
+
+    /**
+     * Должно ли чтение в текущем запросе идти в основную БД
+     */
+    boolean requiresPrimary() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes == null) {
+            return false;
+        }
+        if (attributes.getAttribute(WROTE_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST) != null) {
+            return true;
+        }
+        String writer = writer();
+        if (writer == null) {
+            return false;
+        }
+        Long until = recentWriters.get(writer);
+        if (until == null) {
+            return false;
+        }
+        if (until > System.currentTimeMillis()) {
+            return true;
+        }
+        recentWriters.remove(writer, until);
+        return false;
+    }
+
+    /**
+     * Выбрасывание истёкших отметок (тех, кто после записи больше не приходил)
+     */
+    void purge() {
+        long now = System.currentTimeMillis();
+        recentWriters.values().removeIf(until -> until <= now);
+    }
+
+    private static String writer() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (!(attributes instanceof ServletRequestAttributes)) {
+            return null;
+        }
+        return ((ServletRequestAttributes) attributes).getRequest().getHeader(HttpHeaders.AUTHORIZATION);
+    }
+}
@@ -0,0 +1,164 @@
+package com.codemika.cyberbank.shared.datasource;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Выбор БД для соединения: транзакции только для чтения (@Transactional(readOnly = true), в том числе
+ * find* репозиториев вне других транзакций) идут в реплики по кругу, всё остальное - в основную БД.
+ * Реплика, отстающая больше чем на maxLagMillis (или недоступная), не используется, пока не догонит.
+ * После записи чтение в том же запросе и в запросах с тем же токеном идёт в основную БД (см. ReadYourWrites).
+ * Соединение выбирается при первом запросе к БД, поэтому источник нужно оборачивать
+ * в LazyConnectionDataSourceProxy - иначе JPA берёт соединение раньше, чем становится известно, что транзакция
+ * только для чтения.
+ */
+@Slf4j
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource implements Closeable {
+    static final String PRIMARY = "primary";
+
+    /**
+     * Отставание реплики (мс): 0, если реплика применила всё полученное или это вообще не реплика
+     * (так можно проверить маршрутизацию на двух обычных локальных БД)
+     */
+    private static final String LAG_QUERY = "SELECT CASE WHEN NOT pg_is_in_recovery() " +
+            "OR pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 " +
+            "ELSE EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000 END";
+
+    private final List<Replica> replicas = new ArrayList<>();
+    private final long maxLagMillis;
+    private final ReadYourWrites readYourWrites;
+    private final AtomicInteger next = new AtomicInteger();
+    private final ScheduledExecutorService lagChecker;
+
+    /**
+     * @param primary        основная БД
+     * @param replicas       реплики
+     * @param maxLagMillis   реплика с большим отставанием не используется (мс)
+     * @param checkMillis    как часто проверять отставание (мс)
+     * @param readYourWrites чтение своих записей
+     */
+    public ReplicaRoutingDataSource(DataSource primary, List<DataSource> replicas, long maxLagMillis,
+                                    long checkMillis, ReadYourWrites readYourWrites) {
+        this.maxLagMillis = maxLagMillis;
+        this.readYourWrites = readYourWrites;
+
+        Map<Object, Object> targets = new HashMap<>();
+        targets.put(PRIMARY, primary);
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = new Replica("replica-" + i, replicas.get(i));
+            this.replicas.add(replica);
+            targets.put(replica.key, replica.dataSource);
+        }
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primary);
+        afterPropertiesSet();
+
+        lagChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "replica-lag-checker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (checkMillis > 0) {
+            lagChecker.scheduleWithFixedDelay(this::checkLag, 0, checkMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            if (TransactionSynchronizationManager.isActualTransactionActive()) {
+                readYourWrites.markWrite();
+            }
+            return PRIMARY;
+        }
+        if (readYourWrites.requiresPrimary()) {
+            return PRIMARY;
+        }
+
+        int size = replicas.size();
+        int start = next.getAndIncrement() & Integer.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            Replica replica = replicas.get((start + i) % size);
+            if (replica.lagMillis <= maxLagMillis) {
+                return replica.key;
+            }
+        }
+        return PRIMARY;
+    }
+
+    /**
+     * Проверка отставания всех реплик
+     */
+    void checkLag() {
+        for (Replica replica : replicas) {
+            long lag;
+            try (Connection connection = replica.dataSource.getConnection();
+                 Statement statement = connection.createStatement();
+                 ResultSet result = statement.executeQuery(LAG_QUERY)) {
+                result.next();
+                lag = (long) result.getDouble(1);
+            } catch (Exception e) {
+                log.debug("Реплика " + replica.key + " недоступна: " + e.getMessage());
+                lag = Long.MAX_VALUE;
+            }
+            recordLag(replica, lag);
+        }
+        readYourWrites.purge();
+    }
+
+    void recordLag(int index, long lagMillis) {
+        recordLag(replicas.get(index), lagMillis);
+    }
+
+    private void recordLag(Replica replica, long lagMillis) {
+        boolean wasUsable = replica.lagMillis <= maxLagMillis;
+        boolean usable = lagMillis <= maxLagMillis;
+        replica.lagMillis = lagMillis;
+        if (wasUsable && !usable) {
+            log.warn("Реплика " + replica.key + " отключена: " +
+                    (lagMillis == Long.MAX_VALUE ? "недоступна" : "отстаёт на " + lagMillis + " мс"));
+        } else if (!wasUsable && usable) {
+            log.info("Реплика " + replica.key + " используется, отставание " + lagMillis + " мс");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lagChecker.shutdownNow();
+        for (Replica replica : replicas) {
+            if (replica.dataSource instanceof Closeable) {
+                ((Closeable) replica.dataSource).close();
+            }
+        }
+    }
+
+    private static class Replica {
+        private final String key;
+        private final DataSource dataSource;
+        /**
+         * Пока отставание не проверено, реплика не используется
+         */
+        private volatile long lagMillis = Long.MAX_VALUE;
+
+        private Replica(String key, DataSource dataSource) {
+            this.key = key;
+            this.dataSource = dataSource;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.codemika.cyberbank.shared.loadbalancer;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Статистика запросов к каждому экземпляру сервиса для балансировщика (см. PeakEwmaLoadBalancer).
+ * Для экземпляра хранятся число запросов в работе, peak-EWMA задержки и выключение за ошибки.
+ * Peak-EWMA: медленный ответ сразу поднимает оценку до своей задержки, а быстрые опускают её плавно
+ * (со временем затухания decay) - поэтому экземпляр, который завис на сборке мусора, сразу перестаёт получать запросы.
+ * Экземпляр, ответивший подряд failure-threshold раз ошибкой или дольше slow-threshold, выключается на
+ * ejection-ms, при каждом следующем выключении подряд - на время в 2 раза больше (не больше max-ejection-ms).
+ */
+@Component
+public class InstanceStatistics {
+    private final ConcurrentMap<String, Stats> stats = new ConcurrentHashMap<>();
+    private final CopyOnWriteArrayList<BiConsumer<ServiceInstance, Stats>> listeners = new CopyOnWriteArrayList<>();
+    private final long decayNanos;
+    private final long initialLatencyNanos;
+    private final int failureThreshold;
+    private final long slowNanos;
+    private final long ejectionNanos;
+    private final long maxEjectionNanos;
+
+    public InstanceStatistics(@Value("${cyberbank.load-balancing.decay-ms:10000}") long decayMs,
+                              @Value("${cyberbank.load-balancing.initial-latency-ms:50}") long initialLatencyMs,
+                              @Value("${cyberbank.load-balancing.failure-threshold:5}") int failureThreshold,
+                              @Value("${cyberbank.load-balancing.slow-threshold-ms:2000}") long slowMs,
+                              @Value("${cyberbank.load-balancing.ejection-ms:30000}") long ejectionMs,
+                              @Value("${cyberbank.load-balancing.max-ejection-ms:300000}") long maxEjectionMs) {
+        this.decayNanos = TimeUnit.MILLISECONDS.toNanos(decayMs);
+        this.initialLatencyNanos = TimeUnit.MILLISECONDS.toNanos(initialLatencyMs);
+        this.failureThreshold = failureThreshold;
+        this.slowNanos = TimeUnit.MILLISECONDS.toNanos(slowMs);
+        this.ejectionNanos = TimeUnit.MILLISECONDS.toNanos(ejectionMs);
+        this.maxEjectionNanos = TimeUnit.MILLISECONDS.toNanos(maxEjectionMs);
+    }
+
+    /**
+     * @param instance экземпляр сервиса
+     * @return его статистика (создаётся при первом обращении)
+     */
+    public Stats get(ServiceInstance instance) {
+        String key = key(instance);
+        Stats existing = stats.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        Stats created = new Stats();
+        existing = stats.putIfAbsent(key, created);
+        if (existing != null) {
+            return existing;
+        }
+        listeners.forEach(listener -> listener.accept(instance, created));
+        return created;
+    }
+
+    /**
+     * Подписка на появление нового экземпляра (например, чтобы завести для него метрики)
+     */
+    public void onNewInstance(BiConsumer<ServiceInstance, Stats> listener) {
+        listeners.add(listener);
+    }
+
+    public static String key(ServiceInstance instance) {
+        return instance.getServiceId() + '/' + instance.getHost() + ':' + instance.getPort();
+    }
+
+    /**
+     * Статистика одного экземпляра
+     */
+    public final class Stats {
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private double ewmaNanos;
+        private long stampNanos = System.nanoTime();
+        private int consecutiveFailures;
+        private int ejections;
+        private volatile long ejectedUntilNanos;
+        private volatile boolean ejected;
+
+        /**
+         * Запрос к экземпляру начат
+         */
+        public void start() {
+            outstanding.incrementAndGet();
+        }
+
+        /**
+         * Запрос к экземпляру закончен
+         *
+         * @param latencyNanos задержка ответа
+         * @param failed       экземпляр не ответил или ответил 5xx
+         * @param nowNanos     System.nanoTime()
+         */
+        public synchronized void complete(long latencyNanos, boolean failed, long nowNanos) {
+            outstanding.decrementAndGet();
+            observe(latencyNanos, nowNanos);
+            recordOutcome(failed || latencyNanos > slowNanos, nowNanos);
+        }
+
+        /**
+         * Долгий запрос (импорт, выгрузка) закончен: его задержка не влияет ни на оценку, ни на выключение
+         * за медленные ответы, учитываются только ошибки
+         *
+         * @param failed   экземпляр не ответил или ответил 5xx
+         * @param nowNanos System.nanoTime()
+         */
+        public synchronized void completeUntimed(boolean failed, long nowNanos) {
+            outstanding.decrementAndGet();
+            recordOutcome(failed, nowNanos);
+        }
+
+        private void recordOutcome(boolean bad, long nowNanos) {
+            if (!bad) {
+                consecutiveFailures = 0;
+                ejections = 0;
+                return;
+            }
+            if (++consecutiveFailures >= failureThreshold && !isEjected(nowNanos)) {
+                consecutiveFailures = 0;
+                long duration = Math.min(ejectionNanos << Math.min(ejections, 20), maxEjectionNanos);
+                ejections++;
+                ejectedUntilNanos = nowNanos + duration;
+                ejected = true;
+            }
+        }
+
+        /**
+         * Запрос отменён клиентом: ответа не было, и судить по нему об экземпляре нельзя
+         */
+        public void cancel() {
+            outstanding.decrementAndGet();
+        }
+
+        /**
+         * Стоимость запроса к экземпляру: оценка задержки с учётом уже идущих запросов.
+         * Пока ответов не было, задержка считается равной initial-latency.
+         */
+        public synchronized double cost(long nowNanos) {
+            observe(0, nowNanos);
+            double latency = ewmaNanos > 0 ? ewmaNanos : initialLatencyNanos;
+            return latency * (outstanding.get() + 1);
+        }
+
+        public boolean isEjected(long nowNanos) {
+            if (ejected && nowNanos - ejectedUntilNanos >= 0) {
+                ejected = false;
+            }
+            return ejected;
+        }
+
+        public int getOutstanding() {
+            return outstanding.get();
+        }
+
+        public synchronized double getEwmaNanos() {
+            return ewmaNanos;
+        }
+
+        /**
+         * Peak-EWMA: рост - сразу, спад - экспоненциально по прошедшему времени
+         */
+        private void observe(long latencyNanos, long nowNanos) {
+            long elapsed = Math.max(nowNanos - stampNanos, 0);
+            stampNanos = nowNanos;
+            if (latencyNanos > ewmaNanos) {
+                ewmaNanos = latencyNanos;
+            } else {
+                double weight = Math.exp(-(double) elapsed / decayNanos);
+                ewmaNanos = ewmaNanos * weight + latencyNanos * (1 - weight);
+            }
+        }
+    }
+}
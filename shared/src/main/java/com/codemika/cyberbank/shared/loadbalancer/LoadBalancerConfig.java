@@ -0,0 +1,23 @@
+package com.codemika.cyberbank.shared.loadbalancer;
+
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.loadbalancer.core.ReactorLoadBalancer;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+import org.springframework.cloud.loadbalancer.support.LoadBalancerClientFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.core.env.Environment;
+
+/**
+ * Настройка балансировщика для каждого сервиса (подключается через @LoadBalancerClients).
+ * Без @Configuration: класс создаётся в отдельном контексте каждого сервиса, а не в общем.
+ */
+public class LoadBalancerConfig {
+    @Bean
+    public ReactorLoadBalancer<ServiceInstance> peakEwmaLoadBalancer(Environment environment,
+                                                                     LoadBalancerClientFactory factory,
+                                                                     InstanceStatistics statistics) {
+        String serviceId = environment.getProperty(LoadBalancerClientFactory.PROPERTY_NAME);
+        return new PeakEwmaLoadBalancer(factory.getLazyProvider(serviceId, ServiceInstanceListSupplier.class),
+                statistics);
+    }
+}
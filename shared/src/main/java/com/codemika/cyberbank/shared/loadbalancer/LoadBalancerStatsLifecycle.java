@@ -0,0 +1,72 @@
+package com.codemika.cyberbank.shared.loadbalancer;
+
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.CompletionContext;
+import org.springframework.cloud.client.loadbalancer.LoadBalancerLifecycle;
+import org.springframework.cloud.client.loadbalancer.Request;
+import org.springframework.cloud.client.loadbalancer.Response;
+import org.springframework.cloud.client.loadbalancer.ResponseData;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+
+/**
+ * Статистика запросов к экземплярам сервисов для PeakEwmaLoadBalancer.
+ * RestTemplate с @LoadBalanced выполняет запрос в том же потоке, поэтому время начала хранится в ThreadLocal.
+ */
+@Component
+public class LoadBalancerStatsLifecycle implements LoadBalancerLifecycle<Object, Object, ServiceInstance> {
+    private final ThreadLocal<Long> startNanos = new ThreadLocal<>();
+    private final InstanceStatistics statistics;
+
+    public LoadBalancerStatsLifecycle(InstanceStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    @Override
+    public boolean supports(Class requestContextClass, Class responseClass, Class serverTypeClass) {
+        return ServiceInstance.class.isAssignableFrom(serverTypeClass);
+    }
+
+    @Override
+    public void onStart(Request<Object> request) {
+    }
+
+    @Override
+    public void onStartRequest(Request<Object> request, Response<ServiceInstance> lbResponse) {
+        statistics.get(lbResponse.getServer()).start();
+        startNanos.set(System.nanoTime());
+    }
+
+    @Override
+    public void onComplete(CompletionContext<Object, ServiceInstance, Object> completionContext) {
+        Response<ServiceInstance> lbResponse = completionContext.getLoadBalancerResponse();
+        Long start = startNanos.get();
+        if (lbResponse == null || !lbResponse.hasServer() || start == null) {
+            // экземпляр не нашёлся - запроса не было
+            return;
+        }
+        startNanos.remove();
+        boolean failed = completionContext.status() == CompletionContext.Status.FAILED
+                || isServerError(completionContext.getClientResponse());
+        long now = System.nanoTime();
+        statistics.get(lbResponse.getServer()).complete(now - start, failed, now);
+    }
+
+    private static boolean isServerError(Object response) {
+        if (response instanceof ResponseData) {
+            HttpStatus status = ((ResponseData) response).getHttpStatus();
+            return status != null && status.is5xxServerError();
+        }
+        if (response instanceof ClientHttpResponse) {
+            try {
+                return ((ClientHttpResponse) response).getRawStatusCode() >= 500;
+            } catch (IOException e) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
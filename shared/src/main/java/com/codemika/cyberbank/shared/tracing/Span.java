@@ -0,0 +1,111 @@
+package com.codemika.cyberbank.shared.tracing;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Один участок трассировки (входящий запрос, запрос в БД, BCrypt, запрос в другой сервис).
+ * Контекст передаётся между сервисами в заголовке traceparent (W3C Trace Context):
+ * "00-{traceId, 32 hex}-{spanId, 16 hex}-01".
+ */
+@Getter
+public class Span {
+    public static final String TRACEPARENT_HEADER = "traceparent";
+
+    private final String traceId;
+    private final String spanId;
+    private final String parentId;
+    private final String service;
+    private final String name;
+    private final long startEpochMicros;
+    private final Map<String, String> tags = new LinkedHashMap<>();
+    private volatile long durationMicros = -1;
+    private volatile boolean error;
+
+    @Getter(AccessLevel.NONE)
+    private final long startNanos = System.nanoTime();
+    /**
+     * Участок, который был текущим до этого (в сервисах, см. их Tracer; на шлюзе всегда null)
+     */
+    @Getter(AccessLevel.NONE)
+    private final Span previous;
+
+    Span(String traceId, String parentId, String service, String name, Span previous) {
+        this.traceId = traceId;
+        this.spanId = randomHex(1);
+        this.parentId = parentId;
+        this.service = service;
+        this.name = name;
+        this.previous = previous;
+        this.startEpochMicros = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+    }
+
+    /**
+     * Новая трассировка или продолжение входящей
+     *
+     * @param traceparent заголовок traceparent (может быть null или неверным - тогда новая трассировка)
+     */
+    public static Span fromTraceparent(String traceparent, String service, String name, Span previous) {
+        if (traceparent != null && traceparent.length() == 55 && traceparent.charAt(2) == '-'
+                && traceparent.charAt(35) == '-' && traceparent.charAt(52) == '-') {
+            return new Span(traceparent.substring(3, 35), traceparent.substring(36, 52), service, name, previous);
+        }
+        return new Span(randomHex(2), null, service, name, previous);
+    }
+
+    /**
+     * Дочерний участок в том же потоке (этот участок становится для него предыдущим)
+     */
+    public Span child(String service, String name) {
+        return new Span(traceId, spanId, service, name, this);
+    }
+
+    /**
+     * Заголовок traceparent, в котором этот участок - родитель
+     */
+    public String traceparent() {
+        return "00-" + traceId + '-' + spanId + "-01";
+    }
+
+    public synchronized Span tag(String key, Object value) {
+        tags.put(key, String.valueOf(value));
+        return this;
+    }
+
+    public synchronized Map<String, String> getTags() {
+        return new LinkedHashMap<>(tags);
+    }
+
+    public Span error(Throwable throwable) {
+        error = true;
+        return tag("error", throwable.getClass().getSimpleName() + ": " + throwable.getMessage());
+    }
+
+    /**
+     * Не геттер, чтобы цепочка участков не попадала в JSON
+     */
+    public Span previous() {
+        return previous;
+    }
+
+    public void finish() {
+        durationMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+    }
+
+    private static String randomHex(int longs) {
+        StringBuilder hex = new StringBuilder(longs * 16);
+        for (int i = 0; i < longs; i++) {
+            String part = Long.toHexString(ThreadLocalRandom.current().nextLong());
+            for (int pad = part.length(); pad < 16; pad++) {
+                hex.append('0');
+            }
+            hex.append(part);
+        }
+        return hex.toString();
+    }
+}
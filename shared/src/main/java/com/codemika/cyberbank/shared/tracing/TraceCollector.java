@@ -0,0 +1,102 @@
+package com.codemika.cyberbank.shared.tracing;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Сборщик завершённых участков трассировки внутри сервиса, без внешней системы трассировки.
+ * Последние участки лежат в кольцевом буфере (запись без блокировок) и выдаются через TraceController.
+ * Если задан cyberbank.tracing.file, участки ещё и дописываются в файл (по одному JSON в строке) отдельным потоком.
+ */
+@Slf4j
+@Component
+public class TraceCollector {
+    private final AtomicReferenceArray<Span> ring;
+    private final AtomicLong next = new AtomicLong();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Path file;
+    private final ExecutorService writer;
+
+    public TraceCollector(@Value("${cyberbank.tracing.capacity:10000}") int capacity,
+                          @Value("${cyberbank.tracing.file:}") String file) {
+        this.ring = new AtomicReferenceArray<>(capacity);
+        this.file = file.isEmpty() ? null : Paths.get(file);
+        this.writer = this.file == null ? null : Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "trace-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void record(Span span) {
+        ring.set((int) (next.getAndIncrement() % ring.length()), span);
+        if (writer != null) {
+            writer.execute(() -> write(span));
+        }
+    }
+
+    /**
+     * @param traceId id трассировки
+     * @return все её участки, которые ещё есть в буфере, по времени начала
+     */
+    public List<Span> find(String traceId) {
+        List<Span> spans = new ArrayList<>();
+        for (int i = 0; i < ring.length(); i++) {
+            Span span = ring.get(i);
+            if (span != null && span.getTraceId().equals(traceId)) {
+                spans.add(span);
+            }
+        }
+        spans.sort((a, b) -> Long.compare(a.getStartEpochMicros(), b.getStartEpochMicros()));
+        return spans;
+    }
+
+    /**
+     * @param limit сколько участков вернуть
+     * @return последние участки, самые новые первыми
+     */
+    public List<Span> recent(int limit) {
+        List<Span> spans = new ArrayList<>(limit);
+        long last = next.get() - 1;
+        for (long i = last; i >= 0 && i > last - ring.length() && spans.size() < limit; i--) {
+            Span span = ring.get((int) (i % ring.length()));
+            if (span != null) {
+                spans.add(span);
+            }
+        }
+        return spans.isEmpty() ? Collections.emptyList() : spans;
+    }
+
+    private void write(Span span) {
+        try {
+            Files.write(file, (objectMapper.writeValueAsString(span) + "\n").getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            log.error("Не удалось записать трассировку в " + file + ": " + e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (writer != null) {
+            writer.shutdown();
+        }
+    }
+}
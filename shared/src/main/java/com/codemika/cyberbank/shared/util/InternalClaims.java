@@ -0,0 +1,105 @@
+package com.codemika.cyberbank.shared.util;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.impl.DefaultClaims;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.Date;
+
+/**
+ * Внутренний заголовок с уже проверенными на шлюзе claims токена.
+ * Шлюз проверяет JWT один раз и передаёт сервисам только нужные им поля (id, маска и эпоха ролей, jti, iat, exp, тип)
+ * в виде "id;rm;re;jti;iat;exp;typ.подпись". Подпись - HMAC-SHA256 внутренним ключом по полям и самому токену,
+ * поэтому заголовок нельзя подделать или приклеить к чужому токену. Проверка заголовка в сервисе - одна HMAC
+ * без разбора JSON и base64, в отличие от полного разбора JWT.
+ */
+public class InternalClaims {
+    public static final String HEADER = "X-Internal-Claims";
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private InternalClaims() {
+    }
+
+    /**
+     * Сборка заголовка
+     *
+     * @param claims   проверенные claims токена
+     * @param roleMask битовая маска ролей (у старых токенов собирается из флагов)
+     * @param token    сам токен
+     * @param key      внутренний ключ
+     * @return значение заголовка
+     */
+    public static String encode(Claims claims, int roleMask, String token, byte[] key) {
+        StringBuilder fields = new StringBuilder(96)
+                .append(valueOf(claims.get("id"))).append(';')
+                .append(roleMask).append(';')
+                .append(valueOf(claims.get("re"))).append(';')
+                .append(valueOf(claims.getId())).append(';')
+                .append(claims.getIssuedAt() == null ? "" : claims.getIssuedAt().getTime()).append(';')
+                .append(claims.getExpiration() == null ? "" : claims.getExpiration().getTime()).append(';')
+                .append(valueOf(claims.get("typ")));
+        return fields + "." + sign(fields.toString(), token, key);
+    }
+
+    /**
+     * Проверка и разбор заголовка
+     *
+     * @param header значение заголовка
+     * @param token  токен из запроса
+     * @param key    внутренний ключ
+     * @return claims или null, если заголовок неверный, от другого токена или токен истёк
+     */
+    public static Claims decode(String header, String token, byte[] key) {
+        int dot = header.lastIndexOf('.');
+        if (dot < 0) return null;
+        String fields = header.substring(0, dot);
+        byte[] expected = sign(fields, token, key).getBytes(StandardCharsets.US_ASCII);
+        byte[] actual = header.substring(dot + 1).getBytes(StandardCharsets.US_ASCII);
+        if (!MessageDigest.isEqual(expected, actual)) return null;
+
+        String[] parts = fields.split(";", -1);
+        if (parts.length != 7) return null;
+        Claims claims = new DefaultClaims();
+        if (!parts[5].isEmpty()) {
+            long exp = Long.parseLong(parts[5]);
+            if (exp <= System.currentTimeMillis()) return null;
+            claims.setExpiration(new Date(exp));
+        }
+        if (!parts[0].isEmpty()) claims.put("id", Long.parseLong(parts[0]));
+        claims.put("rm", Integer.parseInt(parts[1]));
+        if (!parts[2].isEmpty()) claims.put("re", Integer.parseInt(parts[2]));
+        if (!parts[3].isEmpty()) claims.setId(parts[3]);
+        if (!parts[4].isEmpty()) claims.setIssuedAt(new Date(Long.parseLong(parts[4])));
+        if (!parts[6].isEmpty()) claims.put("typ", parts[6]);
+        return claims;
+    }
+
+    /**
+     * Токен в том виде, в каком его разбирает JwtUtil.getClaims (без кавычек и пробелов по краям)
+     */
+    public static String normalize(String token) {
+        return token.replace("\"", "").trim();
+    }
+
+    private static String sign(String fields, String token, byte[] key) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(new SecretKeySpec(key, ALGORITHM));
+            mac.update(fields.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) '\n');
+            mac.update(token.getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(mac.doFinal());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String valueOf(Object value) {
+        return value == null ? "" : value.toString();
+    }
+}
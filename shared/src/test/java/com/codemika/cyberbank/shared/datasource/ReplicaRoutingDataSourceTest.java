@@ -0,0 +1,173 @@
+package com.codemika.cyberbank.shared.datasource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.http.HttpHeaders;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static com.codemika.cyberbank.shared.datasource.ReplicaRoutingDataSource.PRIMARY;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class ReplicaRoutingDataSourceTest {
+    private ReplicaRoutingDataSource routing;
+
+    @BeforeEach
+    void createRouting() {
+        routing = new ReplicaRoutingDataSource(mock(DataSource.class),
+                Arrays.asList(mock(DataSource.class), mock(DataSource.class)), 1000, 0, new ReadYourWrites(60000));
+        routing.recordLag(0, 0);
+        routing.recordLag(1, 0);
+    }
+
+    @AfterEach
+    void reset() throws Exception {
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(false);
+        TransactionSynchronizationManager.setActualTransactionActive(false);
+        RequestContextHolder.resetRequestAttributes();
+        routing.close();
+    }
+
+    @Test
+    void readOnlyTransactionsAreSpreadOverReplicas() {
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+
+        Set<Object> keys = new HashSet<>();
+        for (int i = 0; i < 4; i++) {
+            keys.add(routing.determineCurrentLookupKey());
+        }
+
+        assertEquals(new HashSet<>(Arrays.asList("replica-0", "replica-1")), keys);
+    }
+
+    @Test
+    void writesAndNonTransactionalWorkGoToPrimary() {
+        assertEquals(PRIMARY, routing.determineCurrentLookupKey());
+
+        TransactionSynchronizationManager.setActualTransactionActive(true);
+        assertEquals(PRIMARY, routing.determineCurrentLookupKey());
+    }
+
+    @Test
+    void laggingReplicaIsSkippedUntilItCatchesUp() {
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+
+        routing.recordLag(0, 5000);
+        for (int i = 0; i < 4; i++) {
+            assertEquals("replica-1", routing.determineCurrentLookupKey());
+        }
+
+        routing.recordLag(1, Long.MAX_VALUE);
+        assertEquals(PRIMARY, routing.determineCurrentLookupKey());
+
+        routing.recordLag(0, 10);
+        assertEquals("replica-0", routing.determineCurrentLookupKey());
+    }
+
+    @Test
+    void readsAfterWriteGoToPrimaryForSameToken() {
+        MockHttpServletRequest writeRequest = new MockHttpServletRequest();
+        writeRequest.addHeader(HttpHeaders.AUTHORIZATION, "token-a");
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(writeRequest));
+        TransactionSynchronizationManager.setActualTransactionActive(true);
+        routing.determineCurrentLookupKey();
+
+        // чтение в том же запросе
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+        assertEquals(PRIMARY, routing.determineCurrentLookupKey());
+
+        // следующий запрос с тем же токеном
+        MockHttpServletRequest sameToken = new MockHttpServletRequest();
+        sameToken.addHeader(HttpHeaders.AUTHORIZATION, "token-a");
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(sameToken));
+        assertEquals(PRIMARY, routing.determineCurrentLookupKey());
+
+        // чужой токен читает из реплики
+        MockHttpServletRequest otherToken = new MockHttpServletRequest();
+        otherToken.addHeader(HttpHeaders.AUTHORIZATION, "token-b");
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(otherToken));
+        assertNotEquals(PRIMARY, routing.determineCurrentLookupKey());
+    }
+
+    @Test
+    void forcePrimaryOverridesReplicas() {
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+
+        ReadYourWrites.forcePrimary();
+
+        assertEquals(PRIMARY, routing.determineCurrentLookupKey());
+    }
+
+    @Test
+    void readThenWriteInOneRequestUsesBothDatabases() throws Exception {
+        Connection primaryConnection = connection();
+        Connection replicaConnection = connection();
+        DataSource primary = mock(DataSource.class);
+        DataSource replica = mock(DataSource.class);
+        when(primary.getConnection()).thenReturn(primaryConnection);
+        when(replica.getConnection()).thenReturn(replicaConnection);
+        try (ReplicaRoutingDataSource twoDatabases = new ReplicaRoutingDataSource(
+                primary, Collections.singletonList(replica), 1000, 0, new ReadYourWrites(0))) {
+            twoDatabases.recordLag(0, 0);
+            DataSource dataSource = new LazyConnectionDataSourceProxy(twoDatabases);
+            JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+            TransactionTemplate write = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+            TransactionTemplate read = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+            read.setReadOnly(true);
+            String select = "SELECT id FROM cyberbank_auth.\"user\" WHERE id = ?";
+            String delete = "DELETE FROM cyberbank_auth.\"user\" WHERE id = ?";
+
+            // один запрос: найти пользователя, удалить его и ещё раз прочитать
+            RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+            read.executeWithoutResult(status -> jdbcTemplate.query(select, rs -> { }, 5L));
+            write.executeWithoutResult(status -> jdbcTemplate.update(delete, 5L));
+            read.executeWithoutResult(status -> jdbcTemplate.query(select, rs -> { }, 5L));
+
+            verify(replicaConnection).prepareStatement(select);
+            verify(replicaConnection, never()).prepareStatement(delete);
+            verify(primaryConnection).prepareStatement(delete);
+            verify(primaryConnection).prepareStatement(select);
+        }
+    }
+
+    @Test
+    void replicasRequireOpenInViewOff() {
+        DataSourceConfig config = new DataSourceConfig();
+
+        assertThrows(IllegalStateException.class, () -> config.routingDataSource(mock(HikariDataSource.class),
+                new DataSourceProperties(), "jdbc:postgresql://replica/db", 1, 1000, 0, 1000, true));
+    }
+
+    /**
+     * Соединение, на котором выполняется любой запрос (пустой результат)
+     */
+    private static Connection connection() throws Exception {
+        ResultSet resultSet = mock(ResultSet.class);
+        PreparedStatement statement = mock(PreparedStatement.class);
+        when(statement.executeQuery()).thenReturn(resultSet);
+        Connection connection = mock(Connection.class);
+        when(connection.prepareStatement(anyString())).thenReturn(statement);
+        return connection;
+    }
+}
@@ -0,0 +1,102 @@
+package com.codemika.cyberbank.shared.loadbalancer;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PeakEwmaLoadBalancerTest {
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final InstanceStatistics statistics = new InstanceStatistics(10000, 50, 3, 2000, 30000, 300000);
+    private final PeakEwmaLoadBalancer balancer = new PeakEwmaLoadBalancer(null, statistics);
+    private final ServiceInstance fast = instance(8081);
+    private final ServiceInstance slow = instance(8083);
+    private final List<ServiceInstance> instances = Arrays.asList(fast, slow);
+
+    @Test
+    void slowInstanceStopsGettingTraffic() {
+        long now = System.nanoTime();
+        complete(fast, 5 * MS, false, now);
+        complete(slow, 900 * MS, false, now);
+
+        for (int i = 0; i < 100; i++) {
+            assertSame(fast, balancer.choose(instances, now).getServer());
+        }
+    }
+
+    @Test
+    void peakDecaysSoRecoveredInstanceIsProbedAgain() {
+        long now = System.nanoTime();
+        complete(slow, 900 * MS, false, now);
+        double peak = statistics.get(slow).cost(now);
+
+        assertTrue(statistics.get(slow).cost(now + TimeUnit.SECONDS.toNanos(30)) < peak / 10);
+    }
+
+    @Test
+    void outstandingRequestsRaiseCost() {
+        long now = System.nanoTime();
+        complete(fast, 10 * MS, false, now);
+        complete(slow, 10 * MS, false, now);
+        for (int i = 0; i < 5; i++) {
+            statistics.get(fast).start();
+        }
+
+        assertSame(slow, balancer.choose(instances, now).getServer());
+    }
+
+    @Test
+    void longRunningRequestsAreNotSlowCalls() {
+        long now = System.nanoTime();
+        complete(slow, 5 * MS, false, now);
+        for (int i = 0; i < 5; i++) {
+            // выгрузка пользователей на несколько минут
+            statistics.get(slow).start();
+            statistics.get(slow).completeUntimed(false, now);
+        }
+
+        assertFalse(statistics.get(slow).isEjected(now));
+        assertEquals(5 * MS, statistics.get(slow).getEwmaNanos(), 1);
+    }
+
+    @Test
+    void consecutiveFailuresEjectUntilTimeout() {
+        long now = System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            complete(slow, MS, true, now);
+        }
+
+        assertTrue(statistics.get(slow).isEjected(now));
+        for (int i = 0; i < 100; i++) {
+            assertSame(fast, balancer.choose(instances, now).getServer());
+        }
+        assertFalse(statistics.get(slow).isEjected(now + TimeUnit.SECONDS.toNanos(31)));
+    }
+
+    @Test
+    void allEjectedFallsBackToAllInstances() {
+        long now = System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            complete(fast, MS, true, now);
+            complete(slow, MS, true, now);
+        }
+
+        assertNotNull(balancer.choose(instances, now).getServer());
+    }
+
+    private void complete(ServiceInstance instance, long latencyNanos, boolean failed, long now) {
+        InstanceStatistics.Stats stats = statistics.get(instance);
+        stats.start();
+        stats.complete(latencyNanos, failed, now);
+    }
+
+    private static ServiceInstance instance(int port) {
+        return new DefaultServiceInstance("authentication-" + port, "authentication", "localhost", port, false);
+    }
+}